@@ -1805,6 +1805,8 @@ public class Main implements DriverInterface, ComponentChangeListener {
 
    protected static BooleanHolder abortOnInvertedElems =
       new BooleanHolder (false);
+   protected static BooleanHolder decoupledRendering =
+      new BooleanHolder (false);
    protected static BooleanHolder disableHybridSolves =
       new BooleanHolder (false);
    protected static IntHolder numSolverThreads =
@@ -2028,6 +2030,9 @@ public class Main implements DriverInterface, ComponentChangeListener {
       parser.addOption (
          "-abortOnInvertedElems %v #abort on nonlinear element inversion",
          abortOnInvertedElems);
+      parser.addOption (
+         "-decoupledRendering %v #don't block simulation on viewer updates",
+         decoupledRendering);
       parser.addOption (
          "-disableHybridSolves %v #disable hybrid linear solves",
          disableHybridSolves);
@@ -2221,6 +2226,7 @@ public class Main implements DriverInterface, ComponentChangeListener {
       }
       
       FemModel3d.abortOnInvertedElems = abortOnInvertedElems.value;
+      Workspace.setDecoupledRendering (decoupledRendering.value);
       //      if (posCorrection.value.equals ("Default")) {
       //         MechSystemBase.setDefaultStabilization (PosStabilization.Default);
       //      }
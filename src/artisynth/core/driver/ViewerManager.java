@@ -28,6 +28,7 @@ import maspack.matrix.RotationMatrix3d;
 import maspack.render.Dragger3d;
 import maspack.render.IsRenderable;
 import maspack.render.RenderList;
+import maspack.render.RenderSnapshot;
 import maspack.render.Renderer;
 import maspack.render.Renderer.HighlightStyle;
 import maspack.render.GL.GLViewer;
@@ -378,7 +379,14 @@ public class ViewerManager {
       }
    }
 
-   RenderList buildRenderList() {
+   /**
+    * Builds a new render list for the current root model. This calls the
+    * {@code prerender} methods of all the renderables, and so should be
+    * called only while the model is not being advanced.
+    *
+    * @return new render list
+    */
+   public RenderList buildRenderList() {
       RenderList list = new RenderList();
       list.addIfVisibleAll (myRenderables);
       RootModel root = Main.getMain().getRootModel();
@@ -393,9 +401,38 @@ public class ViewerManager {
 
    public void render() {
       // System.out.println("vm_render");
-      myRenderList = buildRenderList();
+      render (buildRenderList());
+   }
+
+   /**
+    * Sets the render list used by all the viewers and rerenders them.
+    *
+    * @param list render list previously created by {@link #buildRenderList}
+    */
+   public void render (RenderList list) {
+      myRenderList = list;
+      for (GLViewer v : myViewers) {
+         v.setExternalRenderList (myRenderList);
+         v.setRenderSnapshot (null);
+         v.rerender();
+      }
+   }
+
+   /**
+    * Sets the render list used by all the viewers from a render snapshot,
+    * and rerenders them. The viewers hold the snapshot's draw lock while
+    * drawing, so that the list's renderables are not prerendered at the
+    * same time. The snapshot must not be recaptured until it has been
+    * replaced by a subsequent call to this method.
+    *
+    * @param snap snapshot containing a render list previously created by
+    * {@link #buildRenderList}
+    */
+   public void render (RenderSnapshot snap) {
+      myRenderList = snap.getRenderList();
       for (GLViewer v : myViewers) {
          v.setExternalRenderList (myRenderList);
+         v.setRenderSnapshot (snap);
          v.rerender();
       }
    }
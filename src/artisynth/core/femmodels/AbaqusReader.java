@@ -12,10 +12,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.BitSet;
 
-import maspack.matrix.Point3d;
-import maspack.util.ReaderTokenizer;
+import maspack.util.DynamicDoubleArray;
+import maspack.util.DynamicIntArray;
+import artisynth.core.util.NumericLineParser;
 
 /**
  * Abaqus File reader, only supports the NODE, ELEMENT and INCLUDE keywords
@@ -188,51 +189,58 @@ public class AbaqusReader implements FemReader {
       cwTetWarningGiven=false; 
       nodeIdWarningGiven=false;
       
-      LinkedHashMap<Integer, Point3d> nodeMap = 
-         new LinkedHashMap<Integer, Point3d>();
-      LinkedHashMap<Integer, Integer> nodeIdMap = 
-         new LinkedHashMap<Integer, Integer> ();
-      LinkedHashMap<Integer, ArrayList<Integer>> elemMap = 
-         new LinkedHashMap<Integer, ArrayList<Integer>>();
-      
-      readFile (fileReader, nodeMap, elemMap, includeDirs);
-      
-      for (int nodeId : nodeMap.keySet ()) {
-         Point3d pos = nodeMap.get (nodeId);
-         
-         FemNode3d node = new FemNode3d (pos);
-         model.addNumberedNode (node, nodeId);
-         
-         // Store new node ID to match with element node IDs
-         nodeIdMap.put (nodeId, node.getNumber ());
+      MeshData data = new MeshData();
+      readFile (fileReader, data, includeDirs);
+      
+      // nodes and elements are added to the model in single batches, with
+      // the node and element IDs used as their numbers
+      int numNodes = data.myNodeIds.size();
+      FemNode3d[] nodes = new FemNode3d[numNodes];
+      for (int i=0; i<numNodes; i++) {
+         nodes[i] = new FemNode3d (
+            data.myCoords.get (3*i), data.myCoords.get (3*i+1), 
+            data.myCoords.get (3*i+2));
       }
+      model.addNumberedNodes (nodes, data.myNodeIds.getArray(), numNodes);
          
       ArrayList<HexElement> hexElems = new ArrayList<HexElement> ();
+      ArrayList<FemElement3d> elems = new ArrayList<FemElement3d>();
+      DynamicIntArray elemIds = new DynamicIntArray();
       
-      for (int elemId : elemMap.keySet ()) {
-         ArrayList<Integer> nodeList = elemMap.get (elemId);
+      for (int k=0; k<data.myElemIds.size(); k++) {
+         int elemId = data.myElemIds.get (k);
+         int[] nodeList = data.myElemNodeIds.get (k);
          
-         switch (nodeList.size ()) {
+         FemElement3d e = null;
+         switch (nodeList.length) {
             case 4:
-               createTet (model, nodeList, elemId);
+               e = createTet (model, nodeList);
                break;
             case 6:
-               createWedge (model, nodeList, elemId);
+               e = createWedge (model, nodeList);
                break;
             case 8:
-               hexElems.add (createHex (model, nodeList, elemId));
+               HexElement hex = createHex (model, nodeList);
+               hexElems.add (hex);
+               e = hex;
                break;
             case 10:
-               createQuadTet (model, nodeList, elemId);
+               e = createQuadTet (model, nodeList);
                break;
             case 20:
-               createQuadHex (model, nodeList, elemId);
+               e = createQuadHex (model, nodeList);
                break;
             default:
                System.out.println ("Ignoring unknown element type with " +
-                  nodeList.size() + "number of nodes");
+                  nodeList.length + "number of nodes");
+         }
+         if (e != null) {
+            elems.add (e);
+            elemIds.add (elemId);
          }
       }
+      model.addNumberedElements (
+         elems.toArray (new FemElement3d[0]), elemIds.getArray(), elems.size());
       
       // TODO implement for quadhex elements
       HexElement.setParities (hexElems);
@@ -241,13 +249,12 @@ public class AbaqusReader implements FemReader {
       
    }
    
-   private static void createTet (FemModel3d model, 
-      ArrayList<Integer> nodeIds, int elemId) {
+   private static TetElement createTet (FemModel3d model, int[] nodeIds) {
       
-      FemNode3d n0 = model.getByNumber (nodeIds.get (0));
-      FemNode3d n1 = model.getByNumber (nodeIds.get (1));
-      FemNode3d n2 = model.getByNumber (nodeIds.get (2));
-      FemNode3d n3 = model.getByNumber (nodeIds.get (3));
+      FemNode3d n0 = model.getByNumber (nodeIds[0]);
+      FemNode3d n1 = model.getByNumber (nodeIds[1]);
+      FemNode3d n2 = model.getByNumber (nodeIds[2]);
+      FemNode3d n3 = model.getByNumber (nodeIds[3]);
       
       TetElement e;
 
@@ -263,22 +270,21 @@ public class AbaqusReader implements FemReader {
          }
       }
       
-      model.addNumberedElement (e, elemId);
+      return e;
    }
    
-   private static void createQuadTet (FemModel3d model, 
-      ArrayList<Integer> nodeIds, int elemId) {
-      
-      FemNode3d n0 = model.getByNumber (nodeIds.get (0));
-      FemNode3d n1 = model.getByNumber (nodeIds.get (1));
-      FemNode3d n2 = model.getByNumber (nodeIds.get (2));
-      FemNode3d n3 = model.getByNumber (nodeIds.get (3));
-      FemNode3d n4 = model.getByNumber (nodeIds.get (4));
-      FemNode3d n5 = model.getByNumber (nodeIds.get (5));
-      FemNode3d n6 = model.getByNumber (nodeIds.get (6));
-      FemNode3d n7 = model.getByNumber (nodeIds.get (7));
-      FemNode3d n8 = model.getByNumber (nodeIds.get (8));
-      FemNode3d n9 = model.getByNumber (nodeIds.get (9));
+   private static QuadtetElement createQuadTet (FemModel3d model, int[] nodeIds) {
+      
+      FemNode3d n0 = model.getByNumber (nodeIds[0]);
+      FemNode3d n1 = model.getByNumber (nodeIds[1]);
+      FemNode3d n2 = model.getByNumber (nodeIds[2]);
+      FemNode3d n3 = model.getByNumber (nodeIds[3]);
+      FemNode3d n4 = model.getByNumber (nodeIds[4]);
+      FemNode3d n5 = model.getByNumber (nodeIds[5]);
+      FemNode3d n6 = model.getByNumber (nodeIds[6]);
+      FemNode3d n7 = model.getByNumber (nodeIds[7]);
+      FemNode3d n8 = model.getByNumber (nodeIds[8]);
+      FemNode3d n9 = model.getByNumber (nodeIds[9]);
       
       QuadtetElement e;
       
@@ -296,20 +302,19 @@ public class AbaqusReader implements FemReader {
          }
       }
       
-      model.addNumberedElement (e, elemId);
+      return e;
    }
    
-   private static HexElement createHex (FemModel3d model, 
-      ArrayList<Integer> nodeIds, int elemId) {
+   private static HexElement createHex (FemModel3d model, int[] nodeIds) {
 
-      FemNode3d n0 = model.getByNumber (nodeIds.get (0));
-      FemNode3d n1 = model.getByNumber (nodeIds.get (1));
-      FemNode3d n2 = model.getByNumber (nodeIds.get (2));
-      FemNode3d n3 = model.getByNumber (nodeIds.get (3));
-      FemNode3d n4 = model.getByNumber (nodeIds.get (4));
-      FemNode3d n5 = model.getByNumber (nodeIds.get (5));
-      FemNode3d n6 = model.getByNumber (nodeIds.get (6));
-      FemNode3d n7 = model.getByNumber (nodeIds.get (7));
+      FemNode3d n0 = model.getByNumber (nodeIds[0]);
+      FemNode3d n1 = model.getByNumber (nodeIds[1]);
+      FemNode3d n2 = model.getByNumber (nodeIds[2]);
+      FemNode3d n3 = model.getByNumber (nodeIds[3]);
+      FemNode3d n4 = model.getByNumber (nodeIds[4]);
+      FemNode3d n5 = model.getByNumber (nodeIds[5]);
+      FemNode3d n6 = model.getByNumber (nodeIds[6]);
+      FemNode3d n7 = model.getByNumber (nodeIds[7]);
       
       HexElement e;
       
@@ -329,38 +334,31 @@ public class AbaqusReader implements FemReader {
          }
       }
       
-      try {
-         model.addNumberedElement (e, elemId);
-      } catch (Exception err) {
-         System.out.println("element " + elemId + " caused a problem");
-      }
-      
       return e;
    }
    
-   private static void createQuadHex (FemModel3d model, 
-      ArrayList<Integer> nodeIds, int elemId) {
+   private static QuadhexElement createQuadHex (FemModel3d model, int[] nodeIds) {
 
-      FemNode3d n0 = model.getByNumber (nodeIds.get (0));
-      FemNode3d n1 = model.getByNumber (nodeIds.get (1));
-      FemNode3d n2 = model.getByNumber (nodeIds.get (2));
-      FemNode3d n3 = model.getByNumber (nodeIds.get (3));
-      FemNode3d n4 = model.getByNumber (nodeIds.get (4));
-      FemNode3d n5 = model.getByNumber (nodeIds.get (5));
-      FemNode3d n6 = model.getByNumber (nodeIds.get (6));
-      FemNode3d n7 = model.getByNumber (nodeIds.get (7));
-      FemNode3d n8 = model.getByNumber (nodeIds.get (8));
-      FemNode3d n9 = model.getByNumber (nodeIds.get (9));
-      FemNode3d n10 = model.getByNumber (nodeIds.get (10));
-      FemNode3d n11 = model.getByNumber (nodeIds.get (11));
-      FemNode3d n12 = model.getByNumber (nodeIds.get (12));
-      FemNode3d n13 = model.getByNumber (nodeIds.get (13));
-      FemNode3d n14 = model.getByNumber (nodeIds.get (14));
-      FemNode3d n15 = model.getByNumber (nodeIds.get (15));
-      FemNode3d n16 = model.getByNumber (nodeIds.get (16));
-      FemNode3d n17 = model.getByNumber (nodeIds.get (17));
-      FemNode3d n18 = model.getByNumber (nodeIds.get (18));
-      FemNode3d n19 = model.getByNumber (nodeIds.get (19));
+      FemNode3d n0 = model.getByNumber (nodeIds[0]);
+      FemNode3d n1 = model.getByNumber (nodeIds[1]);
+      FemNode3d n2 = model.getByNumber (nodeIds[2]);
+      FemNode3d n3 = model.getByNumber (nodeIds[3]);
+      FemNode3d n4 = model.getByNumber (nodeIds[4]);
+      FemNode3d n5 = model.getByNumber (nodeIds[5]);
+      FemNode3d n6 = model.getByNumber (nodeIds[6]);
+      FemNode3d n7 = model.getByNumber (nodeIds[7]);
+      FemNode3d n8 = model.getByNumber (nodeIds[8]);
+      FemNode3d n9 = model.getByNumber (nodeIds[9]);
+      FemNode3d n10 = model.getByNumber (nodeIds[10]);
+      FemNode3d n11 = model.getByNumber (nodeIds[11]);
+      FemNode3d n12 = model.getByNumber (nodeIds[12]);
+      FemNode3d n13 = model.getByNumber (nodeIds[13]);
+      FemNode3d n14 = model.getByNumber (nodeIds[14]);
+      FemNode3d n15 = model.getByNumber (nodeIds[15]);
+      FemNode3d n16 = model.getByNumber (nodeIds[16]);
+      FemNode3d n17 = model.getByNumber (nodeIds[17]);
+      FemNode3d n18 = model.getByNumber (nodeIds[18]);
+      FemNode3d n19 = model.getByNumber (nodeIds[19]);
       
       QuadhexElement e;
       
@@ -384,18 +382,17 @@ public class AbaqusReader implements FemReader {
          }
       }  
       
-      model.addNumberedElement (e, elemId);
+      return e;
    }
 
-   private static void createWedge (FemModel3d model, 
-      ArrayList<Integer> nodeIds, int elemId) {
-      
-      FemNode3d n0 = model.getByNumber (nodeIds.get (0));
-      FemNode3d n1 = model.getByNumber (nodeIds.get (1));
-      FemNode3d n2 = model.getByNumber (nodeIds.get (2));
-      FemNode3d n3 = model.getByNumber (nodeIds.get (3));
-      FemNode3d n4 = model.getByNumber (nodeIds.get (4));
-      FemNode3d n5 = model.getByNumber (nodeIds.get (5));
+   private static WedgeElement createWedge (FemModel3d model, int[] nodeIds) {
+      
+      FemNode3d n0 = model.getByNumber (nodeIds[0]);
+      FemNode3d n1 = model.getByNumber (nodeIds[1]);
+      FemNode3d n2 = model.getByNumber (nodeIds[2]);
+      FemNode3d n3 = model.getByNumber (nodeIds[3]);
+      FemNode3d n4 = model.getByNumber (nodeIds[4]);
+      FemNode3d n5 = model.getByNumber (nodeIds[5]);
 
       WedgeElement e = new WedgeElement (n0, n1, n2, n3, n4, n5);
 
@@ -412,114 +409,178 @@ public class AbaqusReader implements FemReader {
          }
       }
       
-      model.addNumberedElement (e, elemId);
+      return e;
    }
    
    
-   private static void readFile(Reader reader, LinkedHashMap<Integer, Point3d> nodeMap,
-      LinkedHashMap<Integer, ArrayList<Integer>> elemMap, File [] includeDirs) throws IOException {
-      
-      ReaderTokenizer rtok =
-         new ReaderTokenizer (new BufferedReader (reader));
-      rtok.eolIsSignificant (true);
-      rtok.wordChar('*');
-      rtok.whitespaceChar(',');  //ignore commas
+   /**
+    * Node and element data read from an Abaqus file and its include files.
+    * The coordinates of node <code>i</code> are stored in
+    * <code>myCoords</code> starting at <code>3*i</code>.
+    */
+   private static class MeshData {
+      DynamicIntArray myNodeIds = new DynamicIntArray();
+      DynamicDoubleArray myCoords = new DynamicDoubleArray();
+      BitSet myDefinedNodeIds = new BitSet();
+      DynamicIntArray myElemIds = new DynamicIntArray();
+      ArrayList<int[]> myElemNodeIds = new ArrayList<int[]>();
+      BitSet myDefinedElemIds = new BitSet();
+
+      void addNode (int nodeId, double x, double y, double z) {
+         int idx = myNodeIds.size();
+         if (nodeId >= 0 && myDefinedNodeIds.get (nodeId)) {
+            // repeated node ID: new coordinates replace the old ones
+            idx = findLast (myNodeIds, nodeId);
+            myCoords.set (3*idx, x);
+            myCoords.set (3*idx+1, y);
+            myCoords.set (3*idx+2, z);
+         }
+         else {
+            if (nodeId >= 0) {
+               myDefinedNodeIds.set (nodeId);
+            }
+            myNodeIds.add (nodeId);
+            myCoords.add (x);
+            myCoords.add (y);
+            myCoords.add (z);
+         }
+      }
+
+      void addElement (int elemId, int[] nodeIds) {
+         if (elemId >= 0 && myDefinedElemIds.get (elemId)) {
+            // repeated element ID: new nodes replace the old ones
+            myElemNodeIds.set (findLast (myElemIds, elemId), nodeIds);
+         }
+         else {
+            if (elemId >= 0) {
+               myDefinedElemIds.set (elemId);
+            }
+            myElemIds.add (elemId);
+            myElemNodeIds.add (nodeIds);
+         }
+      }
+
+      private int findLast (DynamicIntArray ids, int id) {
+         int idx = ids.size()-1;
+         while (ids.get (idx) != id) {
+            idx--;
+         }
+         return idx;
+      }
+   }
+   
+   private static void readFile(Reader reader, MeshData data, File [] includeDirs)
+      throws IOException {
+      
+      // numeric data is parsed in parallel; keyword lines are then
+      // identified and handled from their text
+      NumericLineParser parser = new NumericLineParser();
+      parser.setCommentPrefix (COMMENT);
+      parser.setSeparatorChars (",");  //ignore commas
+      parser.parse (reader);
+      double[] vals = parser.getValues();
 
       FileSection mySection = FileSection.OTHER;
       ElemType myElemType = ElemType.UNKNOWN;
       
-      int nodeId = 0;
-      int elemId = 0;
-      
-      while (rtok.nextToken () != ReaderTokenizer.TT_EOF) {
+      for (int i=0; i<parser.numLines(); i++) {
          
-         // determine type
-         if (rtok.ttype == ReaderTokenizer.TT_WORD) {
-            if (rtok.sval.startsWith(COMMENT)) {
+         String line = parser.getLineTextIfStartsWith (i, "*");
+         if (line != null) {
+            if (line.startsWith(COMMENT)) {
                // ignore
-            } else if (rtok.sval.charAt(0) == KEYWORD) {
-               // potentially change mode
+               continue;
+            }
+            // potentially change mode
+            String keyword = line.substring(1);
+            int kend = findChar(keyword, ", \t");
+            if (kend >= 0) {
+               keyword = keyword.substring(0, kend);
+            }
+            if (keyword.equalsIgnoreCase("NODE")) {
+               mySection = FileSection.NODE;
+            } else if (keyword.equalsIgnoreCase("ELEMENT")) {
+               mySection = FileSection.ELEM;
                
-               String keyword = rtok.sval.substring(1);
-               if (keyword.equalsIgnoreCase("NODE")) {
-                  mySection = FileSection.NODE;
-               } else if (keyword.equalsIgnoreCase("ELEMENT")) {
-                  mySection = FileSection.ELEM;
-                  
-                  // determine type
-                  String line = readLine(rtok);
-                  String type = parseKey("TYPE=", line);
-                  myElemType = ElemType.UNKNOWN;
-                  for (ElemType et : ElemType.values()) {
-                     if (et.getString().equalsIgnoreCase(type)) {
-                        myElemType = et;
-                        break;
-                     }
-                  }
-                  
-                  if (myElemType == ElemType.UNKNOWN) {
-                     System.err.println("Warning: unknown element type '" + type + "'");
-                  }
-                  
-               } else if (keyword.equalsIgnoreCase("INCLUDE")){
-                  
-                  String line = readLine(rtok);
-                  String fileName = parseKey("INPUT=", line);
-                  
-                  // find file
-                  File input = findFile(fileName, includeDirs);
-                  if (input == null) {
-                     throw new IOException("Cannot find INCLUDE file '" + fileName + "'");
-                  }
-                  
-                  FileReader inputReader = null;
-                  try {
-                     inputReader = new FileReader(input);
-                     readFile(inputReader, nodeMap, elemMap, includeDirs);
-                  } catch (IOException e) {
-                     throw e;
-                  } finally {
-                     if (inputReader != null) {
-                        inputReader.close();
-                     }
+               // determine type
+               String type = parseKey("TYPE=", line);
+               myElemType = ElemType.UNKNOWN;
+               for (ElemType et : ElemType.values()) {
+                  if (et.getString().equalsIgnoreCase(type)) {
+                     myElemType = et;
+                     break;
                   }
-               } else {
-                  mySection = FileSection.OTHER;
-                  System.out.println("Warning: ignoring section '" + keyword + "'");
                }
-            }
-            toEOL(rtok);   // skip to end-of-line
-         } else {
-            rtok.pushBack();
-            
-            // action depends on mode
-            switch (mySection) {
-               case ELEM:
-                  elemId = rtok.scanInteger();
-                  
-                  ArrayList<Integer> nodes = new ArrayList<Integer>();
-                  while (rtok.nextToken() == ReaderTokenizer.TT_NUMBER) {
-                     nodes.add((int)rtok.nval);
+               
+               if (myElemType == ElemType.UNKNOWN) {
+                  System.err.println("Warning: unknown element type '" + type + "'");
+               }
+               
+            } else if (keyword.equalsIgnoreCase("INCLUDE")){
+               
+               String fileName = parseKey("INPUT=", line);
+               
+               // find file
+               File input = findFile(fileName, includeDirs);
+               if (input == null) {
+                  throw new IOException("Cannot find INCLUDE file '" + fileName + "'");
+               }
+               
+               FileReader inputReader = null;
+               try {
+                  inputReader = new FileReader(input);
+                  readFile(inputReader, data, includeDirs);
+               } catch (IOException e) {
+                  throw e;
+               } finally {
+                  if (inputReader != null) {
+                     inputReader.close();
                   }
-                  elemMap.put(elemId, nodes);
-                  toEOL(rtok);
-                  break;
-               case NODE:
-                  nodeId = rtok.scanInteger();
-                  double x = rtok.scanNumber();
-                  double y = rtok.scanNumber();
-                  double z = rtok.scanNumber();
-                  nodeMap.put(nodeId, new Point3d(x,y,z));
-                  toEOL(rtok);
-                  break;
-               case OTHER:
-                  toEOL(rtok);
+               }
+            } else {
+               mySection = FileSection.OTHER;
+               System.out.println("Warning: ignoring section '" + keyword + "'");
             }
-            
+            continue;
          }
          
+         int nvals = parser.numValues(i);
+         if (nvals == 0) {
+            continue;
+         }
+         int off = parser.getValueOffset(i);
+         
+         // action depends on mode
+         switch (mySection) {
+            case ELEM: {
+               int elemId = toInteger(vals[off], i);
+               int[] nodes = new int[nvals-1];
+               for (int k=0; k<nodes.length; k++) {
+                  nodes[k] = (int)vals[off+1+k];
+               }
+               data.addElement(elemId, nodes);
+               break;
+            }
+            case NODE: {
+               if (nvals < 4) {
+                  throw new IOException(
+                     "Expecting node ID and coordinates, line " + (i+1));
+               }
+               int nodeId = toInteger(vals[off], i);
+               data.addNode(nodeId, vals[off+1], vals[off+2], vals[off+3]);
+               break;
+            }
+            case OTHER:
+               break;
+         }
       }
-      
+   }
+
+   private static int toInteger(double val, int line) throws IOException {
+      if (val != (int)val) {
+         throw new IOException("Expecting integer ID, line " + (line+1));
+      }
+      return (int)val;
    }
    
    private static File findFile(String fileName, File[] dirs) {
@@ -542,40 +603,6 @@ public class AbaqusReader implements FemReader {
       
    }
    
-   private static void toEOL(ReaderTokenizer rtok) throws IOException {
-      while (rtok.ttype != ReaderTokenizer.TT_EOL &&  
-         rtok.ttype != ReaderTokenizer.TT_EOF) {
-         rtok.nextToken();
-      }
-      if (rtok.ttype == ReaderTokenizer.TT_EOF) {
-         rtok.pushBack();
-      }
-   }
-   
-   private static String readLine(ReaderTokenizer rtok) throws IOException {
-
-      Reader rtokReader = rtok.getReader();
-      String line = "";
-      int c;
-      while (true) {
-         c = rtokReader.read();
-
-         if (c < 0) {
-            rtok.ttype = ReaderTokenizer.TT_EOF;
-            return line;
-         }
-         else if (c == '\n') {
-            rtok.setLineno(rtok.lineno() + 1); // increase line number
-            rtok.ttype = ReaderTokenizer.TT_EOL;
-            break;
-         }
-         line += (char)c;
-      }
-
-      return line;
-   }
-   
-   
    private static String parseKey(String keyName, String line) {
       
       String linesmall = line.toLowerCase();
@@ -12,14 +12,19 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.matrix.Point3d;
 import maspack.matrix.Vector3d;
+import maspack.util.DynamicIntArray;
 import maspack.util.ReaderTokenizer;
 import maspack.widgets.WidgetDialog;
+import artisynth.core.util.NumericLineParser;
 
 /**
  * A class to read an FEM described in the ANSYS file format.
@@ -182,87 +187,91 @@ public class AnsysReader implements FemReader {
          model.useAnsysNumbering ();
       }
       
-      LinkedHashMap<Integer, Point3d> nodeMap = readNodeFile (nodeReader, useAnsysNum);
-      LinkedHashMap<Integer, Integer> nodeIdMap = 
-         new LinkedHashMap<Integer, Integer> ();
-      
-      for (int nodeId : nodeMap.keySet ()) {
-         Point3d pos = nodeMap.get (nodeId);
+      // node and element data are parsed into primitive arrays, and the
+      // nodes and elements are then added to the model in single batches
+      NodeData nodeData = readNodeData (nodeReader, useAnsysNum);
+      int numNodes = nodeData.myNum;
+      FemNode3d[] nodes = new FemNode3d[numNodes];
+      double[] coords = nodeData.myCoords;
+      for (int i=0; i<numNodes; i++) {
+         Point3d pos = new Point3d (coords[3*i], coords[3*i+1], coords[3*i+2]);
          if (scale != null) {
             pos.x *= scale.x;
             pos.y *= scale.y;
             pos.z *= scale.z;
          }
-         
-         FemNode3d node = new FemNode3d (pos);
-         model.addNumberedNode (node, nodeId);
-         
-         // Store new node ID to match with element node IDs
-         nodeIdMap.put (nodeId, node.getNumber ());
+         nodes[i] = new FemNode3d (pos);
       }
+      model.addNumberedNodes (nodes, nodeData.myIds, numNodes);
+
+      // map node IDs to node numbers to match with element node IDs
+      NodeIdMap nodeIdMap = new NodeIdMap (nodeData.myIds, nodes, numNodes);
       
-      LinkedHashMap<Integer, ArrayList<Integer>> elemMap =
-         readElemFile (elemReader, useAnsysNum);
+      ElemData elemData = readElemData (elemReader, useAnsysNum);
       ArrayList<HexElement> hexElems = new ArrayList<HexElement> ();
-      
-      boolean flip = false;	
-      if (scale != null) {
-      double scaleProduct = scale.x*scale.y*scale.z;
-      flip = (scaleProduct < 0);         	    
-      }
-      
-      
-      for (int elemId : elemMap.keySet ()) {
-         ArrayList<Integer> elemNumList = elemMap.get (elemId);
-         int[] attrList = new int[5];
-         
-         for (int i = attrList.length - 1 ; i >= 0 ; i--) {
-            attrList[i] = elemNumList.remove (0);
-         }
-         
-         ArrayList<Integer> nodeList = 
-            getValidElemNodes (elemNumList, nodeIdMap, flip);
-         
-         switch (nodeList.size ()) {
+      ArrayList<FemElement3d> elems = new ArrayList<FemElement3d>();
+      DynamicIntArray elemIds = new DynamicIntArray();
+      
+      for (int k=0; k<elemData.size(); k++) {
+         int elemId = elemData.myIds.get (k);
+         int[] attrList = elemData.myAttrs.get (k);
+         int[] nodeIds = elemData.myNodeIds.get (k);
+         int[] nodeList = new int[nodeIds.length];
+         int numValid = getValidElemNodes (nodeIds, nodeIdMap, nodeList);
+
+         FemElement3d e = null;
+         switch (numValid) {
             case 4:
-               createTet (model, nodeList, elemId, attrList);
+               e = createTet (model, nodeList, attrList);
                break;
             case 5:
-               createPyramid (model, nodeList, elemId, attrList);
+               e = createPyramid (model, nodeList, attrList);
                break;
             case 6:
-               createWedge (model, nodeList, elemId, attrList);
+               e = createWedge (model, nodeList, attrList);
                break;
             case 8:
-               hexElems.add (createHex (model, nodeList, elemId, attrList));
+               HexElement hex = createHex (model, nodeList, attrList);
+               hexElems.add (hex);
+               if (!tetrahedralize) {
+                  e = hex;
+               }
                break;
             case 10:
-               createQuadTet (model, nodeList, elemId, attrList);
+               e = createQuadTet (model, nodeList, attrList);
                break;
             case 20:
-               createQuadHex (model, nodeList, elemId, attrList);
+               e = createQuadHex (model, nodeList, attrList);
                break;
             default:
                System.out.println ("Element "+elemId+": unknown type with " +
-                  nodeList.size() + " nodes; ignoring");
+                  numValid + " nodes; ignoring");
+         }
+         if (e != null) {
+            elems.add (e);
+            elemIds.add (elemId);
          }
       }
+      model.addNumberedElements (
+         elems.toArray (new FemElement3d[0]), elemIds.getArray(), elems.size());
       
       // TODO implement for quadhex elements
       HexElement.setParities (hexElems);
 
       if (tetrahedralize) { // replace all hex elements with tets
+         ArrayList<FemElement3d> tetElems = new ArrayList<FemElement3d>();
          for (HexElement hex : hexElems) {
             FemNode3d[] n = hex.getNodes ();
             TetElement[] tets =
                TetElement.createCubeTesselation (
                   n[0], n[1], n[2], n[3], n[4], n[5], n[6], n[7], hex
                      .getParity () == 1);
-            model.removeElement (hex);
+            model.ansysElemProps.remove (hex);
             for (TetElement tet : tets) {
-               model.addElement (tet);
+               tetElems.add (tet);
             }
          }
+         model.addElements (tetElems);
       }
       
       return model;
@@ -331,65 +340,234 @@ public class AnsysReader implements FemReader {
       
       LinkedHashMap<Integer, ArrayList<Integer>> elemPositions = 
          new LinkedHashMap<Integer, ArrayList<Integer>> ();
-      // ReaderTokenizer rtok =
-      //    new ReaderTokenizer (new BufferedReader (elemReader));
-      //rtok.eolIsSignificant (true);
-      
+
+      ElemData elemData = readElemData (elemReader, useAnsysNum);
+      for (int k=0; k<elemData.size(); k++) {
+         int[] attrs = elemData.myAttrs.get (k);
+         int[] nodeIds = elemData.myNodeIds.get (k);
+         ArrayList<Integer> elemNumList =
+            new ArrayList<Integer> (attrs.length+nodeIds.length);
+         // attributes are stored first, in reverse order
+         for (int i = attrs.length-1; i >= 0; i--) {
+            elemNumList.add (attrs[i]);
+         }
+         for (int i = 0; i < nodeIds.length; i++) {
+            elemNumList.add (nodeIds[i]);
+         }
+         elemPositions.put (elemData.myIds.get (k), elemNumList);
+      }
+      return elemPositions;
+   }
+
+   /**
+    * Element data read from an ANSYS element file. For each element, this
+    * contains its ID, its five attribute values, and the IDs of its nodes.
+    */
+   private static class ElemData {
+      DynamicIntArray myIds = new DynamicIntArray();
+      ArrayList<int[]> myAttrs = new ArrayList<int[]>();
+      ArrayList<int[]> myNodeIds = new ArrayList<int[]>();
+
+      int size() {
+         return myIds.size();
+      }
+   }
+
+   /**
+    * Node data read from an ANSYS node file. The coordinates of node
+    * <code>i</code> are stored in <code>myCoords</code> starting at
+    * <code>3*i</code>.
+    */
+   private static class NodeData {
+      int myNum;
+      int[] myIds;
+      double[] myCoords;
+   }
+
+   /**
+    * Maps node IDs to the numbers of the nodes that were created for them.
+    */
+   private static class NodeIdMap {
+      int[] myNumbers;                  // used if the IDs are not too sparse
+      HashMap<Integer,Integer> myMap;   // used otherwise
+
+      NodeIdMap (int[] ids, FemNode3d[] nodes, int num) {
+         int maxId = -1;
+         for (int i=0; i<num; i++) {
+            maxId = Math.max (maxId, ids[i]);
+         }
+         if (maxId < 4*num + 1024) {
+            myNumbers = new int[maxId+1];
+            Arrays.fill (myNumbers, -1);
+            for (int i=0; i<num; i++) {
+               if (ids[i] >= 0) {
+                  myNumbers[ids[i]] = nodes[i].getNumber();
+               }
+            }
+         }
+         else {
+            myMap = new HashMap<Integer,Integer>();
+            for (int i=0; i<num; i++) {
+               if (ids[i] >= 0) {
+                  myMap.put (ids[i], nodes[i].getNumber());
+               }
+            }
+         }
+      }
+
+      int get (int id) {
+         if (myNumbers != null) {
+            return (id >= 0 && id < myNumbers.length) ? myNumbers[id] : -1;
+         }
+         else {
+            Integer num = myMap.get (id);
+            return num != null ? num : -1;
+         }
+      }
+   }
+
+   /**
+    * Parses the numbers in one line of an element file, where
+    * <code>widths</code> gives the maximum field widths of the first
+    * 13 numbers.
+    */
+   private static int[] parseElemLine (String line, int[] widths, int lineno)
+      throws IOException {
+
+      int[] nums = new int[14];
+      int cnt = 0;
+      int off = 0;
+      int len = line.length();
+      while (true) {
+         int max = len;
+         int maxWidth = (cnt < widths.length ? widths[cnt] : 0);
+         // limit maximum digits for the first 13 numbers
+         if (cnt < 13 && maxWidth > 0) {
+            max = Math.min (max, off+maxWidth);
+         }
+         char c = 0;
+         // skip leading white space
+         while (off < max && Character.isWhitespace((c=line.charAt(off)))) {
+            off++;
+         }
+         if (off == max) {
+            break;
+         }
+         if (!Character.isDigit(c)) {
+            throw new IOException (
+               "Error: non-digit '"+c+"' in file at line "+lineno);
+         }
+         int num = 0;
+         while (off < max && Character.isDigit((c=line.charAt(off)))) {
+            num = 10*num + (c-'0');
+            off++;
+         }
+         if (cnt == nums.length) {
+            nums = Arrays.copyOf (nums, 2*cnt);
+         }
+         nums[cnt++] = num;
+         // break if at the end of the line
+         if (off >= len) {
+            break;
+         }
+      }
+      return Arrays.copyOf (nums, cnt);
+   }
+
+   /**
+    * Reads the element data from an ANSYS element file. Lines are parsed in
+    * parallel, and then assembled into elements.
+    */
+   private static ElemData readElemData (
+      Reader elemReader, boolean useAnsysNum) throws IOException {
+
       int offset = useAnsysNum ? 0 : -1;
-      
-      int elemId = 0;
-      String line;
-      int lineno = 0;
+
+      final ArrayList<String> lines = new ArrayList<String>();
       BufferedReader reader = new BufferedReader (elemReader);
-      line = reader.readLine();
-      
+      String line;
+      while ((line = reader.readLine()) != null) {
+         lines.add (line);
+      }
+      ElemData data = new ElemData();
+      if (lines.size() == 0) {
+         return data;
+      }
+
       // compute widths
-      ArrayList<Integer> widths = new ArrayList<Integer>(14);
-      computeWidths(widths, line);
-      widths.add(0); // terminal width to prevent crashes if no space at end of line
-      
-      while (line != null) {
-         
-         ArrayList<Integer> numbers = new ArrayList<Integer> ();
-         ArrayList<Integer> elemNumList;
-         lineno++;
-
-         int off = 0;
-         int nidx = 0;
-         while ( (off = parseNumber (numbers, line, off, widths.get(nidx), lineno)) != -1) {
-            nidx++;
-            // break if at the end of the line
-            if(off >= line.length()) {
-               break;
+      ArrayList<Integer> widthList = new ArrayList<Integer>(14);
+      computeWidths(widthList, lines.get(0));
+      final int[] widths = new int[widthList.size()];
+      for (int i=0; i<widths.length; i++) {
+         widths[i] = widthList.get(i);
+      }
+
+      final int[][] lineNums = new int[lines.size()][];
+      ParallelLoop.forRange (lines.size(), 1000, new ParallelLoop.RangeBody() {
+            public void apply (int i0, int i1) {
+               for (int i=i0; i<i1; i++) {
+                  try {
+                     lineNums[i] = parseElemLine (lines.get(i), widths, i+1);
+                  }
+                  catch (IOException e) {
+                     // leave entry null; error is rethrown below
+                  }
+               }
             }
+         });
+
+      // assemble elements. Elements are defined by lines with 14 numbers,
+      // which may be followed by lines giving additional node numbers
+      BitSet definedIds = new BitSet();
+      int[] nodeIds = null;
+      int elemIdx = -1;
+      for (int i=0; i<lineNums.length; i++) {
+         int[] numbers = lineNums[i];
+         if (numbers == null) {
+            // rethrow the parsing error
+            parseElemLine (lines.get(i), widths, i+1);
          }
-         
-         if (numbers.size() == 14) {
-            elemNumList = new ArrayList<Integer> ();
-            
-            for (int i = 0; i < 8; i++) {
-               elemNumList.add (numbers.get (i) + offset);
+         if (numbers.length == 14) {
+            nodeIds = new int[8];
+            for (int k = 0; k < 8; k++) {
+               nodeIds[k] = numbers[k] + offset;
             }
-            for (int i = 8; i < 13; i++) {
-               elemNumList.add (0, numbers.get (i));
+            int[] attrs = Arrays.copyOfRange (numbers, 8, 13);
+            int elemId = numbers[13] + offset;
+            if (elemId >= 0 && definedIds.get (elemId)) {
+               // repeated element ID: new definition replaces the old one
+               elemIdx = data.myIds.size()-1;
+               while (data.myIds.get(elemIdx) != elemId) {
+                  elemIdx--;
+               }
+               data.myAttrs.set (elemIdx, attrs);
+               data.myNodeIds.set (elemIdx, nodeIds);
+            }
+            else {
+               if (elemId >= 0) {
+                  definedIds.set (elemId);
+               }
+               elemIdx = data.myIds.size();
+               data.myIds.add (elemId);
+               data.myAttrs.add (attrs);
+               data.myNodeIds.add (nodeIds);
             }
-            
-            elemId = numbers.get (13);
          }
-         else {
-            elemNumList = elemPositions.get (elemId + offset);
-            
-            for (int i = 0; i < numbers.size(); i++) {
-               elemNumList.add (numbers.get (i) + offset);
+         else if (numbers.length > 0) {
+            if (elemIdx == -1) {
+               throw new IOException (
+                  "Additional element nodes given before first element, line "+
+                  (i+1));
             }
+            int nprev = nodeIds.length;
+            nodeIds = Arrays.copyOf (nodeIds, nprev+numbers.length);
+            for (int k = 0; k < numbers.length; k++) {
+               nodeIds[nprev+k] = numbers[k] + offset;
+            }
+            data.myNodeIds.set (elemIdx, nodeIds);
          }
-         elemPositions.put (elemId + offset, elemNumList);
-         
-         // queue-up next line
-         line = reader.readLine();
       }
-	   
-      return elemPositions;
+      return data;
    }
    
    protected static LinkedHashMap<Integer, ArrayList<Integer>> readElemFileOld ( 
@@ -448,77 +626,111 @@ public class AnsysReader implements FemReader {
 
       LinkedHashMap<Integer, Point3d> nodePositions = 
          new LinkedHashMap<Integer, Point3d> ();
-      ReaderTokenizer rtok =
-         new ReaderTokenizer (new BufferedReader (nodeReader));
-      rtok.eolIsSignificant (true);
-      
+      NodeData nodeData = readNodeData (nodeReader, useAnsysNum);
+      double[] coords = nodeData.myCoords;
+      for (int i=0; i<nodeData.myNum; i++) {
+         nodePositions.put (
+            nodeData.myIds[i],
+            new Point3d (coords[3*i], coords[3*i+1], coords[3*i+2]));
+      }
+      return nodePositions;
+   }
+
+   /**
+    * Reads the node data from an ANSYS node file, using a parallel parser.
+    * Each line gives a node ID followed by its coordinates. Any additional
+    * numbers or text on the line are ignored.
+    */
+   private static NodeData readNodeData (
+      Reader nodeReader, boolean useAnsysNum) throws IOException {
+
       int offset = useAnsysNum ? 0 : -1;
 
-      while (rtok.nextToken () != ReaderTokenizer.TT_EOF) {
-         rtok.pushBack ();
-         int nodeId = rtok.scanInteger ();
+      NumericLineParser parser = new NumericLineParser();
+      parser.setCommentPrefix (null);
+      parser.parse (nodeReader);
+      double[] vals = parser.getValues();
 
-         Point3d pos = new Point3d ();
-         
-         double[] posArray = new double[3];
-         
-         for (int i = 0; i < posArray.length; i++) {
-            int nextToken = rtok.nextToken();
-            if (nextToken == ReaderTokenizer.TT_EOL) {
-               throw new IOException ("Unexpected EOL, " + rtok);
-            }
-            else if (nextToken == ReaderTokenizer.TT_NUMBER) {
-               posArray[i] = rtok.nval;
+      NodeData data = new NodeData();
+      int numLines = parser.numLines();
+      data.myIds = new int[numLines];
+      data.myCoords = new double[3*numLines];
+      BitSet definedIds = new BitSet();
+      int num = 0;
+      for (int i=0; i<numLines; i++) {
+         int nvals = parser.numValues (i);
+         if (nvals == 0) {
+            continue;
+         }
+         else if (nvals < 4) {
+            throw new IOException ("Unexpected EOL, line " + (i+1));
+         }
+         int off = parser.getValueOffset (i);
+         if (vals[off] != (int)vals[off]) {
+            throw new IOException (
+               "Expecting integer node ID, line " + (i+1));
+         }
+         int nodeId = (int)vals[off] + offset;
+         int idx = num;
+         if (nodeId >= 0 && definedIds.get (nodeId)) {
+            // repeated node ID: new coordinates replace the old ones
+            idx = num-1;
+            while (data.myIds[idx] != nodeId) {
+               idx--;
             }
-            else {
-               i--;
+         }
+         else {
+            if (nodeId >= 0) {
+               definedIds.set (nodeId);
             }
+            data.myIds[num++] = nodeId;
          }
-
-         pos.x = posArray[0];
-         pos.y = posArray[1];
-         pos.z = posArray[2];
-         nodePositions.put (nodeId + offset, pos);
-         
-         int nextToken;
-         do {
-            nextToken = rtok.nextToken ();
-         } while (nextToken != ReaderTokenizer.TT_EOL &&
-                  nextToken != ReaderTokenizer.TT_EOF);
+         data.myCoords[3*idx  ] = vals[off+1];
+         data.myCoords[3*idx+1] = vals[off+2];
+         data.myCoords[3*idx+2] = vals[off+3];
       }
-
-      return nodePositions;
+      data.myNum = num;
+      return data;
    }
    
-   private static ArrayList<Integer> getValidElemNodes (
-      ArrayList<Integer> nodeList, HashMap<Integer, Integer> nodeIdMap,
-      boolean reverse) {
-
-      int nNodes = nodeList.size();
-      ArrayList<Integer> validNodeIds = new ArrayList<Integer> (nNodes);
-      
-      for (int i = 0; i < nNodes; i++) {
-         int nodeId;
-         nodeId = nodeList.get (i);
-         
-         if (nodeId >= 0) {
-            Integer validId = nodeIdMap.get (nodeId);
-            if (validId != null && !validNodeIds.contains (validId)) {
-               validNodeIds.add (validId);
+   /**
+    * Maps the node IDs of an element to node numbers, omitting IDs that are
+    * negative, that do not correspond to nodes, or that map to a node
+    * already in the list.
+    *
+    * @return number of valid node numbers placed in <code>nodeNums</code>
+    */
+   private static int getValidElemNodes (
+      int[] nodeIds, NodeIdMap nodeIdMap, int[] nodeNums) {
+
+      int numValid = 0;
+      for (int i = 0; i < nodeIds.length; i++) {
+         if (nodeIds[i] >= 0) {
+            int num = nodeIdMap.get (nodeIds[i]);
+            if (num != -1) {
+               boolean repeated = false;
+               for (int k = 0; k < numValid; k++) {
+                  if (nodeNums[k] == num) {
+                     repeated = true;
+                     break;
+                  }
+               }
+               if (!repeated) {
+                  nodeNums[numValid++] = num;
+               }
             }
          }
       }
-      
-      return validNodeIds;
+      return numValid;
    }
 
-   private static void createTet (FemModel3d model, 
-      ArrayList<Integer> nodeIds, int elemId, int[] attrList) {
+   private static TetElement createTet (FemModel3d model, 
+      int[] nodeIds, int[] attrList) {
       
-      FemNode3d n0 = model.getByNumber (nodeIds.get (0));
-      FemNode3d n1 = model.getByNumber (nodeIds.get (1));
-      FemNode3d n2 = model.getByNumber (nodeIds.get (2));
-      FemNode3d n3 = model.getByNumber (nodeIds.get (3));
+      FemNode3d n0 = model.getByNumber (nodeIds[0]);
+      FemNode3d n1 = model.getByNumber (nodeIds[1]);
+      FemNode3d n2 = model.getByNumber (nodeIds[2]);
+      FemNode3d n3 = model.getByNumber (nodeIds[3]);
       
       TetElement e;
 
@@ -534,23 +746,23 @@ public class AnsysReader implements FemReader {
          }
       }
       
-      model.addNumberedElement (e, elemId);
       model.ansysElemProps.put (e, attrList);
+      return e;
    }
    
-   private static void createQuadTet (FemModel3d model, 
-      ArrayList<Integer> nodeIds, int elemId, int[] attrList) {
-      
-      FemNode3d n0 = model.getByNumber (nodeIds.get (0));
-      FemNode3d n1 = model.getByNumber (nodeIds.get (1));
-      FemNode3d n2 = model.getByNumber (nodeIds.get (2));
-      FemNode3d n3 = model.getByNumber (nodeIds.get (3));
-      FemNode3d n4 = model.getByNumber (nodeIds.get (4));
-      FemNode3d n5 = model.getByNumber (nodeIds.get (5));
-      FemNode3d n6 = model.getByNumber (nodeIds.get (6));
-      FemNode3d n7 = model.getByNumber (nodeIds.get (7));
-      FemNode3d n8 = model.getByNumber (nodeIds.get (8));
-      FemNode3d n9 = model.getByNumber (nodeIds.get (9));
+   private static QuadtetElement createQuadTet (FemModel3d model, 
+      int[] nodeIds, int[] attrList) {
+      
+      FemNode3d n0 = model.getByNumber (nodeIds[0]);
+      FemNode3d n1 = model.getByNumber (nodeIds[1]);
+      FemNode3d n2 = model.getByNumber (nodeIds[2]);
+      FemNode3d n3 = model.getByNumber (nodeIds[3]);
+      FemNode3d n4 = model.getByNumber (nodeIds[4]);
+      FemNode3d n5 = model.getByNumber (nodeIds[5]);
+      FemNode3d n6 = model.getByNumber (nodeIds[6]);
+      FemNode3d n7 = model.getByNumber (nodeIds[7]);
+      FemNode3d n8 = model.getByNumber (nodeIds[8]);
+      FemNode3d n9 = model.getByNumber (nodeIds[9]);
       
       QuadtetElement e;
       
@@ -568,21 +780,21 @@ public class AnsysReader implements FemReader {
          }
       }
       
-      model.addNumberedElement (e, elemId);
       model.ansysElemProps.put (e, attrList);
+      return e;
    }
    
    private static HexElement createHex (FemModel3d model, 
-      ArrayList<Integer> nodeIds, int elemId, int[] attrList) {
+      int[] nodeIds, int[] attrList) {
 
-      FemNode3d n0 = model.getByNumber (nodeIds.get (0));
-      FemNode3d n1 = model.getByNumber (nodeIds.get (1));
-      FemNode3d n2 = model.getByNumber (nodeIds.get (2));
-      FemNode3d n3 = model.getByNumber (nodeIds.get (3));
-      FemNode3d n4 = model.getByNumber (nodeIds.get (4));
-      FemNode3d n5 = model.getByNumber (nodeIds.get (5));
-      FemNode3d n6 = model.getByNumber (nodeIds.get (6));
-      FemNode3d n7 = model.getByNumber (nodeIds.get (7));
+      FemNode3d n0 = model.getByNumber (nodeIds[0]);
+      FemNode3d n1 = model.getByNumber (nodeIds[1]);
+      FemNode3d n2 = model.getByNumber (nodeIds[2]);
+      FemNode3d n3 = model.getByNumber (nodeIds[3]);
+      FemNode3d n4 = model.getByNumber (nodeIds[4]);
+      FemNode3d n5 = model.getByNumber (nodeIds[5]);
+      FemNode3d n6 = model.getByNumber (nodeIds[6]);
+      FemNode3d n7 = model.getByNumber (nodeIds[7]);
       
       HexElement e;
       
@@ -602,35 +814,33 @@ public class AnsysReader implements FemReader {
          }
       }
       
-      model.addNumberedElement (e, elemId);
       model.ansysElemProps.put (e, attrList);
-      
       return e;
    }
    
-   private static void createQuadHex (FemModel3d model, 
-      ArrayList<Integer> nodeIds, int elemId, int[] attrList) {
-
-      FemNode3d n0 = model.getByNumber (nodeIds.get (0));
-      FemNode3d n1 = model.getByNumber (nodeIds.get (1));
-      FemNode3d n2 = model.getByNumber (nodeIds.get (2));
-      FemNode3d n3 = model.getByNumber (nodeIds.get (3));
-      FemNode3d n4 = model.getByNumber (nodeIds.get (4));
-      FemNode3d n5 = model.getByNumber (nodeIds.get (5));
-      FemNode3d n6 = model.getByNumber (nodeIds.get (6));
-      FemNode3d n7 = model.getByNumber (nodeIds.get (7));
-      FemNode3d n8 = model.getByNumber (nodeIds.get (8));
-      FemNode3d n9 = model.getByNumber (nodeIds.get (9));
-      FemNode3d n10 = model.getByNumber (nodeIds.get (10));
-      FemNode3d n11 = model.getByNumber (nodeIds.get (11));
-      FemNode3d n12 = model.getByNumber (nodeIds.get (12));
-      FemNode3d n13 = model.getByNumber (nodeIds.get (13));
-      FemNode3d n14 = model.getByNumber (nodeIds.get (14));
-      FemNode3d n15 = model.getByNumber (nodeIds.get (15));
-      FemNode3d n16 = model.getByNumber (nodeIds.get (16));
-      FemNode3d n17 = model.getByNumber (nodeIds.get (17));
-      FemNode3d n18 = model.getByNumber (nodeIds.get (18));
-      FemNode3d n19 = model.getByNumber (nodeIds.get (19));
+   private static QuadhexElement createQuadHex (FemModel3d model, 
+      int[] nodeIds, int[] attrList) {
+
+      FemNode3d n0 = model.getByNumber (nodeIds[0]);
+      FemNode3d n1 = model.getByNumber (nodeIds[1]);
+      FemNode3d n2 = model.getByNumber (nodeIds[2]);
+      FemNode3d n3 = model.getByNumber (nodeIds[3]);
+      FemNode3d n4 = model.getByNumber (nodeIds[4]);
+      FemNode3d n5 = model.getByNumber (nodeIds[5]);
+      FemNode3d n6 = model.getByNumber (nodeIds[6]);
+      FemNode3d n7 = model.getByNumber (nodeIds[7]);
+      FemNode3d n8 = model.getByNumber (nodeIds[8]);
+      FemNode3d n9 = model.getByNumber (nodeIds[9]);
+      FemNode3d n10 = model.getByNumber (nodeIds[10]);
+      FemNode3d n11 = model.getByNumber (nodeIds[11]);
+      FemNode3d n12 = model.getByNumber (nodeIds[12]);
+      FemNode3d n13 = model.getByNumber (nodeIds[13]);
+      FemNode3d n14 = model.getByNumber (nodeIds[14]);
+      FemNode3d n15 = model.getByNumber (nodeIds[15]);
+      FemNode3d n16 = model.getByNumber (nodeIds[16]);
+      FemNode3d n17 = model.getByNumber (nodeIds[17]);
+      FemNode3d n18 = model.getByNumber (nodeIds[18]);
+      FemNode3d n19 = model.getByNumber (nodeIds[19]);
       
       QuadhexElement e;
       
@@ -654,18 +864,18 @@ public class AnsysReader implements FemReader {
          }
       }  
       
-      model.addNumberedElement (e, elemId);
       model.ansysElemProps.put (e, attrList);
+      return e;
    }
 
-   private static void createPyramid (FemModel3d model, 
-      ArrayList<Integer> nodeIds, int elemId, int[] attrList) {
+   private static PyramidElement createPyramid (FemModel3d model, 
+      int[] nodeIds, int[] attrList) {
       
-      FemNode3d n0 = model.getByNumber (nodeIds.get (0));
-      FemNode3d n1 = model.getByNumber (nodeIds.get (1));
-      FemNode3d n2 = model.getByNumber (nodeIds.get (2));
-      FemNode3d n3 = model.getByNumber (nodeIds.get (3));
-      FemNode3d n4 = model.getByNumber (nodeIds.get (4));
+      FemNode3d n0 = model.getByNumber (nodeIds[0]);
+      FemNode3d n1 = model.getByNumber (nodeIds[1]);
+      FemNode3d n2 = model.getByNumber (nodeIds[2]);
+      FemNode3d n3 = model.getByNumber (nodeIds[3]);
+      FemNode3d n4 = model.getByNumber (nodeIds[4]);
 
       PyramidElement e = new PyramidElement (n0, n1, n2, n3, n4);
 
@@ -682,19 +892,19 @@ public class AnsysReader implements FemReader {
          }
       }
       
-      model.addNumberedElement (e, elemId);
       model.ansysElemProps.put (e, attrList);
+      return e;
    }
 
-   private static void createWedge (FemModel3d model, 
-      ArrayList<Integer> nodeIds, int elemId, int[] attrList) {
+   private static WedgeElement createWedge (FemModel3d model, 
+      int[] nodeIds, int[] attrList) {
       
-      FemNode3d n0 = model.getByNumber (nodeIds.get (0));
-      FemNode3d n1 = model.getByNumber (nodeIds.get (1));
-      FemNode3d n2 = model.getByNumber (nodeIds.get (2));
-      FemNode3d n3 = model.getByNumber (nodeIds.get (3));
-      FemNode3d n4 = model.getByNumber (nodeIds.get (4));
-      FemNode3d n5 = model.getByNumber (nodeIds.get (5));
+      FemNode3d n0 = model.getByNumber (nodeIds[0]);
+      FemNode3d n1 = model.getByNumber (nodeIds[1]);
+      FemNode3d n2 = model.getByNumber (nodeIds[2]);
+      FemNode3d n3 = model.getByNumber (nodeIds[3]);
+      FemNode3d n4 = model.getByNumber (nodeIds[4]);
+      FemNode3d n5 = model.getByNumber (nodeIds[5]);
 
       WedgeElement e = new WedgeElement (n0, n1, n2, n3, n4, n5);
 
@@ -711,8 +921,8 @@ public class AnsysReader implements FemReader {
          }
       }
       
-      model.addNumberedElement (e, elemId);
       model.ansysElemProps.put (e, attrList);
+      return e;
    }
 
    // private static void createTetsFromHex (FemModel3d model, int[] idxs) {
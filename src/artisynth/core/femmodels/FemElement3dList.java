@@ -6,14 +6,17 @@
  */
 package artisynth.core.femmodels;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import artisynth.core.modelbase.ComponentChangeEvent;
 import artisynth.core.modelbase.ComponentList;
 import artisynth.core.modelbase.RenderableComponentList;
 import artisynth.core.modelbase.StructureChangeEvent;
 import artisynth.core.util.ClassAliases;
+import maspack.concurrency.ParallelLoop;
 import maspack.properties.PropertyList;
 import maspack.properties.PropertyMode;
 import maspack.properties.PropertyUtils;
@@ -35,6 +38,36 @@ public class FemElement3dList<C extends FemElement3dBase> extends
    private RenderObject myWidgetRob = null;
    private HashSet<QuadEdgeDesc> myQuadEdges = null;
    private byte[] myRobFlags = null;
+
+   // Data used to update the render objects incrementally in prerender().
+   // Node render coordinates seen at the last update, used to determine
+   // which nodes have moved:
+   private float[] myLastNodeCoords = null;
+   private boolean[] myNodeMoved = null;
+   // for each element that has a widget: the element, its widget size at the
+   // last update, the index of its first widget position, its triangle group
+   // and triangle range, and the node list indices of its nodes:
+   private FemElement3dBase[] myWidgetElems = null;
+   private double[] myWidgetSizes = null;
+   private int[] myWidgetPidxs = null;
+   private int[] myWidgetGroups = null;
+   private int[] myWidgetTris = null; // two entries per element
+   private int[] myWidgetNodeOffs = null;
+   private int[] myWidgetNodeIdxs = null;
+   // quadratic edges, in an array for parallel updating
+   private QuadEdgeDesc[] myQuadEdgeArray = null;
+
+   /**
+    * Minimum number of items (nodes, elements, or edges) processed by each
+    * task when render objects are updated in parallel. Smaller models are
+    * updated serially.
+    */
+   public static int parallelRenderGrainSize = 2000;
+
+   /**
+    * Enables the render objects to be updated in parallel.
+    */
+   public static boolean parallelRenderUpdates = true;
    
    // feature index arrays
    FeatureIndexArray[] myWidgetFeatures;
@@ -110,6 +143,12 @@ public class FemElement3dList<C extends FemElement3dBase> extends
          FemElementRenderer.updateQuadEdge (
             r, myVidx0, myVidxm, myVidx1, myPidx0);
       }
+
+      public void writeCurve (RenderObject r) {
+         FemElementRenderer.writeQuadEdge (
+            r, FemElementRenderer.numQuadEdgeSegs,
+            myVidx0, myVidxm, myVidx1, myPidx0);
+      }
    }
    
    static PropertyList myProps =
@@ -314,7 +353,25 @@ public class FemElement3dList<C extends FemElement3dBase> extends
          for (int i=0; i<myWidgetFeatures.length; ++i) {
             myWidgetFeatures[i] = new FeatureIndexArray ();
          }
+
+         int numw = 0;
+         int numwn = 0;
+         for (int i=0; i<size(); i++) {
+            if ((myRobFlags[i] & HAS_WIDGET) != 0) {
+               numw++;
+               numwn += get(i).numNodes();
+            }
+         }
+         myWidgetElems = new FemElement3dBase[numw];
+         myWidgetSizes = new double[numw];
+         myWidgetPidxs = new int[numw];
+         myWidgetGroups = new int[numw];
+         myWidgetTris = new int[2*numw];
+         myWidgetNodeOffs = new int[numw+1];
+         myWidgetNodeIdxs = new int[numwn];
          
+         int k = 0;
+         int nk = 0;
          for (int i=0; i<size(); i++) {
             FemElement3dBase elem = get (i);
             if (elem.getRenderProps() == null) {
@@ -322,17 +379,42 @@ public class FemElement3dList<C extends FemElement3dBase> extends
                if ((flags & HAS_WIDGET) != 0) {
                   int gidx = flags & GRP_MASK;
                   r.triangleGroup (gidx);
+                  myWidgetElems[k] = elem;
+                  myWidgetPidxs[k] = r.numPositions();
+                  myWidgetGroups[k] = gidx;
+                  myWidgetTris[2*k] = r.numTriangles (gidx);
                   myWidgetFeatures[gidx].beginFeature (i);
                   FemElementRenderer.addWidgetFaces (r, myWidgetFeatures[gidx], elem);
                   myWidgetFeatures[gidx].endFeature ();
+                  myWidgetTris[2*k+1] = r.numTriangles (gidx);
+                  myWidgetNodeOffs[k] = nk;
+                  for (FemNode node : elem.getNodes()) {
+                     myWidgetNodeIdxs[nk++] = nodes.indexOf (node);
+                  }
+                  // set size to -1 to ensure the widget is updated
+                  myWidgetSizes[k] = -1;
+                  k++;
                }              
             }
          }
+         myWidgetNodeOffs[k] = nk;
          myWidgetRob = r;
       }
       else {
          myWidgetRob = null;
+         myWidgetElems = null;
       }
+
+      if (myQuadEdges != null) {
+         myQuadEdgeArray = myQuadEdges.toArray (new QuadEdgeDesc[0]);
+      }
+      else {
+         myQuadEdgeArray = null;
+      }
+      // set last node coordinates to NaN to ensure everything is updated
+      myLastNodeCoords = new float[3*nodes.size()];
+      Arrays.fill (myLastNodeCoords, Float.NaN);
+      myNodeMoved = new boolean[nodes.size()];
    }
 
    private static final int BUILD = 1;
@@ -384,34 +466,139 @@ public class FemElement3dList<C extends FemElement3dBase> extends
       }
 
       int update = renderObjectsNeedUpdating();
+      if (update == 0 && myLastNodeCoords.length != 3*nodes.size()) {
+         update = BUILD;
+      }
       if (update != 0) {
          // for now just rebuild, even if only colors need changing
          buildRenderObjects();
       }
+      updateRenderObjects (nodes);
+   }  
+
+   /**
+    * Updates the render object positions and normals to reflect the current
+    * node positions and widget sizes. Only the widgets and quadratic edges
+    * associated with nodes that have moved, or with widget sizes that have
+    * changed, are recomputed. Positions and normals are written in place,
+    * in parallel for large models, and the render objects are notified once
+    * afterwards if anything has changed.
+    */
+   private void updateRenderObjects (ComponentList<? extends FemNode> nodes) {
+      final int grain = 
+         (parallelRenderUpdates ? parallelRenderGrainSize : Integer.MAX_VALUE);
+
+      // find the nodes that have moved
+      final FemNode[] nodeArray = nodes.toArray (new FemNode[0]);
+      final AtomicBoolean nodesMoved = new AtomicBoolean();
+      ParallelLoop.forRange (nodeArray.length, grain, (i0, i1) -> {
+         float[] last = myLastNodeCoords;
+         boolean moved = false;
+         for (int i=i0; i<i1; i++) {
+            float[] coords = nodeArray[i].myRenderCoords;
+            int k = 3*i;
+            if (coords[0] != last[k] ||
+                coords[1] != last[k+1] ||
+                coords[2] != last[k+2]) {
+               last[k] = coords[0];
+               last[k+1] = coords[1];
+               last[k+2] = coords[2];
+               myNodeMoved[i] = true;
+               moved = true;
+            }
+            else {
+               myNodeMoved[i] = false;
+            }
+         }
+         if (moved) {
+            nodesMoved.set (true);
+         }
+      });
+
       if (myWidgetRob != null) {
-         RenderObject r = myWidgetRob;
-         int pidx = 0;
-         for (int i=0; i<size(); i++) {
-            FemElement3dBase elem = get (i);
-            byte flags = getRobFlags(elem);
-            if ((flags & HAS_WIDGET) != 0) {
-               double wsize = elem.getElementWidgetSize();
-               pidx = FemElementRenderer.updateWidgetPositions (
-                  r, elem, wsize, pidx);
+         final RenderObject r = myWidgetRob;
+         final int[][] tris = new int[3][];
+         for (int gidx=0; gidx<3; gidx++) {
+            tris[gidx] = r.getTriangles (gidx);
+         }
+         final AtomicBoolean widgetsChanged = new AtomicBoolean();
+         // hold the write lock while the workers write into the position
+         // and normal arrays, so that renderers do not see partial updates
+         r.writeLock();
+         try {
+            ParallelLoop.forRange (myWidgetElems.length, grain, (k0, k1) -> {
+               boolean changed = false;
+               for (int k=k0; k<k1; k++) {
+                  FemElement3dBase elem = myWidgetElems[k];
+                  double wsize = elem.getElementWidgetSize();
+                  boolean update = (wsize != myWidgetSizes[k]);
+                  for (int j=myWidgetNodeOffs[k];
+                       !update && j<myWidgetNodeOffs[k+1]; j++) {
+                     update = myNodeMoved[myWidgetNodeIdxs[j]];
+                  }
+                  if (update) {
+                     myWidgetSizes[k] = wsize;
+                     FemElementRenderer.writeWidgetPositions (
+                        r, elem, wsize, myWidgetPidxs[k]);
+                     FemElementRenderer.writeWidgetNormals (
+                        r, tris[myWidgetGroups[k]],
+                        myWidgetTris[2*k], myWidgetTris[2*k+1]);
+                     changed = true;
+                  }
+               }
+               if (changed) {
+                  widgetsChanged.set (true);
+               }
+            });
+            if (widgetsChanged.get()) {
+               r.notifyPositionsModified();
+               r.notifyNormalsModified();
             }
          }
-         FemElementRenderer.updateWidgetNormals (r, REG_GRP);
-         FemElementRenderer.updateWidgetNormals (r, SEL_GRP);
-         FemElementRenderer.updateWidgetNormals (r, INV_GRP);
-         r.notifyPositionsModified();      
+         finally {
+            r.writeUnlock();
+         }
       }
-      if (myQuadEdges != null) {
-         for (QuadEdgeDesc quad : myQuadEdges) {
-            quad.updateCurve (myEdgeRob);
+      if (nodesMoved.get()) {
+         final RenderObject r = myEdgeRob;
+         r.writeLock();
+         try {
+            if (myQuadEdgeArray != null) {
+               ParallelLoop.forRange (
+                  myQuadEdgeArray.length, grain, (k0, k1) -> {
+                  for (int k=k0; k<k1; k++) {
+                     QuadEdgeDesc quad = myQuadEdgeArray[k];
+                     if (myNodeMoved[quad.myVidx0] ||
+                         myNodeMoved[quad.myVidxm] ||
+                         myNodeMoved[quad.myVidx1]) {
+                        quad.writeCurve (r);
+                     }
+                  }
+               });
+            }
+            r.notifyPositionsModified();
+         }
+         finally {
+            r.writeUnlock();
          }
       }
-      myEdgeRob.notifyPositionsModified();
-   }  
+   }
+
+   /**
+    * Returns the render object used for the list-rendered element edges.
+    * Used for testing.
+    */
+   RenderObject getEdgeRenderObject() {
+      return myEdgeRob;
+   }
+
+   /**
+    * Returns the render object used for the list-rendered element widgets.
+    * Used for testing.
+    */
+   RenderObject getWidgetRenderObject() {
+      return myWidgetRob;
+   }
 
    protected void drawWidgets (
       Renderer renderer, RenderObject r, RenderProps props, int group) {
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import maspack.matrix.Vector3d;
+import maspack.render.RenderList;
+import maspack.render.RenderObject;
+import maspack.util.*;
+
+/**
+ * Checks that the incremental update of the edge and widget render objects
+ * in FemElement3dList.prerender() gives the same positions and normals as a
+ * full rebuild.
+ */
+public class FemElement3dListTest extends UnitTest {
+
+   private FemModel3d createFem() {
+      FemModel3d fem = FemFactory.createQuadhexGrid (
+         null, 1.0, 0.5, 0.5, 4, 2, 2);
+      fem.setElementWidgetSize (0.6);
+      return fem;
+   }
+
+   private void prerender (FemModel3d fem, boolean rebuild) {
+      RenderList list = new RenderList();
+      for (FemNode3d n : fem.getNodes()) {
+         n.prerender (list);
+      }
+      if (rebuild) {
+         fem.getElements().buildRenderObjects();
+      }
+      fem.getElements().prerender (list);
+   }
+
+   private void checkSameData (
+      String msg, RenderObject result, RenderObject check) {
+      checkEquals (msg+" num positions",
+                   result.numPositions(), check.numPositions());
+      for (int i=0; i<check.numPositions(); i++) {
+         float[] rpos = result.getPosition (i);
+         float[] cpos = check.getPosition (i);
+         for (int j=0; j<3; j++) {
+            if (rpos[j] != cpos[j]) {
+               throw new TestException (
+                  msg+" position "+i+": "+rpos[j]+" vs. "+cpos[j]);
+            }
+         }
+      }
+      checkEquals (msg+" num normals",
+                   result.numNormals(), check.numNormals());
+      for (int i=0; i<check.numNormals(); i++) {
+         float[] rnrm = result.getNormal (i);
+         float[] cnrm = check.getNormal (i);
+         for (int j=0; j<3; j++) {
+            if (rnrm[j] != cnrm[j]) {
+               throw new TestException (
+                  msg+" normal "+i+": "+rnrm[j]+" vs. "+cnrm[j]);
+            }
+         }
+      }
+   }
+
+   private void checkSameRenderData (
+      String msg, FemModel3d fem, FemModel3d ref) {
+      checkSameData (
+         msg+", edges",
+         fem.getElements().getEdgeRenderObject(),
+         ref.getElements().getEdgeRenderObject());
+      checkSameData (
+         msg+", widgets",
+         fem.getElements().getWidgetRenderObject(),
+         ref.getElements().getWidgetRenderObject());
+   }
+
+   private void moveNodes (
+      FemModel3d fem, FemModel3d ref, double fraction) {
+      Vector3d dx = new Vector3d();
+      for (int i=0; i<fem.numNodes(); i++) {
+         if (RandomGenerator.nextDouble (0, 1) < fraction) {
+            dx.setRandom (-0.02, 0.02);
+            fem.getNode(i).getPosition().add (dx);
+            ref.getNode(i).getPosition().add (dx);
+         }
+      }
+   }
+
+   private void setWidgetSize (
+      FemModel3d fem, FemModel3d ref, int idx, double size) {
+      fem.getElement(idx).setElementWidgetSize (size);
+      ref.getElement(idx).setElementWidgetSize (size);
+   }
+
+   public void testIncrementalUpdate() {
+      // fem is updated incrementally, while ref is rebuilt at every step
+      FemModel3d fem = createFem();
+      FemModel3d ref = createFem();
+      prerender (fem, false);
+      prerender (ref, true);
+      checkSameRenderData ("initial", fem, ref);
+
+      for (int k=0; k<20; k++) {
+         String msg = "step "+k;
+         if (k%5 == 1) {
+            // no movement
+         }
+         else if (k%5 == 2) {
+            moveNodes (fem, ref, 1.0);
+         }
+         else {
+            moveNodes (fem, ref, 0.1);
+         }
+         if (k%4 == 3) {
+            int idx = RandomGenerator.nextInt (0, fem.numElements()-1);
+            setWidgetSize (fem, ref, idx, RandomGenerator.nextDouble (0.2, 0.9));
+         }
+         prerender (fem, false);
+         prerender (ref, true);
+         checkSameRenderData (msg, fem, ref);
+      }
+   }
+
+   public void test() {
+      boolean saveParallel = FemElement3dList.parallelRenderUpdates;
+      int saveGrain = FemElement3dList.parallelRenderGrainSize;
+      try {
+         FemElement3dList.parallelRenderUpdates = false;
+         testIncrementalUpdate();
+         // use a small grain size so that the parallel paths are exercised
+         FemElement3dList.parallelRenderUpdates = true;
+         FemElement3dList.parallelRenderGrainSize = 4;
+         testIncrementalUpdate();
+      }
+      finally {
+         FemElement3dList.parallelRenderUpdates = saveParallel;
+         FemElement3dList.parallelRenderGrainSize = saveGrain;
+      }
+   }
+
+   public static void main (String[] args) {
+      FemElement3dListTest tester = new FemElement3dListTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
@@ -78,6 +78,29 @@ public class FemElementRenderer {
    public static void updateQuadEdge (
       RenderObject r, int nsegs, int vidx0, int vidxm, int vidx1, int pidx0) {
 
+      if (nsegs > 1) {
+         r.writeLock();
+         try {
+            writeQuadEdge (r, nsegs, vidx0, vidxm, vidx1, pidx0);
+            r.notifyPositionsModified ();
+         }
+         finally {
+            r.writeUnlock();
+         }
+      }
+   }
+
+   /**
+    * Computes the positions of a quadratic edge curve by writing directly
+    * into the existing position arrays of the render object. Does not notify
+    * the render object that its positions have been modified, and so may be
+    * called concurrently for different edges. The caller must hold the render
+    * object's write lock (see {@link RenderObject#writeLock}) while this
+    * method is being called.
+    */
+   static void writeQuadEdge (
+      RenderObject r, int nsegs, int vidx0, int vidxm, int vidx1, int pidx0) {
+
       if (nsegs > 1) {
          float[] pos0 = r.getPosition (vidx0);
          float[] posm = r.getPosition (vidxm);
@@ -95,7 +118,6 @@ public class FemElementRenderer {
                pos[2] = w0*pos0[2] + wm*posm[2] + w1*pos1[2];
             }
          }
-         r.notifyPositionsModified ();
       }
    }
    
@@ -520,6 +542,51 @@ public class FemElementRenderer {
       return idx;
    }
 
+   /**
+    * Updates widget node locations by writing directly into the existing
+    * position arrays of the render object, instead of replacing them as
+    * {@link #updateWidgetPositions} does. No locks are acquired, so this
+    * may be called concurrently for different elements. The caller must
+    * hold the render object's write lock (see {@link RenderObject#writeLock})
+    * while this method is being called, and call {@link
+    * RenderObject#notifyPositionsModified} afterwards.
+    * 
+    * @param r render object
+    * @param elem element
+    * @param size widget size
+    * @param idx position of first widget node
+    * @return position index after widget nodes
+    */
+   public static int writeWidgetPositions (
+      RenderObject r, FemElement3dBase elem, double size, int idx) {
+
+      FemNode[] enodes = elem.getNodes();
+
+      // compute center point
+      float cx = 0;
+      float cy = 0;
+      float cz = 0;
+      for (int j=0; j<enodes.length; j++) {
+         float[] coords = enodes[j].myRenderCoords;
+         cx += coords[0];
+         cy += coords[1];
+         cz += coords[2];
+      }
+      cx /= enodes.length;
+      cy /= enodes.length;
+      cz /= enodes.length;
+
+      float s = (float)size;
+      for (int j=0; j<enodes.length; j++) {
+         float[] coords = enodes[j].myRenderCoords;
+         float[] pos = r.getPosition (idx++);
+         pos[0] = cx+s*(coords[0]-cx);
+         pos[1] = cy+s*(coords[1]-cy);
+         pos[2] = cz+s*(coords[2]-cz);
+      }
+      return idx;
+   }
+
    /**
     * Update widget node positions with rest coordinates
     * @param r render object to update
@@ -567,9 +634,36 @@ public class FemElementRenderer {
       int numt = r.numTriangles(tgrp);
 
       if (numt > 0) {
-         int[] vidxs = r.getTriangles(tgrp);
-         int k = 0;
-         for (int i=0; i<numt; i++) {
+         r.writeLock();
+         try {
+            writeWidgetNormals (r, r.getTriangles(tgrp), 0, numt);
+            r.notifyNormalsModified();
+         }
+         finally {
+            r.writeUnlock();
+         }
+      }
+   }
+
+   /**
+    * Computes normals for a range of flat triangulated widget triangles,
+    * writing them directly into the existing normal arrays of the render
+    * object. Does not notify the render object that its normals have been
+    * modified, and so may be called concurrently for disjoint ranges. The
+    * caller must hold the render object's write lock (see {@link
+    * RenderObject#writeLock}) while this method is being called.
+    * 
+    * @param r render object to update
+    * @param vidxs triangle vertex indices for the rendering group
+    * @param t0 first triangle in the range
+    * @param t1 triangle after the last triangle in the range
+    */
+   public static void writeWidgetNormals (
+      RenderObject r, int[] vidxs, int t0, int t1) {
+
+      if (t1 > t0) {
+         int k = 3*t0;
+         for (int i=t0; i<t1; i++) {
             float[] nrm = r.getVertexNormal (vidxs[k]);
             float[] p0 = r.getVertexPosition (vidxs[k++]);
             float[] p1 = r.getVertexPosition (vidxs[k++]);
@@ -590,7 +684,6 @@ public class FemElementRenderer {
             nrm[1] = ny;
             nrm[2] = nz;
          }
-         r.notifyNormalsModified();
       }
    }
    
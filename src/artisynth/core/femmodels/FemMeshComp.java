@@ -45,6 +45,7 @@ import artisynth.core.modelbase.ScanWriteUtils;
 import artisynth.core.modelbase.StructureChangeEvent;
 import artisynth.core.util.ArtisynthIO;
 import artisynth.core.util.ObjectToken;
+import artisynth.core.util.ReferenceListToken;
 import artisynth.core.util.ScanToken;
 import artisynth.core.util.StringToken;
 import maspack.geometry.BVFeatureQuery;
@@ -64,7 +65,7 @@ import maspack.render.RenderProps;
 import maspack.render.Renderer;
 import maspack.render.Renderer.ColorMixing;
 import maspack.render.Renderer.Shading;
-import maspack.util.ArraySupport;
+import maspack.util.DynamicDoubleArray;
 import maspack.util.IndentingPrintWriter;
 import maspack.util.InternalErrorException;
 import maspack.util.NumberFormat;
@@ -1487,10 +1488,10 @@ implements CollidableBody, PointAttachable {
    protected void scanAttachment (
       ReaderTokenizer rtok, Deque<ScanToken> tokens) throws IOException {
 
-      ArrayList<Double> weights = new ArrayList<Double>();
+      DynamicDoubleArray weights = new DynamicDoubleArray();
       rtok.scanToken ('[');
-      tokens.offer (ScanToken.BEGIN);
-      while (ScanWriteUtils.scanAndStoreReference (rtok, tokens)) {
+      ReferenceListToken refs = new ReferenceListToken (rtok.lineno());
+      while (ScanWriteUtils.scanAndStoreReference (rtok, refs)) {
          weights.add (rtok.scanNumber());
       }
       if (rtok.ttype != ']') {
@@ -1501,14 +1502,14 @@ implements CollidableBody, PointAttachable {
       //		         ScanWriteUtils.scanReferenceToken (rtok, tokens);
       //		         weights.add (rtok.scanNumber());
       //		      }
-      tokens.offer (ScanToken.END); // add null terminator
+      ScanWriteUtils.storeReferences (tokens, refs);
       if (weights.size() == 1) {
          PointParticleAttachment ppa = new PointParticleAttachment ();
          myVertexAttachments.add (ppa);
       }
       else {
          PointFem3dAttachment pfa = new PointFem3dAttachment();
-         tokens.offer (new ObjectToken(ArraySupport.toDoubleArray (weights)));
+         tokens.offer (new ObjectToken(weights.getArray()));
          myVertexAttachments.add (pfa);
       }
    }
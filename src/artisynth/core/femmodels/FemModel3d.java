@@ -20,6 +20,7 @@ import java.util.Map;
 import artisynth.core.materials.FemMaterial;
 import artisynth.core.materials.IncompressibleMaterial;
 import artisynth.core.materials.IncompressibleMaterial.BulkPotential;
+import artisynth.core.materials.PackableViscoelasticBehavior;
 import artisynth.core.materials.ViscoelasticBehavior;
 import artisynth.core.materials.ViscoelasticState;
 import artisynth.core.mechmodels.BodyConnector;
@@ -59,6 +60,7 @@ import artisynth.core.util.IntegerToken;
 import artisynth.core.util.ScalableUnits;
 import artisynth.core.util.ScanToken;
 import artisynth.core.util.StringToken;
+import maspack.concurrency.ParallelLoop;
 import maspack.geometry.AABBTree;
 import maspack.geometry.BVFeatureQuery;
 import maspack.geometry.BVNode;
@@ -134,6 +136,17 @@ PointAttachable, ConnectableBody {
    public static boolean abortOnInvertedElems = false;
    public static boolean checkTangentStability = false;
    public static boolean noIncompressStiffnessDamping = false;
+
+   /**
+    * Whether packed viscoelastic states are advanced in parallel.
+    */
+   public static boolean parallelAuxStateUpdate = true;
+
+   /**
+    * Maximum number of packed viscoelastic states advanced as a single
+    * parallel task.
+    */
+   public static int auxStateGrainSize = 512;
    // if the minimum real detJ for all elements is <= this number,
    // then request a step size reduction:
    public static double detJStepReductionLimit = 0.01;
@@ -242,6 +255,22 @@ PointAttachable, ConnectableBody {
    // protected boolean myClearMeshColoring = false;
    protected boolean myComputeNodalStress = false;
    protected boolean myComputeNodalStrain = false;
+   // whether viscoelastic states are packed. Only these states are packed;
+   // rest Jacobians, detJ0 and dv stay in each IntegrationData3d
+   protected boolean myPackedIntegrationDataP = false;
+   // packed viscoelastic states, used when packing is enabled. States for each point are stored in myViscoBuf, starting
+   // at the offsets in myViscoOffsets.
+   protected double[] myViscoBuf = null;
+   protected int myNumViscoPoints = 0;
+   protected IntegrationData3d[] myViscoPoints;
+   protected PackableViscoelasticBehavior[] myViscoBehaviors;
+   // cleared whenever the elements, materials or integration point states
+   // change in a way that requires the states to be repacked
+   protected boolean myViscoStatesValidP = false;
+   protected int[] myViscoOffsets;
+   // ranges of packed points advanced together, sharing the same behavior
+   protected int[] myViscoChunks;
+   protected int myNumViscoChunks = 0;
    // protected boolean mySubSurfaceRendering = true;
 
    protected ColorMapBase myColorMap;
@@ -587,6 +616,49 @@ PointAttachable, ConnectableBody {
       }
    }
 
+   /**
+    * Enables or disables packed storage of the viscoelastic integration
+    * point state. When enabled, the viscoelastic states of all integration
+    * points whose behavior implements {@link PackableViscoelasticBehavior}
+    * are stored in a single array, which allows them to be advanced in
+    * parallel and saved and restored as a single block.
+    *
+    * <p>Only the viscoelastic states are packed. The inverse rest Jacobians,
+    * rest determinants and partial volumes remain in each {@link
+    * IntegrationData3d}, since they are accessed directly through its
+    * public {@code Matrix3d} fields and accessors.
+    *
+    * @param enable if <code>true</code>, enables packed storage
+    */
+   public void setPackedIntegrationData (boolean enable) {
+      if (enable != myPackedIntegrationDataP) {
+         myPackedIntegrationDataP = enable;
+         myViscoStatesValidP = false;
+         if (!enable) {
+            myViscoBuf = null;
+            myNumViscoPoints = 0;
+            myNumViscoChunks = 0;
+         }
+      }
+   }
+
+   /**
+    * Queries whether packed storage of the viscoelastic integration point
+    * state is enabled.
+    *
+    * @return <code>true</code> if packed storage is enabled
+    * @see #setPackedIntegrationData
+    */
+   public boolean getPackedIntegrationData() {
+      return myPackedIntegrationDataP;
+   }
+
+   protected void updatePackedIntegrationData() {
+      if (myPackedIntegrationDataP && !myViscoStatesValidP) {
+         packViscoStates();
+      }
+   }
+
    public FemModel3d () {
       this(null);
    }
@@ -678,14 +750,37 @@ PointAttachable, ConnectableBody {
       myNodes.add(p);
    }
 
+   /**
+    * Adds a collection of nodes to this model in a single batch, with one
+    * structure change notification for the whole collection.
+    * 
+    * @param nodes nodes to add
+    */
    public void addNodes(Collection<? extends FemNode3d> nodes) {
-      myNodes.addAll(nodes);
+      FemNode3d[] array = nodes.toArray (new FemNode3d[0]);
+      myNodes.addNumberedComponents (array, null, array.length);
    }
 
    public void addNumberedNode(FemNode3d p, int number) {
       myNodes.addNumbered(p, number);
    }
 
+   /**
+    * Adds nodes to this model with specified numbers, in a single batch with
+    * one structure change notification. This is equivalent to calling {@link
+    * #addNumberedNode} for each node, but much faster for large numbers of
+    * nodes.
+    * 
+    * @param nodes nodes to add
+    * @param numbers node numbers, or <code>null</code> if the numbers
+    * should be assigned automatically. An entry of <code>-1</code>, or a
+    * number already in use, causes the number to be assigned automatically.
+    * @param num number of nodes to add
+    */
+   public void addNumberedNodes(FemNode3d[] nodes, int[] numbers, int num) {
+      myNodes.addNumberedComponents (nodes, numbers, num);
+   }
+
    public boolean removeNode(FemNode3d p) {
 
       // check if any elements dependent on this node
@@ -781,10 +876,15 @@ PointAttachable, ConnectableBody {
       }
    }
 
+   /**
+    * Adds a collection of elements to this model in a single batch, with
+    * one structure change notification for the whole collection.
+    * 
+    * @param elems elements to add
+    */
    public void addElements(Collection<? extends FemElement3d> elems) {
-      for (FemElement3d elem : elems) {
-         addElement(elem);
-      }
+      FemElement3d[] array = elems.toArray (new FemElement3d[0]);
+      addNumberedElements (array, null, array.length);
    }
 
    public void addNumberedElement(FemElement3d e, int elemId) {
@@ -795,6 +895,27 @@ PointAttachable, ConnectableBody {
       }
    }
 
+   /**
+    * Adds elements to this model with specified numbers, in a single batch
+    * with one structure change notification. This is equivalent to calling
+    * {@link #addNumberedElement} for each element, but much faster for large
+    * numbers of elements.
+    * 
+    * @param elems elements to add
+    * @param numbers element numbers, or <code>null</code> if the numbers
+    * should be assigned automatically. An entry of <code>-1</code>, or a
+    * number already in use, causes the number to be assigned automatically.
+    * @param num number of elements to add
+    */
+   public void addNumberedElements (
+      FemElement3d[] elems, int[] numbers, int num) {
+      myElements.addNumberedComponents (elems, numbers, num);
+      if (myAutoGenerateSurface && num > 0) {
+         mySurfaceMeshValid = false;
+         myInternalSurfaceMeshComp = null;
+      }
+   }
+
    public boolean removeElement(FemElement3d e) {
       boolean success = myElements.remove(e);
       if (myAutoGenerateSurface) {
@@ -1538,6 +1659,7 @@ PointAttachable, ConnectableBody {
       myHardIncompMethodValidP = false;
       myHardIncompConfigValidP = false;
       myNumTetElements = -1; // invalidates all element counts
+      myViscoStatesValidP = false;
       //myNodeNeighborsValidP = false;
    }
 
@@ -1751,6 +1873,7 @@ PointAttachable, ConnectableBody {
             e.setInverted(false);
             e.clearState();
          }         
+         myViscoStatesValidP = false;
          for (FemNode3d n : myNodes) {
             n.zeroStress();
             if (n.hasDirector()) {
@@ -2303,6 +2426,7 @@ PointAttachable, ConnectableBody {
 
    public void updateStress() {
       updateIntegrationIndices();
+      updatePackedIntegrationData();
       // clear existing internal forces and maybe stiffnesses
       timerStart();
       for (FemNode3d n : myNodes) {
@@ -2350,6 +2474,7 @@ PointAttachable, ConnectableBody {
    // DIVBLK
    public void updateStressAndStiffness() {
       updateIntegrationIndices();
+      updatePackedIntegrationData();
       // allocate or deallocate nodal incompressibility blocks
       setNodalIncompBlocksAllocated (getSoftIncompMethod()==IncompMethod.NODAL);
 
@@ -2515,11 +2640,8 @@ PointAttachable, ConnectableBody {
 
          // compute warping rotation
          warper.computeWarpingRotation(e);
-
-         IntegrationPoint3d wp = e.getWarpingPoint();
-         IntegrationData3d wd = e.getWarpingData();
-         Matrix3d F = new Matrix3d();
-         wp.computeGradient(F, e.getNodes(), wd.myInvJ0);
+         // compute forces for all nodes at once
+         double[] forces = warper.computeNodeForces(nodes);
 
          // add force and stiffness
          for (int i = 0; i < nodes.length; i++) {
@@ -2535,7 +2657,8 @@ PointAttachable, ConnectableBody {
                   }
                }
                // add node force
-               warper.addNodeForce(n.myInternalForce, i, nodes);
+               n.myInternalForce.add (
+                  forces[3*i], forces[3*i+1], forces[3*i+2]);
             }
          }
 
@@ -2770,6 +2893,8 @@ PointAttachable, ConnectableBody {
             if (state == null) {
                state = veb.createState();
                idata[k].setViscoState(state);
+               // state was cleared outside the model; repack at next update
+               myViscoStatesValidP = false;
             }
             veb.computeStress(sigma, state);
             if (D != null) {
@@ -3080,6 +3205,8 @@ PointAttachable, ConnectableBody {
 
          // compute warping rotation
          warper.computeWarpingRotation(e);
+         // compute forces for all nodes at once
+         double[] forces = warper.computeNodeForces(nodes);
 
          // add force and stiffness
          for (int i = 0; i < nodes.length; i++) {
@@ -3095,7 +3222,8 @@ PointAttachable, ConnectableBody {
                   }
                }
                // add node force
-               warper.addNodeForce(n.myInternalForce, i, nodes);
+               n.myInternalForce.add (
+                  forces[3*i], forces[3*i+1], forces[3*i+2]);
             }
          }
       }
@@ -4310,14 +4438,104 @@ PointAttachable, ConnectableBody {
       comps.add(this);
    }
 
+   private PackableViscoelasticBehavior getPackableViscoBehavior (
+      FemElement3dBase e) {
+      ViscoelasticBehavior veb = getElementMaterial(e).getViscoBehavior();
+      if (veb instanceof PackableViscoelasticBehavior) {
+         return (PackableViscoelasticBehavior)veb;
+      }
+      return null;
+   }
+
+   /**
+    * Packs the viscoelastic states of all integration points whose behavior
+    * supports packing into a single array. Existing state values are
+    * copied into the array.
+    */
+   private void packViscoStates() {
+      ArrayList<IntegrationData3d> pnts = new ArrayList<>();
+      ArrayList<PackableViscoelasticBehavior> vebs = new ArrayList<>();
+      int size = 0;
+      for (FemElement3dList<? extends FemElement3dBase> elist : myElemLists) {
+         for (int i = 0; i < elist.size(); i++) {
+            FemElement3dBase e = elist.get(i);
+            PackableViscoelasticBehavior veb = getPackableViscoBehavior (e);
+            if (veb != null) {
+               for (IntegrationData3d idat : e.getIntegrationData()) {
+                  pnts.add (idat);
+                  vebs.add (veb);
+                  size += veb.getPackedStateSize();
+               }
+            }
+         }
+      }
+      int npnts = pnts.size();
+      myViscoBuf = new double[size];
+      myViscoPoints = pnts.toArray (new IntegrationData3d[npnts]);
+      myViscoBehaviors =
+         vebs.toArray (new PackableViscoelasticBehavior[npnts]);
+      myViscoOffsets = new int[npnts];
+      myViscoChunks = new int[npnts+1];
+      myNumViscoChunks = 0;
+      DataBuffer tmp = new DataBuffer();
+      int off = 0;
+      for (int p = 0; p < npnts; p++) {
+         PackableViscoelasticBehavior veb = myViscoBehaviors[p];
+         ViscoelasticState state = veb.createState (myViscoBuf, off);
+         ViscoelasticState prev = myViscoPoints[p].getViscoState();
+         if (prev != null && prev.getStateSize() == state.getStateSize()) {
+            tmp.clear();
+            prev.getState (tmp);
+            state.setState (tmp);
+         }
+         myViscoPoints[p].setViscoState (state);
+         myViscoOffsets[p] = off;
+         off += veb.getPackedStateSize();
+         // start a new chunk when the behavior changes or the chunk is full
+         if (p == 0 || veb != myViscoBehaviors[p-1] ||
+             p - myViscoChunks[myNumViscoChunks-1] >= auxStateGrainSize) {
+            myViscoChunks[myNumViscoChunks++] = p;
+         }
+      }
+      myViscoChunks[myNumViscoChunks] = npnts;
+      myNumViscoPoints = npnts;
+      myViscoStatesValidP = true;
+   }
+
+   private void advancePackedViscoStates (double t0, double t1) {
+      ParallelLoop.RangeBody body = (c0, c1) -> {
+         for (int c = c0; c < c1; c++) {
+            int p0 = myViscoChunks[c];
+            int p1 = myViscoChunks[c+1];
+            myViscoBehaviors[p0].advanceStates (
+               myViscoBuf, myViscoOffsets[p0], p1-p0, t0, t1);
+         }
+      };
+      if (parallelAuxStateUpdate) {
+         ParallelLoop.forRange (myNumViscoChunks, 1, body);
+      }
+      else {
+         body.apply (0, myNumViscoChunks);
+      }
+   }
+
    public void advanceAuxState(double t0, double t1) {
 
+      boolean packed = myPackedIntegrationDataP;
+      if (packed) {
+         updatePackedIntegrationData();
+         advancePackedViscoStates (t0, t1);
+      }
       for (FemElement3dList<? extends FemElement3dBase> elist : myElemLists) {
          for (int i = 0; i < elist.size(); i++) {
             FemElement3dBase e = elist.get(i);
             FemMaterial mat = getElementMaterial(e);
             if (mat.getViscoBehavior() != null) {
                ViscoelasticBehavior veb = mat.getViscoBehavior();
+               if (packed && veb instanceof PackableViscoelasticBehavior) {
+                  // already advanced
+                  continue;
+               }
                IntegrationData3d[] idata = e.getIntegrationData();
                for (int k = 0; k < idata.length; k++) {
                   ViscoelasticState state = idata[k].getViscoState();
@@ -4343,6 +4561,10 @@ PointAttachable, ConnectableBody {
       data.zskip (zsize);
    }
 
+   // marks aux state data in which the packed viscoelastic states are
+   // stored as a single block
+   private static final int PACKED_AUX_STATE = -1;
+
    public void getAuxState(DataBuffer data) {
 
       int didx0 = data.dsize();
@@ -4350,9 +4572,21 @@ PointAttachable, ConnectableBody {
       data.zput (0);    // reserve space for storing dsize and zsize
       data.zput (0);
 
+      boolean packed = myPackedIntegrationDataP;
+      if (packed) {
+         updatePackedIntegrationData();
+         data.zput (PACKED_AUX_STATE);
+         data.zput (myNumViscoPoints);
+         data.zput (myViscoBuf.length);
+         data.dput (myViscoBuf, 0, myViscoBuf.length);
+      }
       for (FemElement3dList<? extends FemElement3dBase> elist : myElemLists) {
          for (int i = 0; i < elist.size(); i++) {
-            IntegrationData3d[] idata = elist.get(i).getIntegrationData();
+            FemElement3dBase e = elist.get(i);
+            if (packed && getPackableViscoBehavior (e) != null) {
+               continue;
+            }
+            IntegrationData3d[] idata = e.getIntegrationData();
             for (int k = 0; k < idata.length; k++) {
                idata[k].getState(data);
             }          
@@ -4388,9 +4622,46 @@ PointAttachable, ConnectableBody {
       int dsize = data.zget(); // should use this for sanity checking?
       int zsize = data.zget();
 
+      boolean packed = false;
+      if (zsize > 0 && data.zpeek() == PACKED_AUX_STATE) {
+         int doff0 = data.doffset();
+         int zoff0 = data.zoffset();
+         data.zget();
+         int npnts = data.zget();
+         int size = data.zget();
+         if (myPackedIntegrationDataP) {
+            updatePackedIntegrationData();
+         }
+         if (myPackedIntegrationDataP &&
+             npnts == myNumViscoPoints && size == myViscoBuf.length) {
+            data.dget (myViscoBuf, 0, size);
+            packed = true;
+         }
+         else {
+            // incompatible with the current model, so clear the viscoelastic
+            // states and ignore the remaining data
+            for (FemElement3dList<? extends FemElement3dBase> elist :
+                    myElemLists) {
+               for (int i = 0; i < elist.size(); i++) {
+                  for (IntegrationData3d idat :
+                          elist.get(i).getIntegrationData()) {
+                     idat.clearState();
+                  }
+               }
+            }
+            myViscoStatesValidP = false;
+            data.dsetOffset (doff0 + dsize);
+            data.zsetOffset (zoff0 + zsize);
+            return;
+         }
+      }
       for (FemElement3dList<? extends FemElement3dBase> elist : myElemLists) {
          for (int i = 0; i < elist.size(); i++) {
-            IntegrationData3d[] idata = elist.get(i).getIntegrationData();
+            FemElement3dBase e = elist.get(i);
+            if (packed && getPackableViscoBehavior (e) != null) {
+               continue;
+            }
+            IntegrationData3d[] idata = e.getIntegrationData();
             for (int k = 0; k < idata.length; k++) {
                idata[k].setState (data);
             }
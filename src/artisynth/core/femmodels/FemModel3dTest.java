@@ -7,6 +7,7 @@
 package artisynth.core.femmodels;
 
 import java.io.*;
+import java.util.ArrayList;
 
 import maspack.util.*;
 import maspack.matrix.*;
@@ -15,6 +16,7 @@ import maspack.spatialmotion.*;
 
 import artisynth.core.mechmodels.*;
 import artisynth.core.materials.*;
+import artisynth.core.modelbase.NumericState;
 
 public class FemModel3dTest extends UnitTest {
 
@@ -294,8 +296,202 @@ public class FemModel3dTest extends UnitTest {
 
 
 
+   private MechModel createViscousBeam (boolean packed) {
+      FemModel3d fem = FemFactory.createHexGrid (null, 1.0, 0.2, 0.2, 4, 1, 1);
+      FemMaterial mat = new MooneyRivlinMaterial (50000.0, 0, 0, 0, 0, 2e6);
+      QLVBehavior qlv = new QLVBehavior();
+      qlv.setTau (0.1, 0.01, 0, 0, 0, 0);
+      qlv.setGamma (0.9, 0.2, 0, 0, 0, 0);
+      mat.setViscoBehavior (qlv);
+      fem.setMaterial (mat);
+      fem.setDensity (1000);
+      fem.setComputeNodalStress (true);
+      fem.setPackedIntegrationData (packed);
+      for (FemNode3d n : fem.getNodes()) {
+         if (n.getPosition().x < -0.5+1e-8) {
+            n.setDynamic (false);
+         }
+      }
+      MechModel mech = new MechModel();
+      mech.addModel (fem);
+      return mech;
+   }
+
+   private void checkSameState (
+      String msg, MechModel mech0, MechModel mech1, double tol) {
+      FemModel3d fem0 = (FemModel3d)mech0.models().get(0);
+      FemModel3d fem1 = (FemModel3d)mech1.models().get(0);
+      for (int i=0; i<fem0.numNodes(); i++) {
+         FemNode3d n0 = fem0.getNodes().get(i);
+         FemNode3d n1 = fem1.getNodes().get(i);
+         checkEquals (
+            msg+": position of node "+i,
+            n1.getPosition(), n0.getPosition(), tol);
+         checkEquals (
+            msg+": internal force of node "+i,
+            n1.getInternalForce(), n0.getInternalForce(),
+            tol*n0.getInternalForce().norm());
+         checkEquals (
+            msg+": stress of node "+i,
+            n1.getStress(), n0.getStress(), tol*n0.getStress().frobeniusNorm());
+      }
+      for (int i=0; i<fem0.numElements(); i++) {
+         IntegrationData3d[] idata0 = fem0.getElement(i).getIntegrationData();
+         IntegrationData3d[] idata1 = fem1.getElement(i).getIntegrationData();
+         for (int k=0; k<idata0.length; k++) {
+            DataBuffer state0 = new DataBuffer();
+            DataBuffer state1 = new DataBuffer();
+            idata0[k].getState (state0);
+            idata1[k].getState (state1);
+            checkEquals (
+               msg+": visco state size, element "+i+" point "+k,
+               state1.dsize(), state0.dsize());
+            for (int j=0; j<state0.dsize(); j++) {
+               double v0 = state0.dpeek(j);
+               double v1 = state1.dpeek(j);
+               if (Math.abs (v1-v0) > tol*Math.max(1, Math.abs(v0))) {
+                  throw new TestException (
+                     msg+": visco state value "+j+", element "+i+
+                     " point "+k+", is "+v1+", expected "+v0);
+               }
+            }
+         }
+      }
+      MatrixNd K0 = new MatrixNd (mech0.getActiveStiffnessMatrix());
+      MatrixNd K1 = new MatrixNd (mech1.getActiveStiffnessMatrix());
+      checkEquals (msg+": stiffness", K1, K0, tol*K0.frobeniusNorm());
+   }
+
+   private double advance (MechModel mech, double t0, double h, int nsteps) {
+      for (int i=0; i<nsteps; i++) {
+         double t1 = t0 + h;
+         mech.preadvance (t0, t1, /*flags=*/0);
+         mech.advance (t0, t1, /*flags=*/0);
+         t0 = t1;
+      }
+      return t0;
+   }
+
+   /**
+    * Checks that packed viscoelastic states give the same stress and
+    * stiffness as per-point states, for a beam with a viscoelastic material
+    * that supports packing.
+    */
+   public void testPackedViscoStates() {
+      MechModel mech0 = createViscousBeam (/*packed=*/false);
+      MechModel mech1 = createViscousBeam (/*packed=*/true);
+      advance (mech0, 0, 0.01, 50);
+      advance (mech1, 0, 0.01, 50);
+      checkSameState ("packed", mech0, mech1, 1e-10);
+   }
+
+   /**
+    * Checks that state saved in the packed aux state format can be restored,
+    * both into the model it came from and into a new model, and that a model
+    * with per-point storage ignores it and clears its viscoelastic states.
+    */
+   public void testPackedAuxState() {
+      MechModel mech0 = createViscousBeam (/*packed=*/false);
+      MechModel mech1 = createViscousBeam (/*packed=*/true);
+      FemModel3d fem1 = (FemModel3d)mech1.models().get(0);
+      double h = 0.01;
+      double t = advance (mech0, 0, h, 20);
+      advance (mech1, 0, h, 20);
+
+      // aux state should be stored as a single packed block
+      DataBuffer data = new DataBuffer();
+      fem1.getAuxState (data);
+      int numd = data.zpeek(0);
+      checkEquals ("packed aux state marker", data.zpeek(2), -1);
+      checkEquals ("packed aux state size", data.zpeek(4), numd);
+      NumericState saved = new NumericState();
+      mech1.getState (saved);
+
+      // advance mech1 further, then restore it and check that it follows
+      // the same trajectory as mech0
+      advance (mech1, t, h, 20);
+      mech1.setState (saved);
+      DataBuffer check = new DataBuffer();
+      fem1.getAuxState (check);
+      check ("restored aux state differs from saved aux state",
+             data.equals (check));
+      advance (mech0, t, h, 20);
+      advance (mech1, t, h, 20);
+      checkSameState ("restored packed state", mech0, mech1, 1e-10);
+
+      // restore the state into a new model that has not yet been advanced
+      MechModel mech2 = createViscousBeam (/*packed=*/true);
+      mech2.setState (saved);
+      advance (mech2, t, h, 20);
+      checkSameState ("packed state in new model", mech0, mech2, 1e-10);
+
+      // a model with per-point storage can't use the packed state, and so
+      // should clear its viscoelastic states
+      MechModel mech3 = createViscousBeam (/*packed=*/false);
+      FemModel3d fem3 = (FemModel3d)mech3.models().get(0);
+      advance (mech3, 0, h, 20);
+      data.resetOffsets();
+      fem3.setAuxState (data);
+      for (FemElement3d e : fem3.getElements()) {
+         for (IntegrationData3d idat : e.getIntegrationData()) {
+            check ("visco state not cleared", idat.getViscoState() == null);
+         }
+      }
+   }
+
+   /**
+    * Checks that adding a batch of elements, one of which references a node
+    * outside the model, fails and leaves the model unchanged.
+    */
+   public void testAddElementsRollback() {
+      FemModel3d fem = FemFactory.createTetGrid (null, 1.0, 1.0, 1.0, 2, 2, 2);
+      FemModel3d other = FemFactory.createTetGrid (null, 1.0, 1.0, 1.0, 1, 1, 1);
+      int numElems = fem.numElements();
+      int nextNum = fem.getElements().nextComponentNumber();
+
+      ArrayList<FemElement3d> elems = new ArrayList<FemElement3d>();
+      FemNode3d n0 = fem.getNode(0);
+      FemNode3d n1 = fem.getNode(1);
+      FemNode3d n2 = fem.getNode(3);
+      FemNode3d n3 = fem.getNode(9);
+      elems.add (new TetElement (n0, n1, n2, n3));
+      elems.add (new TetElement (n0, n1, n2, n3));
+      elems.add (new TetElement (n0, n1, n2, other.getNode(0)));
+      int numAdjacent = n0.numAdjacentElements();
+      try {
+         fem.addElements (elems);
+         throw new TestException (
+            "addElements() did not fail with an external node reference");
+      }
+      catch (TestException e) {
+         throw e;
+      }
+      catch (RuntimeException e) {
+         // expected
+      }
+      checkEquals ("number of elements", fem.numElements(), numElems);
+      checkEquals ("next element number",
+                   fem.getElements().nextComponentNumber(), nextNum);
+      checkEquals ("adjacent elements of node 0",
+                   n0.numAdjacentElements(), numAdjacent);
+      for (FemElement3d e : elems) {
+         check ("element parent not cleared", e.getParent() == null);
+      }
+      // elements can then be added without the bad element
+      elems.remove (2);
+      fem.addElements (elems);
+      checkEquals ("number of elements", fem.numElements(), numElems+2);
+      checkEquals ("number of new element",
+                   elems.get(0).getNumber(), nextNum);
+      checkEquals ("adjacent elements of node 0",
+                   n0.numAdjacentElements(), numAdjacent+2);
+   }
+
    public void test() {
       testFrameRelativeMass();
+      testPackedViscoStates();
+      testPackedAuxState();
+      testAddElementsRollback();
    }
 
    public static void main (String[] args) {
@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import maspack.matrix.Point3d;
+import maspack.util.*;
+import artisynth.core.util.NumericLineParser;
+
+/**
+ * Round-trip tests for the Abaqus, ANSYS, TetGen and VTK readers. Models
+ * are written out, read back in, and checked against the original model.
+ * For readers that parse their data in parallel chunks, the data is read
+ * both as a single chunk, which parses it serially, and as many small
+ * chunks, and the results are checked to be identical.
+ */
+public class FemReaderTest extends UnitTest {
+
+   private static final double DENSITY = 1000;
+
+   private static interface ModelReader {
+      FemModel3d read() throws IOException;
+   }
+
+   private FemModel3d createHexModel() {
+      FemModel3d fem = FemFactory.createHexGrid (null, 1.2, 0.8, 0.6, 6, 4, 3);
+      perturbNodes (fem);
+      return fem;
+   }
+
+   private FemModel3d createTetModel() {
+      FemModel3d fem = FemFactory.createTetGrid (null, 1.2, 0.8, 0.6, 6, 4, 3);
+      perturbNodes (fem);
+      return fem;
+   }
+
+   // moves the nodes off the grid so that positions are distinctive
+   private void perturbNodes (FemModel3d fem) {
+      for (FemNode3d n : fem.getNodes()) {
+         Point3d pos = n.getPosition();
+         pos.x += 0.01*RandomGenerator.nextDouble (-1, 1);
+         pos.y += 0.01*RandomGenerator.nextDouble (-1, 1);
+         pos.z += 0.01*RandomGenerator.nextDouble (-1, 1);
+         n.getRestPosition().set (pos);
+      }
+   }
+
+   // returns the sorted node indices of an element
+   private int[] nodeIndices (FemModel3d fem, FemElement3d elem) {
+      FemNode3d[] nodes = elem.getNodes();
+      int[] idxs = new int[nodes.length];
+      for (int i=0; i<nodes.length; i++) {
+         idxs[i] = fem.getNodes().indexOf (nodes[i]);
+      }
+      Arrays.sort (idxs);
+      return idxs;
+   }
+
+   private void checkSameModel (
+      String msg, FemModel3d result, FemModel3d check, double tol) {
+
+      checkEquals (msg+", number of nodes", result.numNodes(), check.numNodes());
+      for (int i=0; i<check.numNodes(); i++) {
+         checkEquals (
+            msg+", node "+i+" position",
+            result.getNode(i).getPosition(), check.getNode(i).getPosition(),
+            tol);
+      }
+      checkEquals (
+         msg+", number of elements", result.numElements(), check.numElements());
+      for (int i=0; i<check.numElements(); i++) {
+         FemElement3d relem = result.getElement(i);
+         FemElement3d celem = check.getElement(i);
+         checkEquals (
+            msg+", element "+i+" type", relem.getClass(), celem.getClass());
+         int[] ridxs = nodeIndices (result, relem);
+         int[] cidxs = nodeIndices (check, celem);
+         if (!Arrays.equals (ridxs, cidxs)) {
+            throw new TestException (
+               msg+", element "+i+" nodes are "+Arrays.toString(ridxs)+
+               ", expected "+Arrays.toString(cidxs));
+         }
+      }
+   }
+
+   /**
+    * Reads a model with a single chunk (serial parsing) and with many small
+    * chunks (parallel parsing), checks that the results are identical, and
+    * checks them against the original model.
+    */
+   private void checkReader (
+      String msg, ModelReader reader, FemModel3d orig, double tol)
+      throws IOException {
+
+      int saveChunkSize = NumericLineParser.chunkSize;
+      FemModel3d serial;
+      FemModel3d chunked;
+      try {
+         NumericLineParser.chunkSize = Integer.MAX_VALUE;
+         serial = reader.read();
+         NumericLineParser.chunkSize = 256;
+         chunked = reader.read();
+      }
+      finally {
+         NumericLineParser.chunkSize = saveChunkSize;
+      }
+      checkSameModel (msg+" (chunked vs. serial)", chunked, serial, 0);
+      checkSameModel (msg, serial, orig, tol);
+   }
+
+   public void testAbaqus() throws IOException {
+      final FemModel3d orig = createHexModel();
+      StringWriter sw = new StringWriter();
+      AbaqusWriter.write (orig, new PrintWriter (sw));
+      final String text = sw.toString();
+      checkReader ("Abaqus", new ModelReader() {
+            public FemModel3d read() throws IOException {
+               return AbaqusReader.read (
+                  null, new StringReader (text), DENSITY, new File[0]);
+            }
+         }, orig, 1e-8);
+   }
+
+   public void testAnsys() throws IOException {
+      final FemModel3d orig = createHexModel();
+      StringWriter nsw = new StringWriter();
+      AnsysWriter.writeNodeFile (orig, new PrintWriter (nsw));
+      StringWriter esw = new StringWriter();
+      AnsysWriter.writeElemFile (orig, new PrintWriter (esw));
+      final String nodeText = nsw.toString();
+      final String elemText = esw.toString();
+      checkReader ("ANSYS", new ModelReader() {
+            public FemModel3d read() throws IOException {
+               return AnsysReader.read (
+                  null, new StringReader (nodeText),
+                  new StringReader (elemText), DENSITY, null, 0);
+            }
+         }, orig, 1e-8);
+   }
+
+   public void testTetGen() throws IOException {
+      final FemModel3d orig = createTetModel();
+      File nodeFile = File.createTempFile ("femReaderTest", ".node");
+      File elemFile = File.createTempFile ("femReaderTest", ".ele");
+      try {
+         TetGenWriter.writeNodeFile (orig, nodeFile.getPath());
+         TetGenWriter.writeElemFile (orig, elemFile.getPath());
+         final String nodePath = nodeFile.getPath();
+         final String elemPath = elemFile.getPath();
+         // TetGen node coordinates are written with 6 significant digits
+         checkReader ("TetGen", new ModelReader() {
+               public FemModel3d read() throws IOException {
+                  return TetGenReader.read (
+                     (FemModel3d)null, DENSITY, nodePath, elemPath, null);
+               }
+            }, orig, 1e-5);
+      }
+      finally {
+         nodeFile.delete();
+         elemFile.delete();
+      }
+   }
+
+   // writes a model in legacy VTK ASCII format
+   private String writeVtk (FemModel3d fem) {
+      StringWriter sw = new StringWriter();
+      PrintWriter pw = new PrintWriter (sw);
+      pw.println ("# vtk DataFile Version 2.0");
+      pw.println ("FemReaderTest");
+      pw.println ("ASCII");
+      pw.println ("DATASET UNSTRUCTURED_GRID");
+      pw.println ("POINTS " + fem.numNodes() + " double");
+      for (FemNode3d n : fem.getNodes()) {
+         Point3d pos = n.getPosition();
+         pw.println (pos.x + " " + pos.y + " " + pos.z);
+      }
+      int nnums = 0;
+      for (FemElement3d e : fem.getElements()) {
+         nnums += e.numNodes()+1;
+      }
+      pw.println ("CELLS " + fem.numElements() + " " + nnums);
+      for (FemElement3d e : fem.getElements()) {
+         StringBuilder sb = new StringBuilder();
+         sb.append (e.numNodes());
+         for (FemNode3d n : e.getNodes()) {
+            sb.append (" " + fem.getNodes().indexOf (n));
+         }
+         pw.println (sb.toString());
+      }
+      pw.println ("CELL_TYPES " + fem.numElements());
+      for (int i=0; i<fem.numElements(); i++) {
+         pw.println ("10");
+      }
+      pw.flush();
+      return sw.toString();
+   }
+
+   public void testVtkAscii() throws IOException {
+      FemModel3d orig = createTetModel();
+      FemModel3d fem = VtkAsciiReader.read (
+         null, new StringReader (writeVtk (orig)));
+      checkSameModel ("VTK", fem, orig, 0);
+   }
+
+   public void test() throws IOException {
+      testAbaqus();
+      testAnsys();
+      testTetGen();
+      testVtkAscii();
+   }
+
+   public static void main (String[] args) {
+      FemReaderTest tester = new FemReaderTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
@@ -379,6 +379,39 @@ public class LinearMaterialCache {
       }
    }
   
+   /**
+    * Computes the stiffness-induced forces for all nodes at once, using
+    * <pre>
+    * y = K00 x - f0
+    * </pre>
+    * where <code>x</code> and <code>y</code> contain the positions and forces
+    * for each node, packed into arrays of length 3 times the number of nodes.
+    *
+    * @param y returns the node forces
+    * @param x node positions
+    */
+   public void computeNodeForces (double[] y, double[] x) {
+      int k = 0;
+      for (int i=0; i<nnodes; i++) {
+         double yx = 0;
+         double yy = 0;
+         double yz = 0;
+         for (int j=0; j<nnodes; j++) {
+            Matrix3d K = K00[k++];
+            double xx = x[3*j];
+            double xy = x[3*j+1];
+            double xz = x[3*j+2];
+            yx += K.m00*xx + K.m01*xy + K.m02*xz;
+            yy += K.m10*xx + K.m11*xy + K.m12*xz;
+            yz += K.m20*xx + K.m21*xy + K.m22*xz;
+         }
+         Vector3d f = f0[i];
+         y[3*i  ] = yx - f.x;
+         y[3*i+1] = yy - f.y;
+         y[3*i+2] = yz - f.z;
+      }
+   }
+
    /**
     * Retrieves the K00 contribution between nodes i and j
     * @param i first node index
@@ -0,0 +1,776 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.geometry.MeshBase;
+import maspack.geometry.Vertex3d;
+import maspack.matrix.DualQuaternion;
+import maspack.matrix.Point3d;
+import maspack.matrix.RigidTransform3d;
+import maspack.matrix.RotationMatrix3d;
+import maspack.matrix.Vector3d;
+import maspack.spatialmotion.Wrench;
+import artisynth.core.femmodels.PointSkinAttachment.BaseConnection;
+import artisynth.core.femmodels.PointSkinAttachment.Connection;
+import artisynth.core.femmodels.PointSkinAttachment.FemDisplacementConnection;
+import artisynth.core.femmodels.PointSkinAttachment.FrameConnection;
+import artisynth.core.femmodels.PointSkinAttachment.ParticleConnection;
+import artisynth.core.femmodels.SkinMeshBody.FrameBlending;
+import artisynth.core.femmodels.SkinMeshBody.FrameInfo;
+import artisynth.core.mechmodels.Frame;
+import artisynth.core.mechmodels.Particle;
+
+/**
+ * Packed representation of the vertex attachments of a {@link SkinMeshBody},
+ * used to update vertex positions, and to propagate vertex forces back to
+ * the master components, without walking the per-vertex connection objects.
+ *
+ * <p>The connections of all the vertex attachments are flattened into
+ * compressed row arrays of master indices and connections, one set each for
+ * frame, FEM displacement, particle and base connections. At each update,
+ * the frame blend transforms, node displacements and particle positions are
+ * gathered once into flat arrays, after which the vertices are updated
+ * independently in parallel chunks.
+ *
+ * <p>Attachments which are not plain <code>PointSkinAttachments</code>, or
+ * which contain connections of other types, are handled by calling the
+ * attachments themselves. Connection weights and base positions are read
+ * from the connections and attachments at each update, so changing them does
+ * not require the packing to be rebuilt. Changes to the attachments, their
+ * connections, or the frames of the skin mesh do require a rebuild, and are
+ * detected by {@link #matches}, which <code>SkinMeshBody</code> calls before
+ * each update.
+ */
+class PackedSkinning {
+
+   // vertex types
+   private static final byte NONE = 0;     // vertex has no attachment
+   private static final byte PACKED = 1;   // vertex is updated from the arrays
+   private static final byte GENERAL = 2;  // vertex is updated by attachment
+
+   int myNumVertices;
+   int myNumAttachments;
+   byte[] myTypes;
+   PointSkinAttachment[] myAttachments;
+   int[] myGeneralVertices;
+
+   // connection arrays and counts of the attachments when the packing was
+   // built, used to detect changes to their connections
+   Connection[][] myConnectionArrays;
+   int[] myNumConnections;
+
+   // base connections, in compressed row format
+   int[] myBaseOffs;
+   Connection[] myBaseConns;
+
+   // frame connections, in compressed row format
+   FrameInfo[] myFrameInfos;
+   int[] myFrameOffs;
+   int[] myFrameIdxs;
+   Connection[] myFrameConns;
+
+   // FEM displacement connections, in compressed row format, along with
+   // the transpose that is used to gather forces for each node
+   FemNode3d[] myNodes;
+   int[] myNodeOffs;
+   int[] myNodeIdxs;
+   Connection[] myNodeConns;
+   int[] myNodeVtxOffs;
+   int[] myNodeVtxs;
+   Connection[] myNodeVtxConns;
+
+   // particle connections, in compressed row format, along with the
+   // transpose that is used to gather forces for each particle
+   Particle[] myParticles;
+   int[] myParticleOffs;
+   int[] myParticleIdxs;
+   Connection[] myParticleConns;
+   int[] myParticleVtxOffs;
+   int[] myParticleVtxs;
+   Connection[] myParticleVtxConns;
+
+   // per-update master data
+   double[] myFrameXforms;   // 3 x 4 delta pose matrices, row major
+   double[] myFrameQuats;    // dual quaternions, as (a, A, b, B)
+   double[] myFrameArms;     // 3 x 4 moment arm transforms, row major
+   double[] myNodeDisps;     // node displacements from rest
+   double[] myParticlePos;   // particle positions
+
+   /**
+    * Scratch space for the thread performing an update.
+    */
+   private class Workspace {
+      double[] q = new double[8];
+      double[] res = new double[3];
+      Vector3d f = new Vector3d();
+      // used for iterative dual quaternion blending
+      double[] iterWgts = new double[myFrameInfos.length];
+      DualQuaternion[] iterQuats = new DualQuaternion[myFrameInfos.length];
+      DualQuaternion iterQ = new DualQuaternion();
+      Point3d base = new Point3d();
+      Point3d tmp = new Point3d();
+   }
+
+   private ThreadLocal<Workspace> myWorkspaces =
+      new ThreadLocal<Workspace>() {
+         protected Workspace initialValue() {
+            return new Workspace();
+         }
+      };
+
+   /**
+    * Growable compressed row storage used while building the packing.
+    */
+   private static class RowBuilder {
+      int[] myOffs;
+      int[] myIdxs = new int[64];
+      Connection[] myConns = new Connection[64];
+      int mySize;
+
+      RowBuilder (int nrows) {
+         myOffs = new int[nrows+1];
+      }
+
+      void add (int idx, Connection c) {
+         if (mySize == myIdxs.length) {
+            myIdxs = Arrays.copyOf (myIdxs, 2*mySize);
+            myConns = Arrays.copyOf (myConns, 2*mySize);
+         }
+         myIdxs[mySize] = idx;
+         myConns[mySize] = c;
+         mySize++;
+      }
+
+      void endRow (int row) {
+         myOffs[row+1] = mySize;
+      }
+
+      void truncateRow (int row) {
+         mySize = myOffs[row];
+      }
+
+      int[] getIdxs() {
+         return Arrays.copyOf (myIdxs, mySize);
+      }
+
+      Connection[] getConns() {
+         return Arrays.copyOf (myConns, mySize);
+      }
+   }
+
+   /**
+    * Creates the packed representation of the current vertex attachments of
+    * a skin mesh.
+    */
+   PackedSkinning (SkinMeshBody skin) {
+      MeshBase mesh = skin.getMesh();
+      int numv = mesh.numVertices();
+      int numa = Math.min (skin.numAttachments(), numv);
+      myNumVertices = numv;
+      myNumAttachments = skin.numAttachments();
+
+      List<FrameInfo> frameInfos = skin.getAllFrameInfo();
+      myFrameInfos = frameInfos.toArray (new FrameInfo[0]);
+      IdentityHashMap<FrameInfo,Integer> frameMap =
+         new IdentityHashMap<FrameInfo,Integer>();
+      for (int k=0; k<myFrameInfos.length; k++) {
+         frameMap.put (myFrameInfos[k], k);
+      }
+      IdentityHashMap<FemNode3d,Integer> nodeMap =
+         new IdentityHashMap<FemNode3d,Integer>();
+      ArrayList<FemNode3d> nodes = new ArrayList<FemNode3d>();
+      IdentityHashMap<Particle,Integer> particleMap =
+         new IdentityHashMap<Particle,Integer>();
+      ArrayList<Particle> particles = new ArrayList<Particle>();
+
+      myTypes = new byte[numv];
+      myAttachments = new PointSkinAttachment[numv];
+      myConnectionArrays = new Connection[numv][];
+      myNumConnections = new int[numv];
+      RowBuilder baseRows = new RowBuilder (numv);
+      RowBuilder frameRows = new RowBuilder (numv);
+      RowBuilder nodeRows = new RowBuilder (numv);
+      RowBuilder particleRows = new RowBuilder (numv);
+      ArrayList<Integer> general = new ArrayList<Integer>();
+
+      for (int i=0; i<numv; i++) {
+         PointSkinAttachment a = (i < numa ? skin.getAttachment (i) : null);
+         myAttachments[i] = a;
+         if (a == null) {
+            myTypes[i] = NONE;
+         }
+         else {
+            myConnectionArrays[i] = a.myConnections;
+            myNumConnections[i] = a.myNumConnections;
+            if (a.getClass() == PointSkinAttachment.class &&
+                addConnections (
+                   a, frameMap, nodeMap, nodes, particleMap, particles,
+                   baseRows, frameRows, nodeRows, particleRows)) {
+               myTypes[i] = PACKED;
+            }
+            else {
+               // discard any partially added connections
+               baseRows.truncateRow (i);
+               frameRows.truncateRow (i);
+               nodeRows.truncateRow (i);
+               particleRows.truncateRow (i);
+               myTypes[i] = GENERAL;
+               general.add (i);
+            }
+         }
+         baseRows.endRow (i);
+         frameRows.endRow (i);
+         nodeRows.endRow (i);
+         particleRows.endRow (i);
+      }
+      myGeneralVertices = new int[general.size()];
+      for (int k=0; k<myGeneralVertices.length; k++) {
+         myGeneralVertices[k] = general.get(k);
+      }
+
+      myBaseOffs = baseRows.myOffs;
+      myBaseConns = baseRows.getConns();
+
+      myFrameOffs = frameRows.myOffs;
+      myFrameIdxs = frameRows.getIdxs();
+      myFrameConns = frameRows.getConns();
+
+      myNodes = nodes.toArray (new FemNode3d[0]);
+      myNodeOffs = nodeRows.myOffs;
+      myNodeIdxs = nodeRows.getIdxs();
+      myNodeConns = nodeRows.getConns();
+      myNodeVtxOffs = new int[myNodes.length+1];
+      myNodeVtxs = new int[myNodeIdxs.length];
+      myNodeVtxConns = new Connection[myNodeIdxs.length];
+      transpose (
+         myNodeVtxOffs, myNodeVtxs, myNodeVtxConns,
+         myNodeOffs, myNodeIdxs, myNodeConns);
+
+      myParticles = particles.toArray (new Particle[0]);
+      myParticleOffs = particleRows.myOffs;
+      myParticleIdxs = particleRows.getIdxs();
+      myParticleConns = particleRows.getConns();
+      myParticleVtxOffs = new int[myParticles.length+1];
+      myParticleVtxs = new int[myParticleIdxs.length];
+      myParticleVtxConns = new Connection[myParticleIdxs.length];
+      transpose (
+         myParticleVtxOffs, myParticleVtxs, myParticleVtxConns,
+         myParticleOffs, myParticleIdxs, myParticleConns);
+
+      myFrameXforms = new double[12*myFrameInfos.length];
+      myFrameQuats = new double[8*myFrameInfos.length];
+      myFrameArms = new double[12*myFrameInfos.length];
+      myNodeDisps = new double[3*myNodes.length];
+      myParticlePos = new double[3*myParticles.length];
+   }
+
+   /**
+    * Adds the connections of an attachment to the row arrays. Returns
+    * <code>false</code> if the attachment contains a connection that cannot
+    * be packed.
+    */
+   private boolean addConnections (
+      PointSkinAttachment a,
+      IdentityHashMap<FrameInfo,Integer> frameMap,
+      IdentityHashMap<FemNode3d,Integer> nodeMap, ArrayList<FemNode3d> nodes,
+      IdentityHashMap<Particle,Integer> particleMap,
+      ArrayList<Particle> particles, RowBuilder baseRows,
+      RowBuilder frameRows, RowBuilder nodeRows, RowBuilder particleRows) {
+
+      for (int k=0; k<a.numConnections(); k++) {
+         Connection c = a.getConnection (k);
+         Class<?> cclass = c.getClass();
+         if (cclass == FrameConnection.class) {
+            Integer fidx = frameMap.get (((FrameConnection)c).myFrameInfo);
+            if (fidx == null) {
+               return false;
+            }
+            frameRows.add (fidx, c);
+         }
+         else if (cclass == FemDisplacementConnection.class) {
+            FemNode3d node = ((FemDisplacementConnection)c).myNode;
+            if (node == null) {
+               return false;
+            }
+            Integer nidx = nodeMap.get (node);
+            if (nidx == null) {
+               nidx = nodes.size();
+               nodeMap.put (node, nidx);
+               nodes.add (node);
+            }
+            nodeRows.add (nidx, c);
+         }
+         else if (cclass == ParticleConnection.class) {
+            Particle particle = ((ParticleConnection)c).myParticle;
+            if (particle == null) {
+               return false;
+            }
+            Integer pidx = particleMap.get (particle);
+            if (pidx == null) {
+               pidx = particles.size();
+               particleMap.put (particle, pidx);
+               particles.add (particle);
+            }
+            particleRows.add (pidx, c);
+         }
+         else if (cclass == BaseConnection.class) {
+            baseRows.add (0, c);
+         }
+         else {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Forms the transpose of a compressed row structure with
+    * <code>offs.length-1</code> rows, giving for each column the rows that
+    * reference it, along with their connections.
+    */
+   private static void transpose (
+      int[] toffs, int[] trows, Connection[] tconns,
+      int[] offs, int[] idxs, Connection[] conns) {
+
+      int ncols = toffs.length-1;
+      for (int k=0; k<idxs.length; k++) {
+         toffs[idxs[k]+1]++;
+      }
+      for (int j=0; j<ncols; j++) {
+         toffs[j+1] += toffs[j];
+      }
+      int[] fill = Arrays.copyOf (toffs, ncols);
+      for (int i=0; i<offs.length-1; i++) {
+         for (int k=offs[i]; k<offs[i+1]; k++) {
+            int pos = fill[idxs[k]]++;
+            trows[pos] = i;
+            tconns[pos] = conns[k];
+         }
+      }
+   }
+
+   /**
+    * Returns <code>true</code> if this packing is consistent with the
+    * current attachments and frames of its skin mesh. Attachments whose
+    * connections have been replaced, added or removed since the packing was
+    * built are detected by comparing their connection arrays and counts.
+    */
+   boolean matches (SkinMeshBody skin) {
+      MeshBase mesh = skin.getMesh();
+      if (mesh == null ||
+          mesh.numVertices() != myNumVertices ||
+          skin.numAttachments() != myNumAttachments) {
+         return false;
+      }
+      List<FrameInfo> frameInfos = skin.getAllFrameInfo();
+      if (frameInfos.size() != myFrameInfos.length) {
+         return false;
+      }
+      for (int k=0; k<myFrameInfos.length; k++) {
+         if (frameInfos.get(k) != myFrameInfos[k]) {
+            return false;
+         }
+      }
+      int numa = Math.min (myNumAttachments, myNumVertices);
+      for (int i=0; i<numa; i++) {
+         PointSkinAttachment a = skin.getAttachment (i);
+         if (a != myAttachments[i]) {
+            return false;
+         }
+         if (a != null &&
+             (a.myConnections != myConnectionArrays[i] ||
+              a.myNumConnections != myNumConnections[i])) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private int grainSize() {
+      return (SkinMeshBody.parallelSkinning ?
+              SkinMeshBody.parallelSkinningGrainSize : Integer.MAX_VALUE);
+   }
+
+   /**
+    * Gathers the frame transforms, node displacements and particle positions
+    * that are needed to update the vertex positions.
+    */
+   private void gatherMasterData (FrameBlending blending) {
+      double[] qvals = myWorkspaces.get().q;
+      for (int k=0; k<myFrameInfos.length; k++) {
+         if (blending == FrameBlending.LINEAR) {
+            RigidTransform3d X = myFrameInfos[k].getDeltaPose();
+            RotationMatrix3d R = X.R;
+            double[] xf = myFrameXforms;
+            int off = 12*k;
+            xf[off   ] = R.m00; xf[off+ 1] = R.m01; xf[off+ 2] = R.m02;
+            xf[off+ 3] = X.p.x;
+            xf[off+ 4] = R.m10; xf[off+ 5] = R.m11; xf[off+ 6] = R.m12;
+            xf[off+ 7] = X.p.y;
+            xf[off+ 8] = R.m20; xf[off+ 9] = R.m21; xf[off+10] = R.m22;
+            xf[off+11] = X.p.z;
+         }
+         else {
+            DualQuaternion dq = myFrameInfos[k].getBlendQuaternion();
+            dq.get (qvals);
+            System.arraycopy (qvals, 0, myFrameQuats, 8*k, 8);
+         }
+      }
+      final double[] disps = myNodeDisps;
+      final FemNode3d[] nodes = myNodes;
+      ParallelLoop.forRange (nodes.length, grainSize(), (j0, j1) -> {
+            for (int j=j0; j<j1; j++) {
+               Point3d pos = nodes[j].getPosition();
+               Point3d rest = nodes[j].getRestPosition();
+               disps[3*j  ] = pos.x - rest.x;
+               disps[3*j+1] = pos.y - rest.y;
+               disps[3*j+2] = pos.z - rest.z;
+            }
+         });
+      for (int j=0; j<myParticles.length; j++) {
+         Point3d pos = myParticles[j].getPosition();
+         myParticlePos[3*j  ] = pos.x;
+         myParticlePos[3*j+1] = pos.y;
+         myParticlePos[3*j+2] = pos.z;
+      }
+   }
+
+   /**
+    * Updates the positions of the mesh vertices from the current state of
+    * the master components. The frame information of the skin mesh should
+    * already have been updated.
+    */
+   void updateVertexPositions (MeshBase mesh, FrameBlending blending) {
+      gatherMasterData (blending);
+      final ArrayList<Vertex3d> vtxs = mesh.getVertices();
+      final FrameBlending fblending = blending;
+      ParallelLoop.forRange (myNumVertices, grainSize(), (i0, i1) -> {
+            updateVertexPositions (vtxs, fblending, i0, i1);
+         });
+      // attachments that are not packed are updated serially, since their
+      // connections may not be thread safe
+      Point3d pos = myWorkspaces.get().tmp;
+      for (int i : myGeneralVertices) {
+         myAttachments[i].getCurrentPos (pos);
+         vtxs.get(i).setPosition (pos);
+      }
+      mesh.notifyVertexPositionsModified();
+   }
+
+   private void updateVertexPositions (
+      ArrayList<Vertex3d> vtxs, FrameBlending blending, int i0, int i1) {
+
+      double[] xf = myFrameXforms;
+      double[] fq = myFrameQuats;
+      Workspace work = myWorkspaces.get();
+      double[] q = work.q;
+      double[] res = work.res;
+      double[] iterWgts = work.iterWgts;
+      DualQuaternion[] iterQuats = work.iterQuats;
+      for (int i=i0; i<i1; i++) {
+         if (myTypes[i] != PACKED) {
+            continue;
+         }
+         Point3d basePos = myAttachments[i].myBasePos;
+         double bx = basePos.x;
+         double by = basePos.y;
+         double bz = basePos.z;
+         double wb = 0;
+         for (int k=myBaseOffs[i]; k<myBaseOffs[i+1]; k++) {
+            wb += myBaseConns[k].myWeight;
+         }
+         double px = wb*bx;
+         double py = wb*by;
+         double pz = wb*bz;
+
+         int k0 = myFrameOffs[i];
+         int k1 = myFrameOffs[i+1];
+         if (k1 > k0) {
+            switch (blending) {
+               case LINEAR: {
+                  for (int k=k0; k<k1; k++) {
+                     int off = 12*myFrameIdxs[k];
+                     double w = myFrameConns[k].myWeight;
+                     px += w*(xf[off  ]*bx+xf[off+1]*by+xf[off+ 2]*bz+xf[off+ 3]);
+                     py += w*(xf[off+4]*bx+xf[off+5]*by+xf[off+ 6]*bz+xf[off+ 7]);
+                     pz += w*(xf[off+8]*bx+xf[off+9]*by+xf[off+10]*bz+xf[off+11]);
+                  }
+                  break;
+               }
+               case DUAL_QUATERNION_LINEAR: {
+                  double dualw = 0;
+                  for (int j=0; j<8; j++) {
+                     q[j] = 0;
+                  }
+                  for (int k=k0; k<k1; k++) {
+                     int off = 8*myFrameIdxs[k];
+                     double w = myFrameConns[k].myWeight;
+                     for (int j=0; j<8; j++) {
+                        q[j] += w*fq[off+j];
+                     }
+                     dualw += w;
+                  }
+                  normalizeAndTransform (res, q, bx, by, bz);
+                  px += dualw*res[0];
+                  py += dualw*res[1];
+                  pz += dualw*res[2];
+                  break;
+               }
+               case DUAL_QUATERNION_ITERATIVE: {
+                  double dualw = 0;
+                  int nf = 0;
+                  for (int k=k0; k<k1; k++) {
+                     double w = myFrameConns[k].myWeight;
+                     iterQuats[nf] =
+                        myFrameInfos[myFrameIdxs[k]].getBlendQuaternion();
+                     iterWgts[nf] = w;
+                     dualw += w;
+                     nf++;
+                  }
+                  work.iterQ.dualQuaternionIterativeBlending (
+                     iterWgts, iterQuats, nf,
+                     SkinMeshBody.DQ_BLEND_TOLERANCE,
+                     SkinMeshBody.DQ_MAX_BLEND_STEPS);
+                  work.base.set (bx, by, bz);
+                  work.iterQ.transform (work.tmp, work.base);
+                  px += dualw*work.tmp.x;
+                  py += dualw*work.tmp.y;
+                  pz += dualw*work.tmp.z;
+                  break;
+               }
+            }
+         }
+         for (int k=myNodeOffs[i]; k<myNodeOffs[i+1]; k++) {
+            int off = 3*myNodeIdxs[k];
+            double w = myNodeConns[k].myWeight;
+            px += w*myNodeDisps[off];
+            py += w*myNodeDisps[off+1];
+            pz += w*myNodeDisps[off+2];
+         }
+         for (int k=myParticleOffs[i]; k<myParticleOffs[i+1]; k++) {
+            int off = 3*myParticleIdxs[k];
+            double w = myParticleConns[k].myWeight;
+            px += w*myParticlePos[off];
+            py += w*myParticlePos[off+1];
+            pz += w*myParticlePos[off+2];
+         }
+         Point3d pnt = vtxs.get(i).getPosition();
+         pnt.x = px;
+         pnt.y = py;
+         pnt.z = pz;
+      }
+   }
+
+   /**
+    * Normalizes the dual quaternion <code>q</code>, stored as (a, A, b, B),
+    * and uses it to transform the point <code>(x, y, z)</code>. This
+    * follows {@link DualQuaternion#normalize()} and {@link
+    * DualQuaternion#transform(Point3d,Point3d)}. <code>q</code> is
+    * overwritten with the normalized value.
+    */
+   static void normalizeAndTransform (
+      double[] res, double[] q, double x, double y, double z) {
+
+      double a = q[0], Ax = q[1], Ay = q[2], Az = q[3];
+      double b = q[4], Bx = q[5], By = q[6], Bz = q[7];
+
+      // dual scalar norm, and its inverse
+      double na = Math.sqrt (a*a + Ax*Ax + Ay*Ay + Az*Az);
+      double nb = 2*(Ax*Bx + Ay*By + Az*Bz + a*b)/(2*na);
+      double sa = 1/na;
+      double sb = -nb*sa*sa;
+
+      // scale by the inverse norm
+      Bx = sa*Bx + sb*Ax;
+      By = sa*By + sb*Ay;
+      Bz = sa*Bz + sb*Az;
+      b = sb*a + sa*b;
+      a = sa*a;
+      Ax = sa*Ax;
+      Ay = sa*Ay;
+      Az = sa*Az;
+      q[0] = a; q[1] = Ax; q[2] = Ay; q[3] = Az;
+      q[4] = b; q[5] = Bx; q[6] = By; q[7] = Bz;
+
+      double Ax2 = Ax*Ax;
+      double Ay2 = Ay*Ay;
+      double Az2 = Az*Az;
+      double Aa2 = a*a;
+
+      res[0] = 2*(-b*Ax + Bz*Ay - By*Az + Bx*a)
+         + x*(Ax2 - Ay2 - Az2 + Aa2)
+         + 2*y*(Ay*Ax - a*Az)
+         + 2*z*(Ax*Az + Ay*a);
+      res[1] = 2*(-Bz*Ax - b*Ay + Bx*Az + By*a)
+         + 2*x*(Ax*Ay + Az*a)
+         + y*(-Ax2 + Ay2 - Az2 + Aa2)
+         + 2*z*(-Ax*a + Az*Ay);
+      res[2] = 2*(By*Ax - Bx*Ay - b*Az + Bz*a)
+         + 2*x*(Ax*Az - Ay*a)
+         + 2*y*(Ax*a + Az*Ay)
+         + z*(-Ax2 - Ay2 + Az2 + Aa2);
+   }
+
+   /**
+    * Propagates forces applied to the mesh vertices back to the master
+    * components, in the same way as {@link PointSkinAttachment#addForce}.
+    * Frame forces are computed assuming linear blending.
+    *
+    * @param forces vertex forces, 3 per vertex
+    */
+   void addVertexForces (final double[] forces) {
+      final int nf = myFrameInfos.length;
+      if (nf > 0) {
+         // frame wrenches are accumulated separately for each block of
+         // vertices and then summed, so that blocks can run in parallel
+         final double[] xf = myFrameArms;
+         for (int k=0; k<nf; k++) {
+            computeMomentArmTransform (xf, 12*k, myFrameInfos[k]);
+         }
+         int grain = Math.max (grainSize(), 1);
+         final int nblks = Math.max (1, Math.min (
+            (myNumVertices+grain-1)/grain, 4*ParallelLoop.getParallelism()));
+         final double[][] wrenches = new double[nblks][6*nf];
+         ParallelLoop.forRange (nblks, 1, (b0, b1) -> {
+               for (int blk=b0; blk<b1; blk++) {
+                  int i0 = (int)((long)blk*myNumVertices/nblks);
+                  int i1 = (int)((long)(blk+1)*myNumVertices/nblks);
+                  accumulateFrameWrenches (wrenches[blk], xf, forces, i0, i1);
+               }
+            });
+         Wrench wr = new Wrench();
+         for (int k=0; k<nf; k++) {
+            wr.setZero();
+            for (int blk=0; blk<nblks; blk++) {
+               double[] w = wrenches[blk];
+               wr.f.x += w[6*k  ]; wr.f.y += w[6*k+1]; wr.f.z += w[6*k+2];
+               wr.m.x += w[6*k+3]; wr.m.y += w[6*k+4]; wr.m.z += w[6*k+5];
+            }
+            Frame frame = myFrameInfos[k].getFrame();
+            if (frame != null) {
+               frame.addForce (wr);
+            }
+         }
+      }
+      // node and particle forces are gathered using the transposed
+      // connections, so that each master is updated by only one thread
+      ParallelLoop.forRange (myNodes.length, grainSize(), (j0, j1) -> {
+            Vector3d f = myWorkspaces.get().f;
+            for (int j=j0; j<j1; j++) {
+               if (gatherForce (
+                      f, forces, myNodeVtxOffs, myNodeVtxs, myNodeVtxConns, j)) {
+                  myNodes[j].addForce (f);
+               }
+            }
+         });
+      ParallelLoop.forRange (myParticles.length, grainSize(), (j0, j1) -> {
+            Vector3d f = myWorkspaces.get().f;
+            for (int j=j0; j<j1; j++) {
+               if (gatherForce (
+                      f, forces, myParticleVtxOffs, myParticleVtxs,
+                      myParticleVtxConns, j)) {
+                  myParticles[j].addForce (f);
+               }
+            }
+         });
+      Vector3d f = myWorkspaces.get().f;
+      for (int i : myGeneralVertices) {
+         f.set (forces[3*i], forces[3*i+1], forces[3*i+2]);
+         myAttachments[i].addForce (f);
+      }
+   }
+
+   /**
+    * Computes the transform that maps a vertex base position to the moment
+    * arm, in world coordinates, of a force applied through a frame
+    * connection. Following {@link FrameConnection#addPointForce}, the
+    * moment arm is the base position expressed in the frame's base pose,
+    * rotated by the frame's current orientation.
+    */
+   private void computeMomentArmTransform (
+      double[] xf, int off, FrameInfo finfo) {
+
+      if (finfo.getFrame() == null) {
+         Arrays.fill (xf, off, off+12, 0);
+         return;
+      }
+      RigidTransform3d XB = finfo.getBasePose();
+      RotationMatrix3d RF = finfo.getFrame().getPose().R;
+      RotationMatrix3d M = new RotationMatrix3d();
+      M.mulInverseRight (RF, XB.R);
+      Vector3d c = new Vector3d();
+      c.transform (M, XB.p);
+      xf[off   ] = M.m00; xf[off+ 1] = M.m01; xf[off+ 2] = M.m02;
+      xf[off+ 3] = -c.x;
+      xf[off+ 4] = M.m10; xf[off+ 5] = M.m11; xf[off+ 6] = M.m12;
+      xf[off+ 7] = -c.y;
+      xf[off+ 8] = M.m20; xf[off+ 9] = M.m21; xf[off+10] = M.m22;
+      xf[off+11] = -c.z;
+   }
+
+   private void accumulateFrameWrenches (
+      double[] wr, double[] xf, double[] forces, int i0, int i1) {
+
+      for (int i=i0; i<i1; i++) {
+         if (myTypes[i] != PACKED) {
+            continue;
+         }
+         double fx = forces[3*i];
+         double fy = forces[3*i+1];
+         double fz = forces[3*i+2];
+         if (fx == 0 && fy == 0 && fz == 0) {
+            continue;
+         }
+         Point3d basePos = myAttachments[i].myBasePos;
+         double bx = basePos.x;
+         double by = basePos.y;
+         double bz = basePos.z;
+         for (int k=myFrameOffs[i]; k<myFrameOffs[i+1]; k++) {
+            int fidx = myFrameIdxs[k];
+            int off = 12*fidx;
+            double w = myFrameConns[k].myWeight;
+            double rx = xf[off  ]*bx + xf[off+1]*by + xf[off+ 2]*bz + xf[off+ 3];
+            double ry = xf[off+4]*bx + xf[off+5]*by + xf[off+ 6]*bz + xf[off+ 7];
+            double rz = xf[off+8]*bx + xf[off+9]*by + xf[off+10]*bz + xf[off+11];
+            double wfx = w*fx;
+            double wfy = w*fy;
+            double wfz = w*fz;
+            int woff = 6*fidx;
+            wr[woff  ] += wfx;
+            wr[woff+1] += wfy;
+            wr[woff+2] += wfz;
+            wr[woff+3] += ry*wfz - rz*wfy;
+            wr[woff+4] += rz*wfx - rx*wfz;
+            wr[woff+5] += rx*wfy - ry*wfx;
+         }
+      }
+   }
+
+   private boolean gatherForce (
+      Vector3d f, double[] forces, int[] offs, int[] vtxs, Connection[] conns,
+      int j) {
+
+      double fx = 0;
+      double fy = 0;
+      double fz = 0;
+      for (int k=offs[j]; k<offs[j+1]; k++) {
+         int off = 3*vtxs[k];
+         double w = conns[k].myWeight;
+         fx += w*forces[off];
+         fy += w*forces[off+1];
+         fz += w*forces[off+2];
+      }
+      f.set (fx, fy, fz);
+      return offs[j+1] > offs[j];
+   }
+}
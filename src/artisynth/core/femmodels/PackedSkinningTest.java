@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import java.util.ArrayList;
+
+import maspack.geometry.MeshFactory;
+import maspack.geometry.PolygonalMesh;
+import maspack.geometry.Vertex3d;
+import maspack.matrix.Point3d;
+import maspack.matrix.RigidTransform3d;
+import maspack.matrix.Vector3d;
+import maspack.spatialmotion.Wrench;
+import maspack.util.*;
+import artisynth.core.femmodels.SkinMeshBody.FrameBlending;
+import artisynth.core.mechmodels.*;
+
+/**
+ * Checks that the packed skinning used by SkinMeshBody gives the same vertex
+ * positions and master forces as the PointSkinAttachments themselves.
+ */
+public class PackedSkinningTest extends UnitTest {
+
+   private static final double EPS = 1e-12;
+
+   private SkinMeshBody mySkin;
+   private ArrayList<RigidBody> myBodies = new ArrayList<RigidBody>();
+   private FemModel3d myFem;
+   private ArrayList<Particle> myParticles = new ArrayList<Particle>();
+
+   private void build() {
+      MechModel mech = new MechModel();
+      for (int i=0; i<2; i++) {
+         RigidBody body = RigidBody.createBox ("body"+i, 0.4, 0.3, 0.3, 1000);
+         body.setPose (new RigidTransform3d (-0.4+0.8*i, 0, 0));
+         mech.addRigidBody (body);
+         myBodies.add (body);
+      }
+      myFem = FemFactory.createHexGrid (null, 0.6, 0.2, 0.2, 3, 1, 1);
+      mech.addModel (myFem);
+      for (int i=0; i<3; i++) {
+         Particle p = new Particle (1.0, new Point3d (-0.3+0.3*i, 0, 0.2));
+         mech.addParticle (p);
+         myParticles.add (p);
+      }
+      PolygonalMesh mesh = MeshFactory.createBox (
+         1.2, 0.3, 0.3, Point3d.ZERO, 6, 2, 2, /*addNormals=*/false,
+         MeshFactory.FaceType.TRI);
+      mySkin = new SkinMeshBody (mesh);
+      for (RigidBody body : myBodies) {
+         mySkin.addFrame (body);
+      }
+      mySkin.addFemModel (myFem);
+      mySkin.computeWeights();
+      // add some particle connections
+      for (int i=0; i<mesh.numVertices(); i += 3) {
+         PointSkinAttachment a = mySkin.getAttachment (i);
+         a.addParticleConnection (
+            myParticles.get (i%myParticles.size()), 0.1);
+      }
+      mech.addMeshBody (mySkin);
+   }
+
+   private void perturbMasters() {
+      for (RigidBody body : myBodies) {
+         RigidTransform3d X = new RigidTransform3d();
+         X.setRandom();
+         X.p.scale (0.1);
+         X.R.setAxisAngle (
+            X.R.getAxisAngle().axis, 0.5*RandomGenerator.nextDouble(-1,1));
+         X.mul (body.getPose(), X);
+         body.setPose (X);
+      }
+      for (FemNode3d n : myFem.getNodes()) {
+         Vector3d dx = new Vector3d();
+         dx.setRandom (-0.05, 0.05);
+         n.getPosition().add (dx);
+      }
+      for (Particle p : myParticles) {
+         Vector3d dx = new Vector3d();
+         dx.setRandom (-0.05, 0.05);
+         p.getPosition().add (dx);
+      }
+   }
+
+   private ArrayList<Point3d> computeVertexPositions (boolean packed) {
+      boolean save = SkinMeshBody.usePackedSkinning;
+      SkinMeshBody.usePackedSkinning = packed;
+      mySkin.updateSlavePos();
+      SkinMeshBody.usePackedSkinning = save;
+      ArrayList<Point3d> list = new ArrayList<Point3d>();
+      for (Vertex3d vtx : mySkin.getMesh().getVertices()) {
+         list.add (new Point3d (vtx.getPosition()));
+      }
+      return list;
+   }
+
+   private void checkVertexPositions (String msg) {
+      ArrayList<Point3d> check = computeVertexPositions (/*packed=*/false);
+      ArrayList<Point3d> result = computeVertexPositions (/*packed=*/true);
+      for (int i=0; i<check.size(); i++) {
+         checkEquals (
+            msg + ", vertex "+i, result.get(i), check.get(i), EPS);
+      }
+   }
+
+   public void testPositions() {
+      for (FrameBlending blending : FrameBlending.values()) {
+         mySkin.setFrameBlending (blending);
+         for (int k=0; k<5; k++) {
+            perturbMasters();
+            checkVertexPositions (blending + " blending");
+         }
+      }
+      mySkin.setFrameBlending (FrameBlending.LINEAR);
+   }
+
+   /**
+    * Checks that changes to weights and base positions, and to the
+    * connections of an attachment, are seen by the packed update without
+    * the packing being explicitly invalidated.
+    */
+   public void testAttachmentChanges() {
+      perturbMasters();
+      checkVertexPositions ("initial");
+      PointSkinAttachment a = mySkin.getAttachment (1);
+      a.getConnection(0).myWeight *= 0.5;
+      a.getBasePosition().x += 0.01;
+      checkVertexPositions ("modified weight and base position");
+      mySkin.getAttachment(2).addParticleConnection (myParticles.get(0), 0.2);
+      checkVertexPositions ("added connection");
+      mySkin.getAttachment(2).clearConnections();
+      mySkin.getAttachment(2).addBaseConnection (1.0);
+      checkVertexPositions ("replaced connections");
+   }
+
+   private void zeroMasterForces() {
+      for (RigidBody body : myBodies) {
+         body.zeroForces();
+      }
+      for (FemNode3d n : myFem.getNodes()) {
+         n.zeroForces();
+      }
+      for (Particle p : myParticles) {
+         p.zeroForces();
+      }
+   }
+
+   private ArrayList<Object> getMasterForces() {
+      ArrayList<Object> list = new ArrayList<Object>();
+      for (RigidBody body : myBodies) {
+         list.add (new Wrench (body.getForce()));
+      }
+      for (FemNode3d n : myFem.getNodes()) {
+         list.add (new Vector3d (n.getForce()));
+      }
+      for (Particle p : myParticles) {
+         list.add (new Vector3d (p.getForce()));
+      }
+      return list;
+   }
+
+   public void testForces() {
+      perturbMasters();
+      for (RigidBody body : myBodies) {
+         mySkin.getFrameInfo (body).updatePosState();
+      }
+      int numv = mySkin.getMesh().numVertices();
+      double[] forces = new double[3*numv];
+      for (int i=0; i<forces.length; i++) {
+         forces[i] = RandomGenerator.nextDouble (-1, 1);
+      }
+      zeroMasterForces();
+      for (int i=0; i<numv; i++) {
+         Vector3d f = new Vector3d (forces[3*i], forces[3*i+1], forces[3*i+2]);
+         mySkin.getAttachment(i).addForce (f);
+      }
+      ArrayList<Object> check = getMasterForces();
+
+      zeroMasterForces();
+      mySkin.addVertexForces (forces);
+      ArrayList<Object> result = getMasterForces();
+      for (int k=0; k<check.size(); k++) {
+         Object c = check.get(k);
+         Object r = result.get(k);
+         if (c instanceof Wrench) {
+            checkEquals ("master force "+k, (Wrench)r, (Wrench)c, EPS);
+         }
+         else {
+            checkEquals ("master force "+k, (Vector3d)r, (Vector3d)c, EPS);
+         }
+      }
+   }
+
+   public void test() {
+      build();
+      boolean saveParallel = SkinMeshBody.parallelSkinning;
+      int saveGrain = SkinMeshBody.parallelSkinningGrainSize;
+      // use a small grain size so that the parallel paths are exercised
+      SkinMeshBody.parallelSkinning = true;
+      SkinMeshBody.parallelSkinningGrainSize = 4;
+      try {
+         testPositions();
+         testForces();
+         testAttachmentChanges();
+      }
+      finally {
+         SkinMeshBody.parallelSkinning = saveParallel;
+         SkinMeshBody.parallelSkinningGrainSize = saveGrain;
+      }
+   }
+
+   public static void main (String[] args) {
+      PackedSkinningTest tester = new PackedSkinningTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
@@ -27,7 +27,7 @@ import maspack.matrix.Vector2d;
 import maspack.matrix.Vector3d;
 import maspack.matrix.VectorNd;
 import maspack.spatialmotion.Twist;
-import maspack.util.ArraySupport;
+import maspack.util.DynamicDoubleArray;
 import maspack.util.IndentingPrintWriter;
 import maspack.util.InternalErrorException;
 import maspack.util.NumberFormat;
@@ -43,6 +43,7 @@ import artisynth.core.modelbase.ModelComponent;
 import artisynth.core.modelbase.ScanWriteUtils;
 import artisynth.core.modelbase.TransformableGeometry;
 import artisynth.core.util.ObjectToken;
+import artisynth.core.util.ReferenceListToken;
 import artisynth.core.util.ScanToken;
 import artisynth.core.util.StringToken;
 
@@ -356,17 +357,17 @@ public class PointFem3dAttachment extends PointAttachment {
    protected static void scanNodes (ReaderTokenizer rtok, Deque<ScanToken> tokens)
       throws IOException {
 
-      ArrayList<Double> coordList = new ArrayList<Double>();
+      DynamicDoubleArray coordList = new DynamicDoubleArray();
       rtok.scanToken ('[');
-      tokens.offer (ScanToken.BEGIN); // begin token
-      while (ScanWriteUtils.scanAndStoreReference (rtok, tokens)) {
+      ReferenceListToken refs = new ReferenceListToken (rtok.lineno());
+      while (ScanWriteUtils.scanAndStoreReference (rtok, refs)) {
          coordList.add (rtok.scanNumber());
       }
       if (rtok.ttype != ']') {
          throw new IOException ("Expected ']', got " + rtok);
       }
-      tokens.offer (ScanToken.END); // terminator token
-      tokens.offer (new ObjectToken(ArraySupport.toDoubleArray (coordList)));
+      ScanWriteUtils.storeReferences (tokens, refs);
+      tokens.offer (new ObjectToken(coordList.getArray()));
    }
 
    protected boolean scanItem (ReaderTokenizer rtok, Deque<ScanToken> tokens)
@@ -85,6 +85,16 @@ public class PointSkinAttachment extends PointAttachment
       mySkinMesh = skinMesh;
    }
 
+   /**
+    * Notifies the associated SkinMeshBody, if any, that the connections of
+    * this attachment have changed.
+    */
+   protected void invalidateSkinMesh() {
+      if (mySkinMesh != null) {
+         mySkinMesh.invalidatePackedSkinning();
+      }
+   }
+
    /**
     * Gets the base position for this attachment. Base positions are used for
     * displacement-based position computations.
@@ -115,6 +125,7 @@ public class PointSkinAttachment extends PointAttachment
       myConnections = new Connection[0];
       myNumConnections = 0;
       myMasters = null;
+      invalidateSkinMesh();
    }
 
    /**
@@ -256,6 +267,7 @@ public class PointSkinAttachment extends PointAttachment
       ensureCapacity(numc + 1);
       myConnections[numc] = connection;
       myNumConnections++;
+      invalidateSkinMesh();
    }
 
    /**
@@ -797,6 +809,7 @@ public class PointSkinAttachment extends PointAttachment
       throws IOException {
       super.postscan(tokens, ancestor);
       finalizeConnections();
+      invalidateSkinMesh();
    }
 
    public void writeItems(
@@ -887,6 +900,7 @@ public class PointSkinAttachment extends PointAttachment
     */
    @Override
    public void updateReferences (boolean undo, Deque<Object> undoInfo) {
+      invalidateSkinMesh();
       if (undo) {
          Object obj = undoInfo.removeFirst();
          if (obj != NULL_OBJ) {
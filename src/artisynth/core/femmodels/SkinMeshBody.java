@@ -216,12 +216,31 @@ public class SkinMeshBody extends SkinMeshBase
    public static FrameBlending DEFAULT_FRAME_BLENDING = FrameBlending.LINEAR;
    public static int DQ_MAX_BLEND_STEPS = 3;
    public static double DQ_BLEND_TOLERANCE = 1e-8;
+
+   /**
+    * Enables vertex positions to be updated using a packed representation
+    * of the vertex attachments, instead of by calling each attachment.
+    */
+   public static boolean usePackedSkinning = true;
+
+   /**
+    * Enables packed skinning updates to be performed in parallel.
+    */
+   public static boolean parallelSkinning = true;
+
+   /**
+    * Minimum number of vertices, nodes or particles processed by each
+    * parallel task in packed skinning updates.
+    */
+   public static int parallelSkinningGrainSize = 2000;
    
    FrameBlending myFrameBlending = DEFAULT_FRAME_BLENDING;
 
    protected ArrayList<FrameInfo> myFrameInfo;
    protected ArrayList<FemModelInfo> myFemModelInfo;
    protected ComponentList<PointSkinAttachment> myVertexAttachments;
+   // packed attachment data, or null if it needs to be rebuilt
+   protected PackedSkinning myPackedSkinning;
 
    // default sigma value to be used by computeDisplacementAndWeights()
    public static double myDefaultSigma = -1;
@@ -602,6 +621,7 @@ public class SkinMeshBody extends SkinMeshBase
       if (initBase) {
          a.setBasePosition (getVertex(vidx).getPosition());
       }
+      invalidatePackedSkinning();
    }
    
    public void setAttachment(int idx, PointSkinAttachment a) {
@@ -614,6 +634,7 @@ public class SkinMeshBody extends SkinMeshBase
       if (initBase) {
          a.setBasePosition (getVertex(idx).getPosition());
       }
+      invalidatePackedSkinning();
    }
 
    /**
@@ -621,6 +642,7 @@ public class SkinMeshBody extends SkinMeshBase
     */
    public void clearAttachments() {
       myVertexAttachments.clear();
+      invalidatePackedSkinning();
    }
 
    /**
@@ -663,6 +685,7 @@ public class SkinMeshBody extends SkinMeshBase
       int numVtxs = mesh.numVertices();
       myVertexAttachments.removeAll();
       myVertexAttachments.ensureCapacity (numVtxs);
+      invalidatePackedSkinning();
    }
 
    /**
@@ -679,6 +702,7 @@ public class SkinMeshBody extends SkinMeshBase
       FrameInfo finfo = new FrameInfo (frame);
       finfo.setIndex (myFrameInfo.size());
       myFrameInfo.add (finfo);
+      invalidatePackedSkinning();
    }
 
    /**
@@ -707,6 +731,7 @@ public class SkinMeshBody extends SkinMeshBase
             myFrameInfo.set(idx, last);
             myFrameInfo.remove(lastIdx);
          }
+         invalidatePackedSkinning();
          return true;
       }
       
@@ -1020,6 +1045,29 @@ public class SkinMeshBody extends SkinMeshBase
       }
    }
 
+   /**
+    * Notes that the packed representation of the vertex attachments, used
+    * when {@link #usePackedSkinning} is <code>true</code>, must be rebuilt
+    * before the next vertex update. The packing reads connection weights and
+    * base positions directly from the attachments, and is checked against
+    * the current attachments, their connections and the registered frames
+    * before each update, so calling this is not normally necessary.
+    */
+   public void invalidatePackedSkinning() {
+      myPackedSkinning = null;
+   }
+
+   /**
+    * Returns the packed representation of the vertex attachments, rebuilding
+    * it if necessary.
+    */
+   PackedSkinning getPackedSkinning() {
+      if (myPackedSkinning == null || !myPackedSkinning.matches (this)) {
+         myPackedSkinning = new PackedSkinning (this);
+      }
+      return myPackedSkinning;
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -1027,7 +1075,36 @@ public class SkinMeshBody extends SkinMeshBase
       for (FrameInfo finfo : myFrameInfo) {
          finfo.updatePosState();
       }
-      super.updateSlavePos();
+      MeshBase mesh = getMesh();
+      if (usePackedSkinning && mesh != null) {
+         getPackedSkinning().updateVertexPositions (mesh, myFrameBlending);
+      }
+      else {
+         super.updateSlavePos();
+      }
+   }
+
+   /**
+    * Propagates forces applied to the vertices of this SkinMeshBody back to
+    * the master components of their attachments. The result is the same as
+    * calling {@link PointSkinAttachment#addForce} for each vertex
+    * attachment. As with that method, forces are propagated to Frames
+    * assuming linear blending.
+    *
+    * @param forces vertex forces, arranged as 3 values per vertex. The
+    * length must be at least 3 times the number of vertices.
+    */
+   public void addVertexForces (double[] forces) {
+      MeshBase mesh = getMesh();
+      if (mesh == null) {
+         return;
+      }
+      if (forces.length < 3*mesh.numVertices()) {
+         throw new IllegalArgumentException (
+            "forces has length "+forces.length+"; expecting at least "+
+            3*mesh.numVertices());
+      }
+      getPackedSkinning().addVertexForces (forces);
    }
 
    public void transformGeometry (
@@ -1048,6 +1125,7 @@ public class SkinMeshBody extends SkinMeshBase
             gtr.transform (finfo.myBasePose);
          }         
       }
+      invalidatePackedSkinning();
       super.transformGeometry (gtr, context, flags);      
    }   
 
@@ -1064,6 +1142,7 @@ public class SkinMeshBody extends SkinMeshBase
          finfo.setIndex (myFrameInfo.size());
          myFrameInfo.add (finfo);
       }
+      invalidatePackedSkinning();
       if (rtok.ttype != ']') {
          throw new IOException ("Expected ']', got " + rtok);
       }      
@@ -1153,6 +1232,7 @@ public class SkinMeshBody extends SkinMeshBase
       for (int i=0; i<myVertexAttachments.size(); i++) {
          myVertexAttachments.get(i).setSkinMesh (this);
       }      
+      invalidatePackedSkinning();
    }
 
    protected boolean postscanItem (
@@ -1221,6 +1301,7 @@ public class SkinMeshBody extends SkinMeshBase
     */
    @Override
    public void updateReferences (boolean undo, Deque<Object> undoInfo) {
+      invalidatePackedSkinning();
       if (undo) {
          Object obj = undoInfo.removeFirst();
          if (obj != NULL_OBJ) {
@@ -34,6 +34,45 @@ public class StiffnessWarper3d {
    protected RotationMatrix3d R = null;  // warping rotation
    protected int numNodes;
 
+   // maximum iterations and convergence tolerance for computing the
+   // warping rotation using Newton's method
+   protected static int maxRotationIterations = 20;
+   protected static double rotationTol = 1e-12;
+
+   /**
+    * Scratch storage used by the warping computations. This is shared by all
+    * warpers, with one instance per thread, so that it does not add to the
+    * storage required for each element.
+    */
+   protected static class Workspace {
+      Matrix3d F = new Matrix3d();
+      Matrix3d Kr = new Matrix3d();
+      Matrix3d X = new Matrix3d();
+      SVDecomposition3d svd = new SVDecomposition3d();
+      double[] x = new double[0];       // packed (rotated) node positions
+      double[] y = new double[0];       // packed node forces for one cache
+      double[] forces = new double[0];  // packed node forces for all caches
+
+      void ensureCapacity (int size) {
+         if (x.length < size) {
+            x = new double[size];
+            y = new double[size];
+            forces = new double[size];
+         }
+      }
+   }
+
+   private static ThreadLocal<Workspace> myWorkspaces =
+      new ThreadLocal<Workspace>() {
+         protected Workspace initialValue() {
+            return new Workspace();
+         }
+      };
+
+   protected static Workspace getWorkspace() {
+      return myWorkspaces.get();
+   }
+
    //   protected Matrix3d J0inv = null;
    //   protected double myConditionNum = 0;
    
@@ -133,14 +172,16 @@ public class StiffnessWarper3d {
    public void computeWarpingRotation (FemElement3dBase elem) {
       IntegrationPoint3d wpnt = elem.getWarpingPoint();
       IntegrationData3d wdata = elem.getWarpingData();
-      Matrix3d F = new Matrix3d();
+      Matrix3d F = getWorkspace().F;
       wpnt.computeGradient(F, elem.getNodes(), wdata.myInvJ0);
       computeRotation(F, null);
    }
 
    /**
     * Computes a corotated rotation based on the deformation gradient
-    * and stores the result in this warper
+    * and stores the result in this warper. If <code>P</code> is not needed,
+    * the rotation is computed using {@link #computePolarRotation}, which
+    * is several times faster than a full polar decomposition.
 
     * @param F deformation gradient
     * @param P symmetric part of gradient after rotation
@@ -149,7 +190,74 @@ public class StiffnessWarper3d {
       if (R == null) {
          R = new RotationMatrix3d();
       }
-      computeRotation (R, P, F);
+      if (P == null && computePolarRotation (R, F)) {
+         return;
+      }
+      getWorkspace().svd.polarDecomposition (R, P, F);
+   }
+
+   /**
+    * Computes the rotation of the polar decomposition of F using Higham's
+    * scaled Newton iteration,
+    * <pre>
+    * X = (g X + inv(X)^T / g) / 2
+    * </pre>
+    * where g = sqrt (|inv(X)|/|X|). For non-inverted F, this converges
+    * quadratically (typically in about 5 iterations) to the same rotation
+    * as that produced by the SVD.
+    *
+    * @param R returns the rotation
+    * @param F deformation gradient
+    * @return false if F is inverted or the iteration did not converge,
+    * in which case the polar decomposition should be used instead
+    */
+   protected boolean computePolarRotation (RotationMatrix3d R, Matrix3d F) {
+      Matrix3d X = getWorkspace().X;
+      X.set (F);
+      for (int k=0; k<maxRotationIterations; k++) {
+         // cofactors of X, which give inv(X)^T = C/det
+         double c00 = X.m11*X.m22 - X.m12*X.m21;
+         double c01 = X.m12*X.m20 - X.m10*X.m22;
+         double c02 = X.m10*X.m21 - X.m11*X.m20;
+         double c10 = X.m02*X.m21 - X.m01*X.m22;
+         double c11 = X.m00*X.m22 - X.m02*X.m20;
+         double c12 = X.m01*X.m20 - X.m00*X.m21;
+         double c20 = X.m01*X.m12 - X.m02*X.m11;
+         double c21 = X.m02*X.m10 - X.m00*X.m12;
+         double c22 = X.m00*X.m11 - X.m01*X.m10;
+         double det = X.m00*c00 + X.m01*c01 + X.m02*c02;
+         if (det <= 0) {
+            return false;
+         }
+         double cnrm = Math.sqrt (
+            c00*c00 + c01*c01 + c02*c02 +
+            c10*c10 + c11*c11 + c12*c12 +
+            c20*c20 + c21*c21 + c22*c22);
+         double g = Math.sqrt (cnrm/(det*X.frobeniusNorm()));
+         double a = 0.5*g;
+         double b = 0.5/(g*det);
+         double x00 = a*X.m00 + b*c00;
+         double x01 = a*X.m01 + b*c01;
+         double x02 = a*X.m02 + b*c02;
+         double x10 = a*X.m10 + b*c10;
+         double x11 = a*X.m11 + b*c11;
+         double x12 = a*X.m12 + b*c12;
+         double x20 = a*X.m20 + b*c20;
+         double x21 = a*X.m21 + b*c21;
+         double x22 = a*X.m22 + b*c22;
+         double diff =
+            Math.abs(x00-X.m00) + Math.abs(x01-X.m01) + Math.abs(x02-X.m02) +
+            Math.abs(x10-X.m10) + Math.abs(x11-X.m11) + Math.abs(x12-X.m12) +
+            Math.abs(x20-X.m20) + Math.abs(x21-X.m21) + Math.abs(x22-X.m22);
+         X.m00 = x00; X.m01 = x01; X.m02 = x02;
+         X.m10 = x10; X.m11 = x11; X.m12 = x12;
+         X.m20 = x20; X.m21 = x21; X.m22 = x22;
+         if (diff < rotationTol) {
+            R.set (X);
+            return true;
+         }
+      }
+      return false;
    }
    
    /**
@@ -207,7 +315,7 @@ public class StiffnessWarper3d {
      
       // corotated component
       if (corotated != null) {
-         Matrix3d Kr = new Matrix3d();
+         Matrix3d Kr = getWorkspace().Kr;
          rotateStiffness(Kr, corotated.getInitialStiffness00(i, j));
          K.add(Kr);
       }
@@ -222,7 +330,7 @@ public class StiffnessWarper3d {
       
       // corotated component
       if (corotated != null) {
-         Matrix3d Kr = new Matrix3d();
+         Matrix3d Kr = getWorkspace().Kr;
          Kr.transform (R, corotated.getInitialStiffness00(i,j));
          nbr.myK00.add(Kr);
          if (corotated.hasShellData()) {
@@ -246,6 +354,65 @@ public class StiffnessWarper3d {
       }
    }
 
+   /**
+    * Computes the force contributions due to stiffness from all cached
+    * linear materials for all the nodes of an element at once. This is
+    * considerably faster than calling {@link #addNodeForce(Vector3d,int,
+    * FemNode3d[])} for each node, since the node positions are rotated only
+    * once and temporary objects are not allocated. The forces are returned
+    * in an array owned by the calling thread, which is overwritten by that
+    * thread's next call.
+    *
+    * @param nodes element nodes
+    * @return forces for each node, packed into the first 3 times the number
+    * of nodes entries
+    */
+   public double[] computeNodeForces (FemNode3d[] nodes) {
+      int n3 = 3*nodes.length;
+      Workspace work = getWorkspace();
+      work.ensureCapacity (n3);
+      double[] x = work.x;
+      double[] y = work.y;
+      double[] f = work.forces;
+      for (int k=0; k<n3; k++) {
+         f[k] = 0;
+      }
+      // corotated
+      if (corotated != null) {
+         for (int j=0; j<nodes.length; j++) {
+            // rotate position
+            Vector3d p = nodes[j].getLocalPosition();
+            x[3*j  ] = R.m00*p.x + R.m10*p.y + R.m20*p.z;
+            x[3*j+1] = R.m01*p.x + R.m11*p.y + R.m21*p.z;
+            x[3*j+2] = R.m02*p.x + R.m12*p.y + R.m22*p.z;
+         }
+         corotated.computeNodeForces (y, x);
+         for (int i=0; i<nodes.length; i++) {
+            // rotate back
+            double yx = y[3*i];
+            double yy = y[3*i+1];
+            double yz = y[3*i+2];
+            f[3*i  ] += R.m00*yx + R.m01*yy + R.m02*yz;
+            f[3*i+1] += R.m10*yx + R.m11*yy + R.m12*yz;
+            f[3*i+2] += R.m20*yx + R.m21*yy + R.m22*yz;
+         }
+      }
+      // linear
+      if (linear != null) {
+         for (int j=0; j<nodes.length; j++) {
+            Vector3d p = nodes[j].getLocalPosition();
+            x[3*j  ] = p.x;
+            x[3*j+1] = p.y;
+            x[3*j+2] = p.z;
+         }
+         linear.computeNodeForces (y, x);
+         for (int k=0; k<n3; k++) {
+            f[k] += y[k];
+         }
+      }
+      return f;
+   }
+
    /**
     * Adds the total force contribution due to stiffness from all
     * cached linear materials for node i
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.matrix.Matrix3d;
+import maspack.matrix.RotationMatrix3d;
+import maspack.matrix.Vector3d;
+import maspack.util.*;
+import artisynth.core.materials.LinearMaterial;
+
+/**
+ * Checks that the forces and stiffness computed by StiffnessWarper3d, using
+ * the Newton polar rotation and the all-node force computation, match those
+ * computed using the SVD rotation and the per-node force computation.
+ */
+public class StiffnessWarper3dTest extends UnitTest {
+
+   private static final double EPS = 1e-10;
+
+   private FemModel3d createFem (boolean corotated) {
+      FemModel3d fem = FemFactory.createHexGrid (null, 1.0, 0.5, 0.5, 4, 2, 2);
+      fem.setMaterial (new LinearMaterial (10000.0, 0.33, corotated));
+      // deform the model by rotating it and randomly perturbing the nodes
+      RotationMatrix3d R = new RotationMatrix3d();
+      R.setRandom();
+      Vector3d dx = new Vector3d();
+      for (FemNode3d n : fem.getNodes()) {
+         n.getPosition().transform (R);
+         dx.setRandom (-0.05, 0.05);
+         n.getPosition().add (dx);
+      }
+      return fem;
+   }
+
+   private double[] copyForces (double[] forces, int numNodes) {
+      double[] copy = new double[3*numNodes];
+      for (int k=0; k<copy.length; k++) {
+         copy[k] = forces[k];
+      }
+      return copy;
+   }
+
+   private void checkForces (
+      String msg, double[] result, double[] check, double tol) {
+      for (int k=0; k<check.length; k++) {
+         if (Math.abs (result[k]-check[k]) > tol) {
+            throw new TestException (
+               msg+", force entry "+k+" is "+result[k]+", expected "+check[k]);
+         }
+      }
+   }
+
+   // computes the forces and stiffness using the per-node method and the
+   // SVD rotation
+   private double[] computeReferenceForces (
+      FemElement3d e, StiffnessWarper3d warper, Matrix3d[] K) {
+
+      FemNode3d[] nodes = e.getNodes();
+      Matrix3d F = new Matrix3d();
+      e.getWarpingPoint().computeGradient (
+         F, nodes, e.getWarpingData().myInvJ0);
+      RotationMatrix3d R = new RotationMatrix3d();
+      StiffnessWarper3d.computeRotation (R, null, F);
+      warper.setRotation (R);
+      double[] forces = new double[3*nodes.length];
+      Vector3d f = new Vector3d();
+      for (int i=0; i<nodes.length; i++) {
+         f.setZero();
+         warper.addNodeForce (f, i, nodes);
+         forces[3*i  ] = f.x;
+         forces[3*i+1] = f.y;
+         forces[3*i+2] = f.z;
+         for (int j=0; j<nodes.length; j++) {
+            K[i*nodes.length+j] = new Matrix3d();
+            warper.addNodeStiffness (K[i*nodes.length+j], i, j);
+         }
+      }
+      return forces;
+   }
+
+   public void testForcesAndStiffness (boolean corotated) {
+      FemModel3d fem = createFem (corotated);
+      for (FemElement3d e : fem.getElements()) {
+         String msg = (corotated ? "corotated" : "linear")+" element "+
+            e.getNumber();
+         FemNode3d[] nodes = e.getNodes();
+         int nnodes = nodes.length;
+         StiffnessWarper3d warper = e.getStiffnessWarper (1.0);
+
+         Matrix3d[] Kchk = new Matrix3d[nnodes*nnodes];
+         double[] fchk = computeReferenceForces (e, warper, Kchk);
+         RotationMatrix3d Rchk = new RotationMatrix3d (warper.getRotation());
+
+         warper.computeWarpingRotation (e);
+         checkEquals (msg+", rotation", warper.getRotation(), Rchk, 1e-12);
+         double[] forces = copyForces (warper.computeNodeForces (nodes), nnodes);
+         double fmax = 0;
+         for (int k=0; k<fchk.length; k++) {
+            fmax = Math.max (fmax, Math.abs(fchk[k]));
+         }
+         checkForces (msg, forces, fchk, EPS*fmax);
+
+         for (int i=0; i<nnodes; i++) {
+            for (int j=0; j<nnodes; j++) {
+               Matrix3d Kchkij = Kchk[i*nnodes+j];
+               Matrix3d K = new Matrix3d();
+               warper.addNodeStiffness (K, i, j);
+               checkEquals (
+                  msg+", stiffness block ("+i+","+j+")",
+                  K, Kchkij, EPS*Math.max(1, Kchkij.frobeniusNorm()));
+            }
+         }
+      }
+   }
+
+   /**
+    * Checks that forces computed for many elements in parallel, using the
+    * per-thread workspace, match those computed serially.
+    */
+   public void testParallelForces() {
+      FemModel3d fem = createFem (/*corotated=*/true);
+      final int numElems = fem.numElements();
+      final FemElement3d[] elems = new FemElement3d[numElems];
+      final double[][] check = new double[numElems][];
+      final double[][] result = new double[numElems][];
+      for (int k=0; k<numElems; k++) {
+         FemElement3d e = fem.getElements().get(k);
+         StiffnessWarper3d warper = e.getStiffnessWarper (1.0);
+         warper.computeWarpingRotation (e);
+         elems[k] = e;
+         check[k] = copyForces (
+            warper.computeNodeForces (e.getNodes()), e.numNodes());
+      }
+      ParallelLoop.forRange (numElems, 1, (k0, k1) -> {
+         for (int k=k0; k<k1; k++) {
+            FemElement3d e = elems[k];
+            StiffnessWarper3d warper = e.getStiffnessWarper (1.0);
+            warper.computeWarpingRotation (e);
+            result[k] = copyForces (
+               warper.computeNodeForces (e.getNodes()), e.numNodes());
+         }
+      });
+      for (int k=0; k<numElems; k++) {
+         checkForces ("parallel element "+k, result[k], check[k], 0);
+      }
+   }
+
+   /**
+    * Checks that the Newton polar rotation matches the SVD for random
+    * deformation gradients, and falls back to the SVD for inverted ones.
+    */
+   public void testRotation() {
+      FemModel3d fem = createFem (/*corotated=*/true);
+      StiffnessWarper3d warper =
+         fem.getElements().get(0).getStiffnessWarper (1.0);
+      Matrix3d F = new Matrix3d();
+      RotationMatrix3d R = new RotationMatrix3d();
+      RotationMatrix3d Rchk = new RotationMatrix3d();
+      for (int k=0; k<100; k++) {
+         F.setRandom();
+         if (k%10 == 0) {
+            // flip a row to make sure some gradients are inverted
+            F.m00 = -F.m00; F.m01 = -F.m01; F.m02 = -F.m02;
+         }
+         StiffnessWarper3d.computeRotation (Rchk, null, F);
+         boolean converged = warper.computePolarRotation (R, F);
+         if (F.determinant() <= 0) {
+            check ("polar rotation computed for inverted F", !converged);
+         }
+         else if (converged) {
+            checkEquals ("rotation "+k, R, Rchk, 1e-12);
+         }
+         warper.computeRotation (F, null);
+         checkEquals ("warper rotation "+k, warper.getRotation(), Rchk, 1e-12);
+      }
+   }
+
+   public void test() {
+      testForcesAndStiffness (/*corotated=*/true);
+      testForcesAndStiffness (/*corotated=*/false);
+      testParallelForces();
+      testRotation();
+   }
+
+   public static void main (String[] args) {
+      StiffnessWarper3dTest tester = new StiffnessWarper3dTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
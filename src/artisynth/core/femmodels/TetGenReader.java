@@ -8,6 +8,7 @@
 package artisynth.core.femmodels;
 
 import java.io.*;
+import java.util.ArrayList;
 
 import maspack.geometry.PolygonalMesh;
 import maspack.geometry.Vertex3d;
@@ -15,6 +16,7 @@ import maspack.matrix.Point3d;
 import maspack.matrix.Vector3d;
 import maspack.util.ReaderTokenizer;
 import artisynth.core.util.ArtisynthPath;
+import artisynth.core.util.NumericLineParser;
 
 public class TetGenReader implements FemReader {
    
@@ -138,64 +140,73 @@ public class TetGenReader implements FemReader {
       if (model == null) {
          model = new FemModel3d();
       }
-      
-      ReaderTokenizer nodeFile =
-         new ReaderTokenizer (new BufferedReader (nodeReader));
       model.setDensity (density);
-      nodeFile.nextToken();
-      nodeFile.nextToken();
-      nodeFile.nextToken();
-      nodeFile.nextToken();
 
-      while (nodeFile.nextToken() != ReaderTokenizer.TT_EOF) {
-         if (!nodeFile.tokenIsInteger()) {
-            throw new IOException ("Expecting node index, got " + nodeFile);
+      // node and element lists are parsed in parallel, and the nodes and
+      // elements are then added to the model in single batches
+      NumericLineParser nodeData = new NumericLineParser();
+      nodeData.parse (nodeReader);
+      double[] vals = nodeData.getValues();
+      ArrayList<FemNode3d> nodes = new ArrayList<FemNode3d>();
+      boolean headerRead = false;
+      for (int i=0; i<nodeData.numLines(); i++) {
+         checkForText (nodeData, i, "node");
+         int nvals = nodeData.numValues(i);
+         if (nvals == 0) {
+            continue;
          }
-         // int index = (int)nodeFile.lval;
-         Point3d coords = new Point3d();
-
-         for (int i = 0; i < 3; i++) {
-            coords.set (i, nodeFile.scanNumber());
+         if (!headerRead) {
+            // header gives numbers of nodes, dimensions, attributes and
+            // boundary markers
+            nodes.ensureCapacity ((int)vals[nodeData.getValueOffset(i)]);
+            headerRead = true;
+            continue;
          }
-
-         // System.out.println(coords);
+         if (nvals < 4) {
+            throw new IOException (
+               "Expecting node index and coordinates, line " + (i+1));
+         }
+         int off = nodeData.getValueOffset(i);
+         Point3d coords = new Point3d (vals[off+1], vals[off+2], vals[off+3]);
          if (scale != null) {
             coords.x *= scale.x;
             coords.y *= scale.y;
             coords.z *= scale.z;
          }
-
-         model.addNode (new FemNode3d (coords));
+         nodes.add (new FemNode3d (coords));
       }
+      model.addNodes (nodes);
 
-      ReaderTokenizer elemFile =
-         new ReaderTokenizer (new BufferedReader (elemReader));
-
-      elemFile.nextToken();
-      elemFile.nextToken();
-      elemFile.nextToken();
-
+      NumericLineParser elemData = new NumericLineParser();
+      elemData.parse (elemReader);
+      vals = elemData.getValues();
+      ArrayList<FemElement3d> elems = new ArrayList<FemElement3d>();
+      headerRead = false;
       int indexBase = -1;
-      while (elemFile.nextToken() != ReaderTokenizer.TT_EOF) {
-         if (!elemFile.tokenIsInteger()) {
-            throw new IOException ("Expecting element index, got " + elemFile);
+      for (int i=0; i<elemData.numLines(); i++) {
+         checkForText (elemData, i, "element");
+         int nvals = elemData.numValues(i);
+         if (nvals == 0) {
+            continue;
          }
-         if (indexBase == -1) {
-            indexBase = (elemFile.nval == 1.0 ? 1 : 0);
+         if (!headerRead) {
+            // header gives numbers of tets, nodes per tet and attributes
+            elems.ensureCapacity ((int)vals[elemData.getValueOffset(i)]);
+            headerRead = true;
+            continue;
          }
-         // int index = (int)elemFile.lval;
-
-         int[] idxs = new int[4];
-         for (int i = 0; i < 4; i++) {
-            idxs[i] = elemFile.scanInteger()-indexBase;
-            // System.out.print(idxs[i] + " ");
+         if (nvals < 5) {
+            throw new IOException (
+               "Expecting element index and node indices, line " + (i+1));
          }
-         // System.out.println();
-
-         FemNode3d n0 = model.getNode(idxs[0]);
-         FemNode3d n1 = model.getNode(idxs[1]);
-         FemNode3d n2 = model.getNode(idxs[2]);
-         FemNode3d n3 = model.getNode(idxs[3]);
+         int off = elemData.getValueOffset(i);
+         if (indexBase == -1) {
+            indexBase = (vals[off] == 1.0 ? 1 : 0);
+         }
+         FemNode3d n0 = model.getNode((int)vals[off+1]-indexBase);
+         FemNode3d n1 = model.getNode((int)vals[off+2]-indexBase);
+         FemNode3d n2 = model.getNode((int)vals[off+3]-indexBase);
+         FemNode3d n3 = model.getNode((int)vals[off+4]-indexBase);
 
          // check to make sure that the tet is defined so that the
          // first three nodes are arranged clockwise about their face
@@ -206,11 +217,21 @@ public class TetGenReader implements FemReader {
          else {
             tet = new TetElement (n0, n2, n1, n3);
          }
-         model.addElement (tet);
+         elems.add (tet);
       }
+      model.addElements (elems);
       return model;
    }
 
+   private static void checkForText (
+      NumericLineParser data, int line, String fileType) throws IOException {
+      if (data.hasWords (line)) {
+         throw new IOException (
+            "Unexpected text in "+fileType+" file, line "+(line+1)+": "+
+            data.getLineText (line));
+      }
+   }
+
    /*
     * Read a surface mesh from .face, .node files from Tetgen. Unfortunately
     * this is not very useful as Tetgen does not sequence the vertices in such a
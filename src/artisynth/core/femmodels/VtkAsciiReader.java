@@ -11,7 +11,6 @@ import java.io.Reader;
 import java.util.ArrayList;
 
 import maspack.geometry.io.MeshWriter;
-import maspack.matrix.Point3d;
 import maspack.util.ReaderTokenizer;
 
 /**
@@ -45,8 +44,7 @@ public class VtkAsciiReader implements FemReader {
    public static FemModel3d read(FemModel3d model, Reader reader) throws IOException {
 
       ReaderTokenizer rtok = new ReaderTokenizer(reader);
-      ArrayList<Point3d> nodeList = new ArrayList<Point3d>();
-      ArrayList<ArrayList<Integer>> elemList = new ArrayList<ArrayList<Integer>>();
+      GridData grid = new GridData();
 
       rtok.eolIsSignificant(false);
 
@@ -59,8 +57,8 @@ public class VtkAsciiReader implements FemReader {
                String dataType = rtok.sval;
 
                if (dataType.equalsIgnoreCase("UNSTRUCTURED_GRID")) {
-                  parseFemData(rtok, nodeList, elemList);
-                  return buildFem(model, nodeList, elemList);
+                  parseFemData(rtok, grid);
+                  return buildFem(model, grid);
                } else {
                   System.err.println("Error: unknown dataset type '" + dataType + "'");
                }
@@ -73,8 +71,19 @@ public class VtkAsciiReader implements FemReader {
 
    }
 
-   private static void parseFemData(ReaderTokenizer rtok, 
-      ArrayList<Point3d> nodeList, ArrayList<ArrayList<Integer>> elems)
+   /**
+    * Point and cell data for an unstructured grid. Cells are stored as in
+    * the file, with each cell given by its number of nodes followed by the
+    * node indices.
+    */
+   private static class GridData {
+      double[] myCoords = new double[0];
+      int myNumPoints;
+      int[] myCells = new int[0];
+      int myNumCells;
+   }
+
+   private static void parseFemData(ReaderTokenizer rtok, GridData grid)
          throws IOException {
 
       while (rtok.nextToken() != ReaderTokenizer.TT_EOF) {
@@ -82,53 +91,51 @@ public class VtkAsciiReader implements FemReader {
          if (rtok.ttype == ReaderTokenizer.TT_WORD) {
             if (rtok.sval.equalsIgnoreCase("POINTS")) {
                // parse points
-               nodeList.clear();
-
                // number of points
                int nPnts = rtok.scanInteger();
-               nodeList.ensureCapacity(nPnts);
 
                String numericType = rtok.scanWord();
                ignore(numericType); // ignore
 
-               double[] vals = new double[3];
-               for (int i=0; i<nPnts; i++) {
-                  int nRead = rtok.scanNumbers(vals, 3);
-                  if (nRead == 3) {
-                     nodeList.add(new Point3d(vals));
-                  } else {
-                     throw new IOException("Not enough digits on line " + rtok.lineno());
-                  }
+               // the points are read as a single block, which the tokenizer
+               // can parse in bulk
+               grid.myCoords = new double[3*nPnts];
+               int nRead = rtok.scanNumbers(grid.myCoords, 3*nPnts);
+               if (nRead != 3*nPnts) {
+                  throw new IOException("Not enough digits on line " + rtok.lineno());
                }
-
+               grid.myNumPoints = nPnts;
 
             } else if (rtok.sval.equalsIgnoreCase("CELLS")) {
-               elems.clear();
-
                int nCells = rtok.scanInteger();
-               int nRead = 0;
                int nNums = rtok.scanInteger();
 
-               for (int i=0; i<nCells; i++) {
-                  int nNodes = rtok.scanInteger();
-                  nRead++;
-                  ArrayList<Integer> nodeIdxs = 
-                     new ArrayList<Integer>(nNodes);
-                  for (int j =0; j<nNodes; j++) {
-                     nodeIdxs.add(rtok.scanInteger());
-                     nRead++;
-                  }
-                  elems.add(nodeIdxs);
-               }
+               grid.myCells = new int[nNums];
+               int nRead = rtok.scanIntegers(grid.myCells, nNums);
                if (nRead != nNums) {
+                  throw new IOException(
+                     "Expecting integer cell data, line " + rtok.lineno());
+               }
+               // check that the cell data contains nCells cells
+               int off = 0;
+               int i = 0;
+               while (i < nCells && off < nNums) {
+                  off += grid.myCells[off]+1;
+                  i++;
+               }
+               if (i < nCells || off > nNums) {
+                  throw new IOException(
+                     "Incomplete cell data, line " + rtok.lineno());
+               }
+               if (off != nNums) {
                   System.err.println("Hmm... we got the wrong number of numbers");
                }
+               grid.myNumCells = nCells;
             } else if (rtok.sval.equalsIgnoreCase("CELL_TYPES")) {
                int nCells = rtok.scanInteger();
                // discard types
-               for (int i=0; i<nCells; i++) {
-                  int type = rtok.scanInteger();
-               }
+               int[] types = new int[nCells];
+               rtok.scanIntegers(types, nCells);
             } else {
                System.err.println("Unknown heading '" + rtok.sval + "'");
             }
@@ -142,7 +149,7 @@ public class VtkAsciiReader implements FemReader {
    private static void ignore(Object o) {
    }
 
-   private static FemModel3d buildFem(FemModel3d model, ArrayList<Point3d> nodes, ArrayList<ArrayList<Integer>> elems) {
+   private static FemModel3d buildFem(FemModel3d model, GridData grid) {
 
       if (model == null) {
          model = new FemModel3d();
@@ -150,16 +157,22 @@ public class VtkAsciiReader implements FemReader {
          model.clear();
       }
 
-      for (int i=0; i<nodes.size(); i++) {
-         model.addNode(new FemNode3d(nodes.get(i)));
+      double[] coords = grid.myCoords;
+      ArrayList<FemNode3d> nodes = new ArrayList<FemNode3d>(grid.myNumPoints);
+      for (int i=0; i<grid.myNumPoints; i++) {
+         nodes.add(new FemNode3d(coords[3*i], coords[3*i+1], coords[3*i+2]));
       }
-
-      ArrayList<Integer> elem;
-      for (int i=0; i<elems.size(); i++) {
-         elem = elems.get(i);
-         FemNode3d[] elemNodes = new FemNode3d[elem.size()];
-         for (int j=0; j<elem.size(); j++) {
-            elemNodes[j] = model.getNode(elem.get(j));
+      model.addNodes(nodes);
+
+      int[] cells = grid.myCells;
+      ArrayList<FemElement3d> elems =
+         new ArrayList<FemElement3d>(grid.myNumCells);
+      int off = 0;
+      for (int i=0; i<grid.myNumCells; i++) {
+         int nNodes = cells[off++];
+         FemNode3d[] elemNodes = new FemNode3d[nNodes];
+         for (int j=0; j<nNodes; j++) {
+            elemNodes[j] = nodes.get(cells[off++]);
          }
          
          // pyramid, swap node order
@@ -187,13 +200,13 @@ public class VtkAsciiReader implements FemReader {
          }
          
          FemElement3d e = FemElement3d.createElement(elemNodes, true); 
-         model.addElement(e);
          e.computeVolumes();
          if (e.getVolume() < 0.0) {
              System.out.println("Warning: inverted element " + e.getClass());
          }
+         elems.add(e);
       }
-
+      model.addElements(elems);
 
       return model;
    }
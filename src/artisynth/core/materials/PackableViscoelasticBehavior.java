@@ -0,0 +1,41 @@
+package artisynth.core.materials;
+
+/**
+ * Implemented by viscoelastic behaviors whose states can be stored together
+ * in a single packed array, so that the states of many integration points
+ * can be advanced in parallel and saved and restored as a single block.
+ */
+public interface PackableViscoelasticBehavior {
+
+   /**
+    * Returns the number of doubles needed to store a state for this behavior
+    * within a packed array.
+    *
+    * @return packed state size
+    */
+   public int getPackedStateSize();
+
+   /**
+    * Creates a state whose values are stored in a packed array, starting at
+    * a specified offset.
+    *
+    * @param buf array in which the state values are stored
+    * @param off offset of the state values within <code>buf</code>
+    * @return state stored in the array
+    */
+   public ViscoelasticState createState (double[] buf, int off);
+
+   /**
+    * Advances a set of packed states, stored contiguously in an array with
+    * a stride given by {@link #getPackedStateSize}. Calls for disjoint sets
+    * of states may be made concurrently.
+    *
+    * @param buf array in which the state values are stored
+    * @param off offset of the first state within <code>buf</code>
+    * @param num number of states to advance
+    * @param t0 time at the beginning of the step
+    * @param t1 time at the end of the step
+    */
+   public void advanceStates (
+      double[] buf, int off, int num, double t0, double t1);
+}
@@ -6,7 +6,8 @@ import maspack.matrix.VectorNd;
 import maspack.properties.PropertyList;
 import maspack.util.ArraySupport;
 
-public class QLVBehavior extends ViscoelasticBehavior {
+public class QLVBehavior extends ViscoelasticBehavior
+   implements PackableViscoelasticBehavior {
 
    public static PropertyList myProps =
       new PropertyList (QLVBehavior.class, ViscoelasticBehavior.class);
@@ -22,6 +23,32 @@ public class QLVBehavior extends ViscoelasticBehavior {
    private double[] myGamma;
    private double[] myTau;
    private double myTangentScale;
+   // decay factors for the most recent time step, shared by all the states
+   private volatile DecayFactors myDecayFactors;
+
+   /**
+    * Exponential decay factors g and s factors for a given time step. These
+    * are immutable once created, so they can be shared between threads.
+    */
+   private class DecayFactors {
+      final double h;
+      final double[] g = new double[N_MAX];
+      final double[] sfac = new double[N_MAX];
+      final double tangentScale;
+
+      DecayFactors (double h) {
+         this.h = h;
+         for (int i=0; i<N_MAX; i++) {
+            g[i] = Math.exp(- h / myTau[i]);
+            sfac[i] = (1.0 - g[i]) / ( h / myTau[i] );
+         }
+         double scale = myGamma0;
+         for (int i=0; i<N_MAX; i++) {
+            scale += myGamma[i]*sfac[i];
+         }
+         tangentScale = scale;
+      }
+   }
 
    static {
       myProps.add (
@@ -35,6 +62,7 @@ public class QLVBehavior extends ViscoelasticBehavior {
    }
    
    public synchronized void setGamma (VectorNd gamma) {
+      myDecayFactors = null;
       for (int i=0; i<gamma.size() && i<N_MAX; i++) {
          myGamma[i] = gamma.get(i);
       }
@@ -45,6 +73,7 @@ public class QLVBehavior extends ViscoelasticBehavior {
       double gamma0, double gamma1, double gamma2, 
       double gamma3, double gamma4, double gamma5) {
 
+      myDecayFactors = null;
       myGamma[0] = gamma0;
       myGamma[1] = gamma1;
       myGamma[2] = gamma2;
@@ -54,6 +83,7 @@ public class QLVBehavior extends ViscoelasticBehavior {
    }
 
    public synchronized void setTau (VectorNd tau) {
+      myDecayFactors = null;
       for (int i=0; i<tau.size() && i<N_MAX; i++) {
          myTau[i] = tau.get(i);
       }
@@ -64,6 +94,7 @@ public class QLVBehavior extends ViscoelasticBehavior {
       double tau0, double tau1, double tau2, 
       double tau3, double tau4, double tau5) {
 
+      myDecayFactors = null;
       myTau[0] = tau0;
       myTau[1] = tau1;
       myTau[2] = tau2;
@@ -98,71 +129,135 @@ public class QLVBehavior extends ViscoelasticBehavior {
       setTau (tau0, tau1, tau2, tau3, tau4, tau5);
    }
 
+   /**
+    * Returns the decay factors for the time step h, computing them only if
+    * h, tau or gamma have changed since they were last computed.
+    */
+   private DecayFactors getDecayFactors (double h) {
+      DecayFactors factors = myDecayFactors;
+      if (factors == null || factors.h != h) {
+         factors = new DecayFactors (h);
+         myDecayFactors = factors;
+      }
+      return factors;
+   }
+
+   /**
+    * Advances a single packed state, given the decay factors g and the new
+    * s factors for each exponential term.
+    */
+   private void advancePackedState (
+      double[] buf, int off, double h, boolean savePrev,
+      double[] g, double[] sfac) {
+
+      int sp = off + QLVState.SIGMA_PREV;
+      int ss = off + QLVState.SIGMA_SAVE;
+      double d00 = buf[ss  ] - buf[sp  ];
+      double d11 = buf[ss+1] - buf[sp+1];
+      double d22 = buf[ss+2] - buf[sp+2];
+      double d01 = buf[ss+3] - buf[sp+3];
+      double d02 = buf[ss+4] - buf[sp+4];
+      double d12 = buf[ss+5] - buf[sp+5];
+      if (savePrev) {
+         for (int j=0; j<6; j++) {
+            buf[sp+j] = buf[ss+j];
+         }
+      }
+      int so = off + QLVState.sOffset();
+      for (int i=0; i<N_MAX; i++) {
+         double gi = g[i];
+         double si = buf[so+i];
+         int idx = off + QLVState.GH + 6*i;
+         
+         buf[idx  ] = gi*(si*d00 + buf[idx  ]);
+         buf[idx+1] = gi*(si*d11 + buf[idx+1]);
+         buf[idx+2] = gi*(si*d22 + buf[idx+2]);
+         buf[idx+3] = gi*(si*d01 + buf[idx+3]);
+         buf[idx+4] = gi*(si*d02 + buf[idx+4]);
+         buf[idx+5] = gi*(si*d12 + buf[idx+5]);
+
+         buf[so+i] = sfac[i];
+      }
+      buf[off + QLVState.hOffset()] = h;
+   }
+
    public void advanceState (
       ViscoelasticState state, double t0, double t1) {
 
       QLVState qlvstate = (QLVState)state;      
       double h = t1 - t0;
-      qlvstate.myH = h;
-      
-      SymmetricMatrix3d deltaSigma = new SymmetricMatrix3d();
-      deltaSigma.sub (qlvstate.mySigmaSave, qlvstate.mySigmaPrev);
-      if (t0 >= 0) {
-         qlvstate.mySigmaPrev.set (qlvstate.mySigmaSave);
-      }
+      DecayFactors factors = getDecayFactors (h);
+      advancePackedState (
+         qlvstate.myBuf, qlvstate.myOff, h, t0 >= 0, factors.g, factors.sfac);
+      myTangentScale = factors.tangentScale;
+   }
 
-      double[] S = qlvstate.myS;
-      double[] GHPrev = qlvstate.myGHPrev;
+   public int getPackedStateSize() {
+      return QLVState.getPackedSize();
+   }
 
-      myTangentScale = myGamma0;
-      for (int i=0; i<N_MAX; i++) {
-         double g = Math.exp(- h / myTau[i]);
-         double gH;
-         int idx = i*6;
-
-         gH = g*(S[i]*deltaSigma.m00 + GHPrev[idx]);
-         GHPrev[idx++] = gH;
-         gH = g*(S[i]*deltaSigma.m11 + GHPrev[idx]);
-         GHPrev[idx++] = gH;
-         gH = g*(S[i]*deltaSigma.m22 + GHPrev[idx]);
-         GHPrev[idx++] = gH;
-         gH = g*(S[i]*deltaSigma.m01 + GHPrev[idx]);
-         GHPrev[idx++] = gH;
-         gH = g*(S[i]*deltaSigma.m02 + GHPrev[idx]);
-         GHPrev[idx++] = gH;
-         gH = g*(S[i]*deltaSigma.m12 + GHPrev[idx]);
-         GHPrev[idx++] = gH;
-        
-         S[i] = (1.0 - g) / ( h / myTau[i] );
-         myTangentScale += myGamma[i]*S[i];
+   public ViscoelasticState createState (double[] buf, int off) {
+      return new QLVState (buf, off);
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * <p>The exponential decay factors depend only on the time step, and so
+    * are computed once and shared by all the states.
+    */
+   public void advanceStates (
+      double[] buf, int off, int num, double t0, double t1) {
+
+      double h = t1 - t0;
+      DecayFactors factors = getDecayFactors (h);
+      int stride = QLVState.getPackedSize();
+      for (int k=0; k<num; k++) {
+         advancePackedState (
+            buf, off+k*stride, h, t0 >= 0, factors.g, factors.sfac);
       }
+      myTangentScale = factors.tangentScale;
    }
 
    public void computeStress (
       SymmetricMatrix3d sigma, ViscoelasticState state) {
 
       QLVState qlvstate = (QLVState)state;
+      double[] buf = qlvstate.myBuf;
+      int off = qlvstate.myOff;
 
-      double h = qlvstate.myH;
+      double h = buf[off + QLVState.hOffset()];
       if (h == 0) {
          return;
       }
-      double[] GHPrev = qlvstate.myGHPrev;
-      double[] S = qlvstate.myS;
-
-      SymmetricMatrix3d deltaSigma = new SymmetricMatrix3d();
-      deltaSigma.sub (sigma, qlvstate.mySigmaPrev);
-
-      qlvstate.mySigmaSave.set (sigma);
+      int sp = off + QLVState.SIGMA_PREV;
+      int ss = off + QLVState.SIGMA_SAVE;
+      int so = off + QLVState.sOffset();
+
+      double d00 = sigma.m00 - buf[sp  ];
+      double d11 = sigma.m11 - buf[sp+1];
+      double d22 = sigma.m22 - buf[sp+2];
+      double d01 = sigma.m01 - buf[sp+3];
+      double d02 = sigma.m02 - buf[sp+4];
+      double d12 = sigma.m12 - buf[sp+5];
+
+      buf[ss  ] = sigma.m00;
+      buf[ss+1] = sigma.m11;
+      buf[ss+2] = sigma.m22;
+      buf[ss+3] = sigma.m01;
+      buf[ss+4] = sigma.m02;
+      buf[ss+5] = sigma.m12;
       sigma.scale(myGamma0);
 
       for (int i=0; i<N_MAX; i++) {
-         double H00 = S[i]*deltaSigma.m00 + GHPrev[i*6  ];
-         double H11 = S[i]*deltaSigma.m11 + GHPrev[i*6+1];
-         double H22 = S[i]*deltaSigma.m22 + GHPrev[i*6+2];
-         double H01 = S[i]*deltaSigma.m01 + GHPrev[i*6+3];
-         double H02 = S[i]*deltaSigma.m02 + GHPrev[i*6+4];
-         double H12 = S[i]*deltaSigma.m12 + GHPrev[i*6+5];
+         double si = buf[so+i];
+         int idx = off + QLVState.GH + 6*i;
+         double H00 = si*d00 + buf[idx  ];
+         double H11 = si*d11 + buf[idx+1];
+         double H22 = si*d22 + buf[idx+2];
+         double H01 = si*d01 + buf[idx+3];
+         double H02 = si*d02 + buf[idx+4];
+         double H12 = si*d12 + buf[idx+5];
 
          double gamma = myGamma[i];
          sigma.m00 += gamma*H00;
@@ -185,17 +280,19 @@ public class QLVBehavior extends ViscoelasticBehavior {
    public void computeTangent (Matrix6d c, ViscoelasticState state) {
       
       QLVState qlvstate = (QLVState)state;
-      double h = qlvstate.myH;
+      double[] buf = qlvstate.myBuf;
+      int off = qlvstate.myOff;
+      double h = buf[off + QLVState.hOffset()];
       if (h == 0) {
          return;
       }
 
       double scaleFactor = myGamma0;
-      double[] S = qlvstate.myS;	   
+      int so = off + QLVState.sOffset();
       for (int i=0; i<N_MAX; i++) {
          //double g = Math.exp(- h / myTau[i]);
          //double s = (1.0 - g) / (h / myTau[i]);
-         scaleFactor += myGamma[i] * S[i];
+         scaleFactor += myGamma[i] * buf[so+i];
       }
       c.scale(scaleFactor);
    }
@@ -224,6 +321,7 @@ public class QLVBehavior extends ViscoelasticBehavior {
       QLVBehavior veb = (QLVBehavior)super.clone();
       veb.myGamma = ArraySupport.copy (myGamma);
       veb.myTau = ArraySupport.copy (myTau);
+      veb.myDecayFactors = null;
       return veb;
    }
    
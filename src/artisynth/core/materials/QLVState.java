@@ -1,86 +1,96 @@
 package artisynth.core.materials;
 
 import maspack.util.DataBuffer;
-import maspack.matrix.SymmetricMatrix3d;
 
 /**
- * Stores state information for QLV (Quasi-Linear Viscoelastic Behavior)
+ * Stores state information for QLV (Quasi-Linear Viscoelastic Behavior).
+ *
+ * <p>The state values are stored in a double array, which may be shared
+ * with other states so that the states of many integration points can be
+ * packed together. Starting at the state's offset, the values are arranged
+ * as the saved stress (6 values), the previous stress (6 values), the
+ * history terms gH (6 values for each of the <code>N_MAX</code> exponential
+ * terms), the factors s (<code>N_MAX</code> values) and the time step h.
+ * Symmetric matrices are stored in the order m00, m11, m22, m01, m02, m12.
  */
 public class QLVState extends ViscoelasticState {
 
-   protected SymmetricMatrix3d mySigmaPrev;
-   protected SymmetricMatrix3d mySigmaSave;
-   protected double[] myGHPrev;
-   protected double[] myS;
-   
-   protected double myH = 0;
+   static final int SIGMA_SAVE = 0;
+   static final int SIGMA_PREV = 6;
+   static final int GH = 12;
+
+   protected double[] myBuf;
+   protected int myOff;
 
    public QLVState () {
-      mySigmaPrev = new SymmetricMatrix3d();
-      mySigmaSave = new SymmetricMatrix3d();
-      myGHPrev = new double[QLVBehavior.N_MAX*6];
-      myS = new double[QLVBehavior.N_MAX];
+      this (new double[getPackedSize()], 0);
+   }
+
+   /**
+    * Creates a state whose values are stored in <code>buf</code>, starting
+    * at <code>off</code>. The buffer must have room for {@link
+    * #getPackedSize} values beyond this offset.
+    *
+    * @param buf buffer in which to store the state values
+    * @param off offset of the state values within <code>buf</code>
+    */
+   public QLVState (double[] buf, int off) {
+      myBuf = buf;
+      myOff = off;
+   }
+
+   /**
+    * Returns the number of doubles required to store a QLV state.
+    *
+    * @return number of doubles required to store a state
+    */
+   public static int getPackedSize() {
+      return GH + 7*QLVBehavior.N_MAX + 1;
+   }
+
+   static int sOffset() {
+      return GH + 6*QLVBehavior.N_MAX;
+   }
+
+   static int hOffset() {
+      return GH + 7*QLVBehavior.N_MAX;
+   }
+
+   /**
+    * Returns the buffer in which the values of this state are stored.
+    *
+    * @return state value buffer
+    */
+   public double[] getBuffer() {
+      return myBuf;
+   }
+
+   /**
+    * Returns the offset of this state's values within its buffer.
+    *
+    * @return offset within the state value buffer
+    */
+   public int getOffset() {
+      return myOff;
    }
 
    public int getStateSize() {
-      // need to save sigma, deltaSigma, gH, and s
-      return 12 + 6*QLVBehavior.N_MAX + QLVBehavior.N_MAX;
+      // need to save sigma, deltaSigma, gH, s and h
+      return getPackedSize();
    }
 
    /** 
     * Stores the state data in a DataBuffer
     */
    public void getState (DataBuffer data) {
-      data.dput (mySigmaSave.m00);
-      data.dput (mySigmaSave.m11);
-      data.dput (mySigmaSave.m22);
-      data.dput (mySigmaSave.m01);
-      data.dput (mySigmaSave.m02);
-      data.dput (mySigmaSave.m12);
-      data.dput (mySigmaPrev.m00);
-      data.dput (mySigmaPrev.m11);
-      data.dput (mySigmaPrev.m22);
-      data.dput (mySigmaPrev.m01);
-      data.dput (mySigmaPrev.m02);
-      data.dput (mySigmaPrev.m12);
-      for (int k=0; k<myGHPrev.length; k++) {
-         data.dput (myGHPrev[k]);             
-      }
-      for (int k=0; k<myS.length; k++) {
-         data.dput (myS[k]);
-      }
+      data.dput (myBuf, myOff, getPackedSize());
    }   
 
    /** 
     * Sets the state data from a buffer of doubles.
     */
    public void setState (DataBuffer data) {
-      mySigmaSave.m00 = data.dget();
-      mySigmaSave.m11 = data.dget();
-      mySigmaSave.m22 = data.dget();
-      mySigmaSave.m01 = data.dget();
-      mySigmaSave.m02 = data.dget();
-      mySigmaSave.m12 = data.dget();
-      mySigmaSave.m10 = mySigmaSave.m01;
-      mySigmaSave.m20 = mySigmaSave.m02;
-      mySigmaSave.m21 = mySigmaSave.m12;
-
-      mySigmaPrev.m00 = data.dget();
-      mySigmaPrev.m11 = data.dget();
-      mySigmaPrev.m22 = data.dget();
-      mySigmaPrev.m01 = data.dget();
-      mySigmaPrev.m02 = data.dget();
-      mySigmaPrev.m12 = data.dget();
-      mySigmaPrev.m10 = mySigmaPrev.m01;
-      mySigmaPrev.m20 = mySigmaPrev.m02;
-      mySigmaPrev.m21 = mySigmaPrev.m12;
-
-      for (int k=0; k<myGHPrev.length; k++) {
-         myGHPrev[k] = data.dget();
-      }
-      for (int k=0; k<myS.length; k++) {
-         myS[k] = data.dget();
-      }
+      data.dget (myBuf, myOff, getPackedSize());
    }
 
 }
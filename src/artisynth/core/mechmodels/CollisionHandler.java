@@ -53,6 +53,10 @@ public class CollisionHandler extends ConstrainerBase
    // myPrevUnilaterals stores previous unilaterals so we have access
    // to impulse values in rendering code
    ArrayList<ContactConstraint> myPrevUnilaterals;
+   // spatial index of the contact points of myPrevUnilaterals, used to
+   // match new contour region contacts with previous ones when warm starting
+   SpatialHashGrid myPrevContactGrid;
+   int[] myPrevContactIdxs = new int[16];
    int myMaxUnilaterals = 100;
    ContactInfo myLastContactInfo; // last contact info produced by this handler
    ContactInfo myRenderContactInfo; // contact info to be used for rendering
@@ -726,14 +730,20 @@ public class CollisionHandler extends ConstrainerBase
 
       //clearRenderData();
 
-      // Currently, no correspondence is established between new contacts and
-      // previous contacts. If there was, then we could set the multipliers for
-      // the new contacts to something based on the old contacts, thereby
-      // providing initial "warm start" values for the solver.
+      // If the LCP solves are warm started, new contacts are matched with
+      // previous contacts that lie within the rigid point tolerance and have
+      // a similar normal. The impulses of matched contacts are carried over,
+      // to provide initial "warm start" values for the solver.
 
       if (info != null) {
          int numc = 0;
-         info.setPointTol (myBehavior.myRigidPointTol);
+         double tol = myBehavior.myRigidPointTol;
+         boolean[] matched = null;
+         if (tol > 0 && myPrevUnilaterals.size() > 0 && isLCPWarmStarted()) {
+            matched = new boolean[myPrevUnilaterals.size()];
+            buildPrevContactGrid (tol);
+         }
+         info.setPointTol (tol);
          info.setContactPlaneTol (myBehavior.myRigidRegionTol);
          for (ContactPlane region : info.getContactPlanes()) {
             for (Point3d p : region.points) {
@@ -746,6 +756,10 @@ public class CollisionHandler extends ConstrainerBase
                c.equateContactPoints();
                c.setNormal (region.normal);
                c.assignMasters (collidable0, collidable1);
+               if (matched != null) {
+                  c.setImpulse (
+                     getPreviousImpulse (p, region.normal, tol, matched));
+               }
 
                maxpen = region.depth;
                c.setDistance (-region.depth);
@@ -757,6 +771,79 @@ public class CollisionHandler extends ConstrainerBase
       return maxpen;
    }
 
+   /**
+    * Queries whether the solver of the top-level mech system containing
+    * this handler warm starts its contact LCP solves.
+    */
+   private boolean isLCPWarmStarted() {
+      MechSystem sys = MechSystemBase.topMechSystem (myManager);
+      if (sys instanceof MechSystemBase) {
+         MechSystemSolver solver = ((MechSystemBase)sys).getSolver();
+         return solver != null && solver.getWarmStartLCP();
+      }
+      return false;
+   }
+
+   /**
+    * Indexes the contact points of the previous unilateral contacts in
+    * myPrevContactGrid, using cells whose size is the matching tolerance.
+    */
+   private void buildPrevContactGrid (double tol) {
+      if (myPrevContactGrid == null ||
+          myPrevContactGrid.getCellSize() != tol) {
+         myPrevContactGrid = new SpatialHashGrid (tol);
+      }
+      int nprev = myPrevUnilaterals.size();
+      double[] coords = new double[3*nprev];
+      for (int i=0; i<nprev; i++) {
+         Point3d p = myPrevUnilaterals.get(i).myCpnt0.myPoint;
+         coords[3*i  ] = p.x;
+         coords[3*i+1] = p.y;
+         coords[3*i+2] = p.z;
+      }
+      myPrevContactGrid.build (coords, nprev);
+   }
+
+   /**
+    * Returns the impulse of the closest unmatched previous unilateral
+    * contact whose point lies within <code>tol</code> of <code>pnt</code>
+    * and whose normal is close to <code>nrm</code>, or 0 if there is no
+    * such contact. The matched contact is marked in <code>matched</code>.
+    * Candidates are found using myPrevContactGrid, which must have been
+    * built with {@link #buildPrevContactGrid}.
+    */
+   private double getPreviousImpulse (
+      Point3d pnt, Vector3d nrm, double tol, boolean[] matched) {
+
+      Point3d min = new Point3d (pnt.x-tol, pnt.y-tol, pnt.z-tol);
+      Point3d max = new Point3d (pnt.x+tol, pnt.y+tol, pnt.z+tol);
+      int num = myPrevContactGrid.findInBox (min, max, myPrevContactIdxs);
+      if (num > myPrevContactIdxs.length) {
+         myPrevContactIdxs = new int[num];
+         myPrevContactGrid.findInBox (min, max, myPrevContactIdxs);
+      }
+      int closest = -1;
+      double minDist = tol;
+      for (int k=0; k<num; k++) {
+         int i = myPrevContactIdxs[k];
+         if (!matched[i]) {
+            ContactConstraint prev = myPrevUnilaterals.get(i);
+            double dist = prev.myCpnt0.myPoint.distance (pnt);
+            if (dist <= minDist && prev.getNormal().dot (nrm) > 0.9) {
+               closest = i;
+               minDist = dist;
+            }
+         }
+      }
+      if (closest != -1) {
+         matched[closest] = true;
+         return Math.max (0, myPrevUnilaterals.get(closest).getImpulse());
+      }
+      else {
+         return 0;
+      }
+   }
+
    void clearContactData() {
       myBilaterals0.clear();
       myBilaterals1.clear();
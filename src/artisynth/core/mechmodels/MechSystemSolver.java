@@ -150,11 +150,17 @@ public class MechSystemSolver {
    private int myConGTVersion = -1;
    private int myStaticKKTVersion = -1;
 
+   public static boolean myDefaultWarmStartLCP = false;
    public static boolean myDefaultHybridSolveP = false;
    private static int myHybridSolveTol = 10;
    //   private static boolean useBodyCoordsForExplicit = true;
    public static boolean profileConstraintSolves = false;
    private boolean myHybridSolveP = false;
+   private boolean myWarmStartLCP = myDefaultWarmStartLCP;
+   private KKTSolver.LCPSolveMethod myContactSolveMethod =
+      KKTSolver.LCPSolveMethod.DANTZIG;
+   private int myContactIterationLimit = 100;
+   private double myContactTolerance = 1e-6;
 
    int myStateSizeVersion = -1;
    int myParametricPosSize = 0;
@@ -221,6 +227,160 @@ public class MechSystemSolver {
       myHybridSolveP = enable;
    }
 
+   /**
+    * Queries whether the LCP solves used for unilateral contact constraints
+    * are warm started.
+    *
+    * @return true if contact LCP solves are warm started
+    * @see #setWarmStartLCP
+    */
+   public boolean getWarmStartLCP () {
+      return myWarmStartLCP;
+   }
+
+   /**
+    * Enables or disables warm starting for the LCP solves used for
+    * unilateral contact constraints. When enabled, the impulses retained by
+    * each contact constraint from the previous step are used to guess the
+    * initial active set, which can greatly reduce the number of pivots
+    * required when the contact set changes little between steps. Statistics
+    * on the pivots used and saved can be obtained using {@link
+    * #getLCPPivotCount} and {@link #getLCPPivotsSaved}.
+    *
+    * @param enable if true, enables contact LCP warm starting
+    */
+   public void setWarmStartLCP (boolean enable) {
+      myWarmStartLCP = enable;
+      if (myKKTSolver != null) {
+         myKKTSolver.setWarmStartLCP (enable);
+      }
+   }
+
+   /**
+    * Returns the method used to solve for unilateral contact impulses.
+    *
+    * @return contact solve method
+    * @see #setContactSolveMethod
+    */
+   public KKTSolver.LCPSolveMethod getContactSolveMethod () {
+      return myContactSolveMethod;
+   }
+
+   /**
+    * Sets the method used to solve for unilateral contact impulses. The
+    * default, {@link KKTSolver.LCPSolveMethod#DANTZIG}, uses pivoting and
+    * gives exact solutions, but its cost grows super-linearly with the
+    * number of contacts. For scenes with thousands of contacts, the
+    * iterative methods {@link KKTSolver.LCPSolveMethod#PGS} (projected
+    * Gauss-Seidel) or {@link KKTSolver.LCPSolveMethod#APGD} (accelerated
+    * projected gradient descent, which does not assemble the contact
+    * matrix) bound the cost per step, at the expense of accuracy, according
+    * to {@link #setContactIterationLimit} and {@link #setContactTolerance}.
+    *
+    * @param method contact solve method
+    */
+   public void setContactSolveMethod (KKTSolver.LCPSolveMethod method) {
+      myContactSolveMethod = method;
+      if (myKKTSolver != null) {
+         myKKTSolver.setLCPSolveMethod (method);
+      }
+   }
+
+   /**
+    * Returns the maximum number of iterations used by iterative contact
+    * solves.
+    *
+    * @return iteration limit for iterative contact solves
+    * @see #setContactIterationLimit
+    */
+   public int getContactIterationLimit () {
+      return myContactIterationLimit;
+   }
+
+   /**
+    * Sets the maximum number of iterations used by iterative contact
+    * solves, as selected by {@link #setContactSolveMethod}.
+    *
+    * @param max iteration limit for iterative contact solves
+    */
+   public void setContactIterationLimit (int max) {
+      myContactIterationLimit = max;
+      if (myKKTSolver != null) {
+         myKKTSolver.setLCPIterationLimit (max);
+      }
+   }
+
+   /**
+    * Returns the relative convergence tolerance used by iterative contact
+    * solves.
+    *
+    * @return tolerance for iterative contact solves
+    * @see #setContactTolerance
+    */
+   public double getContactTolerance () {
+      return myContactTolerance;
+   }
+
+   /**
+    * Sets the relative convergence tolerance used by iterative contact
+    * solves, as selected by {@link #setContactSolveMethod}.
+    *
+    * @param tol tolerance for iterative contact solves
+    */
+   public void setContactTolerance (double tol) {
+      myContactTolerance = tol;
+      if (myKKTSolver != null) {
+         myKKTSolver.setLCPTolerance (tol);
+      }
+   }
+
+   private void configureContactSolve (KKTSolver solver) {
+      solver.setWarmStartLCP (myWarmStartLCP);
+      solver.setLCPSolveMethod (myContactSolveMethod);
+      solver.setLCPIterationLimit (myContactIterationLimit);
+      solver.setLCPTolerance (myContactTolerance);
+   }
+
+   /**
+    * Returns the number of contact LCP solves performed since the last
+    * call to {@link #clearLCPStatistics}.
+    *
+    * @return number of contact LCP solves
+    */
+   public int getLCPSolveCount() {
+      return myKKTSolver != null ? myKKTSolver.getLCPSolveCount() : 0;
+   }
+
+   /**
+    * Returns the total number of pivots used by the contact LCP solves
+    * performed since the last call to {@link #clearLCPStatistics}.
+    *
+    * @return total number of contact LCP pivots
+    */
+   public long getLCPPivotCount() {
+      return myKKTSolver != null ? myKKTSolver.getLCPPivotCount() : 0;
+   }
+
+   /**
+    * Returns an estimate of the number of pivots saved by warm starting the
+    * contact LCP solves performed since the last call to {@link
+    * #clearLCPStatistics}.
+    *
+    * @return estimated number of contact LCP pivots saved
+    */
+   public long getLCPPivotsSaved() {
+      return myKKTSolver != null ? myKKTSolver.getLCPPivotsSaved() : 0;
+   }
+
+   /**
+    * Clears the statistics for contact LCP solves.
+    */
+   public void clearLCPStatistics() {
+      if (myKKTSolver != null) {
+         myKKTSolver.clearLCPStatistics();
+      }
+   }
+
    PardisoSolver myPardisoSolver;
    UmfpackSolver myUmfpackSolver;
    KKTSolver myKKTSolver;
@@ -1493,6 +1653,7 @@ public class MechSystemSolver {
 
       if (myKKTSolver == null) {
          myKKTSolver = new KKTSolver();
+         configureContactSolve (myKKTSolver);
       }
 
       updateBilateralConstraints ();
@@ -2422,6 +2583,7 @@ public class MechSystemSolver {
       addActiveMassMatrix (mySys, S);
       if (myKKTSolver == null) {
          myKKTSolver = new KKTSolver();
+         configureContactSolve (myKKTSolver);
          analyze = true;
       }
       if (myKKTGTVersion != myGTVersion) {
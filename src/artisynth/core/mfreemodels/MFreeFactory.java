@@ -34,12 +34,12 @@ import maspack.geometry.DistanceGrid;
 import maspack.geometry.Face;
 import maspack.geometry.KDComparator;
 import maspack.geometry.KDTree;
-import maspack.geometry.KDTree3d;
 import maspack.geometry.MeshBase;
 import maspack.geometry.MeshFactory;
 import maspack.geometry.MeshFactory.FaceType;
 import maspack.geometry.OBB;
 import maspack.geometry.PolygonalMesh;
+import maspack.geometry.StaticKDTree3d;
 import maspack.geometry.TetgenTessellator;
 import maspack.geometry.Vertex3d;
 import maspack.matrix.Matrix3d;
@@ -600,12 +600,14 @@ public class MFreeFactory {
       Point3d[] pnts = tesselator.getPoints ();
       
       // kdtree for nearest ipnt look-up
-      KDTree3d kdtree = new KDTree3d (Arrays.asList (cpnts));
+      StaticKDTree3d kdtree = new StaticKDTree3d (cpnts);
       
       // map tet points to locs
       CubaturePoint3d[] pntMap = new CubaturePoint3d[pnts.length];
+      int[] nearestIdxs = new int[pnts.length];
+      kdtree.nearest (pnts, nearestIdxs, null);
       for (int i=0; i<pnts.length; ++i) {
-         CubaturePoint3d nearest = (CubaturePoint3d)kdtree.nearestNeighbourSearch (pnts[i], eps);
+         CubaturePoint3d nearest = cpnts[nearestIdxs[i]];
          if (nearest.distance (pnts[i]) < eps) {
             pntMap[i] = nearest;
          }
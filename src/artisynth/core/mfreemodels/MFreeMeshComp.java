@@ -46,6 +46,7 @@ import artisynth.core.modelbase.ScanWriteUtils;
 import artisynth.core.modelbase.StructureChangeEvent;
 import artisynth.core.util.ArtisynthIO;
 import artisynth.core.util.ObjectToken;
+import artisynth.core.util.ReferenceListToken;
 import artisynth.core.util.ScanToken;
 import artisynth.core.util.StringToken;
 import maspack.geometry.BVFeatureQuery;
@@ -63,7 +64,7 @@ import maspack.render.RenderProps;
 import maspack.render.Renderer;
 import maspack.render.Renderer.ColorMixing;
 import maspack.render.Renderer.Shading;
-import maspack.util.ArraySupport;
+import maspack.util.DynamicDoubleArray;
 import maspack.util.IndentingPrintWriter;
 import maspack.util.NumberFormat;
 import maspack.util.ReaderTokenizer;
@@ -934,10 +935,10 @@ public class MFreeMeshComp extends FemMeshComp implements CollidableBody, PointA
    protected void scanAttachment (
       ReaderTokenizer rtok, Deque<ScanToken> tokens) throws IOException {
 
-      ArrayList<Double> weights = new ArrayList<Double>();
+      DynamicDoubleArray weights = new DynamicDoubleArray();
       rtok.scanToken ('[');
-      tokens.offer (ScanToken.BEGIN);
-      while (ScanWriteUtils.scanAndStoreReference (rtok, tokens)) {
+      ReferenceListToken refs = new ReferenceListToken (rtok.lineno());
+      while (ScanWriteUtils.scanAndStoreReference (rtok, refs)) {
          weights.add (rtok.scanNumber());
       }
       if (rtok.ttype != ']') {
@@ -948,14 +949,14 @@ public class MFreeMeshComp extends FemMeshComp implements CollidableBody, PointA
       //		         ScanWriteUtils.scanReferenceToken (rtok, tokens);
       //		         weights.add (rtok.scanNumber());
       //		      }
-      tokens.offer (ScanToken.END); // add null terminator
+      ScanWriteUtils.storeReferences (tokens, refs);
       if (weights.size() == 1) {
          PointParticleAttachment ppa = new PointParticleAttachment ();
          myVertexAttachments.add (ppa);
       }
       else {
          PointFem3dAttachment pfa = new PointFem3dAttachment();
-         tokens.offer (new ObjectToken(ArraySupport.toDoubleArray (weights)));
+         tokens.offer (new ObjectToken(weights.getArray()));
          myVertexAttachments.add (pfa);
       }
    }
@@ -27,6 +27,8 @@ public class ComponentList<C extends ModelComponent> extends ModelComponentBase
    protected NavpanelDisplay myNavpanelDisplay = DEFAULT_NAVPANEL_DISPLAY;
 
    protected ComponentListImpl<C> myComponents;
+   // path lookup cache, used if this list is the root of a hierarchy
+   ComponentPathIndex myPathIndex;
 
    public static PropertyList myProps =
       new PropertyList (ComponentList.class, ModelComponentBase.class);
@@ -252,6 +254,21 @@ public class ComponentList<C extends ModelComponent> extends ModelComponentBase
       myComponents.addComponents (comps, indices, ncomps);
    }
 
+   /**
+    * Adds components to the end of this list, using specified component
+    * numbers, with a single structure change notification for the entire
+    * batch. See {@link ComponentListImpl#addNumberedComponents}.
+    *
+    * @param comps components to add
+    * @param numbers component numbers, or <code>null</code> if
+    * the numbers should be assigned automatically
+    * @param ncomps number of components to add
+    */
+   public void addNumberedComponents (
+      ModelComponent[] comps, int[] numbers, int ncomps) {
+      myComponents.addNumberedComponents (comps, numbers, ncomps);
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -333,6 +350,8 @@ public class ComponentList<C extends ModelComponent> extends ModelComponentBase
          myParent.updateNameMap (name, myShortName, this);
       }
       myShortName = name;
+      // short name changes are not reported by change events
+      ComponentPathIndex.invalidate (this);
    }
 
    public String getShortName() {
@@ -418,6 +437,7 @@ public class ComponentList<C extends ModelComponent> extends ModelComponentBase
       if (hierarchyContainsReferences()) {
          ancestor = this;
       }
+      ScanWriteUtils.prefetchReferences (tokens, ancestor);
       super.postscan (tokens, ancestor);
       // boolean stateless = myComponents.scanEnd();
       // notifyStructureChanged (this, stateless);
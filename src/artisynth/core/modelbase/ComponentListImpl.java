@@ -283,13 +283,103 @@ public class ComponentListImpl<C extends ModelComponent> extends ScannableList<C
       }
 
       mySize = newSize;
+      connectAddedComponents (comps, ncomps);
+   }
+
+   /**
+    * Adds components to the end of this list, using specified component
+    * numbers. This is equivalent to calling {@link #addNumbered} for each
+    * component, except that only a single structure change notification is
+    * issued for the entire batch, and inherited property information is
+    * shared among components of the same class. This makes it suitable for
+    * adding very large numbers of components, such as when importing FEM
+    * models.
+    *
+    * @param comps components to add
+    * @param numbers component numbers. If <code>null</code>, or if an
+    * entry is <code>-1</code> or is a number already in use, the number
+    * is assigned automatically.
+    * @param ncomps number of components to add
+    */
+   public void addNumberedComponents (
+      ModelComponent[] comps, int[] numbers, int ncomps) {
+
+      if (comps.length < ncomps) {
+         throw new IllegalArgumentException (
+            "component array does not contain 'ncomps' components");
+      }
+      if (numbers != null && numbers.length < ncomps) {
+         throw new IllegalArgumentException (
+            "number array does not contain 'ncomps' components");
+      }
+      if (ncomps == 0) {
+         return;
+      }
+      for (int k=0; k<ncomps; k++) {
+         if (!myComponentType.isInstance (comps[k])) {
+            throw new IllegalArgumentException (
+               "Components must be of type " + myComponentType);
+         }
+      }
+      modCount++;
+      ensureCapacity (mySize + ncomps);
+      int size0 = mySize;
+      int nconnected = 0;
+      try {
+         for (int k=0; k<ncomps; k++) {
+            C comp = (C)comps[k];
+            int number = (numbers != null ? numbers[k] : -1);
+            if (number != -1 && getByNumber (number) != null) {
+               number = -1;
+            }
+            initComponent (comp, number, mySize);
+            myArray[mySize++] = comp;
+         }
+         for (int k=0; k<ncomps; k++) {
+            ComponentUtils.checkReferenceContainment (comps[k]);
+            comps[k].connectToHierarchy ();
+            nconnected++;
+         }
+      }
+      catch (RuntimeException e) {
+         // as in addNumbered(), remove the components and throw the
+         // exception back to the application
+         for (int k=nconnected-1; k>=0; k--) {
+            comps[k].disconnectFromHierarchy();
+         }
+         for (int i=mySize-1; i>=size0; i--) {
+            C comp = myArray[i];
+            myArray[i] = null;
+            myComponentMap.unmapComponent (comp);
+            comp.setParent (null);
+         }
+         mySize = size0;
+         throw e;
+      }
+      updateAddedComponents (comps, ncomps);
+   }
+
+   /**
+    * Connects newly added components to the hierarchy, updates their
+    * inherited properties, and issues a structure change notification.
+    */
+   private void connectAddedComponents (ModelComponent[] comps, int ncomps) {
+      for (int i=0; i<ncomps; i++) {
+         comps[i].connectToHierarchy();
+      }
+      updateAddedComponents (comps, ncomps);
+   }
+
+   /**
+    * Updates the inherited properties of newly added and connected
+    * components, and issues a structure change notification.
+    */
+   private void updateAddedComponents (ModelComponent[] comps, int ncomps) {
       boolean stateless = true;
-      // now finish the connecting the components:
       PropTreeCell inheritedVals = null;
       Class currentClass = null;
       for (int i=0; i<ncomps; i++) {
          ModelComponent comp = comps[i];
-         comp.connectToHierarchy();
          if (comp.hasState()) {
             stateless = false;
          }
@@ -730,6 +820,8 @@ public class ComponentListImpl<C extends ModelComponent> extends ScannableList<C
    public void invalidateNumbers() {
       myValidateIndices = 0;
       myResetIndices = true;
+      // number changes are not reported by change events
+      ComponentPathIndex.invalidate (myComp);
    }
 
    // public Object clone() throws CloneNotSupportedException {
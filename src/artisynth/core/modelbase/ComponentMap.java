@@ -7,6 +7,7 @@
 package artisynth.core.modelbase;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Used by CompositeComponents to map between names and numbers and
@@ -22,6 +23,25 @@ public class ComponentMap {
    private int[] myNameStack;
    private boolean myNumberCacheValid = true;
 
+   // counts modifications to all component maps, so that lookups that
+   // depend on them can be validated
+   private static final AtomicLong myMapModificationCount = new AtomicLong();
+
+   /**
+    * Returns a count that is incremented whenever the name or number
+    * mapping of any component map is modified. Used to validate lookups of
+    * descendant paths that are resolved ahead of time while scanning.
+    *
+    * @return global map modification count
+    */
+   static long getMapModificationCount() {
+      return myMapModificationCount.get();
+   }
+
+   static void notifyModified() {
+      myMapModificationCount.incrementAndGet();
+   }
+
    public int allocNumber() {
       if (!myNumberCacheValid) {
          collectFreeNumbers();
@@ -167,6 +187,7 @@ public class ComponentMap {
    }
 
    public void clear() {
+      notifyModified();
       myNameMap.clear();
       initializeNameMap();
    }
@@ -197,6 +218,7 @@ public class ComponentMap {
    }
 
    public int putIndex (int num, int idx) {
+      notifyModified();
       ensureNumberCapacity (num + 1);
       int prev = myNumberMap[num];
       myNumberMap[num] = idx;
@@ -204,6 +226,7 @@ public class ComponentMap {
    }
 
    public int removeIndex (int num) {
+      notifyModified();
       if (num < myNumberMap.length) {
          int prev = myNumberMap[num];
          myNumberMap[num] = -1;
@@ -219,10 +242,12 @@ public class ComponentMap {
    }
 
    public void put (String name, ModelComponent comp) {
+      notifyModified();
       myNameMap.put (name, comp);
    }
 
    public ModelComponent remove (String name) {
+      notifyModified();
       return myNameMap.remove (name);
    }
 
@@ -245,11 +270,13 @@ public class ComponentMap {
    }
 
    public void resetIndex (ModelComponent comp, int idx) {
+      notifyModified();
       myNumberMap[comp.getNumber()] = idx;
       myNumberCacheValid = false;
    }
    
    public void clearIndices() {
+      notifyModified();
       for (int i=0; i<myNumberMap.length; ++i) {
          myNumberMap[i] = -1;
       }
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.modelbase;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the results of path-based component lookups for a component
+ * hierarchy. An index is attached to the root of the hierarchy and maps
+ * absolute paths, or (component, relative path) pairs, to the components
+ * they resolve to. Each index keeps its own modification count, which is
+ * incremented when a structure or name change event reaches the root, so
+ * that adding, removing, renaming or renumbering a component discards only
+ * the cached results for its own hierarchy. Cached results are therefore
+ * always the same as those of an uncached lookup.
+ *
+ * <p>Lookups may be performed concurrently from different threads.
+ */
+class ComponentPathIndex {
+
+   /**
+    * Maximum number of cached entries. When this is reached, the cache is
+    * cleared.
+    */
+   static int maxEntries = 200000;
+
+   // placeholder for paths that resolve to null
+   private static final Object NULL_COMP = new Object();
+
+   private static class Table {
+      final long myVersion;
+      final ConcurrentHashMap<Object,Object> myMap;
+
+      Table (long version) {
+         myVersion = version;
+         myMap = new ConcurrentHashMap<Object,Object>();
+      }
+   }
+
+   private static class RelativeKey {
+      final ModelComponent myComp;
+      final String myPath;
+
+      RelativeKey (ModelComponent comp, String path) {
+         myComp = comp;
+         myPath = path;
+      }
+
+      @Override
+      public int hashCode() {
+         return 31*System.identityHashCode (myComp) + myPath.hashCode();
+      }
+
+      @Override
+      public boolean equals (Object obj) {
+         if (obj instanceof RelativeKey) {
+            RelativeKey key = (RelativeKey)obj;
+            return myComp == key.myComp && myPath.equals (key.myPath);
+         }
+         return false;
+      }
+   }
+
+   private final ModelComponent myRoot;
+   private final AtomicLong myModificationCount = new AtomicLong();
+   private volatile Table myTable = new Table (-1);
+
+   ComponentPathIndex (ModelComponent root) {
+      myRoot = root;
+   }
+
+   /**
+    * Returns the path index for the hierarchy containing a component,
+    * creating it if necessary, or {@code null} if the hierarchy's root
+    * cannot hold an index.
+    */
+   static ComponentPathIndex getIndex (ModelComponent comp) {
+      ModelComponent root = getRoot (comp);
+      ComponentPathIndex index = null;
+      if (root instanceof ComponentList) {
+         ComponentList<?> list = (ComponentList<?>)root;
+         index = list.myPathIndex;
+         // check the root in case the index was copied by clone()
+         if (index == null || index.myRoot != root) {
+            index = new ComponentPathIndex (root);
+            list.myPathIndex = index;
+         }
+      }
+      else if (root instanceof CompositeComponentBase) {
+         CompositeComponentBase ccomp = (CompositeComponentBase)root;
+         index = ccomp.myPathIndex;
+         if (index == null || index.myRoot != root) {
+            index = new ComponentPathIndex (root);
+            ccomp.myPathIndex = index;
+         }
+      }
+      return index;
+   }
+
+   private static ModelComponent getRoot (ModelComponent comp) {
+      ModelComponent root = comp;
+      while (root.getParent() != null) {
+         root = root.getParent();
+      }
+      return root;
+   }
+
+   /**
+    * Returns the index held by a component, or {@code null} if it does not
+    * hold one. Unlike {@link #getIndex}, does not create an index.
+    */
+   private static ComponentPathIndex getExistingIndex (ModelComponent root) {
+      ComponentPathIndex index = null;
+      if (root instanceof ComponentList) {
+         index = ((ComponentList<?>)root).myPathIndex;
+      }
+      else if (root instanceof CompositeComponentBase) {
+         index = ((CompositeComponentBase)root).myPathIndex;
+      }
+      return (index != null && index.myRoot == root) ? index : null;
+   }
+
+   /**
+    * Called when a component change event reaches the root of a hierarchy.
+    * Structure and name changes invalidate the root's index.
+    */
+   static void componentChanged (ModelComponent root, ComponentChangeEvent e) {
+      ComponentChangeEvent.Code code = e.getCode();
+      if (code == ComponentChangeEvent.Code.STRUCTURE_CHANGED ||
+          code == ComponentChangeEvent.Code.NAME_CHANGED) {
+         ComponentPathIndex index = getExistingIndex (root);
+         if (index != null) {
+            index.myModificationCount.incrementAndGet();
+         }
+      }
+   }
+
+   /**
+    * Invalidates the index of the hierarchy containing a component. Used
+    * for changes, such as short name changes, that are not reported by
+    * change events.
+    */
+   static void invalidate (ModelComponent comp) {
+      ComponentPathIndex index = getExistingIndex (getRoot (comp));
+      if (index != null) {
+         index.myModificationCount.incrementAndGet();
+      }
+   }
+
+   /**
+    * Called when the parent of a component changes. If the component held
+    * an index as the root of its own hierarchy, that index is discarded,
+    * since its count was not updated while the component was attached to
+    * another hierarchy.
+    */
+   static void parentChanged (ModelComponent comp) {
+      if (comp instanceof ComponentList) {
+         ((ComponentList<?>)comp).myPathIndex = null;
+      }
+      else if (comp instanceof CompositeComponentBase) {
+         ((CompositeComponentBase)comp).myPathIndex = null;
+      }
+   }
+
+   /**
+    * Returns the number of times this index has been invalidated.
+    */
+   long getModificationCount() {
+      return myModificationCount.get();
+   }
+
+   /**
+    * Finds the component specified by a path relative to {@code comp}, using
+    * a cached result if possible.
+    */
+   ModelComponent findComponent (ModelComponent comp, String path) {
+      long version = myModificationCount.get();
+      Table table = myTable;
+      if (table.myVersion != version) {
+         table = new Table (version);
+         myTable = table;
+      }
+      Object key;
+      if (path.length() > 0 && path.charAt(0) == '/') {
+         key = path;
+      }
+      else {
+         key = new RelativeKey (comp, path);
+      }
+      Object cached = table.myMap.get (key);
+      if (cached == null) {
+         ModelComponent result =
+            ComponentUtils.findComponentUncached (comp, path);
+         // cache the result only if nothing changed during the lookup
+         if (myModificationCount.get() == version) {
+            if (table.myMap.size() >= maxEntries) {
+               table.myMap.clear();
+            }
+            table.myMap.put (key, result != null ? result : NULL_COMP);
+         }
+         return result;
+      }
+      else {
+         return cached != NULL_COMP ? (ModelComponent)cached : null;
+      }
+   }
+}
@@ -354,9 +354,137 @@ public class ComponentTest {
 
    }
 
+   private void checkPaths (ModelComponent comp, String... paths) {
+      for (String path : paths) {
+         ModelComponent check = ComponentUtils.findComponentUncached (
+            comp, path);
+         // look up twice, to check both uncached and cached results
+         for (int i=0; i<2; i++) {
+            ModelComponent c = ComponentUtils.findComponent (comp, path);
+            if (c != check) {
+               throw new TestException (
+                  "path '" + path + "' from " +
+                  ComponentUtils.getPathName (comp) + " found " + c +
+                  ", expected " + check);
+            }
+         }
+      }
+   }
+
+   private void checkPathIndex (
+      ComponentList<TestList> root, TestList listA, TestList listB) {
+      checkPaths (
+         root, "listA/compA", "a/compB", "listB/0", "b/1", "/listA/compC",
+         "/a/2", "listA", "listA/", "listA/compZ", "listC/compA", ".", "..");
+      checkPaths (
+         listA, "compA", "0", "../listB/compJ", "../b/1", "/listA/compA",
+         "compZ", "..");
+      checkPaths (
+         listB, "compJ", "../a/compA", "/b/compK", "/a/1");
+   }
+
+   private ModelComponent find (ModelComponent comp, String path) {
+      return ComponentUtils.findComponent (comp, path);
+   }
+
+   public void testPathIndex() {
+      TestComp A = new TestComp ("compA");
+      TestComp B = new TestComp ("compB");
+      TestComp C = new TestComp ("compC");
+      TestComp J = new TestComp ("compJ");
+      TestComp K = new TestComp ("compK");
+
+      TestList listA = new TestList ("listA", "a");
+      TestList listB = new TestList ("listB", "b");
+      ComponentList<TestList> root =
+         new ComponentList<TestList> (TestList.class, "root", "r");
+      root.add (listA);
+      root.add (listB);
+      listA.add (A);
+      listA.add (B);
+      listA.add (C);
+      listB.add (J);
+      listB.add (K);
+      checkPathIndex (root, listA, listB);
+      doAssert (
+         "compA not found", find (root, "listA/compA") == A);
+
+      // renaming
+      A.setName ("compX");
+      checkPathIndex (root, listA, listB);
+      doAssert (
+         "compX not found", find (root, "listA/compX") == A);
+      A.setName ("compA");
+      checkPathIndex (root, listA, listB);
+
+      // removal and renumbering
+      listA.remove (B);
+      checkPathIndex (root, listA, listB);
+      doAssert (
+         "compB still found", find (root, "listA/compB") == null);
+      listA.add (B, 0);
+      checkPathIndex (root, listA, listB);
+      doAssert (
+         "compB not found", find (root, "/a/compB") == B);
+
+      // moving a component between lists
+      listA.remove (C);
+      listB.add (C);
+      checkPathIndex (root, listA, listB);
+      doAssert (
+         "compC not moved", find (root, "listB/compC") == C);
+
+      // changing short names and list names
+      listB.setShortName ("bb");
+      checkPathIndex (root, listA, listB);
+      doAssert (
+         "short name not updated", find (root, "bb/compJ") == J);
+      listB.setName ("listX");
+      doAssert (
+         "list name not updated", find (root, "listX/compK") == K);
+      doAssert (
+         "old list name still found",
+         find (root, "listB/compK") == null);
+
+      // detaching a subtree makes it a separate hierarchy
+      root.remove (listA);
+      doAssert (
+         "detached list still found", find (root, "listA") == null);
+      doAssert (
+         "absolute path in detached list not resolved",
+         find (listA, "/compA") == A);
+
+      // changes in one hierarchy do not invalidate the index of another
+      ComponentPathIndex indexA = ComponentPathIndex.getIndex (listA);
+      long countA = indexA.getModificationCount();
+      J.setName ("compY");
+      root.remove (listB);
+      root.add (listB);
+      doAssert (
+         "detached index invalidated by other hierarchy",
+         indexA.getModificationCount() == countA);
+      A.setName ("compZ");
+      doAssert (
+         "detached index not invalidated by rename",
+         indexA.getModificationCount() > countA);
+      doAssert (
+         "renamed component not found in detached list",
+         find (listA, "/compZ") == A);
+
+      // reattaching discards the index of the formerly detached list
+      root.add (listA);
+      doAssert (
+         "reattached list index not discarded",
+         ComponentPathIndex.getIndex (listA) != indexA);
+      doAssert (
+         "component not found in reattached list",
+         find (root, "listA/compZ") == A);
+   }
+
    public static void main (String[] args) {
       ComponentTest tester = new ComponentTest();
       try {
+         tester.testPathIndex();
          tester.test();
       }
       catch (Exception e) {
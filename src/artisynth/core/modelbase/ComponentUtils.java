@@ -828,8 +828,39 @@ public class ComponentUtils {
       return false;
    }
 
+   /**
+    * If {@code true}, the results of {@link #findComponent} are cached in a
+    * path index attached to the root of each component hierarchy. The cache
+    * is invalidated whenever components are added, removed, or renamed.
+    */
+   public static boolean usePathIndex = true;
+
+   /**
+    * Should be called by a hierarchy root that overrides {@link
+    * CompositeComponent#componentChanged componentChanged} without
+    * calling {@link ModelComponentBase#notifyParentOfChange}, so that
+    * structure and name changes still invalidate the root's path index.
+    *
+    * @param root root of the component hierarchy
+    * @param e change event that has reached the root
+    */
+   public static void rootComponentChanged (
+      ModelComponent root, ComponentChangeEvent e) {
+      ComponentPathIndex.componentChanged (root, e);
+   }
+
    public static ModelComponent findComponent (ModelComponent comp, String path) {
-      // TODO still need to make this fast
+      if (comp != null && usePathIndex) {
+         ComponentPathIndex index = ComponentPathIndex.getIndex (comp);
+         if (index != null) {
+            return index.findComponent (comp, path);
+         }
+      }
+      return findComponentUncached (comp, path);
+   }
+
+   static ModelComponent findComponentUncached (
+      ModelComponent comp, String path) {
       if (path.equals (".")) {
          return comp;
       }
@@ -875,7 +906,7 @@ public class ComponentUtils {
             throw new IllegalArgumentException (
                "double '/' not permitted in component path names");
          }
-         return findComponent (subc, subPath);
+         return findComponentUncached (subc, subPath);
       }
       else {
          if (path.equals ("null")) {
@@ -24,6 +24,8 @@ public class CompositeComponentBase extends ModelComponentBase
       new ComponentListImpl<ModelComponent>(ModelComponent.class, this);
 
    private NavpanelDisplay myDisplayMode = NavpanelDisplay.NORMAL;
+   // path lookup cache, used if this component is the root of a hierarchy
+   ComponentPathIndex myPathIndex;
 
    public CompositeComponentBase (String name) {
       super (name);
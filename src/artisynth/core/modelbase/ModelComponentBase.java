@@ -301,6 +301,9 @@ public abstract class ModelComponentBase implements ModelComponent, Cloneable {
     * {@inheritDoc}
     */
    public void setParent (CompositeComponent parent) {
+      if (parent != myParent) {
+         ComponentPathIndex.parentChanged (this);
+      }
       myParent = parent;
    }
 
@@ -510,6 +513,10 @@ public abstract class ModelComponentBase implements ModelComponent, Cloneable {
       if (myParent != null) {
          myParent.componentChanged (e);
       }
+      else {
+         // event has reached the root of the hierarchy
+         ComponentPathIndex.componentChanged (this, e);
+      }
    }
 
    public Iterator<? extends HierarchyNode> getChildren() {
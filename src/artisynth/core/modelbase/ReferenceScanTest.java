@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.modelbase;
+
+import java.io.*;
+import java.util.*;
+
+import artisynth.core.util.*;
+import maspack.util.*;
+
+/**
+ * Tests the scanning and postscanning of component reference lists, with
+ * and without parallel resolution of the references.
+ */
+public class ReferenceScanTest extends UnitTest {
+
+   private Random myRand = new Random (0x1234);
+
+   public static class TestPoint extends ModelComponentBase {
+      public TestPoint () {
+         super();
+      }
+   }
+
+   /**
+    * Component which references a list of points.
+    */
+   public static class TestRefComp extends ModelComponentBase {
+      ArrayList<TestPoint> myRefs = new ArrayList<TestPoint>();
+
+      public TestRefComp () {
+         super();
+      }
+
+      protected boolean scanItem (ReaderTokenizer rtok, Deque<ScanToken> tokens)
+         throws IOException {
+         rtok.nextToken();
+         if (scanAndStoreReferences (rtok, "refs", tokens) >= 0) {
+            return true;
+         }
+         rtok.pushBack();
+         return super.scanItem (rtok, tokens);
+      }
+
+      protected boolean postscanItem (
+         Deque<ScanToken> tokens, CompositeComponent ancestor)
+         throws IOException {
+         if (postscanAttributeName (tokens, "refs")) {
+            TestPoint[] refs = ScanWriteUtils.postscanReferences (
+               tokens, TestPoint.class, ancestor);
+            myRefs.clear();
+            myRefs.addAll (Arrays.asList (refs));
+            return true;
+         }
+         return super.postscanItem (tokens, ancestor);
+      }
+
+      protected void writeItems (
+         PrintWriter pw, NumberFormat fmt, CompositeComponent ancestor)
+         throws IOException {
+         pw.print ("refs=");
+         ScanWriteUtils.writeBracketedReferences (pw, myRefs, ancestor);
+         super.writeItems (pw, fmt, ancestor);
+      }
+   }
+
+   private ComponentList<ModelComponent> myRoot;
+   private ComponentList<TestPoint> myPoints;
+   private ComponentList<TestRefComp> myRefComps;
+
+   private void build (int numPoints, int numComps, int maxRefs) {
+      myRoot = new ComponentList<ModelComponent> (
+         ModelComponent.class, "root", null);
+      myPoints = new ComponentList<TestPoint> (TestPoint.class, "points", "p");
+      myRefComps =
+         new ComponentList<TestRefComp> (TestRefComp.class, "comps", "c");
+      myRoot.add (myPoints);
+      myRoot.add (myRefComps);
+      for (int i=0; i<numPoints; i++) {
+         TestPoint pnt = new TestPoint();
+         if (myRand.nextInt (4) == 0) {
+            pnt.setName ("pnt"+i);
+         }
+         myPoints.add (pnt);
+      }
+      for (int i=0; i<numComps; i++) {
+         TestRefComp comp = new TestRefComp();
+         int numRefs = myRand.nextInt (maxRefs+1);
+         for (int k=0; k<numRefs; k++) {
+            comp.myRefs.add (myPoints.get (myRand.nextInt (numPoints)));
+         }
+         myRefComps.add (comp);
+      }
+   }
+
+   private ArrayList<ArrayList<TestPoint>> saveRefs() {
+      ArrayList<ArrayList<TestPoint>> refs =
+         new ArrayList<ArrayList<TestPoint>>();
+      for (TestRefComp comp : myRefComps) {
+         refs.add (new ArrayList<TestPoint>(comp.myRefs));
+      }
+      return refs;
+   }
+
+   private void checkRefs (ArrayList<ArrayList<TestPoint>> check) {
+      checkEquals ("number of components", myRefComps.size(), check.size());
+      for (int i=0; i<check.size(); i++) {
+         ArrayList<TestPoint> refs = myRefComps.get(i).myRefs;
+         if (!refs.equals (check.get(i))) {
+            throw new TestException (
+               "references for component "+i+" are "+refs+
+               ", expected "+check.get(i));
+         }
+      }
+   }
+
+   private void scanRefComps (String str) throws IOException {
+      ReaderTokenizer rtok = new ReaderTokenizer (new StringReader (str));
+      rtok.wordChars ("./$");
+      Deque<ScanToken> tokens = new ArrayDeque<ScanToken>();
+      myRefComps.scan (rtok, tokens);
+      myRefComps.postscan (tokens, myRoot);
+      if (tokens.size() != 0) {
+         throw new TestException (
+            tokens.size()+" tokens left after postscan");
+      }
+   }
+
+   private String writeRefComps() throws IOException {
+      StringWriter sw = new StringWriter();
+      PrintWriter pw = new IndentingPrintWriter (sw);
+      myRefComps.write (pw, new NumberFormat ("%g"), myRoot);
+      pw.flush();
+      return sw.toString();
+   }
+
+   public void testRoundTrip (
+      int numPoints, int numComps, int maxRefs, boolean parallel) {
+
+      build (numPoints, numComps, maxRefs);
+      ArrayList<ArrayList<TestPoint>> check = saveRefs();
+      boolean saveParallel = ScanWriteUtils.parallelPostscan;
+      int saveMinRefs = ScanWriteUtils.parallelPostscanMinRefs;
+      ScanWriteUtils.parallelPostscan = parallel;
+      ScanWriteUtils.parallelPostscanMinRefs = 16;
+      try {
+         String str = writeRefComps();
+         scanRefComps (str);
+         checkRefs (check);
+         checkEquals ("rewritten output", writeRefComps(), str);
+      }
+      catch (IOException e) {
+         throw new TestException ("unexpected exception: " + e);
+      }
+      finally {
+         ScanWriteUtils.parallelPostscan = saveParallel;
+         ScanWriteUtils.parallelPostscanMinRefs = saveMinRefs;
+      }
+   }
+
+   public void testMissingReference (boolean parallel) {
+      build (100, 20, 50);
+      boolean saveParallel = ScanWriteUtils.parallelPostscan;
+      int saveMinRefs = ScanWriteUtils.parallelPostscanMinRefs;
+      ScanWriteUtils.parallelPostscan = parallel;
+      ScanWriteUtils.parallelPostscanMinRefs = 16;
+      try {
+         String str = writeRefComps();
+         str = str.replace ("refs=[", "refs=[ points/1000 ");
+         try {
+            scanRefComps (str);
+         }
+         catch (IOException e) {
+            if (!e.getMessage().startsWith (
+                   "Can't find component corresponding to points/1000")) {
+               throw new TestException ("unexpected exception: " + e);
+            }
+            return;
+         }
+         throw new TestException ("missing reference not detected");
+      }
+      catch (IOException e) {
+         throw new TestException ("unexpected exception: " + e);
+      }
+      finally {
+         ScanWriteUtils.parallelPostscan = saveParallel;
+         ScanWriteUtils.parallelPostscanMinRefs = saveMinRefs;
+      }
+   }
+
+   /**
+    * Checks that a block of references can be consumed one reference at a
+    * time, as with individually stored references.
+    */
+   public void testSingleReferences() {
+      build (50, 0, 0);
+      ReferenceListToken refs = new ReferenceListToken (1);
+      Deque<ScanToken> tokens = new ArrayDeque<ScanToken>();
+      for (int i=0; i<10; i++) {
+         refs.add ("points/"+(3*i), 1);
+      }
+      ScanWriteUtils.storeReferences (tokens, refs);
+      ScanWriteUtils.storeReferences (tokens, new ReferenceListToken (2));
+      try {
+         checkEquals ("BEGIN token", tokens.poll(), ScanToken.BEGIN);
+         for (int i=0; i<10; i++) {
+            TestPoint pnt = ScanWriteUtils.postscanReference (
+               tokens, TestPoint.class, myRoot);
+            checkEquals ("reference "+i, pnt, myPoints.getByNumber (3*i));
+         }
+         checkEquals ("END token", tokens.poll(), ScanToken.END);
+         TestPoint[] empty = ScanWriteUtils.postscanReferences (
+            tokens, TestPoint.class, myRoot);
+         checkEquals ("empty reference list size", empty.length, 0);
+         checkEquals ("remaining tokens", tokens.size(), 0);
+      }
+      catch (IOException e) {
+         throw new TestException ("unexpected exception: " + e);
+      }
+   }
+
+   public void test() {
+      testSingleReferences();
+      for (boolean parallel : new boolean[] { false, true }) {
+         testRoundTrip (10, 5, 3, parallel);
+         testRoundTrip (200, 100, 20, parallel);
+         testRoundTrip (5000, 2000, 10, parallel);
+         testRoundTrip (5000, 3, 4000, parallel);
+         testMissingReference (parallel);
+      }
+   }
+
+   public static void main (String[] args) {
+      ReferenceScanTest tester = new ReferenceScanTest();
+      tester.runtest();
+   }
+}
@@ -17,6 +17,7 @@ import maspack.properties.*;
 import java.io.*;
 
 import artisynth.core.util.*;
+import maspack.concurrency.ParallelLoop;
 
 public class ScanWriteUtils {
    
@@ -24,6 +25,21 @@ public class ScanWriteUtils {
    
    private static final int TT_WORD = ReaderTokenizer.TT_WORD;
 
+   /**
+    * If <code>true</code>, reference paths which are stored in blocks by
+    * {@link #scanAndStoreReferences(ReaderTokenizer,Deque)} are resolved in
+    * parallel when there are enough of them. This happens either when a
+    * large block is postscanned, or when a component list with many
+    * references among its components is postscanned.
+    */
+   public static boolean parallelPostscan = true;
+
+   /**
+    * Minimum number of reference paths for which parallel resolution is
+    * used.
+    */
+   public static int parallelPostscanMinRefs = 2000;
+
    /**
     * Debugging hook to enable printing of the token queue produced
     * in the {@link #scanfull scanfull()} method, before <code>postscan()</code>
@@ -84,11 +100,66 @@ public class ScanWriteUtils {
       return scanned;
    }
 
+   /**
+    * If the next input token is a quoted string or word, then assume that
+    * it is a component reference path, add it to a block of reference
+    * paths, and return <code>true</code>. The block can later be added to
+    * the token queue using {@link #storeReferences storeReferences()}.
+    * 
+    * @param rtok input token stream
+    * @param refs block of reference paths
+    * @return <code>true</code> if reference path is scanned and stored 
+    * in <code>refs</code>
+    * @throws IOException if an I/O or syntax error occurred
+    */
+   public static boolean scanAndStoreReference (
+      ReaderTokenizer rtok, ReferenceListToken refs) throws IOException {
+
+      boolean scanned = false;
+
+      rtok.parseNumbers (false);
+      int dsave = rtok.getCharSetting ('-');
+      rtok.wordChar ('-');
+
+      try {
+         rtok.nextToken();
+         // for backward compatibility, allow the path to be a word as 
+         // well as a quoted string 
+         if (rtok.ttype == TT_WORD || rtok.ttype == '"') {
+            refs.add (rtok.sval, rtok.lineno());
+            scanned = true;
+         }
+      }
+      finally {
+         rtok.parseNumbers (true);
+         rtok.setCharSetting ('-', dsave);
+      }
+      return scanned;
+   }
+
+   /**
+    * Stores a block of reference paths in the token queue, as a BEGIN
+    * token, a <code>ReferenceListToken</code> containing the paths (omitted
+    * if there are none), and an END token. The paths can be retrieved in
+    * postscan using {@link #postscanReferences postscanReferences()}.
+    *
+    * @param tokens token storage queue for postscan
+    * @param refs block of reference paths
+    */
+   public static void storeReferences (
+      Deque<ScanToken> tokens, ReferenceListToken refs) {
+      tokens.offer (ScanToken.BEGIN);
+      if (refs.size() > 0) {
+         tokens.offer (refs);
+      }
+      tokens.offer (ScanToken.END);
+   }
+
    /**
     * Assumes that the next set of input tokens are a set of component 
     * reference paths enclosed between square brackets. Read these
-    * reference paths, stored their values in the token queue as
-    * a set of <code>StringTokens</code>, and return the number
+    * reference paths, store them in the token queue as a block
+    * enclosed by BEGIN and END tokens, and return the number
     * of reference paths found.
     * 
     * @param rtok input token stream
@@ -103,20 +174,20 @@ public class ScanWriteUtils {
       int dsave = rtok.getCharSetting ('-');
       rtok.wordChar ('-');
 
-      int oldsize = tokens.size();
+      ReferenceListToken refs = null;
       try {
          rtok.scanToken ('[');
-         tokens.offer (ScanToken.BEGIN);
+         refs = new ReferenceListToken (rtok.lineno());
          while (rtok.nextToken() != ']') {
             if (rtok.ttype == ReaderTokenizer.TT_WORD || rtok.ttype == '"') {
-               tokens.offer (new StringToken (rtok.sval, rtok.lineno()));
+               refs.add (rtok.sval, rtok.lineno());
             }
             else {
                throw new IOException (
                   "Expecting component reference, got "+rtok);
             }
          }
-         tokens.offer (ScanToken.END);
+         storeReferences (tokens, refs);
       }
       catch (IOException e) {
          throw e;
@@ -125,7 +196,7 @@ public class ScanWriteUtils {
          rtok.parseNumbers (true);
          rtok.setCharSetting ('-', dsave);
       }
-      return tokens.size() - oldsize - 2;
+      return refs.size();
    }
    
    public static boolean scanAttributeName (ReaderTokenizer rtok, String name)
@@ -448,16 +519,25 @@ public class ScanWriteUtils {
       StringToken strtok, Class<C> clazz, CompositeComponent ancestor)
       throws IOException {
 
-      ModelComponent comp = null;
-      String str = strtok.value();
-      if (str.equals ("null")) {
-         return null;
-      }
-      comp = ComponentUtils.findComponent (ancestor, str);
+      return postscanReference (
+         strtok.value(), strtok.lineno(), null, clazz, ancestor);
+   }
+
+   private static <C> C postscanReference (
+      String str, int lineno, ModelComponent comp,
+      Class<C> clazz, CompositeComponent ancestor) throws IOException {
+
       if (comp == null) {
-         throw new IOException (
-            "Can't find component corresponding to "+str+
-            ", line "+strtok.lineno());
+         // not resolved ahead of time
+         if (str.equals ("null")) {
+            return null;
+         }
+         comp = ComponentUtils.findComponent (ancestor, str);
+         if (comp == null) {
+            throw new IOException (
+               "Can't find component corresponding to "+str+
+               ", line "+lineno);
+         }
       }
       if (clazz.isAssignableFrom(comp.getClass())) {
          return (C)comp;
@@ -465,10 +545,20 @@ public class ScanWriteUtils {
       else {
          throw new IOException (
             "Component "+comp+" referenced by " + str +
-            " not an instance of " + clazz +", line " + strtok.lineno());
+            " not an instance of " + clazz +", line " + lineno);
       }
    }
 
+   private static <C> C postscanReference (
+      ReferenceListToken reftok, int idx, long version,
+      Class<C> clazz, CompositeComponent ancestor) throws IOException {
+
+      return postscanReference (
+         reftok.getPath(idx), reftok.getLineno(idx),
+         (ModelComponent)reftok.getResolved (idx, ancestor, version),
+         clazz, ancestor);
+   }
+
    /**
     * Removes the next token from the queue, checks that it is a StringToken 
     * containing a reference path relative to <code>ancestor</code>, locates
@@ -486,6 +576,18 @@ public class ScanWriteUtils {
       Deque<ScanToken> tokens, Class<C> clazz, CompositeComponent ancestor)
       throws IOException {
       
+      if (tokens.peek() instanceof ReferenceListToken) {
+         // take the next path from the block, and consume the block once
+         // all its paths have been taken
+         ReferenceListToken reftok = (ReferenceListToken)tokens.peek();
+         int idx = reftok.next();
+         if (!reftok.hasNext()) {
+            tokens.poll();
+         }
+         return postscanReference (
+            reftok, idx, ComponentMap.getMapModificationCount(),
+            clazz, ancestor);
+      }
       ScanToken tok = tokens.poll();
       if (tok instanceof StringToken) {
          StringToken strtok = (StringToken)tok;
@@ -518,6 +620,17 @@ public class ScanWriteUtils {
       if (tok != ScanToken.BEGIN) {
          throw new IOException ("BEGIN token expected, got "+tok);
       }
+      if (tokens.peek() instanceof ReferenceListToken) {
+         ReferenceListToken reftok = (ReferenceListToken)tokens.poll();
+         if (tokens.peek() == ScanToken.END && reftok.position() == 0) {
+            // whole list is contained in one block
+            tokens.poll(); // consume END token
+            return postscanReferences (reftok, clazz, ancestor);
+         }
+         else {
+            tokens.push (reftok);
+         }
+      }
       LinkedList<C> refs = new LinkedList<C>();
       while (tokens.peek() != ScanToken.END) {
          refs.add (postscanReference (tokens, clazz, ancestor));
@@ -525,6 +638,197 @@ public class ScanWriteUtils {
       tokens.poll(); // consume BEGIN token
       return refs.toArray ((C[])Array.newInstance (clazz, 0));
    }
+
+   private static <C> C[] postscanReferences (
+      ReferenceListToken reftok, Class<C> clazz, CompositeComponent ancestor)
+      throws IOException {
+
+      int num = reftok.size();
+      if (parallelPostscan && num >= parallelPostscanMinRefs &&
+          !reftok.isResolved (
+             ancestor, ComponentMap.getMapModificationCount())) {
+         ArrayList<ReferenceListToken> blocks =
+            new ArrayList<ReferenceListToken>(1);
+         blocks.add (reftok);
+         resolveReferences (blocks, num, ancestor);
+      }
+      C[] refs = (C[])Array.newInstance (clazz, num);
+      long version = ComponentMap.getMapModificationCount();
+      for (int i=0; i<num; i++) {
+         refs[i] = postscanReference (
+            reftok, reftok.next(), version, clazz, ancestor);
+      }
+      return refs;
+   }
+
+   /**
+    * Returns <code>true</code> if a path can be resolved ahead of time.
+    * This is the case for paths which descend from the ancestor, so that
+    * they depend only on the component maps and not on parent references.
+    */
+   private static boolean isDescendantPath (String path) {
+      return (path.length() > 0 && path.charAt(0) != '/' &&
+              path.indexOf ('.') == -1 && !path.equals ("null"));
+   }
+
+   /**
+    * Resolves, in parallel, the reference paths in a set of blocks with
+    * respect to <code>ancestor</code>, and stores the results in the
+    * blocks. Only descendant paths are resolved.
+    */
+   private static void resolveReferences (
+      final ArrayList<ReferenceListToken> blocks, int numRefs,
+      final CompositeComponent ancestor) {
+
+      // Looking up components is read-only, except that component lists
+      // may lazily update their number indices on first access. So first
+      // serially look up one path for each distinct parent path, so that
+      // all the lists involved are updated. Consecutive paths usually have
+      // the same parent, which is checked without allocation.
+      HashSet<String> parents = new HashSet<String>();
+      String lastParent = null;
+      boolean resolvable = false;
+      for (ReferenceListToken reftok : blocks) {
+         for (int i=reftok.position(); i<reftok.size(); i++) {
+            String path = reftok.getPath(i);
+            if (!isDescendantPath (path)) {
+               continue;
+            }
+            int plen = path.lastIndexOf ('/');
+            if (lastParent != null && plen == lastParent.length() &&
+                path.startsWith (lastParent)) {
+               continue;
+            }
+            lastParent = (plen == -1 ? "" : path.substring (0, plen));
+            if (parents.add (lastParent)) {
+               resolvable = true;
+               try {
+                  ComponentUtils.findComponentUncached (ancestor, path);
+               }
+               catch (Exception e) {
+                  // will be reported when the path is postscanned
+               }
+            }
+         }
+      }
+      if (!resolvable) {
+         return;
+      }
+      final long version = ComponentMap.getMapModificationCount();
+      final Object[][] results = new Object[blocks.size()][];
+      if (blocks.size() == 1) {
+         // split the paths of the single block
+         final ReferenceListToken reftok = blocks.get(0);
+         results[0] = new Object[reftok.size()];
+         ParallelLoop.forRange (
+            reftok.position(), reftok.size(), parallelPostscanMinRefs/4,
+            new ParallelLoop.RangeBody() {
+               public void apply (int i0, int i1) {
+                  resolvePaths (reftok, results[0], i0, i1, ancestor);
+               }
+            });
+      }
+      else {
+         int grain = Math.max (
+            1, (parallelPostscanMinRefs/4)/Math.max (1, numRefs/blocks.size()));
+         ParallelLoop.forRange (
+            blocks.size(), grain, new ParallelLoop.RangeBody() {
+               public void apply (int b0, int b1) {
+                  for (int b=b0; b<b1; b++) {
+                     ReferenceListToken reftok = blocks.get(b);
+                     results[b] = new Object[reftok.size()];
+                     resolvePaths (
+                        reftok, results[b],
+                        reftok.position(), reftok.size(), ancestor);
+                  }
+               }
+            });
+      }
+      if (ComponentMap.getMapModificationCount() == version) {
+         for (int b=0; b<blocks.size(); b++) {
+            blocks.get(b).setResolved (results[b], ancestor, version);
+         }
+      }
+   }
+
+   private static void resolvePaths (
+      ReferenceListToken reftok, Object[] results, int i0, int i1,
+      CompositeComponent ancestor) {
+      for (int i=i0; i<i1; i++) {
+         String path = reftok.getPath(i);
+         if (isDescendantPath (path)) {
+            try {
+               // each path is resolved only once, so bypass the path index
+               results[i] = ComponentUtils.findComponentUncached (
+                  ancestor, path);
+            }
+            catch (Exception e) {
+               // leave unresolved; will be reported when postscanned
+            }
+         }
+      }
+   }
+
+   /**
+    * Resolves ahead of time the blocks of reference paths belonging to the
+    * components of a component list, so that they are available when the
+    * components are postscanned. The tokens for the list are assumed to
+    * begin at the head of the token queue with a BEGIN token. Paths are
+    * resolved with respect to <code>ancestor</code>, in parallel, if
+    * {@link #parallelPostscan} is enabled and the total number of paths
+    * is at least {@link #parallelPostscanMinRefs}. Tokens belonging to
+    * composite components within the list are skipped, since those are
+    * handled when their own sub-lists are postscanned.
+    *
+    * <p>Resolved paths are used only if the postscan ancestor is the same
+    * and no component maps have been modified in the meantime; otherwise
+    * paths are resolved when they are postscanned, as usual.
+    *
+    * @param tokens queue of stored tokens
+    * @param ancestor ancestor for the reference paths
+    */
+   public static void prefetchReferences (
+      Deque<ScanToken> tokens, CompositeComponent ancestor) {
+
+      if (!parallelPostscan || ParallelLoop.getParallelism() <= 1 ||
+          tokens.peek() != ScanToken.BEGIN) {
+         return;
+      }
+      ArrayList<ReferenceListToken> blocks =
+         new ArrayList<ReferenceListToken>();
+      int numRefs = 0;
+      int depth = 0;
+      boolean skipping = false;
+      Iterator<ScanToken> it = tokens.iterator();
+      while (it.hasNext()) {
+         ScanToken tok = it.next();
+         if (tok == ScanToken.BEGIN) {
+            depth++;
+         }
+         else if (tok == ScanToken.END) {
+            depth--;
+            if (depth == 0) {
+               break;
+            }
+            else if (depth == 1) {
+               skipping = false;
+            }
+         }
+         else if (tok instanceof ReferenceListToken) {
+            ReferenceListToken reftok = (ReferenceListToken)tok;
+            if (!skipping && reftok.position() == 0) {
+               blocks.add (reftok);
+               numRefs += reftok.size();
+            }
+         }
+         else if (depth == 1 && tok.value() instanceof CompositeComponent) {
+            skipping = true;
+         }
+      }
+      if (numRefs >= parallelPostscanMinRefs) {
+         resolveReferences (blocks, numRefs, ancestor);
+      }
+   }
    
    /**
     * Checks that the next set of tokens in the stream consist of
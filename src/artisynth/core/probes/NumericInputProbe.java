@@ -599,7 +599,7 @@ public class NumericInputProbe extends NumericProbeBase
       updateJythonVariables (myVariables, tloc);
       for (int i = 0; i < myDrivers.size(); i++) {
          NumericProbeDriver driver = myDrivers.get (i);
-         double[] vals = driver.eval (myVariables, myJythonLocals);
+         double[] vals = driver.eval (myVariables, tloc, myJythonLocals);
          Object valObj = myConverters[i].arrayToObject (vals);
          myPropList.get (i).set (valObj);
       }
@@ -13,9 +13,12 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
 
+import maspack.interpolation.BinaryNumericListReader;
+import maspack.interpolation.BinaryNumericListWriter;
 import maspack.interpolation.NumericList;
 import maspack.interpolation.NumericListKnot;
 import maspack.matrix.ImproperStateException;
+import maspack.properties.GenericPropertyHandle;
 import maspack.properties.NumericConverter;
 import maspack.properties.Property;
 import maspack.properties.PropertyList;
@@ -32,6 +35,19 @@ public class NumericOutputProbe extends NumericProbeBase
    private boolean myShowHeader;
    private static boolean defaultShowHeader = true;
 
+   private boolean myStreaming;
+   private static boolean defaultStreaming = false;
+
+   private int myStreamWindow;
+   private static int defaultStreamWindow = 1000;
+
+   private boolean myStreamCompressed;
+   private static boolean defaultStreamCompressed = false;
+
+   // writes output data to the stream file when streaming is enabled
+   private BinaryNumericListWriter myStreamWriter;
+   private int myNumAddsSinceTrim = 0;
+
    public static PropertyList myProps =
       new PropertyList (NumericOutputProbe.class, NumericProbeBase.class);
 
@@ -43,6 +59,17 @@ public class NumericOutputProbe extends NumericProbeBase
       myProps.add (
          "showHeader * *", "show header explicitly in output file",
          defaultShowHeader);
+      myProps.add (
+         "streaming * *",
+         "stream output data to a binary file instead of keeping it in memory",
+         defaultStreaming);
+      myProps.add (
+         "streamWindow * *",
+         "number of knots kept in memory for display when streaming",
+         defaultStreamWindow, "[1,inf]");
+      myProps.add (
+         "streamCompressed * *", "compress the binary stream file",
+         defaultStreamCompressed);
    }
 
    public PropertyList getAllPropertyInfo() {
@@ -53,6 +80,9 @@ public class NumericOutputProbe extends NumericProbeBase
       super.setDefaultValues();
       myShowTime = defaultShowTime;
       myShowHeader = defaultShowHeader;
+      myStreaming = defaultStreaming;
+      myStreamWindow = defaultStreamWindow;
+      myStreamCompressed = defaultStreamCompressed;
    }
 
    public boolean getShowTime() {
@@ -71,6 +101,185 @@ public class NumericOutputProbe extends NumericProbeBase
       myShowHeader = enable;
    }
 
+   public boolean getStreaming() {
+      return myStreaming;
+   }
+
+   /**
+    * Enables or disables streaming for this probe. When streaming is
+    * enabled, output data is written to a binary file, as described for
+    * {@link #getStreamFile}, by a background thread, and only the most recent
+    * {@link #getStreamWindow streamWindow} knots are kept in memory for
+    * display. This allows long, high-rate output to be recorded without
+    * exhausting memory. The streamed data can be read back using {@link
+    * #getStreamedOutput}, and is written to the attached file by {@link
+    * #save}. If the probe has no attached file, the data is kept
+    * in memory instead.
+    *
+    * @param enable if {@code true}, enables streaming
+    */
+   public void setStreaming (boolean enable) {
+      if (!enable) {
+         closeStream();
+      }
+      myStreaming = enable;
+   }
+
+   public int getStreamWindow() {
+      return myStreamWindow;
+   }
+
+   /**
+    * Sets the number of knots kept in memory for display when streaming is
+    * enabled.
+    *
+    * @param num number of knots to keep in memory
+    */
+   public void setStreamWindow (int num) {
+      if (num < 1) {
+         throw new IllegalArgumentException ("stream window must be positive");
+      }
+      myStreamWindow = num;
+   }
+
+   public boolean getStreamCompressed() {
+      return myStreamCompressed;
+   }
+
+   /**
+    * Sets whether the binary stream file should be compressed. Changing this
+    * while a stream is open closes the stream, so that the file is restarted
+    * the next time data is output.
+    *
+    * @param enable if {@code true}, enables compression
+    */
+   public void setStreamCompressed (boolean enable) {
+      if (enable != myStreamCompressed) {
+         closeStream();
+      }
+      myStreamCompressed = enable;
+   }
+
+   /**
+    * Returns the file to which data is written when streaming is enabled.
+    * This is the attached file with the suffix {@code .bin} appended, or
+    * {@code null} if there is no attached file.
+    *
+    * @return stream file, or {@code null}
+    */
+   public File getStreamFile() {
+      File file = getAttachedFile();
+      if (file == null || file.isDirectory()) {
+         return null;
+      }
+      return new File (file.getPath() + ".bin");
+   }
+
+   private boolean openStream() {
+      File file = getStreamFile();
+      if (file == null) {
+         System.out.println (
+            "Warning: output probe has no attached file; "+
+            "storing data in memory instead of streaming");
+         myStreaming = false;
+         return false;
+      }
+      LinkedHashMap<String,String> metadata =
+         new LinkedHashMap<String,String>();
+      metadata.put ("startTime", Double.toString (getStartTime()));
+      metadata.put ("stopTime", Double.toString (getStopTime()));
+      metadata.put ("scale", Double.toString (myScale));
+      metadata.put ("updateInterval", Double.toString (getUpdateInterval()));
+      metadata.put (
+         "interpolationOrder", myInterpolation.getOrder().toString());
+      if (getName() != null) {
+         metadata.put ("name", getName());
+      }
+      try {
+         if (isAttachedFileRelative()) {
+            file.getParentFile().mkdirs();
+         }
+         myStreamWriter = new BinaryNumericListWriter (
+            file, myVsize, metadata, myStreamCompressed,
+            BinaryNumericListWriter.DEFAULT_BLOCK_SIZE,
+            BinaryNumericListWriter.DEFAULT_QUEUE_CAPACITY);
+      }
+      catch (IOException e) {
+         System.out.println ("Error opening stream file " + file + ": " + e);
+         myStreaming = false;
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Closes the stream file, if open, after writing any pending data.
+    */
+   public void closeStream() {
+      if (myStreamWriter != null) {
+         try {
+            myStreamWriter.close();
+         }
+         catch (IOException e) {
+            System.out.println (
+               "Error closing stream file "+myStreamWriter.getFile()+": "+e);
+         }
+         myStreamWriter = null;
+      }
+   }
+
+   private void streamKnot (NumericListKnot knot) {
+      if (myStreamWriter == null && !openStream()) {
+         return;
+      }
+      try {
+         myStreamWriter.add (knot);
+      }
+      catch (IOException e) {
+         System.out.println (
+            "Error writing stream file "+myStreamWriter.getFile()+": "+e);
+         closeStream();
+         myStreaming = false;
+         return;
+      }
+      // trim the display window periodically, which keeps the cost of
+      // counting the knots constant per sample
+      if (++myNumAddsSinceTrim >= myStreamWindow) {
+         int num = myNumericList.getNumKnots();
+         while (num-- > myStreamWindow) {
+            myNumericList.remove (myNumericList.getFirst());
+         }
+         myNumAddsSinceTrim = 0;
+      }
+   }
+
+   /**
+    * Returns the output data written to the stream file within a specified
+    * time range. Any pending data is written to the file first.
+    *
+    * @param t0 minimum (probe local) time
+    * @param t1 maximum (probe local) time
+    * @return numeric list containing the streamed data, or {@code null} if
+    * there is no stream file
+    */
+   public NumericList getStreamedOutput (double t0, double t1)
+      throws IOException {
+      if (myStreamWriter != null) {
+         myStreamWriter.flush();
+      }
+      File file = getStreamFile();
+      if (file == null || !file.exists()) {
+         return null;
+      }
+      BinaryNumericListReader reader = new BinaryNumericListReader (file);
+      try {
+         return reader.getList (t0, t1);
+      }
+      finally {
+         reader.close();
+      }
+   }
+
    public NumericOutputProbe() {
       setDefaultValues();
       myPlotTraceManager = new PlotTraceManager ("output");
@@ -189,11 +398,19 @@ public class NumericOutputProbe extends NumericProbeBase
 
    /**
     * When called (perhaps by the Artsynth timeline), causes information about
-    * this probe to be written to its attached file.
+    * this probe to be written to its attached file. When streaming, the
+    * stream file is flushed and all of the streamed data, not just the
+    * knots kept in memory, is written to the attached file, together with
+    * the usual header, so that the file can be reloaded in the same way as
+    * for a non-streaming probe. The data is read back from the stream file
+    * one block at a time.
     * 
     * @see #write
     */
    public void save() throws IOException {
+      if (myStreamWriter != null) {
+         myStreamWriter.flush();
+      }
       File file = getAttachedFile();
       if (file != null && !file.isDirectory ()) {
          try {
@@ -231,10 +448,38 @@ public class NumericOutputProbe extends NumericProbeBase
          }
       }
       NumberFormat fmt = new NumberFormat (fmtStr);
-      Iterator<NumericListKnot> it = myNumericList.iterator();
+      if (myStreamWriter != null) {
+         // write data from the stream file, one block at a time
+         try {
+            myStreamWriter.flush();
+            BinaryNumericListReader reader =
+               new BinaryNumericListReader (myStreamWriter.getFile());
+            try {
+               for (int blk=0; blk<reader.getNumBlocks(); blk++) {
+                  writeKnots (pw, reader.getBlockList (blk), fmt, timeFmt);
+               }
+            }
+            finally {
+               reader.close();
+            }
+         }
+         catch (IOException e) {
+            System.out.println (
+               "Error reading stream file "+myStreamWriter.getFile()+": "+e);
+         }
+      }
+      else {
+         writeKnots (pw, myNumericList, fmt, timeFmt);
+      }
+   }
+
+   private void writeKnots (
+      PrintWriter pw, NumericList list,
+      NumberFormat fmt, NumberFormat timeFmt) {
+      Iterator<NumericListKnot> it = list.iterator();
       while (it.hasNext()) {
          NumericListKnot knot = it.next();
-         if (showTime) {
+         if (timeFmt != null) {
             pw.print (timeFmt.format (knot.t) + " ");
          }
          pw.println (knot.v.toString (fmt));
@@ -251,15 +496,22 @@ public class NumericOutputProbe extends NumericProbeBase
       NumericListKnot knot = new NumericListKnot (myVsize);
       int i = 0;
       for (NumericProbeVariable var : myVariables.values()) {
-         Object obj = myPropList.get (i).get();
-         var.setValues (myConverters[i].objectToArray (obj));
+         Property prop = myPropList.get (i);
+         if (prop instanceof GenericPropertyHandle) {
+            // read numeric values directly, avoiding boxing and copying
+            ((GenericPropertyHandle)prop).getVector (var.getValues());
+         }
+         else {
+            Object obj = prop.get();
+            var.setValues (myConverters[i].objectToArray (obj));
+         }
          i++;
       }
       updateJythonVariables (myVariables, tloc);
       int k = 0;
       double[] buf = knot.v.getBuffer();
       for (NumericProbeDriver driver : myDrivers) {
-         double[] vals = driver.eval (myVariables, myJythonLocals);
+         double[] vals = driver.eval (myVariables, tloc, myJythonLocals);
          for (int j = 0; j < vals.length; j++) {
             buf[k++] = vals[j];
          }
@@ -267,6 +519,9 @@ public class NumericOutputProbe extends NumericProbeBase
       knot.t = tloc;
       myNumericList.add (knot);
       myNumericList.clearAfter (knot);
+      if (myStreaming) {
+         streamKnot (knot);
+      }
    }
 
    // public void display (Component c, Graphics g)
@@ -276,9 +531,15 @@ public class NumericOutputProbe extends NumericProbeBase
    public Object clone() throws CloneNotSupportedException {
       NumericOutputProbe probe = (NumericOutputProbe)super.clone();
       //probe.myNumericList.clear();
+      probe.myStreamWriter = null;
       return probe;
    }
 
+   public void disconnectFromHierarchy() {
+      super.disconnectFromHierarchy();
+      closeStream();
+   }
+
    public NumericList getOutput() {
       return myNumericList;
    }
@@ -462,6 +723,7 @@ public class NumericOutputProbe extends NumericProbeBase
       myVariables = newVariables;
       myConverters = newConverters;
 
+      closeStream();
       myNumericList = new NumericList (myVsize);
 
       if (traceInfos != null) {
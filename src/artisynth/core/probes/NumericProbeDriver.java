@@ -7,7 +7,6 @@
 package artisynth.core.probes;
 
 import java.util.*;
-import org.python.util.*;
 import org.python.core.*;
 
 import artisynth.core.util.JythonInit;
@@ -25,6 +24,7 @@ public class NumericProbeDriver {
    String myVariable;
    PyCode myCode;
    NumericConverter myConverter;
+   NumericProbeExpression myCompiledExpr;
 
    public NumericProbeDriver() {
       // myVariables = new LinkedHashMap<String,NumericProbeVariable>();
@@ -33,6 +33,7 @@ public class NumericProbeDriver {
       myValues = new double[0];
       myCode = null;
       myConverter = null;
+      myCompiledExpr = null;
    }
 
    public NumericProbeDriver (NumericProbeDriver driver) {
@@ -46,6 +47,12 @@ public class NumericProbeDriver {
       else {
          myConverter = null;
       }
+      if (driver.myCompiledExpr != null) {
+         myCompiledExpr = new NumericProbeExpression (driver.myCompiledExpr);
+      }
+      else {
+         myCompiledExpr = null;
+      }
    }
 
    private void setOutputSize (int size) {
@@ -139,6 +146,29 @@ public class NumericProbeDriver {
       setOutputSize (conv.getDimension());
       myCode = code;
       myConverter = conv;
+      myCompiledExpr = null;
+      myExpression = expr;
+      myVariable = null;
+   }
+
+   /**
+    * Compiles an expression using the built-in expression compiler, which
+    * handles the arithmetic subset of Python described in {@link
+    * NumericProbeExpression}, and evaluates it without Jython.
+    *
+    * @throws IllegalArgumentException if the expression is malformed or
+    * uses syntax not supported by the compiler
+    * @throws ArithmeticException if a constant part of the expression gives
+    * an error, such as division by zero
+    */
+   public void compileBuiltinExpression (
+      String expr, HashMap<String,NumericProbeVariable> variables) {
+      NumericProbeExpression compiledExpr =
+         NumericProbeExpression.compile (expr, variables);
+      setOutputSize (compiledExpr.getSize());
+      myCompiledExpr = compiledExpr;
+      myCode = null;
+      myConverter = null;
       myExpression = expr;
       myVariable = null;
    }
@@ -157,13 +187,21 @@ public class NumericProbeDriver {
          myExpression = varname;
          myCode = null;
          myConverter = null;
+         myCompiledExpr = null;
       }
       else {
-         if (!JythonInit.jythonIsAvailable()) {
-            throw new IllegalArgumentException (
-               "jython expressions not available on this host");
+         try {
+            compileBuiltinExpression (expr, variables);
+         }
+         catch (IllegalArgumentException e) {
+            // syntax not handled by the built-in compiler; try Jython
+            if (!JythonInit.jythonIsAvailable()) {
+               throw new IllegalArgumentException (
+                  "jython expressions not available on this host: " +
+                  e.getMessage());
+            }
+            compileJythonExpression (expr, variables);
          }
-         compileJythonExpression (expr, variables);
       }
    }
 
@@ -226,6 +264,14 @@ public class NumericProbeDriver {
       return myCode != null;
    }
 
+   /**
+    * Returns true if this driver evaluates its expression using the built-in
+    * expression compiler instead of Jython.
+    */
+   public boolean usesBuiltinExpression() {
+      return myCompiledExpr != null;
+   }
+
    public boolean renameVariable (String oldname, String newname) {
       if (myVariable != null) {
          if (myVariable.equals (oldname)) {
@@ -235,13 +281,38 @@ public class NumericProbeDriver {
          }
       }
       else {
+         if (myCompiledExpr != null) {
+            myCompiledExpr.renameVariable (oldname, newname);
+         }
          return replaceVariable (oldname, newname);
       }
       return false;
    }
 
+   /**
+    * Evaluates this driver with the local time taken to be 0.
+    *
+    * @deprecated Use {@link #eval(HashMap,double,PyStringMap)}, which
+    * supplies the time for expressions evaluated without Jython.
+    */
    public double[] eval (
       HashMap<String,NumericProbeVariable> variables, PyStringMap locals) {
+      return eval (variables, 0, locals);
+   }
+
+   /**
+    * Evaluates this driver for the current values of the probe variables.
+    * The returned array is owned by the driver.
+    *
+    * @param variables probe variables
+    * @param t local probe time
+    * @param locals Jython locals, used only if the driver's expression
+    * is evaluated by Jython
+    * @return values computed by the driver
+    */
+   public double[] eval (
+      HashMap<String,NumericProbeVariable> variables, double t,
+      PyStringMap locals) {
       if (myVariable != null) {
          NumericProbeVariable var = variables.get (myVariable);
          if (var != null) {
@@ -249,6 +320,9 @@ public class NumericProbeDriver {
          }
          return myValues;
       }
+      else if (myCompiledExpr != null) {
+         return myCompiledExpr.eval (variables, t);
+      }
       else if (myCode != null) {
          Object res =
             Py.tojava (Py.runCode (myCode, locals, locals), Object.class);
@@ -0,0 +1,1179 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import maspack.util.InternalErrorException;
+
+/**
+ * Compiled form of the arithmetic expressions used by {@link
+ * NumericProbeDriver}, which allows these to be evaluated without
+ * Jython. The supported syntax is the Python subset typically used for probe
+ * formulas:
+ *
+ * <ul>
+ * <li>numeric literals, probe variables, the local time {@code t},
+ * and the constants {@code pi} and {@code e} (or {@code Math.PI} and
+ * {@code Math.E});
+ * <li>the operators {@code + - * / // % **}, applied elementwise, with
+ * scalars broadcast against vectors;
+ * <li>indexing and slicing with constant integer indices, as in
+ * {@code v[0]}, {@code v[-1]} or {@code v[1:3]};
+ * <li>the elementwise functions {@code abs}, {@code sqrt}, {@code exp},
+ * {@code log}, {@code sin}, {@code atan2}, etc. (which may also be prefixed
+ * by {@code Math.}), {@code min} and {@code max} (which reduce a single
+ * vector argument to a scalar), {@code sum}, {@code len} and {@code norm};
+ * <li>the vector methods {@code v.norm()}, {@code v.normSquared()},
+ * {@code v.dot(w)}, {@code v.get(i)} and {@code v.size()}.
+ * </ul>
+ *
+ * Expressions are compiled into a tree of nodes, each of which owns a result
+ * buffer that is allocated at compile time, so that evaluation requires no
+ * allocation. Constant subexpressions are folded during compilation.
+ * Expressions using other syntax cause an {@link IllegalArgumentException}
+ * to be thrown by {@link #compile compile()}, in which case the caller can
+ * fall back on Jython.
+ *
+ * <p>Operations for which Python raises an error, such as division by zero,
+ * or math functions applied outside their domain (as in {@code sqrt(-1)}) or
+ * overflowing (as in {@code exp(1000)}), cause an {@link ArithmeticException}
+ * to be thrown, instead of producing infinite or NaN values. This happens in
+ * {@link #compile compile()} if the operation involves only constants, and
+ * in {@link #eval eval()} otherwise.
+ */
+public class NumericProbeExpression {
+
+   private static final String TIME_NAME = "t";
+
+   String myExpression;
+   LinkedHashMap<String,Integer> myVariableSizes;
+   Node myRoot;
+   ArrayList<VariableNode> myVariableNodes = new ArrayList<VariableNode>();
+   double[] myTime = new double[1];
+   HashMap<String,NumericProbeVariable> myBoundVariables;
+
+   /**
+    * Base class for the nodes of the compiled expression tree.
+    */
+   static abstract class Node {
+      int mySize;
+      // true if the value is an integer in the Python sense. Only constants
+      // can be integers, since probe variables are always floating point.
+      boolean myIntegerP;
+
+      Node (int size) {
+         mySize = size;
+      }
+
+      /**
+       * Evaluates this node and returns the buffer containing the result.
+       */
+      abstract double[] eval();
+
+      boolean isConstant() {
+         return false;
+      }
+   }
+
+   static class ConstantNode extends Node {
+      double[] myValues;
+
+      ConstantNode (double[] values, boolean isInteger) {
+         super (values.length);
+         myValues = values;
+         myIntegerP = isInteger;
+      }
+
+      ConstantNode (double value, boolean isInteger) {
+         this (new double[] { value }, isInteger);
+      }
+
+      double[] eval() {
+         return myValues;
+      }
+
+      boolean isConstant() {
+         return true;
+      }
+   }
+
+   static class VariableNode extends Node {
+      String myName;
+      NumericProbeVariable myVar;
+
+      VariableNode (String name, int size) {
+         super (size);
+         myName = name;
+      }
+
+      double[] eval() {
+         double[] vals = myVar.getValues();
+         if (vals.length != mySize) {
+            throw new IllegalStateException (
+               "size of variable '"+myName+"' changed from "+mySize+
+               " to "+vals.length);
+         }
+         return vals;
+      }
+   }
+
+   static class TimeNode extends Node {
+      double[] myTime;
+
+      TimeNode (double[] time) {
+         super (1);
+         myTime = time;
+      }
+
+      double[] eval() {
+         return myTime;
+      }
+   }
+
+   static class NegateNode extends Node {
+      Node myArg;
+      double[] myValues;
+
+      NegateNode (Node arg) {
+         super (arg.mySize);
+         myArg = arg;
+         myIntegerP = arg.myIntegerP;
+         myValues = new double[mySize];
+      }
+
+      double[] eval() {
+         double[] a = myArg.eval();
+         for (int i=0; i<mySize; i++) {
+            myValues[i] = -a[i];
+         }
+         return myValues;
+      }
+
+      boolean isConstant() {
+         return myArg.isConstant();
+      }
+   }
+
+   static ArithmeticException domainError() {
+      return new ArithmeticException ("math domain error");
+   }
+
+   /**
+    * Checks for a result that overflowed, as Python does for math functions
+    * and powers.
+    */
+   static double checkRange (double res, double x) {
+      if (Double.isInfinite (res) && !Double.isInfinite (x)) {
+         throw new ArithmeticException ("math range error");
+      }
+      return res;
+   }
+
+   enum BinaryOp {
+      ADD, SUB, MUL, DIV, FLOOR_DIV, MOD, POW, ATAN2, HYPOT, MIN, MAX;
+
+      double apply (double a, double b) {
+         switch (this) {
+            case ADD: return a + b;
+            case SUB: return a - b;
+            case MUL: return a * b;
+            case DIV: {
+               if (b == 0) {
+                  throw new ArithmeticException ("division by zero");
+               }
+               return a / b;
+            }
+            case FLOOR_DIV: {
+               if (b == 0) {
+                  throw new ArithmeticException ("division by zero");
+               }
+               return Math.floor (a / b);
+            }
+            case MOD: {
+               if (b == 0) {
+                  throw new ArithmeticException ("modulo by zero");
+               }
+               return a - b*Math.floor (a / b);
+            }
+            case POW: {
+               if (a == 0 && b < 0) {
+                  throw new ArithmeticException (
+                     "0.0 cannot be raised to a negative power");
+               }
+               if (a < 0 && b != Math.rint (b) &&
+                   !Double.isInfinite (b) && !Double.isNaN (b)) {
+                  throw new ArithmeticException (
+                     "negative number cannot be raised to a fractional power");
+               }
+               return checkRange (
+                  Math.pow (a, b), Double.isInfinite (b) ? b : a);
+            }
+            case ATAN2: return Math.atan2 (a, b);
+            case HYPOT: return Math.hypot (a, b);
+            case MIN: return Math.min (a, b);
+            case MAX: return Math.max (a, b);
+            default: {
+               throw new InternalErrorException (
+                  "operation " + this + " not implemented");
+            }
+         }
+      }
+   }
+
+   static class BinaryNode extends Node {
+      BinaryOp myOp;
+      Node myArg0;
+      Node myArg1;
+      double[] myValues;
+
+      BinaryNode (BinaryOp op, Node arg0, Node arg1) {
+         super (Math.max (arg0.mySize, arg1.mySize));
+         if (arg0.mySize != arg1.mySize &&
+             arg0.mySize != 1 && arg1.mySize != 1) {
+            throw new IllegalArgumentException (
+               "argument sizes "+arg0.mySize+" and "+arg1.mySize+
+               " do not conform");
+         }
+         myOp = op;
+         myArg0 = arg0;
+         myArg1 = arg1;
+         myValues = new double[mySize];
+      }
+
+      double[] eval() {
+         double[] a = myArg0.eval();
+         double[] b = myArg1.eval();
+         if (a.length == b.length) {
+            switch (myOp) {
+               // inline the most common operations
+               case ADD: {
+                  for (int i=0; i<mySize; i++) {
+                     myValues[i] = a[i] + b[i];
+                  }
+                  break;
+               }
+               case SUB: {
+                  for (int i=0; i<mySize; i++) {
+                     myValues[i] = a[i] - b[i];
+                  }
+                  break;
+               }
+               case MUL: {
+                  for (int i=0; i<mySize; i++) {
+                     myValues[i] = a[i] * b[i];
+                  }
+                  break;
+               }
+               default: {
+                  for (int i=0; i<mySize; i++) {
+                     myValues[i] = myOp.apply (a[i], b[i]);
+                  }
+               }
+            }
+         }
+         else if (a.length == 1) {
+            double s = a[0];
+            for (int i=0; i<mySize; i++) {
+               myValues[i] = myOp.apply (s, b[i]);
+            }
+         }
+         else {
+            double s = b[0];
+            for (int i=0; i<mySize; i++) {
+               myValues[i] = myOp.apply (a[i], s);
+            }
+         }
+         return myValues;
+      }
+
+      boolean isConstant() {
+         return myArg0.isConstant() && myArg1.isConstant();
+      }
+   }
+
+   enum UnaryFunc {
+      ABS, SQRT, CBRT, EXP, LOG, LOG10, SIN, COS, TAN, ASIN, ACOS, ATAN,
+      SINH, COSH, TANH, FLOOR, CEIL, SIGNUM, TO_RADIANS, TO_DEGREES;
+
+      double apply (double x) {
+         switch (this) {
+            case ABS: return Math.abs (x);
+            case SQRT: {
+               if (x < 0) {
+                  throw domainError();
+               }
+               return Math.sqrt (x);
+            }
+            case CBRT: return Math.cbrt (x);
+            case EXP: return checkRange (Math.exp (x), x);
+            case LOG: {
+               if (x <= 0) {
+                  throw domainError();
+               }
+               return Math.log (x);
+            }
+            case LOG10: {
+               if (x <= 0) {
+                  throw domainError();
+               }
+               return Math.log10 (x);
+            }
+            case SIN: return Math.sin (x);
+            case COS: return Math.cos (x);
+            case TAN: return Math.tan (x);
+            case ASIN: {
+               if (x < -1 || x > 1) {
+                  throw domainError();
+               }
+               return Math.asin (x);
+            }
+            case ACOS: {
+               if (x < -1 || x > 1) {
+                  throw domainError();
+               }
+               return Math.acos (x);
+            }
+            case ATAN: return Math.atan (x);
+            case SINH: return checkRange (Math.sinh (x), x);
+            case COSH: return checkRange (Math.cosh (x), x);
+            case TANH: return Math.tanh (x);
+            case FLOOR: return Math.floor (x);
+            case CEIL: return Math.ceil (x);
+            case SIGNUM: return Math.signum (x);
+            case TO_RADIANS: return Math.toRadians (x);
+            case TO_DEGREES: return Math.toDegrees (x);
+            default: {
+               throw new InternalErrorException (
+                  "function " + this + " not implemented");
+            }
+         }
+      }
+   }
+
+   static class FunctionNode extends Node {
+      UnaryFunc myFunc;
+      Node myArg;
+      double[] myValues;
+
+      FunctionNode (UnaryFunc func, Node arg) {
+         super (arg.mySize);
+         myFunc = func;
+         myArg = arg;
+         myIntegerP = (func == UnaryFunc.ABS && arg.myIntegerP);
+         myValues = new double[mySize];
+      }
+
+      double[] eval() {
+         double[] a = myArg.eval();
+         for (int i=0; i<mySize; i++) {
+            myValues[i] = myFunc.apply (a[i]);
+         }
+         return myValues;
+      }
+
+      boolean isConstant() {
+         return myArg.isConstant();
+      }
+   }
+
+   enum Reduction {
+      MIN, MAX, SUM, NORM, NORM_SQUARED
+   }
+
+   static class ReductionNode extends Node {
+      Reduction myOp;
+      Node myArg;
+      double[] myValues = new double[1];
+
+      ReductionNode (Reduction op, Node arg) {
+         super (1);
+         myOp = op;
+         myArg = arg;
+         myIntegerP = (arg.myIntegerP &&
+                       (op == Reduction.MIN || op == Reduction.MAX ||
+                        op == Reduction.SUM));
+      }
+
+      double[] eval() {
+         double[] a = myArg.eval();
+         double res;
+         switch (myOp) {
+            case MIN: {
+               res = a[0];
+               for (int i=1; i<a.length; i++) {
+                  res = Math.min (res, a[i]);
+               }
+               break;
+            }
+            case MAX: {
+               res = a[0];
+               for (int i=1; i<a.length; i++) {
+                  res = Math.max (res, a[i]);
+               }
+               break;
+            }
+            case SUM: {
+               res = 0;
+               for (int i=0; i<a.length; i++) {
+                  res += a[i];
+               }
+               break;
+            }
+            case NORM:
+            case NORM_SQUARED: {
+               res = 0;
+               for (int i=0; i<a.length; i++) {
+                  res += a[i]*a[i];
+               }
+               if (myOp == Reduction.NORM) {
+                  res = Math.sqrt (res);
+               }
+               break;
+            }
+            default: {
+               throw new InternalErrorException (
+                  "reduction " + myOp + " not implemented");
+            }
+         }
+         myValues[0] = res;
+         return myValues;
+      }
+
+      boolean isConstant() {
+         return myArg.isConstant();
+      }
+   }
+
+   static class DotNode extends Node {
+      Node myArg0;
+      Node myArg1;
+      double[] myValues = new double[1];
+
+      DotNode (Node arg0, Node arg1) {
+         super (1);
+         if (arg0.mySize != arg1.mySize) {
+            throw new IllegalArgumentException (
+               "argument sizes "+arg0.mySize+" and "+arg1.mySize+
+               " do not conform");
+         }
+         myArg0 = arg0;
+         myArg1 = arg1;
+      }
+
+      double[] eval() {
+         double[] a = myArg0.eval();
+         double[] b = myArg1.eval();
+         double res = 0;
+         for (int i=0; i<a.length; i++) {
+            res += a[i]*b[i];
+         }
+         myValues[0] = res;
+         return myValues;
+      }
+
+      boolean isConstant() {
+         return myArg0.isConstant() && myArg1.isConstant();
+      }
+   }
+
+   /**
+    * Selects a subset of the entries of its argument, as specified by a set
+    * of indices. Used for both indexing and slicing.
+    */
+   static class IndexNode extends Node {
+      Node myArg;
+      int[] myIndices;
+      double[] myValues;
+
+      IndexNode (Node arg, int[] indices) {
+         super (indices.length);
+         myArg = arg;
+         myIndices = indices;
+         myIntegerP = arg.myIntegerP;
+         myValues = new double[mySize];
+      }
+
+      double[] eval() {
+         double[] a = myArg.eval();
+         for (int i=0; i<mySize; i++) {
+            myValues[i] = a[myIndices[i]];
+         }
+         return myValues;
+      }
+
+      boolean isConstant() {
+         return myArg.isConstant();
+      }
+   }
+
+   /**
+    * Compiles an expression.
+    *
+    * @param expr expression to compile
+    * @param variables probe variables that may be referenced by the
+    * expression. Only their names and sizes are used at this point.
+    * @return compiled expression
+    * @throws IllegalArgumentException if the expression is malformed,
+    * references unknown names, or uses unsupported syntax.
+    * @throws ArithmeticException if a constant subexpression gives an
+    * error, such as division by zero.
+    */
+   public static NumericProbeExpression compile (
+      String expr, Map<String,NumericProbeVariable> variables) {
+      LinkedHashMap<String,Integer> sizes = new LinkedHashMap<String,Integer>();
+      for (Map.Entry<String,NumericProbeVariable> entry :
+              variables.entrySet()) {
+         sizes.put (entry.getKey(), entry.getValue().getDimension());
+      }
+      return new NumericProbeExpression (expr, sizes);
+   }
+
+   NumericProbeExpression (String expr, LinkedHashMap<String,Integer> sizes) {
+      myExpression = expr;
+      myVariableSizes = sizes;
+      Parser parser = new Parser (expr);
+      myRoot = parser.parse();
+   }
+
+   /**
+    * Creates a copy of an existing expression, with its own result buffers.
+    */
+   public NumericProbeExpression (NumericProbeExpression expr) {
+      this (expr.myExpression, expr.myVariableSizes);
+      for (int i=0; i<myVariableNodes.size(); i++) {
+         // in case variables have been renamed since compilation
+         myVariableNodes.get(i).myName = expr.myVariableNodes.get(i).myName;
+      }
+   }
+
+   /**
+    * Returns the size of the value produced by this expression.
+    */
+   public int getSize() {
+      return myRoot.mySize;
+   }
+
+   /**
+    * Renames a variable referenced by this expression.
+    *
+    * @return true if the variable was referenced
+    */
+   public boolean renameVariable (String oldname, String newname) {
+      boolean renamed = false;
+      for (VariableNode node : myVariableNodes) {
+         if (node.myName.equals (oldname)) {
+            node.myName = newname;
+            renamed = true;
+         }
+      }
+      if (renamed) {
+         myBoundVariables = null;
+      }
+      return renamed;
+   }
+
+   private void bindVariables (HashMap<String,NumericProbeVariable> variables) {
+      for (VariableNode node : myVariableNodes) {
+         NumericProbeVariable var = variables.get (node.myName);
+         if (var == null) {
+            throw new IllegalStateException (
+               "variable '" + node.myName + "' not found");
+         }
+         node.myVar = var;
+      }
+      myBoundVariables = variables;
+   }
+
+   /**
+    * Evaluates this expression. The returned array is owned by the
+    * expression and is overwritten by the next call.
+    *
+    * @param variables current values of the probe variables
+    * @param t local probe time
+    * @return buffer containing the result
+    * @throws ArithmeticException if the evaluation gives an error, such as
+    * division by zero.
+    */
+   public double[] eval (
+      HashMap<String,NumericProbeVariable> variables, double t) {
+      if (variables != myBoundVariables) {
+         bindVariables (variables);
+      }
+      myTime[0] = t;
+      return myRoot.eval();
+   }
+
+   public String toString() {
+      return myExpression;
+   }
+
+   private static final int NUMBER = 0;
+   private static final int NAME = 1;
+   private static final int OPERATOR = 2;
+   private static final int END = 3;
+
+   /**
+    * Recursive descent parser which builds the expression tree. Operator
+    * precedence follows Python.
+    */
+   private class Parser {
+      String myStr;
+      int myPos;
+
+      int myType;
+      String myToken;
+      double myNumber;
+      boolean myNumberIsInteger;
+
+      Parser (String str) {
+         myStr = str;
+         myPos = 0;
+         nextToken();
+      }
+
+      IllegalArgumentException error (String msg) {
+         return new IllegalArgumentException (
+            msg + ", column " + (myPos+1) + " of '" + myStr + "'");
+      }
+
+      ArithmeticException arithmeticError (ArithmeticException e) {
+         return new ArithmeticException (
+            e.getMessage() + ", column " + (myPos+1) + " of '" + myStr + "'");
+      }
+
+      void nextToken() {
+         int len = myStr.length();
+         while (myPos < len && Character.isWhitespace (myStr.charAt (myPos))) {
+            myPos++;
+         }
+         if (myPos == len) {
+            myType = END;
+            myToken = "";
+            return;
+         }
+         int pos0 = myPos;
+         char c = myStr.charAt (myPos);
+         if (Character.isDigit (c) ||
+             (c == '.' && myPos+1 < len &&
+              Character.isDigit (myStr.charAt (myPos+1)))) {
+            boolean isInteger = true;
+            while (myPos < len && Character.isDigit (myStr.charAt (myPos))) {
+               myPos++;
+            }
+            if (myPos < len && myStr.charAt (myPos) == '.') {
+               isInteger = false;
+               myPos++;
+               while (myPos < len && Character.isDigit (myStr.charAt (myPos))) {
+                  myPos++;
+               }
+            }
+            if (myPos < len && (myStr.charAt (myPos) == 'e' ||
+                                myStr.charAt (myPos) == 'E')) {
+               int epos = myPos++;
+               if (myPos < len && (myStr.charAt (myPos) == '+' ||
+                                   myStr.charAt (myPos) == '-')) {
+                  myPos++;
+               }
+               if (myPos < len && Character.isDigit (myStr.charAt (myPos))) {
+                  isInteger = false;
+                  while (myPos < len &&
+                         Character.isDigit (myStr.charAt (myPos))) {
+                     myPos++;
+                  }
+               }
+               else {
+                  myPos = epos;
+               }
+            }
+            if (myPos < len &&
+                Character.isJavaIdentifierPart (myStr.charAt (myPos))) {
+               // things like long and complex literals
+               throw error ("unsupported numeric literal");
+            }
+            myToken = myStr.substring (pos0, myPos);
+            myNumber = Double.parseDouble (myToken);
+            myNumberIsInteger = isInteger;
+            myType = NUMBER;
+         }
+         else if (Character.isJavaIdentifierStart (c)) {
+            while (myPos < len &&
+                   Character.isJavaIdentifierPart (myStr.charAt (myPos))) {
+               myPos++;
+            }
+            myToken = myStr.substring (pos0, myPos);
+            myType = NAME;
+         }
+         else if ("+-*/%()[],:.".indexOf (c) != -1) {
+            myPos++;
+            if ((c == '*' || c == '/') &&
+                myPos < len && myStr.charAt (myPos) == c) {
+               myPos++;
+            }
+            myToken = myStr.substring (pos0, myPos);
+            myType = OPERATOR;
+         }
+         else {
+            throw error ("unsupported character '" + c + "'");
+         }
+      }
+
+      boolean isOperator (String op) {
+         return myType == OPERATOR && myToken.equals (op);
+      }
+
+      void expect (String op) {
+         if (!isOperator (op)) {
+            throw error ("'" + op + "' expected");
+         }
+         nextToken();
+      }
+
+      String expectName() {
+         if (myType != NAME) {
+            throw error ("name expected");
+         }
+         String name = myToken;
+         nextToken();
+         return name;
+      }
+
+      Node parse() {
+         Node node = parseSum();
+         if (myType != END) {
+            throw error ("unexpected token '" + myToken + "'");
+         }
+         return node;
+      }
+
+      Node parseSum() {
+         Node node = parseProduct();
+         while (true) {
+            if (isOperator ("+")) {
+               nextToken();
+               node = createBinary (BinaryOp.ADD, node, parseProduct());
+            }
+            else if (isOperator ("-")) {
+               nextToken();
+               node = createBinary (BinaryOp.SUB, node, parseProduct());
+            }
+            else {
+               return node;
+            }
+         }
+      }
+
+      Node parseProduct() {
+         Node node = parseUnary();
+         while (true) {
+            if (isOperator ("*")) {
+               nextToken();
+               node = createBinary (BinaryOp.MUL, node, parseUnary());
+            }
+            else if (isOperator ("/")) {
+               nextToken();
+               Node arg = parseUnary();
+               // Python 2 semantics: dividing integers truncates
+               BinaryOp op = (node.myIntegerP && arg.myIntegerP ?
+                              BinaryOp.FLOOR_DIV : BinaryOp.DIV);
+               node = createBinary (op, node, arg);
+            }
+            else if (isOperator ("//")) {
+               nextToken();
+               node = createBinary (BinaryOp.FLOOR_DIV, node, parseUnary());
+            }
+            else if (isOperator ("%")) {
+               nextToken();
+               node = createBinary (BinaryOp.MOD, node, parseUnary());
+            }
+            else {
+               return node;
+            }
+         }
+      }
+
+      Node parseUnary() {
+         if (isOperator ("-")) {
+            nextToken();
+            return fold (new NegateNode (parseUnary()));
+         }
+         else if (isOperator ("+")) {
+            nextToken();
+            return parseUnary();
+         }
+         else {
+            return parsePower();
+         }
+      }
+
+      Node parsePower() {
+         Node node = parsePostfix();
+         if (isOperator ("**")) {
+            nextToken();
+            // right associative, and binds less tightly than a unary
+            // operator on its right
+            node = createBinary (BinaryOp.POW, node, parseUnary());
+         }
+         return node;
+      }
+
+      Node parsePostfix() {
+         Node node = parsePrimary();
+         while (true) {
+            if (isOperator ("[")) {
+               nextToken();
+               node = parseIndex (node);
+            }
+            else if (isOperator (".")) {
+               nextToken();
+               node = parseMethod (node, expectName());
+            }
+            else {
+               return node;
+            }
+         }
+      }
+
+      Node parsePrimary() {
+         if (myType == NUMBER) {
+            Node node = new ConstantNode (myNumber, myNumberIsInteger);
+            nextToken();
+            return node;
+         }
+         else if (isOperator ("(")) {
+            nextToken();
+            Node node = parseSum();
+            expect (")");
+            return node;
+         }
+         else if (myType == NAME) {
+            String name = expectName();
+            if (name.equals (TIME_NAME)) {
+               // time takes precedence over variables, as it does in Jython
+               return new TimeNode (myTime);
+            }
+            if (myVariableSizes.containsKey (name)) {
+               VariableNode node =
+                  new VariableNode (name, myVariableSizes.get (name));
+               myVariableNodes.add (node);
+               return node;
+            }
+            if ((name.equals ("Math") || name.equals ("math")) &&
+                isOperator (".")) {
+               nextToken();
+               name = expectName();
+               if (name.equals ("PI") || name.equals ("pi")) {
+                  return new ConstantNode (Math.PI, false);
+               }
+               else if (name.equals ("E") || name.equals ("e")) {
+                  return new ConstantNode (Math.E, false);
+               }
+               else if (isOperator ("(")) {
+                  return parseFunction (name);
+               }
+               throw error ("unsupported Math member '" + name + "'");
+            }
+            if (isOperator ("(")) {
+               return parseFunction (name);
+            }
+            else if (name.equals ("pi")) {
+               return new ConstantNode (Math.PI, false);
+            }
+            else if (name.equals ("e")) {
+               return new ConstantNode (Math.E, false);
+            }
+            throw error ("unknown name '" + name + "'");
+         }
+         else {
+            throw error ("unexpected token '" + myToken + "'");
+         }
+      }
+
+      ArrayList<Node> parseArguments() {
+         ArrayList<Node> args = new ArrayList<Node>();
+         expect ("(");
+         if (!isOperator (")")) {
+            args.add (parseSum());
+            while (isOperator (",")) {
+               nextToken();
+               args.add (parseSum());
+            }
+         }
+         expect (")");
+         return args;
+      }
+
+      void checkNumArgs (String name, ArrayList<Node> args, int num) {
+         if (args.size() != num) {
+            throw error (
+               "function '"+name+"' expects "+num+" argument(s), got "+
+               args.size());
+         }
+      }
+
+      Node parseFunction (String name) {
+         ArrayList<Node> args = parseArguments();
+         UnaryFunc func = getUnaryFunc (name);
+         if (func != null) {
+            checkNumArgs (name, args, 1);
+            return fold (new FunctionNode (func, args.get(0)));
+         }
+         BinaryOp op = null;
+         if (name.equals ("atan2")) {
+            op = BinaryOp.ATAN2;
+         }
+         else if (name.equals ("hypot")) {
+            op = BinaryOp.HYPOT;
+         }
+         else if (name.equals ("pow")) {
+            op = BinaryOp.POW;
+         }
+         if (op != null) {
+            checkNumArgs (name, args, 2);
+            return createBinary (op, args.get(0), args.get(1));
+         }
+         if (name.equals ("min") || name.equals ("max")) {
+            if (args.size() == 0) {
+               throw error ("function '"+name+"' expects arguments");
+            }
+            else if (args.size() == 1) {
+               // reduces a vector to a scalar
+               return fold (new ReductionNode (
+                  name.equals ("min") ? Reduction.MIN : Reduction.MAX,
+                  args.get(0)));
+            }
+            else {
+               op = (name.equals ("min") ? BinaryOp.MIN : BinaryOp.MAX);
+               Node node = args.get(0);
+               for (int i=1; i<args.size(); i++) {
+                  node = createBinary (op, node, args.get(i));
+               }
+               return node;
+            }
+         }
+         if (name.equals ("sum")) {
+            checkNumArgs (name, args, 1);
+            return fold (new ReductionNode (Reduction.SUM, args.get(0)));
+         }
+         if (name.equals ("norm")) {
+            checkNumArgs (name, args, 1);
+            return fold (new ReductionNode (Reduction.NORM, args.get(0)));
+         }
+         if (name.equals ("len")) {
+            checkNumArgs (name, args, 1);
+            return new ConstantNode (args.get(0).mySize, true);
+         }
+         throw error ("unsupported function '" + name + "'");
+      }
+
+      Node parseMethod (Node node, String name) {
+         ArrayList<Node> args = parseArguments();
+         if (name.equals ("norm")) {
+            checkNumArgs (name, args, 0);
+            return fold (new ReductionNode (Reduction.NORM, node));
+         }
+         else if (name.equals ("normSquared")) {
+            checkNumArgs (name, args, 0);
+            return fold (new ReductionNode (Reduction.NORM_SQUARED, node));
+         }
+         else if (name.equals ("dot")) {
+            checkNumArgs (name, args, 1);
+            return fold (new DotNode (node, args.get(0)));
+         }
+         else if (name.equals ("size")) {
+            checkNumArgs (name, args, 0);
+            return new ConstantNode (node.mySize, true);
+         }
+         else if (name.equals ("get")) {
+            checkNumArgs (name, args, 1);
+            int idx = getIntegerConstant (args.get(0));
+            if (idx < 0 || idx >= node.mySize) {
+               throw error ("index " + idx + " out of range");
+            }
+            return fold (new IndexNode (node, new int[] { idx }));
+         }
+         throw error ("unsupported method '" + name + "'");
+      }
+
+      int getIntegerConstant (Node node) {
+         if (!node.isConstant() || !node.myIntegerP || node.mySize != 1) {
+            throw error ("constant integer index expected");
+         }
+         return (int)node.eval()[0];
+      }
+
+      Node parseIndex (Node node) {
+         int size = node.mySize;
+         Integer start = null;
+         Integer stop = null;
+         Integer step = null;
+         boolean isSlice = false;
+         if (!isOperator (":")) {
+            start = getIntegerConstant (parseSum());
+         }
+         if (isOperator (":")) {
+            isSlice = true;
+            nextToken();
+            if (!isOperator ("]") && !isOperator (":")) {
+               stop = getIntegerConstant (parseSum());
+            }
+            if (isOperator (":")) {
+               nextToken();
+               if (!isOperator ("]")) {
+                  step = getIntegerConstant (parseSum());
+               }
+            }
+         }
+         expect ("]");
+         int[] indices;
+         if (!isSlice) {
+            int idx = (start < 0 ? start+size : start);
+            if (idx < 0 || idx >= size) {
+               throw error ("index " + start + " out of range");
+            }
+            indices = new int[] { idx };
+         }
+         else {
+            indices = sliceIndices (size, start, stop, step);
+         }
+         return fold (new IndexNode (node, indices));
+      }
+
+      /**
+       * Computes slice indices, using the same clipping rules as Python.
+       */
+      int[] sliceIndices (int size, Integer start, Integer stop, Integer step) {
+         int inc = (step == null ? 1 : step);
+         if (inc == 0) {
+            throw error ("slice step cannot be zero");
+         }
+         int lo, hi;
+         if (inc > 0) {
+            lo = (start == null ? 0 : clipSliceIndex (start, size, 0, size));
+            hi = (stop == null ? size : clipSliceIndex (stop, size, 0, size));
+         }
+         else {
+            lo = (start == null ?
+                  size-1 : clipSliceIndex (start, size, -1, size-1));
+            hi = (stop == null ? -1 : clipSliceIndex (stop, size, -1, size-1));
+         }
+         ArrayList<Integer> list = new ArrayList<Integer>();
+         for (int k=lo; (inc > 0 ? k < hi : k > hi); k += inc) {
+            list.add (k);
+         }
+         if (list.size() == 0) {
+            throw error ("empty slice");
+         }
+         int[] indices = new int[list.size()];
+         for (int i=0; i<indices.length; i++) {
+            indices[i] = list.get(i);
+         }
+         return indices;
+      }
+
+      int clipSliceIndex (int idx, int size, int min, int max) {
+         if (idx < 0) {
+            idx += size;
+         }
+         return Math.max (min, Math.min (max, idx));
+      }
+
+      Node createBinary (BinaryOp op, Node arg0, Node arg1) {
+         BinaryNode node;
+         try {
+            node = new BinaryNode (op, arg0, arg1);
+         }
+         catch (IllegalArgumentException e) {
+            throw error (e.getMessage());
+         }
+         switch (op) {
+            case ADD:
+            case SUB:
+            case MUL:
+            case FLOOR_DIV:
+            case MOD:
+            case MIN:
+            case MAX: {
+               node.myIntegerP = (arg0.myIntegerP && arg1.myIntegerP);
+               break;
+            }
+            case POW: {
+               // negative integer exponents give floating point results
+               node.myIntegerP =
+                  (arg0.myIntegerP && arg1.myIntegerP &&
+                   arg1.isConstant() && arg1.eval()[0] >= 0);
+               break;
+            }
+            default: {
+               node.myIntegerP = false;
+            }
+         }
+         if (arg1.isConstant() &&
+             (op == BinaryOp.DIV || op == BinaryOp.FLOOR_DIV ||
+              op == BinaryOp.MOD)) {
+            // report constant zero divisors now, even if the dividend is
+            // not constant
+            for (double b : arg1.eval()) {
+               if (b == 0) {
+                  throw arithmeticError (new ArithmeticException (
+                     op == BinaryOp.MOD ?
+                     "modulo by zero" : "division by zero"));
+               }
+            }
+         }
+         return fold (node);
+      }
+
+      /**
+       * Replaces a node with a constant if all its inputs are constant.
+       */
+      Node fold (Node node) {
+         if (node.isConstant() && !(node instanceof ConstantNode)) {
+            double[] values;
+            try {
+               values = node.eval().clone();
+            }
+            catch (ArithmeticException e) {
+               throw arithmeticError (e);
+            }
+            return new ConstantNode (values, node.myIntegerP);
+         }
+         else {
+            return node;
+         }
+      }
+   }
+
+   private static UnaryFunc getUnaryFunc (String name) {
+      switch (name) {
+         case "abs": return UnaryFunc.ABS;
+         case "sqrt": return UnaryFunc.SQRT;
+         case "cbrt": return UnaryFunc.CBRT;
+         case "exp": return UnaryFunc.EXP;
+         case "log": return UnaryFunc.LOG;
+         case "log10": return UnaryFunc.LOG10;
+         case "sin": return UnaryFunc.SIN;
+         case "cos": return UnaryFunc.COS;
+         case "tan": return UnaryFunc.TAN;
+         case "asin": return UnaryFunc.ASIN;
+         case "acos": return UnaryFunc.ACOS;
+         case "atan": return UnaryFunc.ATAN;
+         case "sinh": return UnaryFunc.SINH;
+         case "cosh": return UnaryFunc.COSH;
+         case "tanh": return UnaryFunc.TANH;
+         case "floor": return UnaryFunc.FLOOR;
+         case "ceil": return UnaryFunc.CEIL;
+         case "signum": return UnaryFunc.SIGNUM;
+         case "toRadians": return UnaryFunc.TO_RADIANS;
+         case "toDegrees": return UnaryFunc.TO_DEGREES;
+         default: return null;
+      }
+   }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.util.HashMap;
+
+import maspack.util.*;
+
+/**
+ * Tests the built-in expression compiler used by NumericProbeDriver. The
+ * expected values are those given by Jython (which follows Python 2
+ * semantics, so that dividing integers truncates) for the same expressions
+ * and variable values.
+ */
+public class NumericProbeExpressionTest extends UnitTest {
+
+   private static final double EPS = 1e-14;
+
+   private HashMap<String,NumericProbeVariable> myVariables;
+
+   public NumericProbeExpressionTest() {
+      myVariables = new HashMap<String,NumericProbeVariable>();
+      NumericProbeVariable x = new NumericProbeVariable (3);
+      x.setValues (new double[] { 1.5, -2.0, 3.0 });
+      NumericProbeVariable s = new NumericProbeVariable (1);
+      s.setValues (new double[] { 0.25 });
+      myVariables.put ("x", x);
+      myVariables.put ("s", s);
+   }
+
+   private double[] eval (String expr, double t) {
+      NumericProbeExpression cexpr =
+         NumericProbeExpression.compile (expr, myVariables);
+      return cexpr.eval (myVariables, t);
+   }
+
+   private void checkEval (String expr, double... check) {
+      double[] res = eval (expr, 0.5);
+      checkEquals ("size of '"+expr+"'", res.length, check.length);
+      for (int i=0; i<check.length; i++) {
+         checkEquals (
+            "value "+i+" of '"+expr+"'", res[i], check[i],
+            EPS*Math.max(1, Math.abs(check[i])));
+      }
+   }
+
+   public void testPrecedence() {
+      checkEval ("1 + 2*3", 7);
+      checkEval ("(1 + 2)*3", 9);
+      checkEval ("1 - 2 - 3", -4);
+      checkEval ("2*3 % 4", 2);
+      checkEval ("10 % 3*2", 2);
+      // ** is right associative and binds more tightly than a unary
+      // operator on its left, but less tightly than one on its right
+      checkEval ("2**3**2", 512);
+      checkEval ("-2**2", -4);
+      checkEval ("2**-1", 0.5);
+      checkEval ("2**-2**-1", Math.sqrt(0.5));
+      checkEval ("-3**-1", -1/3.0);
+      checkEval ("--2 - -+3", 5);
+   }
+
+   public void testArithmetic() {
+      // Python 2 division: integers truncate towards negative infinity
+      checkEval ("7/2", 3);
+      checkEval ("-7/2", -4);
+      checkEval ("7.0/2", 3.5);
+      checkEval ("7/2.", 3.5);
+      checkEval ("7//2.0", 3.0);
+      checkEval ("-7 % 3", 2);
+      checkEval ("7.5 % -2", -0.5);
+      checkEval ("1e3*2", 2000);
+      checkEval (".5 + 2.5E-1", 0.75);
+   }
+
+   public void testFunctions() {
+      checkEval ("sqrt(16) + abs(-3)", 7);
+      checkEval ("Math.sin(pi/2)", 1);
+      checkEval ("math.cos(Math.PI)", -1);
+      checkEval ("atan2(1, 1)*4", Math.PI);
+      checkEval ("hypot(3, 4)", 5);
+      checkEval ("pow(2, 10)", 1024);
+      checkEval ("exp(log(2.0))", 2.0);
+      checkEval ("floor(-1.5) + ceil(1.2)", 0);
+      checkEval ("max(1, 5, 3)", 5);
+      checkEval ("min(4, -1.5)", -1.5);
+      checkEval ("e", Math.E);
+   }
+
+   public void testVariables() {
+      checkEval ("s*4 + 1", 2);
+      checkEval ("t*2", 1);
+      checkEval ("x", 1.5, -2.0, 3.0);
+      checkEval ("x*2 + 1", 4, -3, 7);
+      checkEval ("x*s", 0.375, -0.5, 0.75);
+      checkEval ("x[-1]", 3);
+      checkEval ("x[0:2]", 1.5, -2);
+      checkEval ("x[::-1]", 3, -2, 1.5);
+      checkEval ("x[1:]*x[:2]", -3, -6);
+      checkEval ("min(x)", -2);
+      checkEval ("max(x)", 3);
+      checkEval ("sum(x)", 2.5);
+      checkEval ("len(x)", 3);
+      checkEval ("x.size()", 3);
+      checkEval ("x.dot(x)", 15.25);
+      checkEval ("x.norm()", Math.sqrt(15.25));
+      checkEval ("x.normSquared()", 15.25);
+      checkEval ("norm(x)", Math.sqrt(15.25));
+      checkEval ("x.get(1)*s", -0.5);
+      checkEval ("abs(x)", 1.5, 2, 3);
+
+      // variable values are read at each evaluation
+      NumericProbeExpression cexpr =
+         NumericProbeExpression.compile ("s*t + x[0]", myVariables);
+      checkEquals ("first eval", cexpr.eval (myVariables, 2)[0], 2.0, EPS);
+      myVariables.get("s").setValues (new double[] { 1.0 });
+      checkEquals ("second eval", cexpr.eval (myVariables, 3)[0], 4.5, EPS);
+      myVariables.get("s").setValues (new double[] { 0.25 });
+
+      // renamed variables are bound by their new names
+      HashMap<String,NumericProbeVariable> renamed =
+         new HashMap<String,NumericProbeVariable>();
+      renamed.put ("y", myVariables.get ("x"));
+      renamed.put ("s", myVariables.get ("s"));
+      cexpr = NumericProbeExpression.compile ("x[2]*s", myVariables);
+      check ("variable not renamed", cexpr.renameVariable ("x", "y"));
+      checkEquals ("renamed eval", cexpr.eval (renamed, 0)[0], 0.75, EPS);
+   }
+
+   private void checkCompileError (
+      String expr, Class<? extends RuntimeException> type) {
+      try {
+         NumericProbeExpression.compile (expr, myVariables);
+      }
+      catch (RuntimeException e) {
+         if (!type.isInstance (e)) {
+            throw new TestException (
+               "'"+expr+"': expected "+type.getSimpleName()+", got "+e);
+         }
+         return;
+      }
+      throw new TestException (
+         "'"+expr+"': compiled without expected "+type.getSimpleName());
+   }
+
+   private void checkEvalError (String expr) {
+      NumericProbeExpression cexpr =
+         NumericProbeExpression.compile (expr, myVariables);
+      try {
+         cexpr.eval (myVariables, 0.5);
+      }
+      catch (ArithmeticException e) {
+         return;
+      }
+      throw new TestException (
+         "'"+expr+"': evaluated without expected ArithmeticException");
+   }
+
+   public void testErrors() {
+      // errors raised by Jython when evaluating these expressions
+      checkCompileError ("1/0", ArithmeticException.class);
+      checkCompileError ("1.0/0", ArithmeticException.class);
+      checkCompileError ("x/0", ArithmeticException.class);
+      checkCompileError ("x % 0", ArithmeticException.class);
+      checkCompileError ("x // 0.0", ArithmeticException.class);
+      checkCompileError ("sqrt(-1)", ArithmeticException.class);
+      checkCompileError ("log(0)", ArithmeticException.class);
+      checkCompileError ("acos(2)", ArithmeticException.class);
+      checkCompileError ("exp(1000)", ArithmeticException.class);
+      checkCompileError ("0.0**-1", ArithmeticException.class);
+      checkCompileError ("(-8)**(1.0/3)", ArithmeticException.class);
+      checkEvalError ("s/(s - 0.25)");
+      checkEvalError ("x % (s - 0.25)");
+      checkEvalError ("sqrt(s - 1)");
+      checkEvalError ("log(x)");
+      checkEvalError ("exp(x*1000)");
+
+      // malformed expressions, unknown names and unsupported syntax
+      checkCompileError ("", IllegalArgumentException.class);
+      checkCompileError ("1 +", IllegalArgumentException.class);
+      checkCompileError ("(1 + 2", IllegalArgumentException.class);
+      checkCompileError ("1 2", IllegalArgumentException.class);
+      checkCompileError ("1 $ 2", IllegalArgumentException.class);
+      checkCompileError ("y + 1", IllegalArgumentException.class);
+      checkCompileError ("foo(1)", IllegalArgumentException.class);
+      checkCompileError ("sqrt(1, 2)", IllegalArgumentException.class);
+      checkCompileError ("x[3]", IllegalArgumentException.class);
+      checkCompileError ("x[0.5]", IllegalArgumentException.class);
+      checkCompileError ("x[s]", IllegalArgumentException.class);
+      checkCompileError ("x + x[0:2]", IllegalArgumentException.class);
+      checkCompileError ("x.dot(s)", IllegalArgumentException.class);
+      checkCompileError ("10L", IllegalArgumentException.class);
+   }
+
+   public void test() {
+      testPrecedence();
+      testArithmetic();
+      testFunctions();
+      testVariables();
+      testErrors();
+   }
+
+   public static void main (String[] args) {
+      NumericProbeExpressionTest tester = new NumericProbeExpressionTest();
+      tester.runtest();
+   }
+}
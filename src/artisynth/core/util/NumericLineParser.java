@@ -0,0 +1,439 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.util.FastDoubleParser;
+
+/**
+ * Parses text organized as lines of numbers, such as the node and element
+ * lists found in FEM mesh files, into compact primitive arrays. The text is
+ * held in memory and split into chunks at line boundaries, and the chunks
+ * are parsed in parallel.
+ *
+ * <p>Numbers on each line are separated by whitespace, or by optional
+ * separator characters such as commas. Text following a comment prefix is
+ * ignored. Numbers are recognized in the same way as by {@link
+ * maspack.util.ReaderTokenizer}, so that numbers which run together, as can
+ * happen in fixed-width formats, are still separated. Other tokens are
+ * skipped, but the lines that contain them are flagged (see {@link
+ * #hasWords}), so that callers can examine the text of these lines to
+ * handle keywords or headers.
+ *
+ * <p>Lines are indexed from 0 and correspond one-to-one with the lines of
+ * the text, so that the line number of line <code>i</code> is
+ * <code>i+1</code>.
+ */
+public class NumericLineParser {
+
+   /**
+    * Approximate number of characters in each chunk of text that is
+    * parsed as a single task.
+    */
+   public static int chunkSize = 1 << 18;
+
+   private String myCommentPrefix = "#";
+   private String mySeparatorChars = "";
+
+   private char[] myBuf;
+   private int myNumLines;
+   private int[] myLineStarts = new int[1];
+   private int[] myValueOffsets = new int[1];
+   private boolean[] myHasWords = new boolean[0];
+   private double[] myValues = new double[0];
+
+   /**
+    * Results of parsing one chunk of the text.
+    */
+   private class Chunk {
+      int myStart;
+      int myEnd;
+
+      int myNumLines;
+      int[] myLineStarts = new int[64];
+      int[] myValueCounts = new int[64];
+      boolean[] myHasWords = new boolean[64];
+      int myNumValues;
+      double[] myValues = new double[256];
+
+      Chunk (int start, int end) {
+         myStart = start;
+         myEnd = end;
+      }
+
+      private void addLine (int start) {
+         if (myNumLines == myLineStarts.length) {
+            int cap = 2*myNumLines;
+            myLineStarts = Arrays.copyOf (myLineStarts, cap);
+            myValueCounts = Arrays.copyOf (myValueCounts, cap);
+            myHasWords = Arrays.copyOf (myHasWords, cap);
+         }
+         myLineStarts[myNumLines++] = start;
+      }
+
+      private void addValue (double value) {
+         if (myNumValues == myValues.length) {
+            myValues = Arrays.copyOf (myValues, 2*myNumValues);
+         }
+         myValues[myNumValues++] = value;
+      }
+
+      void parse() {
+         char[] buf = myBuf;
+         int p = myStart;
+         while (p < myEnd) {
+            addLine (p);
+            int line = myNumLines-1;
+            int nvals0 = myNumValues;
+            while (p < myEnd && buf[p] != '\n') {
+               char c = buf[p];
+               if (isSeparator (c)) {
+                  p++;
+               }
+               else if (isCommentStart (buf, p, myEnd)) {
+                  while (p < myEnd && buf[p] != '\n') {
+                     p++;
+                  }
+               }
+               else {
+                  int pend = scanNumber (buf, p, myEnd);
+                  if (pend > p) {
+                     addValue (FastDoubleParser.parseDouble (buf, p, pend-p));
+                     p = pend;
+                  }
+                  else {
+                     // skip a non-numeric token
+                     myHasWords[line] = true;
+                     while (p < myEnd && buf[p] != '\n' && !isSeparator(buf[p])) {
+                        p++;
+                     }
+                  }
+               }
+            }
+            myValueCounts[line] = myNumValues-nvals0;
+            if (p < myEnd) {
+               p++; // skip newline
+            }
+         }
+      }
+
+      /**
+       * Finds the extent of a decimal number starting at <code>p</code>,
+       * consisting of an optional sign, digits with an optional decimal
+       * point, and an optional exponent. As with {@link
+       * maspack.util.ReaderTokenizer}, the number ends at the first
+       * character that cannot continue it, so that adjacent numbers such as
+       * <code>1.5-2.0</code> are separated. Returns <code>p</code> if there
+       * is no number at <code>p</code>.
+       */
+      private int scanNumber (char[] buf, int p, int end) {
+         int i = p;
+         if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+            i++;
+         }
+         int ndigits = 0;
+         while (i < end && buf[i] >= '0' && buf[i] <= '9') {
+            i++;
+            ndigits++;
+         }
+         if (i < end && buf[i] == '.') {
+            i++;
+            while (i < end && buf[i] >= '0' && buf[i] <= '9') {
+               i++;
+               ndigits++;
+            }
+         }
+         if (ndigits == 0) {
+            return p;
+         }
+         if (i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+            int j = i+1;
+            if (j < end && (buf[j] == '-' || buf[j] == '+')) {
+               j++;
+            }
+            if (j < end && buf[j] >= '0' && buf[j] <= '9') {
+               while (j < end && buf[j] >= '0' && buf[j] <= '9') {
+                  j++;
+               }
+               i = j;
+            }
+         }
+         return i;
+      }
+   }
+
+   public NumericLineParser() {
+   }
+
+   /**
+    * Sets the prefix that starts a comment. Characters from the prefix to
+    * the end of the line are ignored. The prefix is recognized only at the
+    * start of a token. The default value is <code>"#"</code>.
+    *
+    * @param prefix comment prefix, or <code>null</code> if comments should
+    * not be recognized
+    */
+   public void setCommentPrefix (String prefix) {
+      if (prefix != null && prefix.length() == 0) {
+         prefix = null;
+      }
+      myCommentPrefix = prefix;
+   }
+
+   /**
+    * Returns the prefix that starts a comment.
+    *
+    * @return comment prefix, or <code>null</code>
+    */
+   public String getCommentPrefix() {
+      return myCommentPrefix;
+   }
+
+   /**
+    * Sets characters which separate numbers in addition to whitespace,
+    * such as <code>","</code>. The default value is an empty string.
+    *
+    * @param chars additional separator characters
+    */
+   public void setSeparatorChars (String chars) {
+      mySeparatorChars = (chars != null ? chars : "");
+   }
+
+   /**
+    * Returns the characters which separate numbers in addition to
+    * whitespace.
+    *
+    * @return additional separator characters
+    */
+   public String getSeparatorChars() {
+      return mySeparatorChars;
+   }
+
+   private boolean isSeparator (char c) {
+      return ((c <= ' ' && c != '\n') ||
+              (mySeparatorChars.length() > 0 &&
+               mySeparatorChars.indexOf (c) != -1));
+   }
+
+   private boolean isCommentStart (char[] buf, int p, int end) {
+      String prefix = myCommentPrefix;
+      if (prefix == null || buf[p] != prefix.charAt(0)) {
+         return false;
+      }
+      int len = prefix.length();
+      if (p+len > end) {
+         return false;
+      }
+      for (int i=1; i<len; i++) {
+         if (buf[p+i] != prefix.charAt(i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Reads all remaining characters from a reader and parses them.
+    *
+    * @param reader reader supplying the text
+    * @throws IOException if an I/O error occurs
+    */
+   public void parse (Reader reader) throws IOException {
+      char[] buf = new char[1 << 16];
+      int len = 0;
+      int n;
+      while ((n = reader.read (buf, len, buf.length-len)) != -1) {
+         len += n;
+         if (len == buf.length) {
+            buf = Arrays.copyOf (buf, 2*buf.length);
+         }
+      }
+      parse (buf, 0, len);
+   }
+
+   /**
+    * Parses text contained in a character buffer. The buffer is retained,
+    * so that the text of individual lines can be obtained later, and
+    * should not be modified until parsing results are no longer needed.
+    *
+    * @param buf buffer containing the text
+    * @param off offset of the first character
+    * @param len number of characters
+    */
+   public void parse (char[] buf, int off, int len) {
+      myBuf = buf;
+      int end = off+len;
+
+      // split the text into chunks at line boundaries
+      int nchunks = Math.max (1, len/Math.max (1, chunkSize));
+      Chunk[] chunks = new Chunk[nchunks];
+      int start = off;
+      int k = 0;
+      for (int i=1; i<=nchunks; i++) {
+         int cut = (i == nchunks ? end : off + (int)((long)i*len/nchunks));
+         while (cut > start && cut < end && buf[cut-1] != '\n') {
+            cut++;
+         }
+         if (cut > start) {
+            chunks[k++] = new Chunk (start, cut);
+            start = cut;
+         }
+      }
+      final Chunk[] parsed = Arrays.copyOf (chunks, k);
+
+      ParallelLoop.forRange (parsed.length, 1, new ParallelLoop.RangeBody() {
+            public void apply (int i0, int i1) {
+               for (int i=i0; i<i1; i++) {
+                  parsed[i].parse();
+               }
+            }
+         });
+
+      // combine the chunks
+      int numLines = 0;
+      int numValues = 0;
+      for (Chunk chunk : parsed) {
+         numLines += chunk.myNumLines;
+         numValues += chunk.myNumValues;
+      }
+      myNumLines = numLines;
+      myLineStarts = new int[numLines+1];
+      myValueOffsets = new int[numLines+1];
+      myHasWords = new boolean[numLines];
+      myValues = new double[numValues];
+      int line = 0;
+      int voff = 0;
+      for (Chunk chunk : parsed) {
+         int nl = chunk.myNumLines;
+         System.arraycopy (chunk.myLineStarts, 0, myLineStarts, line, nl);
+         System.arraycopy (chunk.myHasWords, 0, myHasWords, line, nl);
+         System.arraycopy (chunk.myValues, 0, myValues, voff, chunk.myNumValues);
+         for (int i=0; i<nl; i++) {
+            myValueOffsets[line+i] = voff;
+            voff += chunk.myValueCounts[i];
+         }
+         line += nl;
+      }
+      myLineStarts[numLines] = end;
+      myValueOffsets[numLines] = voff;
+   }
+
+   /**
+    * Returns the number of lines in the most recently parsed text.
+    *
+    * @return number of lines
+    */
+   public int numLines() {
+      return myNumLines;
+   }
+
+   /**
+    * Returns the number of numeric values found on a line.
+    *
+    * @param line line index
+    * @return number of values on the line
+    */
+   public int numValues (int line) {
+      return myValueOffsets[line+1]-myValueOffsets[line];
+   }
+
+   /**
+    * Returns the offset within {@link #getValues} of the first value
+    * found on a line.
+    *
+    * @param line line index
+    * @return offset of the line's first value
+    */
+   public int getValueOffset (int line) {
+      return myValueOffsets[line];
+   }
+
+   /**
+    * Returns a specific value found on a line.
+    *
+    * @param line line index
+    * @param k index of the value within the line
+    * @return value
+    */
+   public double getValue (int line, int k) {
+      return myValues[myValueOffsets[line]+k];
+   }
+
+   /**
+    * Returns the numeric values found in the text, arranged line by
+    * line. The values for each line begin at the offset given by {@link
+    * #getValueOffset}.
+    *
+    * @return numeric values. Should not be modified.
+    */
+   public double[] getValues() {
+      return myValues;
+   }
+
+   /**
+    * Returns the total number of numeric values found in the text.
+    *
+    * @return total number of values
+    */
+   public int numTotalValues() {
+      return myValueOffsets[myNumLines];
+   }
+
+   /**
+    * Queries whether a line contains tokens that are not numbers.
+    *
+    * @param line line index
+    * @return <code>true</code> if the line contains non-numeric tokens
+    */
+   public boolean hasWords (int line) {
+      return myHasWords[line];
+   }
+
+   /**
+    * Returns the text of a line, without the line terminator.
+    *
+    * @param line line index
+    * @return text of the line
+    */
+   public String getLineText (int line) {
+      int start = myLineStarts[line];
+      int end = myLineStarts[line+1];
+      while (end > start && (myBuf[end-1] == '\n' || myBuf[end-1] == '\r')) {
+         end--;
+      }
+      return new String (myBuf, start, end-start);
+   }
+
+   /**
+    * Returns the text of a line with leading whitespace removed, if it
+    * starts with a given prefix, or <code>null</code> otherwise.
+    *
+    * @param line line index
+    * @param prefix prefix to check for
+    * @return trimmed text of the line, or <code>null</code>
+    */
+   public String getLineTextIfStartsWith (int line, String prefix) {
+      int p = myLineStarts[line];
+      int end = myLineStarts[line+1];
+      while (p < end && myBuf[p] <= ' ' && myBuf[p] != '\n') {
+         p++;
+      }
+      if (end-p < prefix.length()) {
+         return null;
+      }
+      for (int i=0; i<prefix.length(); i++) {
+         if (myBuf[p+i] != prefix.charAt(i)) {
+            return null;
+         }
+      }
+      return getLineText(line).trim();
+   }
+}
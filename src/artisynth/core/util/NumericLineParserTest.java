@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+import maspack.util.*;
+
+/**
+ * Tests NumericLineParser by comparing its results with those of a simple
+ * line-by-line parser, using small chunk sizes so that many chunk
+ * boundaries are exercised.
+ */
+public class NumericLineParserTest extends UnitTest {
+
+   private Random myRand = new Random (0x1234);
+
+   private Pattern myNumberPattern =
+      Pattern.compile ("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?");
+
+   private String createText (int numLines, String seps, String comment) {
+      String[] words = new String[] {
+         "*NODE", "foo", "1e", "0x10", "-", ".", "12abc", "1.5-2e-3+.25" };
+      StringBuilder sb = new StringBuilder();
+      for (int i=0; i<numLines; i++) {
+         int nvals = myRand.nextInt (12);
+         for (int k=0; k<nvals; k++) {
+            int r = myRand.nextInt (100);
+            if (r < 3) {
+               sb.append (words[myRand.nextInt (words.length)]);
+            }
+            else if (r < 50) {
+               sb.append (myRand.nextInt (200000) - 1000);
+            }
+            else {
+               sb.append (myRand.nextGaussian()*Math.pow (10, r%16-8));
+            }
+            if (seps.length() > 0 && myRand.nextBoolean()) {
+               sb.append (seps.charAt (myRand.nextInt (seps.length())));
+            }
+            sb.append (myRand.nextInt (4) == 0 ? "\t " : " ");
+         }
+         if (comment != null && myRand.nextInt (8) == 0) {
+            sb.append (comment + " 1 2 3");
+         }
+         if (myRand.nextInt (10) == 0) {
+            sb.append ('\r');
+         }
+         if (i < numLines-1 || myRand.nextBoolean()) {
+            sb.append ('\n');
+         }
+      }
+      return sb.toString();
+   }
+
+   private void checkLine (
+      NumericLineParser parser, int line, String text,
+      String seps, String comment) {
+
+      if (comment != null && text.indexOf (comment) != -1) {
+         text = text.substring (0, text.indexOf (comment));
+      }
+      for (int i=0; i<seps.length(); i++) {
+         text = text.replace (seps.charAt(i), ' ');
+      }
+      ArrayList<Double> vals = new ArrayList<Double>();
+      boolean hasWords = false;
+      for (String tok : text.trim().split ("\\s+")) {
+         // numbers are read from the start of each token, which is
+         // otherwise a word
+         while (tok.length() > 0) {
+            Matcher m = myNumberPattern.matcher (tok);
+            if (m.lookingAt()) {
+               vals.add (Double.parseDouble (m.group()));
+               tok = tok.substring (m.end());
+            }
+            else {
+               hasWords = true;
+               break;
+            }
+         }
+      }
+      checkEquals ("number of values, line "+line,
+                   parser.numValues (line), vals.size());
+      for (int k=0; k<vals.size(); k++) {
+         checkEquals ("value "+k+", line "+line,
+                      parser.getValue (line, k), vals.get(k).doubleValue());
+      }
+      checkEquals ("hasWords, line "+line, parser.hasWords (line), hasWords);
+   }
+
+   public void testParse (int numLines, String seps, String comment) {
+      String str = createText (numLines, seps, comment);
+      NumericLineParser parser = new NumericLineParser();
+      parser.setSeparatorChars (seps);
+      parser.setCommentPrefix (comment);
+      int saveChunkSize = NumericLineParser.chunkSize;
+      try {
+         for (int chunkSize : new int[] { 1, 37, 1000, 1 << 18 }) {
+            NumericLineParser.chunkSize = chunkSize;
+            parser.parse (new StringReader (str));
+            String[] lines = str.split ("\n", -1);
+            int nlines = lines.length;
+            if (str.length() == 0 || str.endsWith ("\n")) {
+               nlines--;
+            }
+            checkEquals ("number of lines", parser.numLines(), nlines);
+            int nvals = 0;
+            for (int i=0; i<nlines; i++) {
+               checkLine (parser, i, lines[i], seps, comment);
+               String text = lines[i];
+               if (text.endsWith ("\r")) {
+                  text = text.substring (0, text.length()-1);
+               }
+               checkEquals ("text, line "+i, parser.getLineText(i), text);
+               checkEquals (
+                  "value offset, line "+i, parser.getValueOffset(i), nvals);
+               nvals += parser.numValues (i);
+            }
+            checkEquals ("total values", parser.numTotalValues(), nvals);
+         }
+      }
+      catch (IOException e) {
+         throw new TestException ("unexpected exception: " + e);
+      }
+      finally {
+         NumericLineParser.chunkSize = saveChunkSize;
+      }
+   }
+
+   public void test() {
+      testParse (0, "", "#");
+      testParse (1, "", "#");
+      testParse (50, "", "#");
+      testParse (1000, ",", "**");
+      testParse (1000, ",;", null);
+      testParse (5000, "", "#");
+   }
+
+   public static void main (String[] args) {
+      NumericLineParserTest tester = new NumericLineParserTest();
+      tester.runtest();
+   }
+}
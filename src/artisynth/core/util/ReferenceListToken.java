@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.util;
+
+import java.util.Arrays;
+
+/**
+ * Parsing token that holds a block of component reference paths, together
+ * with their line numbers. Used in place of one <code>StringToken</code> per
+ * reference, so that large reference lists are stored compactly and can be
+ * resolved together.
+ *
+ * <p>The paths are consumed one at a time using {@link #next}. The token may
+ * also hold the results of resolving the paths ahead of time, together with
+ * the context in which they were resolved, so that they can be reused when
+ * the paths are actually consumed.
+ */
+public class ReferenceListToken extends ScanToken {
+
+   String[] myPaths;
+   int[] myLinenos;
+   int mySize;
+   int myNext;
+
+   Object[] myResolved;
+   Object myResolvedContext;
+   long myResolvedVersion;
+
+   public ReferenceListToken (int lineno) {
+      super (lineno);
+      myPaths = new String[4];
+      myLinenos = new int[4];
+   }
+
+   /**
+    * Adds a reference path to this token.
+    *
+    * @param path reference path
+    * @param lineno line number where the path was read
+    */
+   public void add (String path, int lineno) {
+      if (mySize == myPaths.length) {
+         int cap = 2*mySize;
+         myPaths = Arrays.copyOf (myPaths, cap);
+         myLinenos = Arrays.copyOf (myLinenos, cap);
+      }
+      myPaths[mySize] = path;
+      myLinenos[mySize] = lineno;
+      mySize++;
+   }
+
+   /**
+    * Returns the number of reference paths in this token.
+    *
+    * @return number of reference paths
+    */
+   public int size() {
+      return mySize;
+   }
+
+   public String getPath (int idx) {
+      if (idx >= mySize) {
+         throw new ArrayIndexOutOfBoundsException (
+            "index "+idx+" exceeds size "+mySize);
+      }
+      return myPaths[idx];
+   }
+
+   public int getLineno (int idx) {
+      if (idx >= mySize) {
+         throw new ArrayIndexOutOfBoundsException (
+            "index "+idx+" exceeds size "+mySize);
+      }
+      return myLinenos[idx];
+   }
+
+   /**
+    * Returns the index of the next path to be consumed, which is also the
+    * number of paths consumed so far.
+    *
+    * @return index of the next path
+    */
+   public int position() {
+      return myNext;
+   }
+
+   /**
+    * Queries whether there are paths that have not yet been consumed.
+    *
+    * @return <code>true</code> if unconsumed paths remain
+    */
+   public boolean hasNext() {
+      return myNext < mySize;
+   }
+
+   /**
+    * Consumes the next path and returns its index.
+    *
+    * @return index of the consumed path
+    */
+   public int next() {
+      if (myNext >= mySize) {
+         throw new IllegalStateException ("no more paths in "+this);
+      }
+      return myNext++;
+   }
+
+   /**
+    * Stores the results of resolving the paths in this token ahead of
+    * time. Entries of <code>resolved</code> which are <code>null</code>
+    * indicate paths that were not resolved.
+    *
+    * @param resolved resolved values, one per path
+    * @param context context, such as an ancestor component, in which the
+    * paths were resolved
+    * @param version version number of the structure in which the paths were
+    * resolved
+    */
+   public void setResolved (Object[] resolved, Object context, long version) {
+      myResolved = resolved;
+      myResolvedContext = context;
+      myResolvedVersion = version;
+   }
+
+   /**
+    * Returns the result of resolving a path ahead of time, provided that it
+    * was resolved with the same context and structure version. Otherwise,
+    * returns <code>null</code>.
+    *
+    * @param idx index of the path
+    * @param context context in which the path is to be resolved
+    * @param version current version number of the structure
+    * @return resolved value, or <code>null</code>
+    */
+   public Object getResolved (int idx, Object context, long version) {
+      if (myResolved != null &&
+          myResolvedContext == context && myResolvedVersion == version) {
+         return myResolved[idx];
+      }
+      else {
+         return null;
+      }
+   }
+
+   /**
+    * Queries whether paths were resolved ahead of time with a given
+    * context and structure version.
+    *
+    * @param context context to check
+    * @param version structure version to check
+    * @return <code>true</code> if the paths were resolved with
+    * <code>context</code> and <code>version</code>
+    */
+   public boolean isResolved (Object context, long version) {
+      return (myResolved != null &&
+              myResolvedContext == context && myResolvedVersion == version);
+   }
+
+   public String[] value() {
+      return Arrays.copyOf (myPaths, mySize);
+   }
+
+   public String toString() {
+      return ("ReferenceListToken["+mySize+" paths, next="+myNext+
+              " line "+lineno()+"]");
+   }
+}
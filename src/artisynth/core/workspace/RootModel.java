@@ -121,6 +121,9 @@ public class RootModel extends RenderableModelBase
    private static final double DEFAULT_MIN_STEP_SIZE = 1e-7;
    private static final double DEFAULT_MAX_STEP_SIZE = 0.01;
    private static final boolean DEFAULT_ADAPTIVE_STEPPING = false;
+   private static final boolean DEFAULT_PARALLEL_PRERENDER = false;
+
+   protected boolean myParallelPrerender = DEFAULT_PARALLEL_PRERENDER;
 
    AxisAngle myDefaultViewOrientation = 
       new AxisAngle (DEFAULT_VIEW_ORIENTATION);
@@ -520,6 +523,10 @@ public class RootModel extends RenderableModelBase
       myProps.add (
          "adaptiveStepping",
          "enables/disables adaptive step sizing", DEFAULT_ADAPTIVE_STEPPING);
+      myProps.add (
+         "parallelPrerender",
+         "prerender top-level components in parallel",
+         DEFAULT_PARALLEL_PRERENDER);
       // remove and replace maxStepSize to redefine default value and range
       myProps.remove ("maxStepSize");
       myProps.add (
@@ -533,6 +540,33 @@ public class RootModel extends RenderableModelBase
       myDefaultViewOrientation = new AxisAngle (DEFAULT_VIEW_ORIENTATION);
    }
 
+   /**
+    * Queries whether the top-level components of this root model are
+    * prerendered in parallel.
+    *
+    * @return {@code true} if parallel prerendering is enabled
+    * @see #setParallelPrerender
+    */
+   public boolean getParallelPrerender() {
+      return myParallelPrerender;
+   }
+   
+   /**
+    * Enables or disables parallel prerendering. If enabled, the {@link
+    * Renderable#prerender} methods of the top-level controllers, models,
+    * monitors and renderables of this root model are called concurrently by
+    * a thread pool, which can reduce the time spent prerendering scenes that
+    * contain several large models. The resulting render list is the same as
+    * for serial prerendering. This should only be enabled if the
+    * top-level components do not share state that is updated during
+    * prerendering.
+    *
+    * @param enable if {@code true}, enables parallel prerendering
+    */
+   public void setParallelPrerender (boolean enable) {
+      myParallelPrerender = enable;
+   }
+
    public boolean getAdaptiveStepping() {
       return myAdaptiveStepping;
    }
@@ -1155,6 +1189,29 @@ public class RootModel extends RenderableModelBase
    // implementations for Renderable
 
    public void prerender (RenderList list) {
+      if (myParallelPrerender) {
+         ArrayList<Renderable> renderables = new ArrayList<Renderable>();
+         for (Controller c : myControllers) {
+            if (c instanceof Renderable) {
+               renderables.add ((Renderable)c);
+            }
+         }
+         for (Model m : myModels) {
+            if (m instanceof Renderable) {
+               renderables.add ((Renderable)m);
+            }
+         }
+         for (Monitor m : myMonitors) {
+            if (m instanceof Renderable) {
+               renderables.add ((Renderable)m);
+            }
+         }
+         renderables.add (myOutputProbes);
+         renderables.add (myInputProbes);
+         renderables.add (myRenderables);
+         list.addIfVisibleAllParallel (renderables);
+         return;
+      }
       for (Controller c : myControllers) {
          if (c instanceof Renderable) {
             list.addIfVisible ((Renderable)c);
@@ -1259,6 +1316,7 @@ public class RootModel extends RenderableModelBase
 
    public void componentChanged (ComponentChangeEvent e) {
       // no need to notify parent since there is none
+      ComponentUtils.rootComponentChanged (this, e);
       if (e.getCode() == ComponentChangeEvent.Code.STRUCTURE_CHANGED) {
          synchronized (this) {
             myModelInfoValid = false;
@@ -8,10 +8,14 @@
 package artisynth.core.workspace;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.swing.JFrame;
 import javax.swing.SwingUtilities;
 
+import maspack.concurrency.TripleBuffer;
+import maspack.render.RenderSnapshot;
 import maspack.render.GL.GLViewer;
 import maspack.util.*;
 import maspack.widgets.PropertyWindow;
@@ -59,6 +63,25 @@ public class Workspace {
    private static boolean useNewProbeFileFormat = false;
    private RerenderListener myRerenderListener = new RerenderListener();
 
+   private static boolean myDecoupledRendering = false;
+   // render snapshots published by the scheduler thread for the viewers,
+   // which hold the shared draw lock while drawing them
+   private ReentrantLock myRenderLock = new ReentrantLock();
+   private TripleBuffer<RenderSnapshot> myRenderSnapshots =
+      new TripleBuffer<RenderSnapshot>(
+         new RenderSnapshot (myRenderLock),
+         new RenderSnapshot (myRenderLock),
+         new RenderSnapshot (myRenderLock));
+   private AtomicBoolean myPresentPending = new AtomicBoolean();
+   private Runnable myPresentAction = new Runnable() {
+         public void run() {
+            myPresentPending.set (false);
+            if (myRenderSnapshots.update() && myViewerManager != null) {
+               myViewerManager.render (myRenderSnapshots.getFront());
+            }
+         }
+      };
+
    public Workspace (Main main) {
       myRoot = new RootModel (null);
       myMain = main;
@@ -113,7 +136,13 @@ public class Workspace {
             if (myRenderRequested) {
                myMain.updateDragger();
                if (myViewerManager != null) {
-                  myViewerManager.render();
+                  if (myDecoupledRendering &&
+                      !SwingUtilities.isEventDispatchThread()) {
+                     publishRenderList();
+                  }
+                  else {
+                     myViewerManager.render();
+                  }
                }
                myLastRenderTime = System.currentTimeMillis();
             }
@@ -140,6 +169,53 @@ public class Workspace {
        
    }
 
+   /**
+    * Called by the scheduler thread when decoupled rendering is enabled.
+    * Prerenders the model into a new render list, captured in the back
+    * snapshot, which is then published for the viewers. The viewers are
+    * updated with the latest published snapshot on the event dispatch
+    * thread, so that the scheduler does not wait for them, and snapshots
+    * that are published while the viewers are busy are skipped.
+    *
+    * <p>Since the renderables draw the state cached by their prerender
+    * methods, the viewers hold the snapshots' draw lock while drawing, and
+    * the capture is skipped if the lock is not free. The scheduler then
+    * continues with the next step, and a later request publishes the
+    * frame.
+    */
+   private void publishRenderList() {
+      RenderSnapshot snap = myRenderSnapshots.getBack();
+      if (snap.capture (() -> myViewerManager.buildRenderList())) {
+         myRenderSnapshots.publish();
+         if (myPresentPending.compareAndSet (false, true)) {
+            SwingUtilities.invokeLater (myPresentAction);
+         }
+      }
+   }
+
+   /**
+    * Enables or disables decoupled rendering. When enabled, rerender
+    * requests made while the simulation is running only prerender the
+    * model in the scheduler thread, and the viewers are then updated
+    * asynchronously from the most recent prerendered snapshot. This keeps
+    * the scheduler from waiting on the viewers. Disabled by default.
+    *
+    * @param enable if {@code true}, enables decoupled rendering
+    */
+   public static void setDecoupledRendering (boolean enable) {
+      myDecoupledRendering = enable;
+   }
+
+   /**
+    * Queries whether decoupled rendering is enabled.
+    *
+    * @return {@code true} if decoupled rendering is enabled
+    * @see #setDecoupledRendering
+    */
+   public static boolean getDecoupledRendering() {
+      return myDecoupledRendering;
+   }
+
    public long getLastRenderTime() {
       return myLastRenderTime;
    }
@@ -1,55 +1,89 @@
 package maspack.collision;
 
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 
+import maspack.geometry.SpatialHashGrid;
 import maspack.matrix.Point3d;
 import maspack.matrix.Vector3d;
+import maspack.util.DynamicIntArray;
 
 public class AccelerationGrid<T> {
-   public ArrayList<LinkedHashSet<T>> cells = null;
-   public LinkedHashMap<T,ArrayList<int[]>> elementidxs = null;
    public Point3d xmin = null, xmax = null;
    public int nx, ny, nz;
    public Vector3d cellsize = null;
 
-   public void add_element (T elem, Point3d min, Point3d max) {
-      ArrayList<int[]> eidxs = elementidxs.get (elem);
-      if (eidxs == null) {
-         eidxs = new ArrayList<int[]>();
-         elementidxs.put (elem, eidxs);
+   // Elements are stored in a SpatialHashGrid using integer ids. Cell
+   // indices are computed here, since the cells need not be cubic.
+   private SpatialHashGrid grid = null;
+   private HashMap<T,Integer> elementids = null;
+   private ArrayList<T> elements = null;
+   private DynamicIntArray freeids = null;
+
+   private int getId (T elem) {
+      Integer id = elementids.get (elem);
+      if (id == null) {
+         if (freeids.size() > 0) {
+            id = freeids.remove (freeids.size()-1);
+            elements.set (id, elem);
+         }
+         else {
+            id = elements.size();
+            elements.add (elem);
+         }
+         elementids.put (elem, id);
       }
+      return id;
+   }
 
+   public void add_element (T elem, Point3d min, Point3d max) {
+      int id = getId (elem);
       int[][] idxs = getIndexes (min, max);
+      if (idxs[0][0] > idxs[1][0] ||
+          idxs[0][1] > idxs[1][1] ||
+          idxs[0][2] > idxs[1][2]) {
+         return;
+      }
+      grid.addCells (
+         id, idxs[0][0], idxs[0][1], idxs[0][2],
+         idxs[1][0], idxs[1][1], idxs[1][2]);
+   }
 
-      // System.out.println("idxs");
-      // System.out.println(idxs[0][0] + " " + idxs[0][1] + " " + idxs[0][2]);
-      // System.out.println(idxs[1][0] + " " + idxs[1][1] + " " + idxs[1][2]);
-
-      for (int i = idxs[0][0]; i <= idxs[1][0]; i++)
-         for (int j = idxs[0][1]; j <= idxs[1][1]; j++)
-            for (int k = idxs[0][2]; k <= idxs[1][2]; k++) {
-               LinkedHashSet<T> cell = get (i, j, k);
-               if (cell == null) {
-                  cell = new LinkedHashSet<T>();
-                  set (i, j, k, cell);
-               }
-               if (!cell.contains (elem)) {
-                  cell.add (elem);
-                  eidxs.add (new int[] { i, j, k });
-               }
-            }
+   /**
+    * Moves an element so that it occupies the cells overlapping the box
+    * defined by <code>min</code> and <code>max</code>. This is much cheaper
+    * than removing and re-adding the element when the set of cells does
+    * not change.
+    */
+   public void update_element (T elem, Point3d min, Point3d max) {
+      int id = getId (elem);
+      int[][] idxs = getIndexes (min, max);
+      if (idxs[0][0] > idxs[1][0] ||
+          idxs[0][1] > idxs[1][1] ||
+          idxs[0][2] > idxs[1][2]) {
+         grid.remove (id);
+         return;
+      }
+      grid.updateCells (
+         id, idxs[0][0], idxs[0][1], idxs[0][2],
+         idxs[1][0], idxs[1][1], idxs[1][2]);
    }
 
    public void remove_element (T elem) {
-      ArrayList<int[]> eidxs = elementidxs.get (elem);
-      for (int[] cidx : eidxs) {
-         LinkedHashSet<T> cell = get (cidx[0], cidx[1], cidx[2]);
-         cell.remove (elem);
+      Integer id = elementids.remove (elem);
+      if (id != null) {
+         grid.remove (id);
+         elements.set (id, null);
+         freeids.add (id);
       }
+   }
 
-      elementidxs.remove (elem);
+   /**
+    * Returns true if <code>elem</code> has been added to this grid
+    * and not removed.
+    */
+   public boolean contains (T elem) {
+      return elementids.containsKey (elem);
    }
 
    public void set (Point3d _xmin, Point3d _xmax, int n) {
@@ -83,19 +117,12 @@ public class AccelerationGrid<T> {
             (xmax.x - xmin.x) / nx, (xmax.y - xmin.y) / ny, (xmax.z - xmin.z)
             / nz);
 
-      int n = nx * ny * nz;
-      elementidxs = new LinkedHashMap<T,ArrayList<int[]>>();
-      cells = new ArrayList<LinkedHashSet<T>>();
-      for (int i = 0; i < n; i++)
-         cells.add (null);
-   }
-
-   public LinkedHashSet<T> get (int x, int y, int z) {
-      return cells.get (x * ny * nz + y * nz + z);
-   }
-
-   public void set (int x, int y, int z, LinkedHashSet<T> cell) {
-      cells.set (x * ny * nz + y * nz + z, cell);
+      // cell size of the hash grid is irrelevant since cell indices
+      // are supplied directly
+      grid = new SpatialHashGrid (1.0);
+      elementids = new HashMap<T,Integer>();
+      elements = new ArrayList<T>();
+      freeids = new DynamicIntArray();
    }
 
    public int[] getIndex (Point3d p) {
@@ -130,21 +157,22 @@ public class AccelerationGrid<T> {
 
    public ArrayList<T> find_overlapping_elements (Point3d min, Point3d max) {
       ArrayList<T> elems = new ArrayList<T>();
+      find_overlapping_elements (elems, min, max);
+      return elems;
+   }
 
-      int[][] idxs = getIndexes (min, max);
-
-      for (int i = idxs[0][0]; i <= idxs[1][0]; i++)
-         for (int j = idxs[0][1]; j <= idxs[1][1]; j++)
-            for (int k = idxs[0][2]; k <= idxs[1][2]; k++) {
-               LinkedHashSet<T> cell = get (i, j, k);
-               if (cell != null) {
-                  for (T elem : cell) {
-                     if (!elems.contains (elem))
-                        elems.add (elem);
-                  }
-               }
-            }
+   /**
+    * Finds the elements overlapping the box defined by <code>min</code> and
+    * <code>max</code> and appends them to <code>elems</code>, which can be
+    * reused between queries. Each element is added only once.
+    */
+   public void find_overlapping_elements (
+      final ArrayList<T> elems, Point3d min, Point3d max) {
 
-      return elems;
+      int[][] idxs = getIndexes (min, max);
+      grid.forEachInCells (
+         idxs[0][0], idxs[0][1], idxs[0][2],
+         idxs[1][0], idxs[1][1], idxs[1][2],
+         (id) -> elems.add (elements.get (id)));
    }
 }
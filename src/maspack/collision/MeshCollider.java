@@ -206,7 +206,7 @@ public class MeshCollider implements AbstractCollider {
    private static void traverseRegion (
       AccelerationGrid<TriTriIntersection> accgrid,
       ContactPlane region, TriTriIntersection isect, double regionTol) {
-      if (accgrid.elementidxs.containsKey (isect)) {
+      if (accgrid.contains (isect)) {
          accgrid.remove_element (isect);
          region.intersections.add (isect);
          ArrayList<TriTriIntersection> isects =
@@ -297,7 +297,7 @@ public class MeshCollider implements AbstractCollider {
 
       for (TriTriIntersection isect : intersections) {
          ContactPlane region = new ContactPlane();
-         if (accgrid.elementidxs.get (isect) != null) {
+         if (accgrid.contains (isect)) {
             traverseRegion (accgrid, region, isect, regionTol);
             regions.add (region);
          }
@@ -3,6 +3,7 @@ package maspack.collision;
 import maspack.util.BooleanHolder;
 import maspack.matrix.*;
 import maspack.collision.IntersectionPoint;
+import maspack.concurrency.ParallelLoop;
 import maspack.geometry.*;
 import maspack.render.RenderableUtils;
 import maspack.util.*;
@@ -422,6 +423,107 @@ public class SurfaceMeshIntersector {
       }
    }
 
+   /*
+    * Contour caching: when enabled, the seed edge/face pairs of the contours
+    * found for each mesh pair are stored and used to seed the search for the
+    * next query on the same meshes.
+    */
+   boolean myContourCachingEnabled = false;
+   int myFullSearchInterval = 5;
+
+   // maximum number of seed edge/face pairs stored for each contour
+   static final int MAX_CONTOUR_SEEDS = 4;
+
+   /*
+    * Parallel search: when enabled, the bounding volume hierarchy search is
+    * split across subtree pairs, and the candidate leaf node pairs are
+    * screened in parallel for actual edge/face intersections before the
+    * contours are traced serially. Disabled by default.
+    */
+   boolean myParallelSearchEnabled = false;
+
+   /**
+    * Minimum number of candidate leaf node pairs handled by each thread when
+    * screening the node pairs in parallel.
+    */
+   public static int parallelGrainSize = 64;
+
+   // Contour caches for each queried mesh pair. The cached seeds refer to
+   // the meshes' features, and hence to the meshes themselves, so weak keys
+   // would not release them. Instead, a new query pass begins whenever a
+   // pair is queried for the second time in the current pass (such as at
+   // the next simulation step), and the caches of pairs that were not
+   // queried during the previous pass are then removed.
+   HashMap<MeshPair,ContourCache> myContourCaches =
+      new HashMap<MeshPair,ContourCache>();
+   int myQueryPass = 0;
+
+   int myNumCacheSearches;
+   int myNumCacheHits;
+   int myNumCacheMisses;
+   int myNumFullSearches;
+   int myNumFullSearchesSkipped;
+   long myCacheTimeSaved; // nanoseconds
+
+   /**
+    * Identifies an ordered pair of meshes, for use as a hash key.
+    */
+   static class MeshPair {
+      PolygonalMesh myMesh0;
+      PolygonalMesh myMesh1;
+
+      MeshPair (PolygonalMesh mesh0, PolygonalMesh mesh1) {
+         myMesh0 = mesh0;
+         myMesh1 = mesh1;
+      }
+
+      public boolean equals (Object obj) {
+         if (obj instanceof MeshPair) {
+            MeshPair other = (MeshPair)obj;
+            return other.myMesh0 == myMesh0 && other.myMesh1 == myMesh1;
+         }
+         else {
+            return false;
+         }
+      }
+
+      public int hashCode() {
+         return 31*System.identityHashCode(myMesh0) +
+            System.identityHashCode(myMesh1);
+      }
+   }
+
+   /**
+    * Cached contour information for a specific mesh pair.
+    */
+   static class ContourCache {
+      // seed edge/face pairs for each contour found by the last query
+      ArrayList<EdgeFacePair[]> mySeeds = new ArrayList<EdgeFacePair[]>();
+      // number of queries since the last full search
+      int mySearchesSinceFull;
+      // time required by the last full search, in nanoseconds
+      long myFullSearchTime;
+      // query pass in which this cache was last used
+      int myLastPass;
+
+      void setSeeds (ArrayList<IntersectionContour> contours) {
+         mySeeds.clear();
+         for (IntersectionContour c : contours) {
+            int npnts = c.size();
+            if (npnts == 0) {
+               continue;
+            }
+            int nseeds = Math.min (npnts, MAX_CONTOUR_SEEDS);
+            EdgeFacePair[] seeds = new EdgeFacePair[nseeds];
+            for (int k=0; k<nseeds; k++) {
+               IntersectionPoint p = c.get ((k*npnts)/nseeds);
+               seeds[k] = new EdgeFacePair (p.edge.getPrimary(), p.face);
+            }
+            mySeeds.add (seeds);
+         }
+      }
+   }
+
    private PolygonalMesh getMesh (int num) {
       if (num == 0) {
          return myMesh0;
@@ -622,11 +724,12 @@ public class SurfaceMeshIntersector {
      
       // Use the meshes' bounding hierarchies to find candidate nodes where
       // triangles may be overlapping.
-      BVTree bvh0 = mesh0.getBVTree();
-      BVTree bvh1 = mesh1.getBVTree();
+      if (myContourCachingEnabled && mesh0 != mesh1) {
+         return findCoherentContours (mesh0, mesh1);
+      }
       ArrayList<BVNode> nodes0 = new ArrayList<BVNode>();
       ArrayList<BVNode> nodes1 = new ArrayList<BVNode>();
-      bvh0.intersectTree (nodes0, nodes1, bvh1);
+      findCandidateNodes (nodes0, nodes1, mesh0, mesh1);
 
       // Look for overlapping triangles and use these as the starting point for
       // tracing the intersection contours. If no contours are found,
@@ -634,6 +737,421 @@ public class SurfaceMeshIntersector {
       return findIntersectionContours (nodes0, nodes1);
    }
 
+   /**
+    * Implements {@link #findContours} when contour caching is enabled.  The
+    * contours are first traced from the edge/face pairs that intersected the
+    * last time these meshes were queried. The full bounding volume hierarchy
+    * search is then performed unless every cached contour was recovered and
+    * fewer than {@link #getFullSearchInterval} calls have elapsed since the
+    * last full search.
+    */
+   private ArrayList<IntersectionContour> findCoherentContours (
+      PolygonalMesh mesh0, PolygonalMesh mesh1) {
+
+      ArrayList<IntersectionContour> contours =
+         new ArrayList<IntersectionContour>();
+      initializeContourSearch();
+
+      ContourCache cache = getContourCache (mesh0, mesh1);
+      int ncached = cache.mySeeds.size();
+      int nhits = 0;
+      if (ncached > 0) {
+         myNumCacheSearches++;
+         for (EdgeFacePair[] seeds : cache.mySeeds) {
+            if (findContourFromSeeds (contours, seeds)) {
+               nhits++;
+            }
+         }
+         myNumCacheHits += nhits;
+         myNumCacheMisses += (ncached-nhits);
+      }
+      if (ncached == 0 || nhits < ncached ||
+          cache.mySearchesSinceFull+1 >= myFullSearchInterval) {
+         long t0 = System.nanoTime();
+         ArrayList<BVNode> nodes0 = new ArrayList<BVNode>();
+         ArrayList<BVNode> nodes1 = new ArrayList<BVNode>();
+         findCandidateNodes (nodes0, nodes1, mesh0, mesh1);
+         findIntersectionContours (contours, nodes0, nodes1);
+         cache.myFullSearchTime = System.nanoTime()-t0;
+         cache.mySearchesSinceFull = 0;
+         myNumFullSearches++;
+      }
+      else {
+         cache.mySearchesSinceFull++;
+         myNumFullSearchesSkipped++;
+         myCacheTimeSaved += cache.myFullSearchTime;
+      }
+      finishIntersectionContours (contours);
+      cache.setSeeds (contours);
+      return contours;
+   }
+
+   /**
+    * Uses the meshes' bounding hierarchies to find the pairs of leaf nodes
+    * whose triangles may be intersecting. If parallel searching is enabled,
+    * the hierarchy search is distributed over multiple threads, and the node
+    * pairs are then screened (also in parallel) to remove those for which no
+    * edge/face pair intersects, since these will not yield any contours.
+    */
+   private void findCandidateNodes (
+      ArrayList<BVNode> nodes0, ArrayList<BVNode> nodes1,
+      PolygonalMesh mesh0, PolygonalMesh mesh1) {
+
+      BVTree bvh0 = mesh0.getBVTree();
+      BVTree bvh1 = mesh1.getBVTree();
+      if (!myParallelSearchEnabled || ParallelLoop.getParallelism() <= 1) {
+         bvh0.intersectTree (nodes0, nodes1, bvh1);
+         return;
+      }
+      bvh0.intersectTreeInParallel (nodes0, nodes1, bvh1);
+      final int npairs = nodes0.size();
+      if (npairs <= parallelGrainSize) {
+         return;
+      }
+      final BVNode[] pairs0 = nodes0.toArray (new BVNode[npairs]);
+      final BVNode[] pairs1 = nodes1.toArray (new BVNode[npairs]);
+      final boolean[] intersects = new boolean[npairs];
+      ParallelLoop.forRange (npairs, parallelGrainSize, (i0, i1) -> {
+         IntersectionPoint mip = new IntersectionPoint();
+         for (int i=i0; i<i1; i++) {
+            Boundable[] elems0 = pairs0[i].getElements();
+            Boundable[] elems1 = pairs1[i].getElements();
+            intersects[i] =
+               (elementsIntersect (elems1, elems0, mip, /*edgeOnMesh0=*/true) ||
+                elementsIntersect (elems0, elems1, mip, /*edgeOnMesh0=*/false));
+         }
+      });
+      nodes0.clear();
+      nodes1.clear();
+      for (int i=0; i<npairs; i++) {
+         if (intersects[i]) {
+            nodes0.add (pairs0[i]);
+            nodes1.add (pairs1[i]);
+         }
+      }
+   }
+
+   /**
+    * Returns <code>true</code> if any primary edge of the faces in
+    * <code>elems1</code> intersects any face in <code>elems0</code>. The
+    * edge/face pairs are tested in the same way as in {@link
+    * #findIntersectionContours(ArrayList,Boundable[],Boundable[],boolean)},
+    * but no intersection data is stored, so this method may be called from
+    * multiple threads.
+    */
+   private boolean elementsIntersect (
+      Boundable[] elems0, Boundable[] elems1,
+      IntersectionPoint mip, boolean edgeOnMesh0) {
+
+      for (Boundable elem1 : elems1) {
+         if (elem1 instanceof Face) {
+            Face f1 = (Face)elem1;
+            HalfEdge he0 = f1.firstHalfEdge();
+            HalfEdge he = he0;
+            do {
+               if (he.isPrimary()) {
+                  for (Boundable elem0 : elems0) {
+                     if (elem0 instanceof Face &&
+                         intersectEdgeFace (
+                            he.getPrimary(), (Face)elem0, mip, edgeOnMesh0)) {
+                        return true;
+                     }
+                  }
+               }
+               he = he.getNext();
+            }
+            while (he != he0);
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Tries to recover a contour from a set of seed edge/face pairs that
+    * intersected during a previous query. Each seed is tested together with
+    * the edges adjacent to it and the faces adjacent to its face, since small
+    * relative motions will typically move the intersection to a neighboring
+    * pair. Returns <code>true</code> if a contour was traced, or if one of the
+    * seeds already lies on a contour traced from some other seed set.
+    */
+   private boolean findContourFromSeeds (
+      ArrayList<IntersectionContour> contours, EdgeFacePair[] seeds) {
+
+      EdgeFacePair edgeFacePair = new EdgeFacePair();
+      ArrayList<HalfEdge> edges = new ArrayList<HalfEdge>(7);
+      ArrayList<Face> faces = new ArrayList<Face>(4);
+      for (EdgeFacePair seed : seeds) {
+         HalfEdge edge = seed.myEdge;
+         Face face = seed.myFace;
+         if (!isCurrentFace (edge.getFace()) || !isCurrentFace (face)) {
+            // mesh has been modified since the seed was stored
+            continue;
+         }
+         boolean edgeOnMesh0 = edgeOnMesh (edge, myMesh0);
+         edges.clear();
+         edges.add (edge);
+         addPrimaryEdges (edges, edge.getFace());
+         if (edge.opposite != null) {
+            addPrimaryEdges (edges, edge.opposite.getFace());
+         }
+         faces.clear();
+         faces.add (face);
+         HalfEdge he0 = face.firstHalfEdge();
+         HalfEdge he = he0;
+         do {
+            if (he.opposite != null && he.opposite.getFace() != null) {
+               faces.add (he.opposite.getFace());
+            }
+            he = he.getNext();
+         }
+         while (he != he0);
+
+         for (HalfEdge e : edges) {
+            for (Face f : faces) {
+               edgeFacePair.set (e, f);
+               if (myEdgeFaceIntersections.get (edgeFacePair) != null) {
+                  return true;
+               }
+               if (intersectEdgeFace (e, f, myWorkPoint, edgeOnMesh0)) {
+                  IntersectionContour c =
+                     findIntersectionContour (e, f, edgeOnMesh0);
+                  if (c != null) {
+                     contours.add (c);
+                     return true;
+                  }
+               }
+            }
+         }
+      }
+      return false;
+   }
+
+   private void addPrimaryEdges (ArrayList<HalfEdge> edges, Face face) {
+      if (face != null) {
+         HalfEdge he0 = face.firstHalfEdge();
+         HalfEdge he = he0;
+         do {
+            HalfEdge primary = he.getPrimary();
+            if (!edges.contains (primary)) {
+               edges.add (primary);
+            }
+            he = he.getNext();
+         }
+         while (he != he0);
+      }
+   }
+
+   private boolean isCurrentFace (Face face) {
+      if (face == null) {
+         return false;
+      }
+      PolygonalMesh mesh = face.getMesh();
+      if (mesh != myMesh0 && mesh != myMesh1) {
+         return false;
+      }
+      int idx = face.getIndex();
+      return idx >= 0 && idx < mesh.numFaces() && mesh.getFace(idx) == face;
+   }
+
+   private ContourCache getContourCache (
+      PolygonalMesh mesh0, PolygonalMesh mesh1) {
+      MeshPair key = new MeshPair (mesh0, mesh1);
+      ContourCache cache = myContourCaches.get (key);
+      if (cache != null && cache.myLastPass == myQueryPass) {
+         // pair already queried in this pass, so start a new pass and
+         // release the caches of pairs not queried in the previous one
+         myQueryPass++;
+         Iterator<ContourCache> it = myContourCaches.values().iterator();
+         while (it.hasNext()) {
+            if (it.next().myLastPass < myQueryPass-1) {
+               it.remove();
+            }
+         }
+      }
+      if (cache == null) {
+         cache = new ContourCache();
+         myContourCaches.put (key, cache);
+      }
+      cache.myLastPass = myQueryPass;
+      return cache;
+   }
+
+   /**
+    * Enables or disables contour caching. When enabled, the edge/face pairs
+    * of the contours found for each pair of meshes are remembered and used to
+    * seed the contour search the next time the same meshes are queried, which
+    * exploits the temporal coherence of simulations in which the meshes move
+    * only slightly between steps. The full bounding volume hierarchy search is
+    * still performed whenever any cached contour cannot be recovered, and
+    * otherwise at least once every {@link #getFullSearchInterval} calls.
+    * Self-intersection queries are never cached. The cache for a mesh pair
+    * is released once the pair has not been queried for a full query pass,
+    * where a new pass begins each time some pair is queried for the second
+    * time in the current one, such as at the start of each simulation step.
+    *
+    * @param enable if <code>true</code>, enables contour caching
+    */
+   public void setContourCachingEnabled (boolean enable) {
+      if (enable != myContourCachingEnabled) {
+         myContourCachingEnabled = enable;
+         clearContourCache();
+      }
+   }
+
+   /**
+    * Queries whether contour caching is enabled.
+    *
+    * @return <code>true</code> if contour caching is enabled
+    * @see #setContourCachingEnabled
+    */
+   public boolean getContourCachingEnabled() {
+      return myContourCachingEnabled;
+   }
+
+   /**
+    * Sets the maximum number of consecutive calls to {@link #findContours}
+    * for a given mesh pair that may go by without a full bounding volume
+    * hierarchy search, when contour caching is enabled and all cached
+    * contours have been recovered. A value of 1 (or less) means that the full
+    * search is always performed, so that the results are identical to those
+    * obtained without caching. Larger values save more time, at the expense
+    * that a new contour which is not connected to any previous one may be
+    * detected up to <code>interval-1</code> calls late.
+    *
+    * @param interval maximum number of calls between full searches
+    */
+   public void setFullSearchInterval (int interval) {
+      myFullSearchInterval = interval;
+   }
+
+   /**
+    * Queries the maximum number of calls between full searches when contour
+    * caching is enabled.
+    *
+    * @return maximum number of calls between full searches
+    * @see #setFullSearchInterval
+    */
+   public int getFullSearchInterval() {
+      return myFullSearchInterval;
+   }
+
+   /**
+    * Enables or disables parallel contour searching. When enabled, the
+    * bounding volume hierarchy search used by {@link #findContours} is split
+    * across pairs of subtrees, and the resulting candidate node pairs are
+    * screened in parallel so that only those containing an actual edge/face
+    * intersection are passed to the (serial) contour tracing. The contours
+    * found are identical to those of the serial search. Parallel searching is
+    * disabled by default, and has no effect when only one thread is
+    * available.
+    *
+    * @param enable if <code>true</code>, enables parallel searching
+    */
+   public void setParallelSearchEnabled (boolean enable) {
+      myParallelSearchEnabled = enable;
+   }
+
+   /**
+    * Queries whether parallel contour searching is enabled.
+    *
+    * @return <code>true</code> if parallel searching is enabled
+    * @see #setParallelSearchEnabled
+    */
+   public boolean getParallelSearchEnabled() {
+      return myParallelSearchEnabled;
+   }
+
+   /**
+    * Clears all cached contour information.
+    */
+   public void clearContourCache() {
+      myContourCaches.clear();
+   }
+
+   /**
+    * Returns the number of cached contours that were recovered from their
+    * seeds since the last call to {@link #clearCacheStatistics}.
+    *
+    * @return number of cached contours recovered
+    */
+   public int getNumCacheHits() {
+      return myNumCacheHits;
+   }
+
+   /**
+    * Returns the number of cached contours that could not be recovered from
+    * their seeds since the last call to {@link #clearCacheStatistics}.
+    *
+    * @return number of cached contours not recovered
+    */
+   public int getNumCacheMisses() {
+      return myNumCacheMisses;
+   }
+
+   /**
+    * Returns the fraction of cached contours that were recovered from their
+    * seeds, or 0 if no cached contours have been searched for.
+    *
+    * @return cache hit rate
+    */
+   public double getCacheHitRate() {
+      int total = myNumCacheHits + myNumCacheMisses;
+      return total > 0 ? myNumCacheHits/(double)total : 0;
+   }
+
+   /**
+    * Returns the number of cached queries, i.e., calls to {@link
+    * #findContours} for which cached contours were available.
+    *
+    * @return number of cached queries
+    */
+   public int getNumCacheSearches() {
+      return myNumCacheSearches;
+   }
+
+   /**
+    * Returns the number of full bounding volume hierarchy searches performed
+    * while contour caching was enabled.
+    *
+    * @return number of full searches
+    */
+   public int getNumFullSearches() {
+      return myNumFullSearches;
+   }
+
+   /**
+    * Returns the number of full bounding volume hierarchy searches that were
+    * skipped because all cached contours were recovered.
+    *
+    * @return number of full searches skipped
+    */
+   public int getNumFullSearchesSkipped() {
+      return myNumFullSearchesSkipped;
+   }
+
+   /**
+    * Returns an estimate of the time saved by skipping full searches, in
+    * seconds. Each skipped search is assumed to have cost as much as the most
+    * recent full search for the same mesh pair.
+    *
+    * @return estimated time saved (seconds)
+    */
+   public double getCacheTimeSaved() {
+      return 1e-9*myCacheTimeSaved;
+   }
+
+   /**
+    * Clears the contour caching statistics.
+    */
+   public void clearCacheStatistics() {
+      myNumCacheSearches = 0;
+      myNumCacheHits = 0;
+      myNumCacheMisses = 0;
+      myNumFullSearches = 0;
+      myNumFullSearchesSkipped = 0;
+      myCacheTimeSaved = 0;
+   }
+
    /**
     * Finds either the <i>inside</i> or <i>outside</i> penetration regions for
     * the meshes and contours associated with the most recent call to either
@@ -2272,10 +2790,25 @@ public class SurfaceMeshIntersector {
       ArrayList<BVNode> nodes0, ArrayList<BVNode> nodes1) {
       ArrayList<IntersectionContour> contours =
          new ArrayList<IntersectionContour>();
+      initializeContourSearch();
+      findIntersectionContours (contours, nodes0, nodes1);
+      finishIntersectionContours (contours);
+      return contours;
+   }
+
+   /**
+    * Clears the per-query intersection data prior to searching for contours.
+    */
+   private void initializeContourSearch() {
       myEdgeFaceIntersections.clear();
       myEdgeInfos.clear();
       myFaceCalcs0 = new FaceCalculator[myMesh0.numFaces()];
       myFaceCalcs1 = new FaceCalculator[myMesh1.numFaces()];
+   }
+
+   private void findIntersectionContours (
+      ArrayList<IntersectionContour> contours,
+      ArrayList<BVNode> nodes0, ArrayList<BVNode> nodes1) {
 
       for (int i = 0; i < nodes0.size(); i++) {
          BVNode node0 = nodes0.get (i);
@@ -2291,6 +2824,15 @@ public class SurfaceMeshIntersector {
                /*edgeOnMesh0=*/false);
          }
       }
+   }
+
+   /**
+    * Orients the contours found by a query and checks their coincident
+    * points.
+    */
+   private void finishIntersectionContours (
+      ArrayList<IntersectionContour> contours) {
+
       myContours = contours; // myContours is used for debugging
       // make each contour counterClockwise with respect to mesh0
       for (IntersectionContour c : contours) {
@@ -2311,8 +2853,6 @@ public class SurfaceMeshIntersector {
             }
          }
       }
-      
-      return contours;
    }
 
    /**
@@ -2753,6 +2753,154 @@ public class SurfaceMeshIntersectorTest extends UnitTest {
       checkDifferenceTopology = CLOSED;
    }
 
+   private int[] getSortedContourSizes (
+      ArrayList<IntersectionContour> contours) {
+      int[] sizes = new int[contours.size()];
+      for (int i=0; i<sizes.length; i++) {
+         sizes[i] = contours.get(i).size();
+      }
+      Arrays.sort (sizes);
+      return sizes;
+   }
+
+   /**
+    * Moves one sphere across the surface of another in small steps and
+    * checks that contour caching gives the same contours as an uncached
+    * intersector.
+    */
+   public void contourCachingTests() {
+
+      System.out.println ("Contour caching tests:");
+
+      SurfaceMeshIntersector smi = new SurfaceMeshIntersector();
+      SurfaceMeshIntersector smiCached = new SurfaceMeshIntersector();
+      SurfaceMeshIntersector smiSkipping = new SurfaceMeshIntersector();
+      smiCached.setContourCachingEnabled (true);
+      smiCached.setFullSearchInterval (1);
+      smiSkipping.setContourCachingEnabled (true);
+      smiSkipping.setFullSearchInterval (4);
+
+      PolygonalMesh sphere0 = MeshFactory.createIcosahedralSphere (1.0, 3);
+      PolygonalMesh sphere1 = MeshFactory.createIcosahedralSphere (0.7, 3);
+
+      // query another pair once; its cache should be released after the
+      // pass in which it is not queried
+      PolygonalMesh sphere2 = MeshFactory.createIcosahedralSphere (0.5, 2);
+      smiCached.findContours (sphere0, sphere2);
+
+      int numSteps = 100;
+      RigidTransform3d T = new RigidTransform3d();
+      for (int i=0; i<=numSteps; i++) {
+         double s = i/(double)numSteps;
+         T.p.set (-1.4+2.8*s, 0.9, 0.05);
+         T.R.setAxisAngle (0, 0, 1, Math.PI*s);
+         sphere1.setMeshToWorld (T);
+         ArrayList<IntersectionContour> check =
+            smi.findContours (sphere0, sphere1);
+         ArrayList<IntersectionContour> contours =
+            smiCached.findContours (sphere0, sphere1);
+         if (!Arrays.equals (
+                getSortedContourSizes (contours),
+                getSortedContourSizes (check))) {
+            throw new TestException (
+               "Cached contours differ from uncached contours at step " + i);
+         }
+         contours = smiSkipping.findContours (sphere0, sphere1);
+         if (contours.size() != check.size()) {
+            throw new TestException (
+               "Contour count with skipped searches is " + contours.size() +
+               ", expected " + check.size() + ", at step " + i);
+         }
+      }
+      if (smiCached.myContourCaches.size() != 1) {
+         throw new TestException (
+            "Number of contour caches is " + smiCached.myContourCaches.size() +
+            ", expected 1");
+      }
+      if (smiCached.getNumFullSearchesSkipped() != 0) {
+         throw new TestException (
+            "Full searches skipped with a search interval of 1");
+      }
+      if (smiCached.getCacheHitRate() < 0.9) {
+         throw new TestException (
+            "Cache hit rate is " + smiCached.getCacheHitRate() +
+            ", expected >= 0.9");
+      }
+      if (smiSkipping.getNumFullSearchesSkipped() == 0) {
+         throw new TestException ("No full searches were skipped");
+      }
+      System.out.println (
+         "  cache hit rate=" + smiSkipping.getCacheHitRate() +
+         ", searches skipped=" + smiSkipping.getNumFullSearchesSkipped() +
+         "/" + smiSkipping.getNumCacheSearches());
+   }
+
+   /**
+    * Checks that parallel contour searching gives the same contours as a
+    * serial search, and that batch Dice computations match individual ones.
+    */
+   public void parallelSearchTests() {
+
+      System.out.println ("Parallel search tests:");
+
+      SurfaceMeshIntersector smi = new SurfaceMeshIntersector();
+      SurfaceMeshIntersector smiParallel = new SurfaceMeshIntersector();
+      check ("parallel search enabled by default",
+             !smi.getParallelSearchEnabled());
+      smi.setParallelSearchEnabled (false);
+      smiParallel.setParallelSearchEnabled (true);
+      int saveGrain = SurfaceMeshIntersector.parallelGrainSize;
+      SurfaceMeshIntersector.parallelGrainSize = 4;
+
+      PolygonalMesh sphere0 = MeshFactory.createIcosahedralSphere (1.0, 4);
+      PolygonalMesh sphere1 = MeshFactory.createIcosahedralSphere (0.7, 3);
+      ArrayList<PolygonalMesh> meshes = new ArrayList<PolygonalMesh>();
+
+      int numSteps = 20;
+      for (int i=0; i<=numSteps; i++) {
+         double s = i/(double)numSteps;
+         RigidTransform3d T = new RigidTransform3d();
+         T.p.set (-1.4+2.8*s, 0.9, 0.05);
+         T.R.setAxisAngle (0, 0, 1, Math.PI*s);
+         sphere1.setMeshToWorld (T);
+         ArrayList<IntersectionContour> check =
+            smi.findContours (sphere0, sphere1);
+         ArrayList<IntersectionContour> contours =
+            smiParallel.findContours (sphere0, sphere1);
+         if (!Arrays.equals (
+                getSortedContourSizes (contours),
+                getSortedContourSizes (check))) {
+            throw new TestException (
+               "Parallel contours differ from serial contours at step " + i);
+         }
+         PolygonalMesh mesh = sphere1.copy();
+         mesh.transform (T);
+         mesh.setMeshToWorld (RigidTransform3d.IDENTITY);
+         meshes.add (mesh);
+      }
+      SurfaceMeshIntersector.parallelGrainSize = saveGrain;
+
+      maspack.geometry.CSG csg = new maspack.geometry.CSG();
+      csg.prepareMesh (sphere0);
+      double[] dice = csg.computeDice (sphere0, meshes);
+      for (int i=0; i<meshes.size(); i++) {
+         double check =
+            new maspack.geometry.CSG().computeDice (sphere0, meshes.get(i));
+         if (Math.abs (dice[i]-check) > 1e-12) {
+            throw new TestException (
+               "Batch Dice coefficient " + dice[i] + " for mesh " + i +
+               ", expected " + check);
+         }
+         if (csg.isMeshPrepared (meshes.get(i))) {
+            throw new TestException (
+               "Mesh " + i + " still prepared after batch computation");
+         }
+      }
+      if (!csg.isMeshPrepared (sphere0)) {
+         throw new TestException ("Reference mesh no longer prepared");
+      }
+   }
+
    private boolean isInterior (Vertex3d v) {
       Iterator<HalfEdge> it = v.getIncidentHalfEdges();
       while (it.hasNext()) {
@@ -3413,6 +3561,8 @@ public class SurfaceMeshIntersectorTest extends UnitTest {
          openContourTests();
          singleFaceTests();
          crownCylinderTests();
+         contourCachingTests();
+         parallelSearchTests();
       }
       else {
          crownCylinderTests();
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.concurrency;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Executes loops over an index range in parallel, using the common fork-join
+ * pool. The range is split recursively into chunks which are processed by
+ * a {@link RangeBody}. Ranges that are smaller than a specified grain size,
+ * or calls made when parallelism is not available, are executed serially in
+ * the calling thread.
+ */
+public class ParallelLoop {
+
+   /**
+    * Processes a contiguous chunk of a loop's index range.
+    */
+   public interface RangeBody {
+      /**
+       * Processes the indices {@code i} such that {@code i0 <= i < i1}.
+       *
+       * @param i0 first index of the chunk
+       * @param i1 index after the last index of the chunk
+       */
+      void apply (int i0, int i1);
+   }
+
+   private static class RangeTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      int myLo;
+      int myHi;
+      int myGrain;
+      RangeBody myBody;
+
+      RangeTask (int lo, int hi, int grain, RangeBody body) {
+         myLo = lo;
+         myHi = hi;
+         myGrain = grain;
+         myBody = body;
+      }
+
+      protected void compute() {
+         if (myHi-myLo <= myGrain) {
+            myBody.apply (myLo, myHi);
+         }
+         else {
+            int mid = (myLo+myHi) >>> 1;
+            invokeAll (
+               new RangeTask (myLo, mid, myGrain, myBody),
+               new RangeTask (mid, myHi, myGrain, myBody));
+         }
+      }
+   }
+
+   /**
+    * Returns the number of threads available for parallel loops.
+    *
+    * @return number of available threads
+    */
+   public static int getParallelism() {
+      return ForkJoinPool.getCommonPoolParallelism();
+   }
+
+   /**
+    * Applies a body to the index range {@code [0, n)}, in parallel if
+    * {@code n} exceeds the grain size. The body must be safe to call
+    * concurrently on disjoint chunks.
+    *
+    * @param n number of indices
+    * @param grain minimum chunk size for parallel execution. The range is
+    * not split into chunks smaller than this.
+    * @param body processes each chunk
+    */
+   public static void forRange (int n, int grain, RangeBody body) {
+      forRange (0, n, grain, body);
+   }
+
+   /**
+    * Applies a body to the index range {@code [lo, hi)}, in parallel if the
+    * range exceeds the grain size. The body must be safe to call
+    * concurrently on disjoint chunks.
+    *
+    * @param lo first index of the range
+    * @param hi index after the last index of the range
+    * @param grain minimum chunk size for parallel execution. The range is
+    * not split into chunks smaller than this.
+    * @param body processes each chunk
+    */
+   public static void forRange (int lo, int hi, int grain, RangeBody body) {
+      if (hi <= lo) {
+         return;
+      }
+      grain = Math.max (1, grain);
+      int nthreads = getParallelism();
+      if (hi-lo <= grain || nthreads <= 1) {
+         body.apply (lo, hi);
+      }
+      else {
+         // don't create many more chunks than are needed for load balancing
+         grain = Math.max (grain, (hi-lo)/(8*nthreads));
+         new RangeTask (lo, hi, grain, body).invoke();
+      }
+   }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.concurrency;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer for passing snapshots of data from a single
+ * producer thread to a single consumer thread. The producer fills the
+ * <i>back</i> buffer and then calls {@link #publish}, which exchanges it with
+ * the <i>middle</i> buffer. The consumer calls {@link #update}, which
+ * exchanges the <i>front</i> buffer with the middle buffer if a new snapshot
+ * has been published since the last update, and then reads the front buffer.
+ *
+ * <p>Neither side ever waits for the other. The consumer always sees the
+ * latest complete snapshot, and a buffer is never written by the producer
+ * while it is the consumer's front buffer, so the contents of the front
+ * buffer remain consistent until the next call to {@link #update}.
+ * Snapshots published faster than they are consumed are simply skipped.
+ *
+ * <p>The buffers themselves may either be preallocated objects that are
+ * refilled by the producer, or new objects assigned by the producer using
+ * {@link #setBack}.
+ */
+public class TripleBuffer<T> {
+
+   // the state packs the index of the middle buffer in bits 0-1, and a flag
+   // indicating that the middle buffer contains an unread snapshot in bit 2
+   private static final int FRESH = 0x4;
+   private static final int INDEX_MASK = 0x3;
+
+   private Object[] myBuffers = new Object[3];
+   private long[] myStamps = new long[3];
+   private AtomicInteger myState = new AtomicInteger (1);
+   private int myBack = 0;  // accessed only by the producer
+   private int myFront = 2; // accessed only by the consumer
+   private long myPublishCount = 0;
+
+   /**
+    * Creates a triple buffer whose buffers are initially {@code null}.
+    */
+   public TripleBuffer() {
+   }
+
+   /**
+    * Creates a triple buffer with three preallocated buffers.
+    *
+    * @param b0 first buffer
+    * @param b1 second buffer
+    * @param b2 third buffer
+    */
+   public TripleBuffer (T b0, T b1, T b2) {
+      myBuffers[0] = b0;
+      myBuffers[1] = b1;
+      myBuffers[2] = b2;
+   }
+
+   /**
+    * Returns the back buffer, which should be filled by the producer before
+    * calling {@link #publish}. Should only be called by the producer.
+    *
+    * @return back buffer
+    */
+   @SuppressWarnings("unchecked")
+   public T getBack() {
+      return (T)myBuffers[myBack];
+   }
+
+   /**
+    * Replaces the back buffer. Should only be called by the producer.
+    *
+    * @param buf new back buffer
+    */
+   public void setBack (T buf) {
+      myBuffers[myBack] = buf;
+   }
+
+   /**
+    * Publishes the back buffer as the latest snapshot. The previous middle
+    * buffer becomes the new back buffer. Should only be called by the
+    * producer.
+    *
+    * @return sequence number of the published snapshot, starting at 1
+    */
+   public long publish() {
+      myStamps[myBack] = ++myPublishCount;
+      // release semantics of getAndSet ensure the buffer contents are
+      // visible to the consumer before the exchange
+      int old = myState.getAndSet (myBack | FRESH);
+      myBack = old & INDEX_MASK;
+      return myPublishCount;
+   }
+
+   /**
+    * Makes the latest published snapshot the front buffer, if a new snapshot
+    * has been published since the last call. Should only be called by the
+    * consumer.
+    *
+    * @return {@code true} if the front buffer was changed
+    */
+   public boolean update() {
+      if ((myState.get() & FRESH) == 0) {
+         return false;
+      }
+      int old = myState.getAndSet (myFront);
+      myFront = old & INDEX_MASK;
+      return true;
+   }
+
+   /**
+    * Returns the front buffer, containing the latest snapshot obtained by
+    * {@link #update}, or the initial buffer if no snapshot has been obtained.
+    * Should only be called by the consumer.
+    *
+    * @return front buffer
+    */
+   @SuppressWarnings("unchecked")
+   public T getFront() {
+      return (T)myBuffers[myFront];
+   }
+
+   /**
+    * Returns the sequence number of the snapshot in the front buffer, or 0 if
+    * no snapshot has been obtained. Should only be called by the consumer.
+    *
+    * @return front buffer sequence number
+    */
+   public long getFrontStamp() {
+      return myStamps[myFront];
+   }
+
+   /**
+    * Queries whether a snapshot has been published that has not yet been
+    * obtained by {@link #update}.
+    *
+    * @return {@code true} if an unread snapshot is available
+    */
+   public boolean hasUpdate() {
+      return (myState.get() & FRESH) != 0;
+   }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.concurrency;
+
+import maspack.util.*;
+
+/**
+ * Checks snapshot consistency for TripleBuffer, using concurrent producer
+ * and consumer threads. Each snapshot published by the producer fills a
+ * buffer with its sequence number, and the consumer checks that every
+ * snapshot it sees is complete, untorn, and no older than the previous one.
+ */
+public class TripleBufferTest extends UnitTest {
+
+   static final int BUFSIZE = 4096;
+
+   volatile Throwable myProducerError;
+
+   void checkSnapshot (int[] buf, long stamp, long lastStamp) {
+      if (stamp < lastStamp) {
+         throw new TestException (
+            "snapshot " + stamp + " older than previous snapshot " + lastStamp);
+      }
+      for (int i=0; i<buf.length; i++) {
+         if (buf[i] != (int)stamp) {
+            throw new TestException (
+               "snapshot " + stamp + " is inconsistent: entry " + i +
+               " has value " + buf[i]);
+         }
+      }
+   }
+
+   void testConcurrent (final int numFrames, final boolean reuseBuffers) {
+      final TripleBuffer<int[]> tbuf;
+      if (reuseBuffers) {
+         tbuf = new TripleBuffer<int[]> (
+            new int[BUFSIZE], new int[BUFSIZE], new int[BUFSIZE]);
+      }
+      else {
+         tbuf = new TripleBuffer<int[]>();
+      }
+      myProducerError = null;
+      Thread producer = new Thread() {
+            public void run() {
+               try {
+                  for (int k=1; k<=numFrames; k++) {
+                     int[] buf = tbuf.getBack();
+                     if (!reuseBuffers) {
+                        buf = new int[BUFSIZE];
+                        tbuf.setBack (buf);
+                     }
+                     for (int i=0; i<buf.length; i++) {
+                        buf[i] = k;
+                     }
+                     long stamp = tbuf.publish();
+                     if (stamp != k) {
+                        throw new TestException (
+                           "publish returned " + stamp + ", expected " + k);
+                     }
+                  }
+               }
+               catch (Throwable e) {
+                  myProducerError = e;
+               }
+            }
+         };
+      producer.start();
+      long lastStamp = 0;
+      int numSeen = 0;
+      while (producer.isAlive() || tbuf.hasUpdate()) {
+         if (tbuf.update()) {
+            long stamp = tbuf.getFrontStamp();
+            checkSnapshot (tbuf.getFront(), stamp, lastStamp);
+            lastStamp = stamp;
+            numSeen++;
+         }
+      }
+      try {
+         producer.join();
+      }
+      catch (InterruptedException e) {
+         throw new TestException ("interrupted");
+      }
+      if (myProducerError != null) {
+         throw new TestException ("producer failed: " + myProducerError);
+      }
+      // the final snapshot must always be seen
+      if (!tbuf.update() && lastStamp != numFrames) {
+         throw new TestException (
+            "last snapshot seen was " + lastStamp + ", expected " + numFrames);
+      }
+      checkSnapshot (tbuf.getFront(), tbuf.getFrontStamp(), lastStamp);
+      if (numSeen == 0) {
+         throw new TestException ("no snapshots seen");
+      }
+   }
+
+   void testSequential() {
+      TripleBuffer<String> tbuf = new TripleBuffer<String>();
+      if (tbuf.update() || tbuf.getFront() != null) {
+         throw new TestException ("initial buffer not empty");
+      }
+      tbuf.setBack ("a");
+      tbuf.publish();
+      tbuf.setBack ("b");
+      tbuf.publish();
+      if (!tbuf.update()) {
+         throw new TestException ("update not detected");
+      }
+      checkEquals ("front", tbuf.getFront(), "b");
+      checkEquals ("front stamp", tbuf.getFrontStamp(), 2L);
+      if (tbuf.update()) {
+         throw new TestException ("spurious update");
+      }
+      checkEquals ("front", tbuf.getFront(), "b");
+   }
+
+   public void test() {
+      testSequential();
+      testConcurrent (20000, true);
+      testConcurrent (5000, false);
+   }
+
+   public static void main (String[] args) {
+      TripleBufferTest tester = new TripleBufferTest();
+      tester.runtest();
+   }
+}
@@ -8,6 +8,7 @@ package maspack.geometry;
 
 import java.util.*;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.matrix.*;
 
 /**
@@ -19,16 +20,123 @@ public class BVIntersector {
 
    TriangleIntersector myTriIntersector;
 
-   // vectors for storing transformed triangle vertices
-   Point3d myP0;
-   Point3d myP1;
-   Point3d myP2;
+   // scratch state for triangle-triangle tests performed by this thread
+   TriTriWorker myTriTriWorker;
+
+   // if true, mesh-mesh intersections are computed in parallel
+   boolean myParallelEnabled = false;
+
+   /**
+    * Minimum number of intersecting leaf node pairs handled by each thread
+    * when their triangles are intersected in parallel.
+    */
+   public static int parallelGrainSize = 16;
+
+   /**
+    * Scratch state for intersecting the triangles of pairs of leaf nodes.
+    * Each thread performing triangle-triangle tests uses its own instance,
+    * which is reused from one test to the next.
+    */
+   static class TriTriWorker {
+
+      TriangleIntersector myIntersector;
+      // transformed vertices of the faces in the second node, three per face
+      Point3d[] myPnts = new Point3d[0];
+
+      TriTriWorker (TriangleIntersector intersector) {
+         myIntersector = intersector;
+      }
+
+      private void ensurePointCapacity (int cap) {
+         if (myPnts.length < cap) {
+            Point3d[] pnts = new Point3d[Math.max (cap, 2*myPnts.length)];
+            for (int i=0; i<pnts.length; i++) {
+               pnts[i] = (i < myPnts.length ? myPnts[i] : new Point3d());
+            }
+            myPnts = pnts;
+         }
+      }
+
+      void intersectTriangles (
+         ArrayList<TriTriIntersection> intersections,
+         BVNode node1, BVNode node2, RigidTransform3d X21) {
+
+         Boundable[] elems1 = node1.getElements();
+         Boundable[] elems2 = node2.getElements();
+
+         // transform the vertices of the faces in node2 once, instead of
+         // once per face in node1
+         ensurePointCapacity (3*elems2.length);
+         for (int k1 = 0; k1 < elems2.length; k1++) {
+            if (elems2[k1] instanceof Face) {
+               HalfEdge he = ((Face)elems2[k1]).firstHalfEdge();
+               myPnts[3*k1].transform (X21, he.head.pnt);
+               he = he.getNext();
+               myPnts[3*k1+1].transform (X21, he.head.pnt);
+               he = he.getNext();
+               myPnts[3*k1+2].transform (X21, he.head.pnt);
+            }
+         }
+         for (int k0 = 0; k0 < elems1.length; k0++) {
+
+            if (elems1[k0] instanceof Face) {
+               Face face0 = (Face)elems1[k0];
+
+               HalfEdge he;
+               he = face0.firstHalfEdge();
+               Point3d p0 = he.head.pnt;
+               he = he.getNext();
+               Point3d p1 = he.head.pnt;
+               he = he.getNext();
+               Point3d p2 = he.head.pnt;
+
+               for (int k1 = 0; k1 < elems2.length; k1++) {
+                  if (elems2[k1] instanceof Face) {
+                     Point3d[] points =
+                        myIntersector.intersectTriangleTriangle (
+                           p0, p1, p2,
+                           myPnts[3*k1], myPnts[3*k1+1], myPnts[3*k1+2]);
+                     if (points != null) {
+                        // intersections are now in coords of first mesh
+                        intersections.add (
+                           new TriTriIntersection (
+                              face0, (Face)elems2[k1], points));
+                     }
+                  }
+               }
+            }
+         }
+      }
+   }
 
    public BVIntersector () {
       myTriIntersector = new TriangleIntersector();
-      myP0 = new Point3d();
-      myP1 = new Point3d();
-      myP2 = new Point3d();
+      myTriTriWorker = new TriTriWorker (myTriIntersector);
+   }
+
+   /**
+    * Enables or disables parallel computation of mesh-mesh intersections.
+    * When enabled, the hierarchies are intersected using {@link
+    * BVTree#intersectTreeInParallel}, and the triangles of the resulting leaf
+    * node pairs are then intersected in parallel. The results are merged in
+    * the same order as that produced by the serial computation. Parallel
+    * computation is only used for {@link AABBTree}s and {@link OBBTree}s.
+    *
+    * @param enable if <code>true</code>, enables parallel computation
+    */
+   public void setParallelEnabled (boolean enable) {
+      myParallelEnabled = enable;
+   }
+
+   /**
+    * Queries whether parallel computation of mesh-mesh intersections is
+    * enabled.
+    *
+    * @return <code>true</code> if parallel computation is enabled
+    * @see #setParallelEnabled
+    */
+   public boolean getParallelEnabled() {
+      return myParallelEnabled;
    }
 
    /**
@@ -90,10 +198,15 @@ public class BVIntersector {
       ArrayList<BVNode> nodes1 = new ArrayList<BVNode>();
       ArrayList<BVNode> nodes2 = new ArrayList<BVNode>();
 
-      bvh1.intersectTree (nodes1, nodes2, bvh2, X21);
-      for (int i=0; i<nodes1.size(); i++) {
-         intersectBoundingVolumeTriangles (
-            intersections, nodes1.get(i), nodes2.get(i), X21);
+      if (myParallelEnabled && isBoxTree (bvh1) && isBoxTree (bvh2)) {
+         intersectTreesInParallel (intersections, bvh1, bvh2, X21, tol);
+      }
+      else {
+         bvh1.intersectTree (nodes1, nodes2, bvh2, X21);
+         for (int i=0; i<nodes1.size(); i++) {
+            intersectBoundingVolumeTriangles (
+               intersections, nodes1.get(i), nodes2.get(i), X21);
+         }
       }
 
       RigidTransform3d X1W = bvh1.getBvhToWorld();
@@ -109,6 +222,55 @@ public class BVIntersector {
       return intersections.size() != 0;
    }
 
+   private boolean isBoxTree (BVTree bvh) {
+      return (bvh instanceof AABBTree) || (bvh instanceof OBBTree);
+   }
+
+   /**
+    * Parallel implementation of the tree-tree intersection. The leaf node
+    * pairs are found using {@link BVTree#intersectTreeInParallel}, and
+    * contiguous ranges of pairs are then intersected by separate threads,
+    * each with its own triangle intersector. Concatenating the range results
+    * in pair order gives the same result as the serial code.
+    */
+   private void intersectTreesInParallel (
+      ArrayList<TriTriIntersection> intersections,
+      BVTree bvh1, BVTree bvh2, RigidTransform3d X21, double eps) {
+
+      ArrayList<BVNode> nodes1 = new ArrayList<BVNode>();
+      ArrayList<BVNode> nodes2 = new ArrayList<BVNode>();
+      bvh1.intersectTreeInParallel (nodes1, nodes2, bvh2, X21);
+
+      int npairs = nodes1.size();
+      if (npairs <= parallelGrainSize) {
+         for (int i=0; i<npairs; i++) {
+            intersectBoundingVolumeTriangles (
+               intersections, nodes1.get(i), nodes2.get(i), X21);
+         }
+         return;
+      }
+      // results for each range, stored at the range's first pair index
+      @SuppressWarnings("unchecked")
+      ArrayList<TriTriIntersection>[] results = new ArrayList[npairs];
+      ParallelLoop.forRange (npairs, parallelGrainSize, (i0, i1) -> {
+         TriangleIntersector intersector = new TriangleIntersector();
+         intersector.setEpsilon (eps);
+         TriTriWorker worker = new TriTriWorker (intersector);
+         ArrayList<TriTriIntersection> list =
+            new ArrayList<TriTriIntersection>();
+         for (int i=i0; i<i1; i++) {
+            worker.intersectTriangles (
+               list, nodes1.get(i), nodes2.get(i), X21);
+         }
+         results[i0] = list;
+      });
+      for (int i=0; i<npairs; i++) {
+         if (results[i] != null) {
+            intersections.addAll (results[i]);
+         }
+      }
+   }
+
    /**
     * Intersects the faces of a triangular mesh with a plane. The process is
     * accelerated using the default bounding volume hierarchy of the mesh.
@@ -242,46 +404,7 @@ public class BVIntersector {
       ArrayList<TriTriIntersection> intersections,
       BVNode node1, BVNode node2, RigidTransform3d X21) {
 
-      Boundable[] elems1 = node1.getElements();
-      Boundable[] elems2 = node2.getElements();
-
-      for (int k0 = 0; k0 < elems1.length; k0++) {
-
-         if (elems1[k0] instanceof Face) {
-            Face face0 = (Face)elems1[k0];
-
-            HalfEdge he;
-            he = face0.firstHalfEdge();
-            Point3d p0 = he.head.pnt;
-            he = he.getNext();
-            Point3d p1 = he.head.pnt;
-            he = he.getNext();
-            Point3d p2 = he.head.pnt;
-
-            for (int k1 = 0; k1 < elems2.length; k1++) {
-               if (elems2[k1] instanceof Face) {
-                  Face face1 = (Face)elems2[k1];
-                  he = face1.firstHalfEdge();
-                  myP0.transform (X21, he.head.pnt);
-                  he = he.getNext();
-                  myP1.transform (X21, he.head.pnt);
-                  he = he.getNext();
-                  myP2.transform (X21, he.head.pnt);
-
-                  Point3d[] points =
-                     myTriIntersector.intersectTriangleTriangle (
-                        p0, p1, p2, myP0, myP1, myP2);
-                  if (points != null) {
-                     // intersections are now in coords of first mesh
-                     intersections.add (
-                        new TriTriIntersection (
-                           face0, face1, points));
-                  }
-               }
-            }
-         }
-      }
-
+      myTriTriWorker.intersectTriangles (intersections, node1, node2, X21);
    }
 
    void intersectBoundingVolumeTriangles (
@@ -323,6 +323,30 @@ public class BVIntersectorTest {
       }
    }
 
+   /**
+    * Checks that two intersection lists contain the same face pairs and
+    * points in the same order.
+    */
+   private void checkTriTriIntersectionsIdentical (
+      String name1, ArrayList<TriTriIntersection> list1,
+      String name2, ArrayList<TriTriIntersection> list2) {
+
+      if (list1.size() != list2.size()) {
+         throw new TestException (
+            name1 + " has " + list1.size() + " entries, " +
+            name2 + " has " + list2.size());
+      }
+      for (int i=0; i<list1.size(); i++) {
+         TriTriIntersection ti1 = list1.get(i);
+         TriTriIntersection ti2 = list2.get(i);
+         if (ti1.face0 != ti2.face0 || ti1.face1 != ti2.face1 ||
+             !checkPointsEqual (ti1.points, ti2.points, 0)) {
+            throw new TestException (
+               name1 + " vs. " + name2 + ": entry " + i + " differs");
+         }
+      }
+   }
+
    private boolean checkPointsEqual (
       Point3d[] pnts1, Point3d[] pnts2, double tol) {
       if (pnts1.length != pnts2.length) {
@@ -407,6 +431,16 @@ public class BVIntersectorTest {
          new ArrayList<TriTriIntersection>();
       intersector.intersectMeshMesh (intersections, bvh1, bvh2);
 
+      BVIntersector parallelIntersector = new BVIntersector();
+      parallelIntersector.setParallelEnabled (true);
+      ArrayList<TriTriIntersection> parallelIntersections =
+         new ArrayList<TriTriIntersection>();
+      parallelIntersector.intersectMeshMesh (
+         parallelIntersections, bvh1, bvh2);
+      checkTriTriIntersectionsIdentical (
+         "intersections", intersections,
+         "parallel intersections", parallelIntersections);
+
       ArrayList<TriTriIntersection> bruteForceIntersections =
          intersectAllFaces (mesh1, mesh2);
 
@@ -6,6 +6,7 @@
  */
 package maspack.geometry;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.matrix.*;
 import maspack.render.*;
 import maspack.util.*;
@@ -545,6 +546,134 @@ public abstract class BVTree implements IsRenderable {
          nodes1, nodes2, getRoot(), bvt.getRoot(), tester, X21); 
    }
 
+   /**
+    * Same as {@link #intersectTree(ArrayList,ArrayList,BVTree)}, except that
+    * the search is distributed over multiple threads, each handling a
+    * different pair of subtrees. The leaf node pairs are returned in the same
+    * order as for the serial search.
+    * 
+    * @param nodes1 intersecting leaf nodes from this tree
+    * @param nodes2 intersecting leaf nodes from the other tree
+    * @param bvt other tree to intersect with
+    */
+   public void intersectTreeInParallel (
+      ArrayList<BVNode> nodes1, ArrayList<BVNode> nodes2,
+      BVTree bvt) {
+
+      RigidTransform3d X21 = new RigidTransform3d();
+      X21.mulInverseLeft (myBvhToWorld, bvt.myBvhToWorld);
+
+      intersectTreeInParallel (nodes1, nodes2, bvt, X21);
+   }
+
+   /**
+    * Same as {@link #intersectTree(ArrayList,ArrayList,BVTree,RigidTransform3d)},
+    * except that the search is distributed over multiple threads, each
+    * handling a different pair of subtrees. The leaf node pairs are returned
+    * in the same order as for the serial search.
+    * 
+    * @param nodes1 intersecting leaf nodes from this tree
+    * @param nodes2 intersecting leaf nodes from the other tree
+    * @param bvt other tree to intersect with
+    * @param X21 transform from the coordinate frame of the other
+    * tree to that of this tree.
+    */
+   public void intersectTreeInParallel (
+      ArrayList<BVNode> nodes1, ArrayList<BVNode> nodes2,
+      final BVTree bvt, final RigidTransform3d X21) {
+
+      int nthreads = ParallelLoop.getParallelism();
+      BVNode root1 = getRoot();
+      BVNode root2 = bvt.getRoot();
+      if (nthreads <= 1 || root1 == null || root2 == null ||
+          (root1.isLeaf() && root2.isLeaf())) {
+         intersectTree (nodes1, nodes2, bvt, X21);
+         return;
+      }
+      if ((!(this instanceof AABBTree) && !(this instanceof OBBTree)) ||
+          (!(bvt instanceof AABBTree) && !(bvt instanceof OBBTree))) {
+         throw new IllegalArgumentException (
+            "Each bounding volume hierarchy must be an AABBTree or an OBBTree");
+      }
+      // Expand the overlapping node pairs breadth first until there are
+      // enough to keep all threads busy. Child pairs replace their parent
+      // in place, so that the depth-first order is preserved.
+      BVNodeTester tester = new BVBoxNodeTester (this, bvt);
+      ArrayList<BVNode> pairs1 = new ArrayList<BVNode>();
+      ArrayList<BVNode> pairs2 = new ArrayList<BVNode>();
+      pairs1.add (root1);
+      pairs2.add (root2);
+      boolean expandable = true;
+      while (expandable && pairs1.size() < 8*nthreads) {
+         ArrayList<BVNode> next1 = new ArrayList<BVNode>();
+         ArrayList<BVNode> next2 = new ArrayList<BVNode>();
+         expandable = false;
+         for (int i=0; i<pairs1.size(); i++) {
+            BVNode node1 = pairs1.get(i);
+            BVNode node2 = pairs2.get(i);
+            if (node1.isLeaf() && node2.isLeaf()) {
+               // already tested when it was created
+               next1.add (node1);
+               next2.add (node2);
+            }
+            else if (!tester.isDisjoint (node1, node2, X21)) {
+               BVNode child1 = node1.isLeaf() ? node1 : node1.myFirstChild;
+               while (child1 != null) {
+                  BVNode child2 = node2.isLeaf() ? node2 : node2.myFirstChild;
+                  while (child2 != null) {
+                     if (!child1.isLeaf() || !child2.isLeaf()) {
+                        expandable = true;
+                        next1.add (child1);
+                        next2.add (child2);
+                     }
+                     else if (!tester.isDisjoint (child1, child2, X21)) {
+                        next1.add (child1);
+                        next2.add (child2);
+                     }
+                     child2 = node2.isLeaf() ? null : child2.myNext;
+                  }
+                  child1 = node1.isLeaf() ? null : child1.myNext;
+               }
+            }
+         }
+         pairs1 = next1;
+         pairs2 = next2;
+      }
+      // search the remaining subtree pairs in parallel
+      final int npairs = pairs1.size();
+      final BVNode[] roots1 = pairs1.toArray (new BVNode[npairs]);
+      final BVNode[] roots2 = pairs2.toArray (new BVNode[npairs]);
+      final ArrayList<ArrayList<BVNode>> found1 =
+         new ArrayList<ArrayList<BVNode>>(npairs);
+      final ArrayList<ArrayList<BVNode>> found2 =
+         new ArrayList<ArrayList<BVNode>>(npairs);
+      for (int i=0; i<npairs; i++) {
+         found1.add (null);
+         found2.add (null);
+      }
+      ParallelLoop.forRange (npairs, 1, (i0, i1) -> {
+         BVNodeTester ptester = new BVBoxNodeTester (this, bvt);
+         for (int i=i0; i<i1; i++) {
+            ArrayList<BVNode> list1 = new ArrayList<BVNode>();
+            ArrayList<BVNode> list2 = new ArrayList<BVNode>();
+            if (roots1[i].isLeaf() && roots2[i].isLeaf()) {
+               list1.add (roots1[i]);
+               list2.add (roots2[i]);
+            }
+            else {
+               recursivelyIntersectTree (
+                  list1, list2, roots1[i], roots2[i], ptester, X21);
+            }
+            found1.set (i, list1);
+            found2.set (i, list2);
+         }
+      });
+      for (int i=0; i<npairs; i++) {
+         nodes1.addAll (found1.get(i));
+         nodes2.addAll (found2.get(i));
+      }
+   }
+
    /**
     * Returns a list of all leaf nodes in this tree which intersect a line
     * segment.
@@ -7,7 +7,9 @@
 package maspack.geometry;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.matrix.AffineTransform3d;
 import maspack.matrix.AffineTransform3dBase;
 import maspack.matrix.LUDecomposition;
@@ -31,6 +33,29 @@ public class CPD {
 
    public static int DEFAULT_MAX_ITERS = 1000;
    public static boolean verbose = false;
+
+   /**
+    * If positive, the correspondence probabilities used by {@link #rigid},
+    * {@link #affine} and {@link #coherent} are truncated to point pairs
+    * whose distance is less than {@code truncationScale} times the current
+    * standard deviation, with neighbours found using a uniform grid. A value
+    * of 3 to 4 typically gives results very close to the full algorithm
+    * while making the correspondence step of each iteration roughly linear
+    * in the number of points. If zero (the default), all point pairs are
+    * used.
+    */
+   public static double truncationScale = 0;
+
+   /**
+    * Whether the E-step is evaluated in parallel across points.
+    */
+   public static boolean parallelEStep = true;
+
+   /**
+    * Minimum number of points per chunk when evaluating the E-step
+    * in parallel.
+    */
+   public static int parallelGrainSize = 128;
    
 
    /**
@@ -73,9 +98,7 @@ public class CPD {
       Vector3d t = new Vector3d(trans.p);
       double s = trans.s;
       
-      double [][] P = new double[M][N];
-      double [] P1 = new double[M];
-      double [] Pt1 = new double[N];
+      Correspondences corr = new Correspondences (N, M);
       double Np;
       
       double[] tr = new double[2];
@@ -97,16 +120,16 @@ public class CPD {
       while ( (iters < maxIters) && (err > tol) ) {
          
          // E-step
-         Np = computeP(X, TY, sigma2, w, P, P1, Pt1);
+         Np = corr.compute(X, TY, sigma2, w);
          
          // M-step
          // mean
-         computeMean(X, Pt1, Np, meanx);
-         computeMean(Y, P1, Np, meany);
+         computeMean(X, corr.myPt1, Np, meanx);
+         computeMean(Y, corr.myP1, Np, meany);
          
          // A = (X-mean(X))'*P'*(Y-mean(Y))
          // d = trace( trace(Y'*diag(P1)*Y) );
-         computeAD(X, meanx, P, P1, Pt1, Y, meany, A, tr);
+         computeAD(X, meanx, corr.myPX, corr.myP1, corr.myPt1, Y, meany, A, tr);
          
          // R = U*C*V', C= diag([1 1 det(U*V')])
          svd.factor(A);
@@ -175,8 +198,9 @@ public class CPD {
     * 
     * @param X input points
     * @param mx mean of input
-    * @param P probability matrix
+    * @param PX P*X, stored as consecutive x, y, z values for each row
     * @param P1 P*ones(N,1)
+    * @param Pt1 P'*ones(M,1)
     * @param Y transforming points
     * @param my mean of transforming
     * @param A output A matrix
@@ -185,39 +209,32 @@ public class CPD {
     *        tr[1] = trace( (Y-my)'*diag(P1)(Y-my) )
     * @return denominator for computing scale
     */
-   private static double computeAD(Point3d[] X, Point3d mx, double[][] P, 
+   private static double computeAD(Point3d[] X, Point3d mx, double[] PX, 
       double[] P1, double[] Pt1, Point3d[] Y, Point3d my, Matrix3d A, 
       double[] tr) {
       
       int N = X.length;
       int M = Y.length;
       
-      Point3d x = new Point3d();
-      Point3d y = new Point3d();
+      Vector3d x = new Vector3d();
+      Vector3d y = new Vector3d();
       
       A.setZero();
       
       double xPx = 0;
       double yPy = 0;
       
-      y.sub(Y[0], my);
-      for (int n=0; n<N; n++) {
-         x.sub(X[n], mx);
-         addScaledOuterProduct(A, P[0][n], x, y);
-         xPx += Pt1[n]*x.normSquared();
-      }
-      yPy += P1[0]*y.normSquared();
-      
-      for (int m=1; m<M; m++) {
+      // sum_n P[m][n]*(X[n]-mx) = PX[m] - P1[m]*mx
+      for (int m=0; m<M; m++) {
          y.sub(Y[m], my);
-         
-         for (int n=0; n<N; n++) {
-            x.sub(X[n], mx);
-            addScaledOuterProduct(A, P[m][n], x, y);
-         }
-         
+         x.set(PX[3*m], PX[3*m+1], PX[3*m+2]);
+         x.scaledAdd(-P1[m], mx);
+         addScaledOuterProduct(A, 1, x, y);
          yPy += P1[m]*y.normSquared();
       }
+      for (int n=0; n<N; n++) {
+         xPx += Pt1[n]*X[n].distanceSquared(mx);
+      }
       
       tr[0] = xPx;
       tr[1] = yPy;
@@ -225,36 +242,30 @@ public class CPD {
       return yPy;
    }
    
-   private static void computeAD(Point3d[] X, Point3d mx, double[][] P, 
+   private static void computeAD(Point3d[] X, Point3d mx, double[] PX, 
       double[] P1, double[] Pt1, Point3d[] Y, Point3d my, Matrix3d A, 
       Matrix3d D, double tr[]) {
       
       int N = X.length;
       int M = Y.length;
       
-      Point3d x = new Point3d();
-      Point3d y = new Point3d();
+      Vector3d x = new Vector3d();
+      Vector3d y = new Vector3d();
       
       A.setZero();
       D.setZero();
       double xPx = 0;
       
-      y.sub(Y[0], my);
-      for (int n=0; n<N; n++) {
-         x.sub(X[n], mx);
-         addScaledOuterProduct(A, P[0][n], x, y);
-         xPx += Pt1[n]*x.normSquared();
-      }
-      addScaledOuterProduct(D, P1[0], y, y);
-      
-      for (int m=1; m<M; m++) {
+      for (int m=0; m<M; m++) {
          y.sub(Y[m], my);
-         for (int n=0; n<N; n++) {
-            x.sub(X[n], mx);
-            addScaledOuterProduct(A, P[m][n], x, y);
-         }
+         x.set(PX[3*m], PX[3*m+1], PX[3*m+2]);
+         x.scaledAdd(-P1[m], mx);
+         addScaledOuterProduct(A, 1, x, y);
          addScaledOuterProduct(D, P1[m], y, y);
       }
+      for (int n=0; n<N; n++) {
+         xPx += Pt1[n]*X[n].distanceSquared(mx);
+      }
       
       tr[0] = xPx;
       tr[1] = D.trace();
@@ -524,18 +535,30 @@ public class CPD {
       double dx, dy, dz;
       
       if (P == null) {
-         // use P[m][n] = 1/M assumption
+         // use P[m][n] = 1/M assumption. The sum of squared distances over
+         // all pairs is computed in closed form from the means mx and my:
+         // sum |xn-ym|^2 = M*sum |xn-mx|^2 + N*sum |ym-my|^2 + N*M*|mx-my|^2
          
+         Point3d mx = new Point3d();
+         Point3d my = new Point3d();
          for (int n = 0; n<N; n++) {
-            xn = X[n];
-            for (int m = 0; m < M; m++) {
-               ym = TY[m];
-               dx = xn.x-ym.x;
-               dy = xn.y-ym.y;
-               dz = xn.z-ym.z;
-               var += (dx*dx+dy*dy+dz*dz);
-            }
+            mx.add(X[n]);
+         }
+         mx.scale(1.0/N);
+         for (int m = 0; m<M; m++) {
+            my.add(TY[m]);
          }
+         my.scale(1.0/M);
+         
+         double xvar = 0;
+         for (int n = 0; n<N; n++) {
+            xvar += X[n].distanceSquared(mx);
+         }
+         double yvar = 0;
+         for (int m = 0; m<M; m++) {
+            yvar += TY[m].distanceSquared(my);
+         }
+         var = M*xvar + N*yvar + N*M*mx.distanceSquared(my);
          var = var/(3*N*M);
          
       } else {
@@ -579,6 +602,305 @@ public class CPD {
       return mean;
    }
     
+   /**
+    * Uniform grid of points, with the points stored contiguously in cell
+    * order so that the points of a row of cells along x form a single
+    * range. Used to find the neighbours of a point within a given radius.
+    */
+   private static class PointGrid {
+
+      // limit on the number of cells, relative to the number of points
+      static final int MAX_CELLS_PER_POINT = 2;
+
+      double myMinX, myMinY, myMinZ;
+      double myCellSize;
+      int myNx, myNy, myNz;
+      int[] myCellStart = new int[0]; // start of each cell's points
+      double[] myCoords = new double[0]; // point coordinates, in cell order
+      int[] myIndices = new int[0]; // original point indices, in cell order
+
+      /**
+       * Builds the grid for a set of points, using cells whose size is at
+       * least {@code cellSize}. An infinite cell size places all the points
+       * in a single cell.
+       */
+      void build (Point3d[] pnts, double cellSize) {
+         int npnts = pnts.length;
+         double minx = Double.POSITIVE_INFINITY;
+         double miny = Double.POSITIVE_INFINITY;
+         double minz = Double.POSITIVE_INFINITY;
+         double maxx = Double.NEGATIVE_INFINITY;
+         double maxy = Double.NEGATIVE_INFINITY;
+         double maxz = Double.NEGATIVE_INFINITY;
+         for (int i=0; i<npnts; i++) {
+            Point3d p = pnts[i];
+            if (p.x < minx) minx = p.x;
+            if (p.x > maxx) maxx = p.x;
+            if (p.y < miny) miny = p.y;
+            if (p.y > maxy) maxy = p.y;
+            if (p.z < minz) minz = p.z;
+            if (p.z > maxz) maxz = p.z;
+         }
+         if (npnts == 0) {
+            minx = miny = minz = maxx = maxy = maxz = 0;
+         }
+         double ex = maxx-minx;
+         double ey = maxy-miny;
+         double ez = maxz-minz;
+
+         // enlarge cells if they would be too numerous
+         double h = cellSize > 0 ? cellSize : Double.POSITIVE_INFINITY;
+         double maxCells = MAX_CELLS_PER_POINT*(double)Math.max (npnts, 1);
+         double ncells = (ex/h+1)*(ey/h+1)*(ez/h+1);
+         while (ncells > maxCells) {
+            h *= 1.01*Math.cbrt (ncells/maxCells);
+            ncells = (ex/h+1)*(ey/h+1)*(ez/h+1);
+         }
+         myMinX = minx;
+         myMinY = miny;
+         myMinZ = minz;
+         myCellSize = h;
+         myNx = (int)(ex/h)+1;
+         myNy = (int)(ey/h)+1;
+         myNz = (int)(ez/h)+1;
+
+         // counting sort of the points into cells
+         int ncell = myNx*myNy*myNz;
+         if (myCellStart.length < ncell+1) {
+            myCellStart = new int[ncell+1];
+         }
+         else {
+            Arrays.fill (myCellStart, 0, ncell+1, 0);
+         }
+         if (myIndices.length < npnts) {
+            myIndices = new int[npnts];
+            myCoords = new double[3*npnts];
+         }
+         int[] cellIdxs = new int[npnts];
+         for (int i=0; i<npnts; i++) {
+            Point3d p = pnts[i];
+            int c = cellIndex (p.x, p.y, p.z);
+            cellIdxs[i] = c;
+            myCellStart[c+1]++;
+         }
+         for (int c=0; c<ncell; c++) {
+            myCellStart[c+1] += myCellStart[c];
+         }
+         int[] next = new int[ncell];
+         System.arraycopy (myCellStart, 0, next, 0, ncell);
+         for (int i=0; i<npnts; i++) {
+            Point3d p = pnts[i];
+            int k = next[cellIdxs[i]]++;
+            myIndices[k] = i;
+            myCoords[3*k  ] = p.x;
+            myCoords[3*k+1] = p.y;
+            myCoords[3*k+2] = p.z;
+         }
+      }
+
+      private int clip (double v, int n) {
+         return (v <= 0 ? 0 : (v >= n-1 ? n-1 : (int)v));
+      }
+
+      private int cellIndex (double x, double y, double z) {
+         int i = clip ((x-myMinX)/myCellSize, myNx);
+         int j = clip ((y-myMinY)/myCellSize, myNy);
+         int k = clip ((z-myMinZ)/myCellSize, myNz);
+         return i + myNx*(j + myNy*k);
+      }
+
+      /**
+       * Computes the sum of the Gaussian kernel values between a point
+       * {@code (px,py,pz)} and all grid points within a given radius, with
+       * each kernel value optionally divided by a weight associated with
+       * the grid point. If {@code moment} is non-null, the weighted kernel
+       * values times the grid point coordinates are also accumulated into
+       * it.
+       *
+       * @param r radius (may be infinite)
+       * @param h2inv 1/(2*sigma^2), or 0 if the kernel is 1 for coincident
+       * points and 0 otherwise
+       * @param denom if non-null, weight dividing each kernel value
+       * @param moment if non-null, returns the weighted sum of points
+       * @return weighted sum of kernel values
+       */
+      double kernelSum (
+         double px, double py, double pz, double r, double h2inv,
+         double[] denom, double[] moment) {
+
+         int i0, i1, j0, j1, k0, k1;
+         if (r == Double.POSITIVE_INFINITY) {
+            i0 = j0 = k0 = 0;
+            i1 = myNx-1;
+            j1 = myNy-1;
+            k1 = myNz-1;
+         }
+         else {
+            double h = myCellSize;
+            double x0 = (px-r-myMinX)/h, x1 = (px+r-myMinX)/h;
+            double y0 = (py-r-myMinY)/h, y1 = (py+r-myMinY)/h;
+            double z0 = (pz-r-myMinZ)/h, z1 = (pz+r-myMinZ)/h;
+            if (x1 < 0 || y1 < 0 || z1 < 0 ||
+                x0 >= myNx || y0 >= myNy || z0 >= myNz) {
+               return 0;
+            }
+            i0 = clip (x0, myNx); i1 = clip (x1, myNx);
+            j0 = clip (y0, myNy); j1 = clip (y1, myNy);
+            k0 = clip (z0, myNz); k1 = clip (z1, myNz);
+         }
+         double r2 = r*r;
+
+         double sum = 0;
+         double mx = 0, my = 0, mz = 0;
+         double[] coords = myCoords;
+         for (int k=k0; k<=k1; k++) {
+            for (int j=j0; j<=j1; j++) {
+               int base = myNx*(j + myNy*k);
+               // the cells of a row along x are contiguous
+               int l1 = myCellStart[base+i1+1];
+               for (int l=myCellStart[base+i0]; l<l1; l++) {
+                  double qx = coords[3*l];
+                  double qy = coords[3*l+1];
+                  double qz = coords[3*l+2];
+                  double dx = px-qx;
+                  double dy = py-qy;
+                  double dz = pz-qz;
+                  double d2 = dx*dx+dy*dy+dz*dz;
+                  if (d2 > r2) {
+                     continue;
+                  }
+                  double d;
+                  if (h2inv > 0) {
+                     d = Math.exp (-d2*h2inv);
+                  }
+                  else {
+                     d = (d2 == 0 ? 1 : 0);
+                  }
+                  if (denom != null) {
+                     d /= denom[myIndices[l]];
+                  }
+                  sum += d;
+                  if (moment != null) {
+                     mx += d*qx;
+                     my += d*qy;
+                     mz += d*qz;
+                  }
+               }
+            }
+         }
+         if (moment != null) {
+            moment[0] = mx;
+            moment[1] = my;
+            moment[2] = mz;
+         }
+         return sum;
+      }
+   }
+
+   /**
+    * Computes the quantities derived from the CPD probability matrix P
+    * (see {@link #computeP}) that are needed by the M-step, namely P*1,
+    * P'*1 and P*X, without forming P itself. This requires only O(N+M)
+    * storage, so that {@link #rigid} and {@link #affine} use O(N+M) storage
+    * overall. {@link #coherent} still forms and factors a dense M x M
+    * matrix in its M-step. Each entry of P is evaluated twice: once when computing the
+    * normalizing terms associated with each input point, and again when
+    * accumulating the sums associated with each transformed point. Both
+    * passes are free of write conflicts and so are evaluated in parallel.
+    * If {@link #truncationScale} is positive, only neighbouring point pairs
+    * are considered.
+    */
+   static class Correspondences {
+
+      double[] myP1;     // P*1, length M
+      double[] myPt1;    // P'*1, length N
+      double[] myPX;     // P*X, as consecutive x, y, z values, length 3*M
+      double[] myDenom;  // normalizing term for each input point
+      PointGrid myXGrid = new PointGrid();
+      PointGrid myYGrid = new PointGrid();
+
+      Correspondences (int N, int M) {
+         myP1 = new double[M];
+         myPt1 = new double[N];
+         myPX = new double[3*M];
+         myDenom = new double[N];
+      }
+
+      /**
+       * Evaluates P for the current points and variance and updates P1,
+       * Pt1 and PX.
+       *
+       * @return Np the sum of all entries in P
+       */
+      double compute (
+         final Point3d[] X, final Point3d[] TY, double sigma2, double w) {
+
+         int N = X.length;
+         int M = TY.length;
+
+         double c = 2*Math.PI*sigma2;
+         c = c*c*c;
+         c = Math.sqrt(c);
+         if (w == 1) {
+            w = 1-1e-16;  // always between [0,1], so we can hard-code a tolerance here
+         }
+         c = c*M*w/((1-w)*N);
+         final double cw = c;
+
+         final double h2inv = (sigma2 > 0 ? 1/(2*sigma2) : 0);
+         final double r;
+         if (truncationScale > 0) {
+            r = truncationScale*Math.sqrt (Math.max (sigma2, 0));
+         }
+         else {
+            r = Double.POSITIVE_INFINITY;
+         }
+         myXGrid.build (X, r);
+         myYGrid.build (TY, r);
+
+         // normalizing terms and P'*1, over the input points
+         ParallelLoop.RangeBody xbody = (i0, i1) -> {
+            for (int n=i0; n<i1; n++) {
+               Point3d xn = X[n];
+               double ksum = myYGrid.kernelSum (
+                  xn.x, xn.y, xn.z, r, h2inv, null, null);
+               double msum = ksum + cw;
+               if (msum == 0) {
+                  msum = 1;
+               }
+               myDenom[n] = msum;
+               myPt1[n] = ksum/msum;
+            }
+         };
+         // P*1 and P*X, over the transformed points
+         ParallelLoop.RangeBody ybody = (i0, i1) -> {
+            double[] px = new double[3];
+            for (int m=i0; m<i1; m++) {
+               Point3d ym = TY[m];
+               myP1[m] = myXGrid.kernelSum (
+                  ym.x, ym.y, ym.z, r, h2inv, myDenom, px);
+               myPX[3*m  ] = px[0];
+               myPX[3*m+1] = px[1];
+               myPX[3*m+2] = px[2];
+            }
+         };
+         if (parallelEStep) {
+            ParallelLoop.forRange (N, parallelGrainSize, xbody);
+            ParallelLoop.forRange (M, parallelGrainSize, ybody);
+         }
+         else {
+            xbody.apply (0, N);
+            ybody.apply (0, M);
+         }
+
+         double Np = 0;
+         for (int n=0; n<N; n++) {
+            Np += myPt1[n];
+         }
+         return Np;
+      }
+   }
+
    /**
     * Uses the rigid CPD algorithm to align a set of points
     * @param X reference input points
@@ -668,9 +990,7 @@ public class CPD {
       Matrix3d B = new Matrix3d(trans.A);
       Vector3d t = new Vector3d(trans.p);
       
-      double [][] P = new double[M][N];
-      double [] P1 = new double[M];
-      double [] Pt1 = new double[N];
+      Correspondences corr = new Correspondences (N, M);
       double Np;
       
       Matrix3d A = new Matrix3d();
@@ -691,16 +1011,17 @@ public class CPD {
       while ( (iters < maxIters) && (err > tol) ) {
          
          // E-step
-         Np = computeP(X, TY, sigma2, w, P, P1, Pt1);
+         Np = corr.compute(X, TY, sigma2, w);
          
          // M-step
          // mean
-         computeMean(X, Pt1, Np, meanx);
-         computeMean(Y, P1, Np, meany);
+         computeMean(X, corr.myPt1, Np, meanx);
+         computeMean(Y, corr.myP1, Np, meany);
          
          // A = (X-mean(X))'*P'*(Y-mean(Y))
          // D = (Y-mean(Y))'*diag(P1)*(Y-mean(Y))
-         computeAD(X, meanx, P, P1, Pt1, Y, meany, A, YPY, tr);
+         computeAD(
+            X, meanx, corr.myPX, corr.myP1, corr.myPt1, Y, meany, A, YPY, tr);
          
          // B = A*inverse(D)
          svd.factor(YPY);
@@ -800,7 +1121,12 @@ public class CPD {
    }
    
    /**
-    * Uses the coherent CPD algorithm to align a set of points
+    * Uses the coherent CPD algorithm to align a set of points. Unlike
+    * {@link #rigid} and {@link #affine}, this forms the dense M x M
+    * Gaussian kernel matrix and factors an M x M system at each iteration,
+    * and so requires O(M^2) storage and O(M^3) time per iteration,
+    * regardless of {@link #truncationScale}.
+    * 
     * @param X reference input points
     * @param Y points to register
     * @param lambda weight factor for regularization term (&gt; 0)
@@ -840,13 +1166,13 @@ public class CPD {
       LUDecomposition lu = new LUDecomposition(M);
       MatrixNd A = new MatrixNd(M, M);
       MatrixNd B = new MatrixNd(M, 3);
-      MatrixNd PX = new MatrixNd(M, 3);
       
       MatrixNd W = new MatrixNd(M, 3);
       
-      double [][] P = new double[M][N];
-      double [] P1 = new double[M];
-      double [] Pt1 = new double[N];
+      Correspondences corr = new Correspondences (N, M);
+      double[] P1 = corr.myP1;
+      double[] Pt1 = corr.myPt1;
+      double[] PX = corr.myPX;
       double Np;
      
       double err = Double.MAX_VALUE;
@@ -858,7 +1184,7 @@ public class CPD {
       while ( (iters < maxIters) && (err > tol) ) {
          
          // E-step
-         Np = computeP(X, TY, sigma2, w, P, P1, Pt1);
+         Np = corr.compute(X, TY, sigma2, w);
          
          // M-step
          
@@ -867,7 +1193,7 @@ public class CPD {
          for (int i=0; i<M; i++) {
             A.add(i, i, lambda*sigma2/P1[i]);
          }
-         computeCoherentRHS(P, P1, X, Y, PX, B);
+         computeCoherentRHS(PX, P1, Y, B);
          
          // solve
          // XXX may want to hook into Pardiso, set prev W as initial guess
@@ -890,7 +1216,7 @@ public class CPD {
          double trPXTY = 0;
          double trTYPTY = 0;
          for (int m = 0; m<M; m++) {
-            trPXTY += PX.get(m, 0)*TY[m].x + PX.get(m, 1)*TY[m].y + PX.get(m, 2)*TY[m].z;
+            trPXTY += PX[3*m]*TY[m].x + PX[3*m+1]*TY[m].y + PX[3*m+2]*TY[m].z;
             trTYPTY += P1[m]*TY[m].normSquared();
          }
          for (int n = 0; n<N; n++) {
@@ -914,29 +1240,15 @@ public class CPD {
       
    }
    
-   private static void computeCoherentRHS(double[][] P, double[] P1, 
-      Point3d[] X, Point3d[] Y, MatrixNd PX, MatrixNd RHS) {
+   private static void computeCoherentRHS(double[] PX, double[] P1, 
+      Point3d[] Y, MatrixNd RHS) {
       
       int M = Y.length;
-      int N = X.length;
-      
-      PX.setZero();
-      
-      double x, y, z;
       
       for (int m = 0; m < M; m++) {
-         for (int n = 0; n < N; n++) {
-            x = P[m][n]*X[n].x;
-            y = P[m][n]*X[n].y;
-            z = P[m][n]*X[n].z;
-            PX.add(m, 0, x);
-            PX.add(m, 1, y);
-            PX.add(m, 2, z);
-         }
-         
-         RHS.set(m, 0, PX.get(m, 0)/P1[m] - Y[m].x);
-         RHS.set(m, 1, PX.get(m, 1)/P1[m] - Y[m].y);
-         RHS.set(m, 2, PX.get(m, 2)/P1[m] - Y[m].z);
+         RHS.set(m, 0, PX[3*m]/P1[m] - Y[m].x);
+         RHS.set(m, 1, PX[3*m+1]/P1[m] - Y[m].y);
+         RHS.set(m, 2, PX[3*m+2]/P1[m] - Y[m].z);
       }
       
    }
@@ -7,57 +7,238 @@
 package maspack.geometry;
 
 import maspack.matrix.AffineTransform3d;
+import maspack.matrix.AffineTransform3dBase;
+import maspack.matrix.Matrix3d;
 import maspack.matrix.Point3d;
 import maspack.matrix.RotationMatrix3d;
 import maspack.matrix.ScaledRigidTransform3d;
 import maspack.matrix.Vector3d;
+import maspack.util.*;
 
+/**
+ * Checks the streamed CPD correspondence computation against the dense
+ * probability matrix, and checks that the serial, parallel and truncated
+ * registrations agree with each other and recover a known transform.
+ */
+public class CPDTest extends UnitTest {
 
-public class CPDTest {
-
-   public static void main(String[] args) {
+   private AffineTransform3d myTrans;
+   private Point3d[] myX;
+   private Point3d[] myY;
 
-      AffineTransform3d trans = new AffineTransform3d();
+   public CPDTest() {
+      myTrans = new AffineTransform3d();
       RotationMatrix3d R = new RotationMatrix3d(0.7605, -0.6307, 0.1541, 0.6485, 0.7263, -0.2279, 0.0318, 0.2733, 0.9614);
       double s= 2.7;
-      trans.setA(R, new Vector3d(s,s,s), new Vector3d(0,0,0));
-      trans.setTranslation(new Vector3d(1, 2, 3));
+      myTrans.setA(R, new Vector3d(s,s,s), new Vector3d(0,0,0));
+      myTrans.setTranslation(new Vector3d(1, 2, 3));
 
-      Point3d[] X = get3DFish();
-      
-      int N = X.length;
+      myX = get3DFish();
+      int N = myX.length;
       int M = N-20;
-      
-      Point3d Y[] = new Point3d[M];
-      Point3d out[] = new Point3d[M];
-
+      myY = new Point3d[M];
       for (int i = 0; i < N; i++) {
          if (i < M) {
-            Y[i] = new Point3d(X[i]);
-            out[i] = new Point3d();
+            myY[i] = new Point3d(myX[i]);
          }
-         X[i].transform(trans);
-         
+         myX[i].transform(myTrans);
       }
+   }
+
+   private static Point3d[] createPoints (int num) {
+      Point3d[] pnts = new Point3d[num];
+      for (int i=0; i<num; i++) {
+         pnts[i] = new Point3d();
+         pnts[i].setRandom();
+      }
+      return pnts;
+   }
+
+   private static Point3d[] createOutput (int num) {
+      Point3d[] pnts = new Point3d[num];
+      for (int i=0; i<num; i++) {
+         pnts[i] = new Point3d();
+      }
+      return pnts;
+   }
+
+   private void checkEquals (
+      String msg, double[] result, double[] check, double tol) {
+      checkEquals (msg+" size", result.length, check.length);
+      for (int i=0; i<check.length; i++) {
+         if (Math.abs (result[i]-check[i]) > tol) {
+            throw new TestException (
+               msg+", entry "+i+" is "+result[i]+", expected "+check[i]);
+         }
+      }
+   }
+
+   private void checkCorrespondences (
+      String msg, Point3d[] X, Point3d[] TY, double sigma2, double w,
+      double tol) {
+
+      int N = X.length;
+      int M = TY.length;
+      double[][] P = new double[M][N];
+      double[] P1 = new double[M];
+      double[] Pt1 = new double[N];
+      double[] PX = new double[3*M];
+      double Np = CPD.computeP (X, TY, sigma2, w, P, P1, Pt1);
+      for (int m=0; m<M; m++) {
+         for (int n=0; n<N; n++) {
+            PX[3*m  ] += P[m][n]*X[n].x;
+            PX[3*m+1] += P[m][n]*X[n].y;
+            PX[3*m+2] += P[m][n]*X[n].z;
+         }
+      }
+      CPD.Correspondences corr = new CPD.Correspondences (N, M);
+      double corrNp = corr.compute (X, TY, sigma2, w);
+      checkEquals (msg+", Np", corrNp, Np, tol*N);
+      checkEquals (msg+", P1", corr.myP1, P1, tol);
+      checkEquals (msg+", Pt1", corr.myPt1, Pt1, tol);
+      checkEquals (msg+", PX", corr.myPX, PX, tol);
+   }
+
+   /**
+    * Compares P*1, P'*1 and P*X computed by the streamed E-step, serially,
+    * in parallel, and with truncation, with those computed from the dense
+    * probability matrix.
+    */
+   public void testCorrespondences() {
+      Point3d[] X = createPoints (300);
+      Point3d[] TY = createPoints (200);
+      double sigma2 = 0.05;
+      double w = 0.1;
+
+      CPD.parallelEStep = false;
+      checkCorrespondences ("streamed", X, TY, sigma2, w, 1e-12);
+      CPD.parallelEStep = true;
+      checkCorrespondences ("parallel", X, TY, sigma2, w, 1e-12);
+      // entries omitted by truncation are at most exp(-scale^2/2)
+      CPD.truncationScale = 6;
+      checkCorrespondences ("truncated", X, TY, sigma2, w, 1e-6);
+      CPD.parallelEStep = false;
+      checkCorrespondences ("truncated serial", X, TY, sigma2, w, 1e-6);
+      CPD.truncationScale = 0;
+   }
 
+   private static double diffNorm (
+      AffineTransform3dBase T1, AffineTransform3dBase T2) {
+      Matrix3d D = new Matrix3d (T1.getMatrix());
+      D.sub (T2.getMatrix());
+      Vector3d d = new Vector3d (T1.getOffset());
+      d.sub (T2.getOffset());
+      return Math.max (D.infinityNorm(), d.infinityNorm());
+   }
+
+   private static double diffNorm (Point3d[] pnts1, Point3d[] pnts2) {
+      double max = 0;
+      for (int i=0; i<pnts1.length; i++) {
+         max = Math.max (max, pnts1[i].distance (pnts2[i]));
+      }
+      return max;
+   }
+
+   private void checkTransform (
+      String msg, AffineTransform3dBase result, AffineTransform3dBase check,
+      double tol) {
+      double err = diffNorm (result, check);
+      if (err > tol) {
+         throw new TestException (
+            msg+": transform differs by "+err+", tolerance "+tol+
+            "\nresult:\n"+result+"\ncheck:\n"+check);
+      }
+   }
+
+   private void checkPoints (
+      String msg, Point3d[] result, Point3d[] check, double tol) {
+      double err = diffNorm (result, check);
+      if (err > tol) {
+         throw new TestException (
+            msg+": points differ by "+err+", tolerance "+tol);
+      }
+   }
+
+   /**
+    * Runs the rigid, affine and coherent registrations with the current
+    * settings, storing the registered points in {@code out}.
+    */
+   private AffineTransform3dBase[] register (Point3d[][] out) {
       double w = 0.01;
       double lambda = 0.1;
       double beta2 = 3.5;
-      
-      CPD.verbose = true;
-      ScaledRigidTransform3d rigidT = CPD.rigid(X, Y, w, 1e-10, 100, true, out);
-      AffineTransform3d affT = CPD.affine(X, Y, w, 1e-10, 100, out);
-      CPD.coherent(X, Y, lambda, beta2, w, 1e-10, 100, out);
-      
-      System.out.println("Original: \n" + trans.toString());
-      System.out.println("Rigid Computed: \n" + rigidT.toString());
-      System.out.println("Affine Computed: \n" + affT.toString());
+      int M = myY.length;
+      out[0] = createOutput (M);
+      out[1] = createOutput (M);
+      out[2] = createOutput (M);
+      ScaledRigidTransform3d rigidT =
+         CPD.rigid(myX, myY, w, 1e-10, 100, true, out[0]);
+      AffineTransform3d affT = CPD.affine(myX, myY, w, 1e-10, 100, out[1]);
+      CPD.coherent(myX, myY, lambda, beta2, w, 1e-10, 100, out[2]);
+      return new AffineTransform3dBase[] { rigidT, affT };
+   }
+
+   /**
+    * Checks that the serial and parallel registrations give the same
+    * results, that the truncated registrations are close to the full ones,
+    * and that the rigid and affine registrations map the points onto the
+    * input points from which they were created.
+    */
+   public void testRegistration() {
+      String[] names = new String[] { "rigid", "affine", "coherent" };
+
+      Point3d[][] serialPnts = new Point3d[3][];
+      CPD.parallelEStep = false;
+      AffineTransform3dBase[] serial = register (serialPnts);
+
+      Point3d[][] parallelPnts = new Point3d[3][];
+      CPD.parallelEStep = true;
+      AffineTransform3dBase[] parallel = register (parallelPnts);
 
-      for (int i = 0; i < M; i++) {
-         System.out
-            .println(X[i].toString() + "\n" + out[i].toString() + "\n");
+      Point3d[][] truncPnts = new Point3d[3][];
+      CPD.truncationScale = 4;
+      AffineTransform3dBase[] trunc = register (truncPnts);
+      CPD.truncationScale = 0;
+
+      for (int k=0; k<2; k++) {
+         checkTransform (names[k]+" parallel", parallel[k], serial[k], 1e-10);
+         checkTransform (names[k]+" truncated", trunc[k], serial[k], 1e-3);
+      }
+      // the points are planar, so the affine transform is not unique
+      checkTransform ("rigid recovered", serial[0], myTrans, 1e-3);
+      // registered points should lie on the corresponding input points
+      Point3d[] Xsub = new Point3d[myY.length];
+      for (int i=0; i<Xsub.length; i++) {
+         Xsub[i] = myX[i];
       }
+      for (int k=0; k<3; k++) {
+         checkPoints (
+            names[k]+" parallel", parallelPnts[k], serialPnts[k], 1e-10);
+         checkPoints (
+            names[k]+" truncated", truncPnts[k], serialPnts[k], 1e-3);
+         if (k < 2) {
+            checkPoints (names[k]+" registered", serialPnts[k], Xsub, 1e-3);
+         }
+      }
+   }
+
+   public void test() {
+      boolean saveParallel = CPD.parallelEStep;
+      double saveScale = CPD.truncationScale;
+      try {
+         testCorrespondences();
+         testRegistration();
+      }
+      finally {
+         CPD.parallelEStep = saveParallel;
+         CPD.truncationScale = saveScale;
+      }
+   }
 
+   public static void main (String[] args) {
+      CPDTest tester = new CPDTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
    }
 
    public static Point3d[] get3DFish() {
@@ -10,8 +10,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.WeakHashMap;
 
 import maspack.collision.SurfaceMeshIntersector;
+import maspack.concurrency.ParallelLoop;
 import maspack.geometry.OBB.Method;
 import maspack.matrix.Matrix3d;
 import maspack.matrix.Plane;
@@ -28,9 +31,124 @@ import maspack.util.Logger;
 public class CSG {
 
    SurfaceMeshIntersector myIntersector;
+
+   /**
+    * Data cached for meshes that have been prepared using {@link
+    * #prepareMesh}.
+    */
+   static class MeshInfo {
+      int myVersion;
+      int myNumVertices;
+      int myNumFaces;
+      double myVolume;
+
+      MeshInfo (PolygonalMesh mesh) {
+         myVersion = mesh.getVersion();
+         myNumVertices = mesh.numVertices();
+         myNumFaces = mesh.numFaces();
+         myVolume = mesh.computeVolume();
+      }
+
+      boolean isValid (PolygonalMesh mesh) {
+         return (myVersion == mesh.getVersion() &&
+                 myNumVertices == mesh.numVertices() &&
+                 myNumFaces == mesh.numFaces());
+      }
+   }
+
+   WeakHashMap<PolygonalMesh,MeshInfo> myMeshInfo;
    
    public CSG() {
       myIntersector = new SurfaceMeshIntersector();
+      myMeshInfo = new WeakHashMap<PolygonalMesh,MeshInfo>();
+   }
+
+   /**
+    * Creates a CSG object that shares the prepared mesh data of another.
+    * Used to create per-thread instances for batch computations.
+    */
+   private CSG (CSG csg) {
+      myIntersector = new SurfaceMeshIntersector();
+      // parallelism is applied across the batch instead
+      myIntersector.setParallelSearchEnabled (false);
+      myMeshInfo = csg.myMeshInfo;
+   }
+
+   /**
+    * Prepares a mesh for repeated use in CSG operations. This builds (or
+    * updates) the mesh's bounding volume hierarchy, face normals, bounds and
+    * topology information, and caches its volume, so that subsequent
+    * operations involving the mesh skip this setup. This is useful when the
+    * same (reference) mesh is compared against many others.
+    *
+    * <p>The cached data is discarded when the mesh's version number or its
+    * number of vertices or faces changes. Since vertex position changes in
+    * meshes that are not fixed do not change the version, {@link
+    * #prepareMesh} should be called again (or {@link #releaseMesh} called) if
+    * such a mesh is deformed.
+    *
+    * @param mesh mesh to prepare
+    */
+   public void prepareMesh (PolygonalMesh mesh) {
+      // these calls update the lazily computed data that the
+      // intersector depends on
+      mesh.isTriangular();
+      mesh.updateFaceNormals();
+      mesh.getBVTree();
+      mesh.isClosed();
+      mesh.getWorldBounds (null, null);
+      synchronized (myMeshInfo) {
+         myMeshInfo.put (mesh, new MeshInfo (mesh));
+      }
+   }
+
+   /**
+    * Queries whether a mesh has been prepared using {@link #prepareMesh},
+    * and its cached data is still valid.
+    *
+    * @param mesh mesh to query
+    * @return <code>true</code> if <code>mesh</code> is prepared
+    */
+   public boolean isMeshPrepared (PolygonalMesh mesh) {
+      synchronized (myMeshInfo) {
+         MeshInfo info = myMeshInfo.get (mesh);
+         return info != null && info.isValid (mesh);
+      }
+   }
+
+   /**
+    * Removes the cached data for a mesh that was prepared using {@link
+    * #prepareMesh}.
+    *
+    * @param mesh mesh to release
+    */
+   public void releaseMesh (PolygonalMesh mesh) {
+      synchronized (myMeshInfo) {
+         myMeshInfo.remove (mesh);
+      }
+   }
+
+   /**
+    * Removes the cached data for all prepared meshes.
+    */
+   public void clearPreparedMeshes() {
+      synchronized (myMeshInfo) {
+         myMeshInfo.clear();
+      }
+   }
+
+   /**
+    * Returns the volume of a mesh, using the cached value if the mesh has
+    * been prepared.
+    */
+   private double getVolume (PolygonalMesh mesh) {
+      synchronized (myMeshInfo) {
+         MeshInfo info = myMeshInfo.get (mesh);
+         if (info != null && info.isValid (mesh)) {
+            return info.myVolume;
+         }
+      }
+      return mesh.computeVolume();
    }
       
    public PolygonalMesh getIntersection(PolygonalMesh mesh1, PolygonalMesh mesh2) {
@@ -59,14 +177,83 @@ public class CSG {
     */
    public double computeDice(PolygonalMesh mesh1, PolygonalMesh mesh2) {
 
-      double v1 = mesh1.computeVolume();
-      double v2 = mesh2.computeVolume();
+      double v1 = getVolume(mesh1);
+      double v2 = getVolume(mesh2);
 
       double vi = computeIntersectionVolume(mesh1, mesh2);
       return (2*vi/(v1+v2));
 
    }
 
+   /**
+    * Computes the Dice coefficients between a reference mesh and each of a
+    * list of meshes. See {@link #computeDice(List,List)}.
+    *
+    * @param ref reference mesh
+    * @param meshes meshes to compare with <code>ref</code>
+    * @return Dice coefficient for each mesh
+    */
+   public double[] computeDice (PolygonalMesh ref, List<PolygonalMesh> meshes) {
+      ArrayList<PolygonalMesh> refs = new ArrayList<PolygonalMesh>();
+      for (int i=0; i<meshes.size(); i++) {
+         refs.add (ref);
+      }
+      return computeDice (refs, meshes);
+   }
+
+   /**
+    * Computes the Dice coefficients between corresponding pairs of meshes in
+    * two lists. The pairs are processed in parallel, using a separate
+    * intersector for each thread. To make this possible, all meshes are
+    * first prepared as described for {@link #prepareMesh}; meshes that were
+    * not already prepared are released again afterwards.
+    *
+    * @param meshes1 first mesh of each pair
+    * @param meshes2 second mesh of each pair
+    * @return Dice coefficient for each pair
+    */
+   public double[] computeDice (
+      List<PolygonalMesh> meshes1, List<PolygonalMesh> meshes2) {
+
+      if (meshes1.size() != meshes2.size()) {
+         throw new IllegalArgumentException (
+            "Mesh lists have different sizes: "+meshes1.size()+
+            " vs. "+meshes2.size());
+      }
+      final int npairs = meshes1.size();
+      final PolygonalMesh[] pairs1 =
+         meshes1.toArray (new PolygonalMesh[npairs]);
+      final PolygonalMesh[] pairs2 =
+         meshes2.toArray (new PolygonalMesh[npairs]);
+
+      // meshes must be prepared serially, since their lazily computed data
+      // cannot be safely updated from multiple threads
+      HashSet<PolygonalMesh> added = new HashSet<PolygonalMesh>();
+      for (int i=0; i<npairs; i++) {
+         for (PolygonalMesh mesh : new PolygonalMesh[] {pairs1[i], pairs2[i]}) {
+            if (!isMeshPrepared (mesh)) {
+               prepareMesh (mesh);
+               added.add (mesh);
+            }
+         }
+      }
+      final double[] dice = new double[npairs];
+      try {
+         ParallelLoop.forRange (npairs, 1, (i0, i1) -> {
+            CSG csg = new CSG (this);
+            for (int i=i0; i<i1; i++) {
+               dice[i] = csg.computeDice (pairs1[i], pairs2[i]);
+            }
+         });
+      }
+      finally {
+         for (PolygonalMesh mesh : added) {
+            releaseMesh (mesh);
+         }
+      }
+      return dice;
+   }
+
    private void doSphereTest(double r1, double r2, double d) {
       // test with spheres
 
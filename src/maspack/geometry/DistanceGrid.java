@@ -18,6 +18,8 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 
+import maspack.concurrency.ParallelLoop;
+import maspack.concurrency.ParallelLoop.RangeBody;
 import maspack.matrix.*;
 import maspack.matrix.Vector3d;
 import maspack.matrix.Vector3i;
@@ -2971,51 +2973,61 @@ public class DistanceGrid implements Renderable, Scannable {
       double[] dists = new double[nvx*nvy*nvz];
       double invRes = 1.0/res;
 
-      Point3d q = new Point3d();
-      for (int i=0; i<myNx-1; i++) {
-         for (int j=0; j<myNy-1; j++) {
-            for (int k=0; k<myNz-1; k++) {
-               double d000  = getVertexDistance (i  , j  , k  );
-               double d001  = getVertexDistance (i  , j  , k+1);
-               double d010  = getVertexDistance (i  , j+1, k  );
-               double d011  = getVertexDistance (i  , j+1, k+1);
-               double d100  = getVertexDistance (i+1, j  , k  );
-               double d101  = getVertexDistance (i+1, j  , k+1);
-               double d110  = getVertexDistance (i+1, j+1, k  );
-               double d111  = getVertexDistance (i+1, j+1, k+1);
-
-               int maxci = (i < myNx-2 ? res-1 : res);
-               int maxcj = (j < myNy-2 ? res-1 : res);
-               int maxck = (k < myNz-2 ? res-1 : res);
-               double cx, cy, cz;
-               for (int ci=0; ci<=maxci; ci++) {
-                  cx = ci*invRes;
-                  for (int cj=0; cj<=maxcj; cj++) {
-                     cy = cj*invRes;
-                     for (int ck=0; ck<=maxck; ck++) {
-                        cz = ck*invRes;
-                        double w001z = (1-cx)*(1-cy);
-                        double w011z = (1-cx)*cy;
-                        double w101z = cx*(1-cy);
-                        double w111z = cx*cy;
+      // each range of x cells writes a disjoint set of sample values, so
+      // the sampling can be done in parallel
+      RangeBody body = (i0, i1) -> {
+         for (int i=i0; i<i1; i++) {
+            for (int j=0; j<myNy-1; j++) {
+               for (int k=0; k<myNz-1; k++) {
+                  double d000  = getVertexDistance (i  , j  , k  );
+                  double d001  = getVertexDistance (i  , j  , k+1);
+                  double d010  = getVertexDistance (i  , j+1, k  );
+                  double d011  = getVertexDistance (i  , j+1, k+1);
+                  double d100  = getVertexDistance (i+1, j  , k  );
+                  double d101  = getVertexDistance (i+1, j  , k+1);
+                  double d110  = getVertexDistance (i+1, j+1, k  );
+                  double d111  = getVertexDistance (i+1, j+1, k+1);
+
+                  int maxci = (i < myNx-2 ? res-1 : res);
+                  int maxcj = (j < myNy-2 ? res-1 : res);
+                  int maxck = (k < myNz-2 ? res-1 : res);
+                  double cx, cy, cz;
+                  for (int ci=0; ci<=maxci; ci++) {
+                     cx = ci*invRes;
+                     for (int cj=0; cj<=maxcj; cj++) {
+                        cy = cj*invRes;
+                        for (int ck=0; ck<=maxck; ck++) {
+                           cz = ck*invRes;
+                           double w001z = (1-cx)*(1-cy);
+                           double w011z = (1-cx)*cy;
+                           double w101z = cx*(1-cy);
+                           double w111z = cx*cy;
                         
-                        double w000  = w001z*(1-cz);
-                        double w001  = w001z*cz;
-                        double w010  = w011z*(1-cz);
-                        double w011  = w011z*cz;
-                        double w100  = w101z*(1-cz);
-                        double w101  = w101z*cz;
-                        double w110  = w111z*(1-cz);
-                        double w111  = w111z*cz;                         
+                           double w000  = w001z*(1-cz);
+                           double w001  = w001z*cz;
+                           double w010  = w011z*(1-cz);
+                           double w011  = w011z*cz;
+                           double w100  = w101z*(1-cz);
+                           double w101  = w101z*cz;
+                           double w110  = w111z*(1-cz);
+                           double w111  = w111z*cz;                         
                         
-                        dists[(i*res+ci)+(j*res+cj)*nvx+(k*res+ck)*nvx*nvy] =
-                           w000*d000 + w001*d001 + w010*d010 + w011*d011 +
-                           w100*d100 + w101*d101 + w110*d110 + w111*d111;
+                           dists[(i*res+ci)+
+                                 (j*res+cj)*nvx+(k*res+ck)*nvx*nvy] =
+                              w000*d000 + w001*d001 + w010*d010 + w011*d011 +
+                              w100*d100 + w101*d101 + w110*d110 + w111*d111;
+                        }
                      }
                   }
                }
             }
          }
+      };
+      if (MarchingTetrahedra.parallelExtraction) {
+         ParallelLoop.forRange (myNx-1, 1, body);
+      }
+      else {
+         body.apply (0, myNx-1);
       }
       PolygonalMesh mesh = marcher.createMesh (
          dists, Vector3d.ZERO, new Vector3d(invRes,invRes,invRes), cellRes, val);
@@ -8,6 +8,7 @@ package maspack.geometry;
 
 import java.util.*;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.matrix.*;
 import maspack.util.*;
 import maspack.geometry.ICPRegistration.Prealign;
@@ -30,6 +31,18 @@ public class ICPRegistration {
       PCA_3
    };
 
+   /**
+    * If <code>true</code>, the point distances for each iteration are
+    * computed in parallel.
+    */
+   public static boolean parallelDistances = true;
+
+   /**
+    * Minimum number of points handled by each thread when computing
+    * distances in parallel.
+    */
+   public static int parallelGrainSize = 128;
+
    static boolean myDualDistancingEnabled = false;
    static private int MAX_FLIPS = 24;
 
@@ -82,74 +95,110 @@ public class ICPRegistration {
       return marked;
    }      
 
+   // query objects for computing distances, one per thread, which are
+   // reused across evaluations
+   private static ThreadLocal<BVFeatureQuery> myQueries =
+      new ThreadLocal<BVFeatureQuery>() {
+         protected BVFeatureQuery initialValue() {
+            return new BVFeatureQuery();
+         }
+      };
+
+   private void forRange (int n, ParallelLoop.RangeBody body) {
+      if (parallelDistances) {
+         ParallelLoop.forRange (n, parallelGrainSize, body);
+      }
+      else {
+         body.apply (0, n);
+      }
+   }
+
+   private double sum (double[] vals, int num) {
+      double sum = 0;
+      for (int i=0; i<num; i++) {
+         sum += vals[i];
+      }
+      return sum;
+   }
+
    private double computeMesh2Distances (
-      AffineTransform3d X, PolygonalMesh mesh1, double rad1) {
+      final AffineTransform3d X, PolygonalMesh mesh1, final double rad1) {
       
-      BVFeatureQuery query = new BVFeatureQuery();
-      Vector2d coords = new Vector2d();
-      Point3d nearest = new Point3d();
-      double distSum = 0;
-      for (int i=0; i<myNumMesh2Dists; i++) {
-         VertexDistInfo info = myDistInfo[i];
+      // the bounding volume hierarchy is obtained first, since it cannot
+      // be built safely from multiple threads. Each thread uses its own
+      // query object.
+      if (!mesh1.isTriangular()) {
+         throw new IllegalArgumentException ("mesh is not triangular");
+      }
+      final BVTree bvh = mesh1.getBVTree();
+      final double[] dists = new double[myNumMesh2Dists];
+      forRange (myNumMesh2Dists, (i0, i1) -> {
+         BVFeatureQuery query = myQueries.get();
+         Vector2d coords = new Vector2d();
+         Point3d nearest = new Point3d();
+         for (int i=i0; i<i1; i++) {
+            VertexDistInfo info = myDistInfo[i];
          
-         info.myPnt.transform (X, info.myVertex.pnt);
-         Face face = query.nearestFaceToPoint (
-            nearest, coords, mesh1, info.myPnt);
-//         Face face = obbtree.nearestFace (
-//            info.myPnt, null, nearest, coords, intersector);
+            info.myPnt.transform (X, info.myVertex.pnt);
+            Face face = query.nearestFaceToPoint (
+               nearest, coords, bvh, info.myPnt);
          
-         double d = info.myPnt.distance (nearest);
-         if (d < EPSILON*rad1) {
-            System.out.println ("setting face normal");
-            info.myNrm.set (face.getNormal());
-         }
-         else {
-            info.myNrm.sub (info.myPnt, nearest);
-            info.myNrm.scale (1/d);
+            double d = info.myPnt.distance (nearest);
+            if (d < EPSILON*rad1) {
+               info.myNrm.set (face.getNormal());
+            }
+            else {
+               info.myNrm.sub (info.myPnt, nearest);
+               info.myNrm.scale (1/d);
+            }
+            info.myOffset =
+               info.myPnt.dot(info.myNrm) - nearest.dot(info.myNrm);
+            dists[i] = d;
          }
-         info.myOffset = info.myPnt.dot(info.myNrm) - nearest.dot(info.myNrm);
-         distSum += d;
-      }
-      return distSum;
+      });
+      return sum (dists, myNumMesh2Dists);
    }
 
    private double computeMesh1Distances (
-      AffineTransform3d X, AffineTransform3d Xinv,
-      PolygonalMesh mesh2, double rad2) {
+      final AffineTransform3d X, final AffineTransform3d Xinv,
+      PolygonalMesh mesh2, final double rad2) {
       
-      BVFeatureQuery query = new BVFeatureQuery();
-      Vector2d coords = new Vector2d();
-      Point3d nearest = new Point3d();
-      Point3d pnt = new Point3d();
-      Vector3d nrm = new Vector3d();
-      double distSum = 0;
-      for (int i=0; i<myNumMesh1Dists; i++) {
-         VertexDistInfo info = myDistInfo[myNumMesh2Dists+i];
+      if (!mesh2.isTriangular()) {
+         throw new IllegalArgumentException ("mesh is not triangular");
+      }
+      final BVTree bvh = mesh2.getBVTree();
+      final double[] dists = new double[myNumMesh1Dists];
+      forRange (myNumMesh1Dists, (i0, i1) -> {
+         BVFeatureQuery query = myQueries.get();
+         Vector2d coords = new Vector2d();
+         Point3d nearest = new Point3d();
+         Point3d pnt = new Point3d();
+         Vector3d nrm = new Vector3d();
+         for (int i=i0; i<i1; i++) {
+            VertexDistInfo info = myDistInfo[myNumMesh2Dists+i];
          
-         pnt.transform (Xinv, info.myVertex.pnt);
-         Face face = query.nearestFaceToPoint (nearest, coords, mesh2, pnt);
-//         Face face = obbtree.nearestFace (
-//            pnt, null, nearest, coords, intersector);
+            pnt.transform (Xinv, info.myVertex.pnt);
+            Face face = query.nearestFaceToPoint (nearest, coords, bvh, pnt);
          
-         double d = pnt.distance (nearest);
-         if (d < EPSILON*rad2) {
-            System.out.println ("setting face normal");
-            nrm.set (face.getNormal());
-         }
-         else {
-            nrm.sub (pnt, nearest);
-            nrm.scale (1/d);
+            double d = pnt.distance (nearest);
+            if (d < EPSILON*rad2) {
+               nrm.set (face.getNormal());
+            }
+            else {
+               nrm.sub (pnt, nearest);
+               nrm.scale (1/d);
+            }
+            nrm.transform (X);
+            double nlen = nrm.norm();
+            info.myNrm.scale (-1/nlen, nrm);
+            d *= nlen;
+            info.myPnt.transform (X, nearest);
+            info.myOffset =
+               info.myPnt.dot(info.myNrm) - info.myVertex.pnt.dot(info.myNrm);
+            dists[i] = d;
          }
-         nrm.transform (X);
-         double nlen = nrm.norm();
-         info.myNrm.scale (-1/nlen, nrm);
-         d *= nlen;
-         info.myPnt.transform (X, nearest);
-         info.myOffset =
-            info.myPnt.dot(info.myNrm) - info.myVertex.pnt.dot(info.myNrm);
-         distSum += d;
-      }
-      return distSum;
+      });
+      return sum (dists, myNumMesh1Dists);
    }
 
    /**
@@ -6,15 +6,150 @@
  */
 package maspack.geometry;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+
+import maspack.concurrency.ParallelLoop;
 import maspack.matrix.*;
 
 /**
  * Applies a simple Laplacian smoothing algorithm to a polygonal mesh, along
  * with volume compenstation.
+ *
+ * <p>The neighbour structure of the mesh is collected once into a compressed
+ * sparse row (CSR) operator, and the iterations are then applied to a flat
+ * array of vertex coordinates, in parallel over the vertices. The mesh
+ * vertex positions are only updated after the last iteration.
  */
 public class LaplacianSmoother {
 
+   /**
+    * If <code>true</code>, smoothing iterations are distributed over
+    * multiple threads.
+    */
+   public static boolean parallelSmoothing = true;
+
+   /**
+    * Minimum number of vertices handled by each thread when smoothing in
+    * parallel.
+    */
+   public static int parallelGrainSize = 2048;
+
+   /**
+    * Describes how the neighbours of each vertex are weighted when forming
+    * the Laplacian.
+    */
+   public enum Weighting {
+      /**
+       * All neighbours are weighted equally (the "umbrella" operator).
+       */
+      UNIFORM,
+
+      /**
+       * Neighbours are weighted by the cotangents of the angles opposite
+       * each edge, evaluated on the initial mesh. Negative weights are
+       * clamped to zero.
+       */
+      COTANGENT
+   };
+
+   /**
+    * Sparse Laplacian operator. The neighbours of vertex <code>i</code> are
+    * stored in <code>nbrs[offs[i]]</code> to <code>nbrs[offs[i+1]-1]</code>,
+    * with the corresponding normalized weights in <code>wgts</code>. If
+    * <code>wgts</code> is <code>null</code>, neighbours are weighted
+    * uniformly.
+    */
+   private static class Operator {
+      int numVertices;
+      int[] offs;
+      int[] nbrs;
+      double[] wgts;
+
+      /**
+       * Computes the neighbour average of vertex <code>i</code> from
+       * the coordinates <code>x</code>, storing it in <code>avg</code>.
+       * Returns <code>false</code> if the vertex has no neighbours.
+       */
+      boolean average (double[] avg, double[] x, int i) {
+         int k0 = offs[i];
+         int k1 = offs[i+1];
+         if (k0 == k1) {
+            return false;
+         }
+         double sx = 0;
+         double sy = 0;
+         double sz = 0;
+         if (wgts == null) {
+            for (int k=k0; k<k1; k++) {
+               int j = 3*nbrs[k];
+               sx += x[j];
+               sy += x[j+1];
+               sz += x[j+2];
+            }
+            double s = 1/(double)(k1-k0);
+            avg[0] = sx*s;
+            avg[1] = sy*s;
+            avg[2] = sz*s;
+         }
+         else {
+            for (int k=k0; k<k1; k++) {
+               int j = 3*nbrs[k];
+               double w = wgts[k];
+               sx += w*x[j];
+               sy += w*x[j+1];
+               sz += w*x[j+2];
+            }
+            avg[0] = sx;
+            avg[1] = sy;
+            avg[2] = sz;
+         }
+         return true;
+      }
+
+      /**
+       * Computes the Laplacian of vertex <code>i</code> from the coordinates
+       * <code>x</code>, scaled by <code>s</code>, and stores it in
+       * <code>lap</code>. Returns <code>false</code> if the vertex has no
+       * neighbours.
+       */
+      boolean scaledLaplacian (double[] lap, double s, double[] x, int i) {
+         int k0 = offs[i];
+         int k1 = offs[i+1];
+         if (k0 == k1) {
+            return false;
+         }
+         double sx = 0;
+         double sy = 0;
+         double sz = 0;
+         double scale;
+         if (wgts == null) {
+            for (int k=k0; k<k1; k++) {
+               int j = 3*nbrs[k];
+               sx += x[j];
+               sy += x[j+1];
+               sz += x[j+2];
+            }
+            scale = s/(double)(k1-k0);
+         }
+         else {
+            for (int k=k0; k<k1; k++) {
+               int j = 3*nbrs[k];
+               double w = wgts[k];
+               sx += w*x[j];
+               sy += w*x[j+1];
+               sz += w*x[j+2];
+            }
+            scale = s;
+         }
+         int j = 3*i;
+         lap[0] = sx*scale + (-s)*x[j  ];
+         lap[1] = sy*scale + (-s)*x[j+1];
+         lap[2] = sz*scale + (-s)*x[j+2];
+         return true;
+      }
+   }
+
    private static double estimateRadius (PolygonalMesh mesh) {
       if (mesh.isClosed()) {
          return Math.pow (mesh.computeVolume(), 1/3.0);
@@ -31,33 +166,137 @@ public class LaplacianSmoother {
       }
    }
 
-   private static void addScaledLaplacian (
-      PolygonalMesh mesh, double s, Vector3d[] L) {
+   private static double cotangent (Point3d p0, Point3d p1, Point3d p2) {
+      // cotangent of the angle at p0
+      double ux = p1.x-p0.x, uy = p1.y-p0.y, uz = p1.z-p0.z;
+      double vx = p2.x-p0.x, vy = p2.y-p0.y, vz = p2.z-p0.z;
+      double cx = uy*vz - uz*vy;
+      double cy = uz*vx - ux*vz;
+      double cz = ux*vy - uy*vx;
+      double sin = Math.sqrt (cx*cx + cy*cy + cz*cz);
+      if (sin == 0) {
+         return 0;
+      }
+      return (ux*vx + uy*vy + uz*vz)/sin;
+   }
+
+   private static double cotangentWeight (HalfEdge he) {
+      // he runs from tail to head; the opposite vertex in its face is the
+      // head of the next half-edge
+      double w = cotangent (he.next.head.pnt, he.tail.pnt, he.head.pnt);
+      HalfEdge opp = he.opposite;
+      if (opp != null) {
+         w += cotangent (opp.next.head.pnt, opp.tail.pnt, opp.head.pnt);
+      }
+      return Math.max (0, 0.5*w);
+   }
 
-      for (int i=0; i<mesh.numVertices(); i++) {
-         Vertex3d vtx = mesh.getVertices().get(i);
-         Iterator<HalfEdge> it = vtx.getIncidentHalfEdges();
-         Vector3d lap = L[i];
-         lap.setZero();
-         int n = 0;
+   private static Operator buildOperator (
+      PolygonalMesh mesh, Weighting weighting) {
+
+      ArrayList<Vertex3d> vtxs = mesh.getVertices();
+      int nv = vtxs.size();
+      Operator op = new Operator();
+      op.numVertices = nv;
+      op.offs = new int[nv+1];
+      int nnz = 0;
+      for (int i=0; i<nv; i++) {
+         op.offs[i] = nnz;
+         Iterator<HalfEdge> it = vtxs.get(i).getIncidentHalfEdges();
          while (it.hasNext()) {
-            HalfEdge he = it.next();
-            lap.add (he.getTail().pnt);
-            n++;
+            it.next();
+            nnz++;
          }
-         if (n != 0) {
-            lap.scale (s/(double)n);
-            lap.scaledAdd (-s, vtx.pnt);
+      }
+      op.offs[nv] = nnz;
+      op.nbrs = new int[nnz];
+      if (weighting == Weighting.COTANGENT) {
+         op.wgts = new double[nnz];
+      }
+      for (int i=0; i<nv; i++) {
+         Iterator<HalfEdge> it = vtxs.get(i).getIncidentHalfEdges();
+         int k0 = op.offs[i];
+         int k = k0;
+         double wsum = 0;
+         while (it.hasNext()) {
+            HalfEdge he = it.next();
+            op.nbrs[k] = he.tail.getIndex();
+            if (op.wgts != null) {
+               wsum += (op.wgts[k] = cotangentWeight (he));
+            }
+            k++;
          }
-         else {
-            // no adjacent vertices, so don't do anything
-            lap.setZero();
+         if (op.wgts != null) {
+            if (wsum > 0) {
+               for (k=k0; k<op.offs[i+1]; k++) {
+                  op.wgts[k] /= wsum;
+               }
+            }
+            else {
+               // degenerate neighbourhood; fall back to uniform weights
+               for (k=k0; k<op.offs[i+1]; k++) {
+                  op.wgts[k] = 1/(double)(op.offs[i+1]-k0);
+               }
+            }
          }
       }
-      for (int i=0; i<mesh.numVertices(); i++) {
-         Vertex3d vtx = mesh.getVertices().get(i);
-         vtx.pnt.add (L[i]);
+      return op;
+   }
+
+   private static double[] getPositions (PolygonalMesh mesh) {
+      ArrayList<Vertex3d> vtxs = mesh.getVertices();
+      double[] x = new double[3*vtxs.size()];
+      for (int i=0; i<vtxs.size(); i++) {
+         Point3d pnt = vtxs.get(i).pnt;
+         x[3*i  ] = pnt.x;
+         x[3*i+1] = pnt.y;
+         x[3*i+2] = pnt.z;
+      }
+      return x;
+   }
+
+   private static void setPositions (PolygonalMesh mesh, double[] x) {
+      ArrayList<Vertex3d> vtxs = mesh.getVertices();
+      for (int i=0; i<vtxs.size(); i++) {
+         vtxs.get(i).pnt.set (x[3*i], x[3*i+1], x[3*i+2]);
+      }
+      mesh.notifyVertexPositionsModified();
+   }
+
+   private static void forRange (int n, ParallelLoop.RangeBody body) {
+      if (parallelSmoothing) {
+         ParallelLoop.forRange (n, parallelGrainSize, body);
       }
+      else {
+         body.apply (0, n);
+      }
+   }
+
+   /**
+    * Computes <code>xnew = x + s L(x)</code>, where <code>L</code> is the
+    * Laplacian.
+    */
+   private static void applyScaledLaplacian (
+      final Operator op, final double s,
+      final double[] x, final double[] xnew) {
+
+      forRange (op.numVertices, (i0, i1) -> {
+         double[] lap = new double[3];
+         for (int i=i0; i<i1; i++) {
+            int j = 3*i;
+            if (op.scaledLaplacian (lap, s, x, i)) {
+               xnew[j  ] = x[j  ] + lap[0];
+               xnew[j+1] = x[j+1] + lap[1];
+               xnew[j+2] = x[j+2] + lap[2];
+            }
+            else {
+               // no adjacent vertices, so don't do anything
+               xnew[j  ] = x[j  ];
+               xnew[j+1] = x[j+1];
+               xnew[j+2] = x[j+2];
+            }
+         }
+      });
    }
 
    /**
@@ -67,20 +306,38 @@ public class LaplacianSmoother {
     */
    public static void smooth (
       PolygonalMesh mesh, int iterations, double lam, double mu) {
+      smooth (mesh, iterations, lam, mu, Weighting.UNIFORM);
+   }
+
+   /**
+    * Implements a specified number of iterations of Taubin smoothing, using
+    * a specified weighting for the Laplacian. Setting mu to 0 gives plain
+    * Laplacian smoothing.
+    *
+    * @param mesh mesh to smooth
+    * @param iterations number of iterations
+    * @param lam positive (shrinking) scale factor
+    * @param mu negative (inflating) scale factor, or 0
+    * @param weighting weighting used to form the Laplacian
+    */
+   public static void smooth (
+      PolygonalMesh mesh, int iterations, double lam, double mu,
+      Weighting weighting) {
       double r0, r1;
 
       r0 = estimateRadius (mesh);
-      // L is used to store the Laplacian
-      Vector3d[] L = new Vector3d[mesh.numVertices()];
-      for (int i=0; i<mesh.numVertices(); i++) {
-         L[i] = new Vector3d();
-      }
+      Operator op = buildOperator (mesh, weighting);
+      double[] x = getPositions (mesh);
+      double[] xtmp = new double[x.length];
       for (int k=0; k<iterations; k++) {
-         addScaledLaplacian (mesh, lam, L);
+         applyScaledLaplacian (op, lam, x, xtmp);
+         double[] swap = x; x = xtmp; xtmp = swap;
          if (mu != 0) {
-            addScaledLaplacian (mesh, mu, L);
+            applyScaledLaplacian (op, mu, x, xtmp);
+            swap = x; x = xtmp; xtmp = swap;
          }
       }
+      setPositions (mesh, x);
       r1 = estimateRadius (mesh);
 
       Point3d cent = new Point3d();
@@ -93,4 +350,70 @@ public class LaplacianSmoother {
       //    vtx.pnt.add (cent, diff);
       // }
    }
+
+   /**
+    * Implements a specified number of iterations of HC ("Humphrey's
+    * Classes") smoothing, as described by Vollmer, Mencl and Mueller
+    * (1999). Each iteration applies a Laplacian step and then pushes the
+    * vertices back towards a blend of their original and previous
+    * positions, which greatly reduces shrinkage. Typical values are alpha =
+    * 0, beta = 0.5.
+    *
+    * @param mesh mesh to smooth
+    * @param iterations number of iterations
+    * @param alpha weight of the original positions, in the range [0, 1]
+    * @param beta weight of each vertex's own correction relative to the
+    * average correction of its neighbours, in the range [0, 1]
+    * @param weighting weighting used to form the Laplacian
+    */
+   public static void smoothHC (
+      PolygonalMesh mesh, int iterations, final double alpha,
+      final double beta, Weighting weighting) {
+
+      final Operator op = buildOperator (mesh, weighting);
+      final double[] o = getPositions (mesh);
+      final double[] p = new double[o.length];
+      final double[] b = new double[o.length];
+      final double[] q = o.clone();
+      for (int k=0; k<iterations; k++) {
+         // p = averaged positions, b = difference from blended positions
+         forRange (op.numVertices, (i0, i1) -> {
+            double[] avg = new double[3];
+            for (int i=i0; i<i1; i++) {
+               int j = 3*i;
+               if (!op.average (avg, q, i)) {
+                  avg[0] = q[j]; avg[1] = q[j+1]; avg[2] = q[j+2];
+               }
+               for (int c=0; c<3; c++) {
+                  p[j+c] = avg[c];
+                  b[j+c] = avg[c] - (alpha*o[j+c] + (1-alpha)*q[j+c]);
+               }
+            }
+         });
+         // q = p - (beta b + (1-beta) average(b))
+         forRange (op.numVertices, (i0, i1) -> {
+            double[] avg = new double[3];
+            for (int i=i0; i<i1; i++) {
+               int j = 3*i;
+               if (!op.average (avg, b, i)) {
+                  avg[0] = b[j]; avg[1] = b[j+1]; avg[2] = b[j+2];
+               }
+               for (int c=0; c<3; c++) {
+                  q[j+c] = p[j+c] - (beta*b[j+c] + (1-beta)*avg[c]);
+               }
+            }
+         });
+      }
+      setPositions (mesh, q);
+   }
+
+   /**
+    * Implements a specified number of iterations of HC smoothing using a
+    * uniform Laplacian. See {@link
+    * #smoothHC(PolygonalMesh,int,double,double,Weighting)}.
+    */
+   public static void smoothHC (
+      PolygonalMesh mesh, int iterations, double alpha, double beta) {
+      smoothHC (mesh, iterations, alpha, beta, Weighting.UNIFORM);
+   }
 }
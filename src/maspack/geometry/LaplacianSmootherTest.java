@@ -0,0 +1,163 @@
+package maspack.geometry;
+
+import java.util.Iterator;
+
+import maspack.geometry.LaplacianSmoother.Weighting;
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+public class LaplacianSmootherTest extends UnitTest {
+
+   /**
+    * Reference implementation of uniform Taubin smoothing, operating
+    * directly on the mesh vertices.
+    */
+   private void referenceSmooth (
+      PolygonalMesh mesh, int iterations, double lam, double mu) {
+
+      int nv = mesh.numVertices();
+      Vector3d[] L = new Vector3d[nv];
+      for (int i=0; i<nv; i++) {
+         L[i] = new Vector3d();
+      }
+      for (int k=0; k<iterations; k++) {
+         for (int pass=0; pass<2; pass++) {
+            double s = (pass == 0 ? lam : mu);
+            if (s == 0) {
+               continue;
+            }
+            for (int i=0; i<nv; i++) {
+               Vertex3d vtx = mesh.getVertex(i);
+               Iterator<HalfEdge> it = vtx.getIncidentHalfEdges();
+               L[i].setZero();
+               int n = 0;
+               while (it.hasNext()) {
+                  L[i].add (it.next().getTail().pnt);
+                  n++;
+               }
+               if (n != 0) {
+                  L[i].scale (s/(double)n);
+                  L[i].scaledAdd (-s, vtx.pnt);
+               }
+            }
+            for (int i=0; i<nv; i++) {
+               mesh.getVertex(i).pnt.add (L[i]);
+            }
+         }
+      }
+   }
+
+   private PolygonalMesh createNoisySphere (double noise) {
+      PolygonalMesh mesh = MeshFactory.createIcosahedralSphere (1.0, 3);
+      for (Vertex3d vtx : mesh.getVertices()) {
+         Vector3d n = new Vector3d (vtx.pnt);
+         n.normalize();
+         vtx.pnt.scaledAdd (RandomGenerator.nextDouble (-noise, noise), n);
+      }
+      mesh.notifyVertexPositionsModified();
+      return mesh;
+   }
+
+   private double radiusError (PolygonalMesh mesh) {
+      double err = 0;
+      for (Vertex3d vtx : mesh.getVertices()) {
+         err = Math.max (err, Math.abs (vtx.pnt.norm() - 1));
+      }
+      return err;
+   }
+
+   private void checkPositionsEqual (PolygonalMesh mesh, PolygonalMesh check) {
+      for (int i=0; i<mesh.numVertices(); i++) {
+         Point3d p = mesh.getVertex(i).pnt;
+         if (!p.equals (check.getVertex(i).pnt)) {
+            throw new TestException (
+               "vertex "+i+" is "+p+", expected "+check.getVertex(i).pnt);
+         }
+      }
+   }
+
+   public void testUniform() {
+      PolygonalMesh mesh = createNoisySphere (0.05);
+      // open mesh, to include boundary vertices
+      mesh.removeFace (mesh.getFace(0));
+      mesh.removeFace (mesh.getFace(1));
+
+      PolygonalMesh check = mesh.copy();
+      referenceSmooth (check, 10, 0.33, -0.34);
+
+      boolean saveParallel = LaplacianSmoother.parallelSmoothing;
+      int saveGrain = LaplacianSmoother.parallelGrainSize;
+      LaplacianSmoother.parallelSmoothing = false;
+      PolygonalMesh serial = mesh.copy();
+      LaplacianSmoother.smooth (serial, 10, 0.33, -0.34);
+      LaplacianSmoother.parallelSmoothing = true;
+      LaplacianSmoother.parallelGrainSize = 16;
+      PolygonalMesh parallel = mesh.copy();
+      LaplacianSmoother.smooth (parallel, 10, 0.33, -0.34);
+      LaplacianSmoother.parallelSmoothing = saveParallel;
+      LaplacianSmoother.parallelGrainSize = saveGrain;
+
+      checkPositionsEqual (serial, check);
+      checkPositionsEqual (parallel, check);
+   }
+
+   public void testCotangent() {
+      // smoothing a flat mesh should keep it flat
+      PolygonalMesh plane = MeshFactory.createPlane (2.0, 2.0, 10, 10);
+      for (Vertex3d vtx : plane.getVertices()) {
+         vtx.pnt.x += RandomGenerator.nextDouble (-0.02, 0.02);
+         vtx.pnt.y += RandomGenerator.nextDouble (-0.02, 0.02);
+      }
+      LaplacianSmoother.smooth (plane, 5, 0.33, -0.34, Weighting.COTANGENT);
+      for (Vertex3d vtx : plane.getVertices()) {
+         checkEquals ("z coordinate", vtx.pnt.z, 0.0, 1e-14);
+      }
+
+      PolygonalMesh mesh = createNoisySphere (0.05);
+      double err0 = radiusError (mesh);
+      LaplacianSmoother.smooth (mesh, 10, 0.33, -0.34, Weighting.COTANGENT);
+      double err1 = radiusError (mesh);
+      check ("cotangent smoothing reduces noise", err1 < err0);
+   }
+
+   public void testHC() {
+      PolygonalMesh mesh = createNoisySphere (0.05);
+      double err0 = radiusError (mesh);
+      double vol0 = mesh.computeVolume();
+
+      PolygonalMesh lap = mesh.copy();
+      LaplacianSmoother.smooth (lap, 10, 0.5, 0);
+      PolygonalMesh hc = mesh.copy();
+      LaplacianSmoother.smoothHC (hc, 10, 0.0, 0.5);
+
+      check ("HC smoothing reduces noise", radiusError (hc) < err0);
+      double lapShrink = Math.abs (lap.computeVolume() - vol0);
+      double hcShrink = Math.abs (hc.computeVolume() - vol0);
+      check ("HC smoothing shrinks less than Laplacian", hcShrink < lapShrink);
+
+      boolean saveParallel = LaplacianSmoother.parallelSmoothing;
+      int saveGrain = LaplacianSmoother.parallelGrainSize;
+      LaplacianSmoother.parallelSmoothing = true;
+      LaplacianSmoother.parallelGrainSize = 16;
+      PolygonalMesh parallel = mesh.copy();
+      LaplacianSmoother.smoothHC (parallel, 10, 0.0, 0.5);
+      LaplacianSmoother.parallelSmoothing = saveParallel;
+      LaplacianSmoother.parallelGrainSize = saveGrain;
+      checkPositionsEqual (parallel, hc);
+   }
+
+   public void test() {
+      RandomGenerator.setSeed (0x1234);
+      testUniform();
+      testCotangent();
+      testHC();
+   }
+
+   public static void main (String[] args) {
+      LaplacianSmootherTest tester = new LaplacianSmootherTest();
+      tester.runtest();
+   }
+}
@@ -4,6 +4,8 @@ import java.util.*;
 import maspack.util.*;
 import maspack.matrix.*;
 import maspack.geometry.*;
+import maspack.image.VolumeImage;
+import maspack.concurrency.ParallelLoop;
 
 /**
  * Implements MarchingTetrahedra to generate a mesh from a scalar field defined
@@ -100,6 +102,10 @@ public class MarchingTetrahedra {
       int myIdx;
       double myVal;
 
+      GridPointData () {
+         myPos = new Point3d();
+      }
+
       GridPointData (Point3d pos, int idx, double val) {
          myPos = new Point3d(pos);
          myIdx = idx;
@@ -107,51 +113,181 @@ public class MarchingTetrahedra {
       }
    }
 
-   public class GridPointGenerator {
+   /**
+    * Whether {@link #createMesh createMesh} extracts the surface in parallel.
+    * The grid is divided into slabs of cells along the x axis, each slab is
+    * polygonized independently, and vertices lying on the planes between
+    * slabs are then merged. The resulting mesh is identical to the one
+    * produced serially.
+    */
+   public static boolean parallelExtraction = true;
+
+   /**
+    * Minimum number of cells along the x axis for each slab when
+    * extracting the surface in parallel.
+    */
+   public static int parallelSlabWidth = 4;
+
+   /**
+    * Hash table mapping vertex keys onto vertex indices. A key is formed from
+    * the grid point index, for vertices located at a grid point, or from the
+    * two grid point indices of an edge, for vertices interpolated along an
+    * edge. Vertices are numbered in the order they are added, and their keys
+    * and coordinates are stored in arrays.
+    */
+   private static class VertexTable {
+
+      long[] myKeys = new long[64];
+      double[] myCoords = new double[3*64];
+      int mySize = 0;
+
+      int[] myTable;
+      int myMask;
+
+      VertexTable () {
+         myTable = new int[128];
+         Arrays.fill (myTable, -1);
+         myMask = myTable.length-1;
+      }
+
+      static long key (int idx0, int idx1) {
+         if (idx0 > idx1) {
+            int tmp = idx0; idx0 = idx1; idx1 = tmp;
+         }
+         return ((long)(idx0+1) << 32) | idx1;
+      }
+
+      static long key (int idx) {
+         return idx;
+      }
 
+      static int keyIndex0 (long key) {
+         return (int)(key >>> 32) - 1;
+      }
+
+      static int keyIndex1 (long key) {
+         return (int)key;
+      }
+
+      private static int hash (long key) {
+         key ^= (key >>> 33);
+         key *= 0xff51afd7ed558ccdL;
+         key ^= (key >>> 33);
+         return (int)key;
+      }
+
+      int size() {
+         return mySize;
+      }
+
+      int find (long key) {
+         int h = hash (key) & myMask;
+         int vidx;
+         while ((vidx = myTable[h]) != -1) {
+            if (myKeys[vidx] == key) {
+               return vidx;
+            }
+            h = (h+1) & myMask;
+         }
+         return -1;
+      }
+
+      int add (long key, Point3d pos) {
+         if (mySize == myKeys.length) {
+            myKeys = Arrays.copyOf (myKeys, 2*mySize);
+            myCoords = Arrays.copyOf (myCoords, 6*mySize);
+         }
+         int vidx = mySize++;
+         myKeys[vidx] = key;
+         myCoords[3*vidx  ] = pos.x;
+         myCoords[3*vidx+1] = pos.y;
+         myCoords[3*vidx+2] = pos.z;
+         if (2*mySize > myTable.length) {
+            rehash (2*myTable.length);
+         }
+         else {
+            insert (vidx);
+         }
+         return vidx;
+      }
+
+      private void insert (int vidx) {
+         int h = hash (myKeys[vidx]) & myMask;
+         while (myTable[h] != -1) {
+            h = (h+1) & myMask;
+         }
+         myTable[h] = vidx;
+      }
+
+      private void rehash (int cap) {
+         myTable = new int[cap];
+         Arrays.fill (myTable, -1);
+         myMask = cap-1;
+         for (int vidx=0; vidx<mySize; vidx++) {
+            insert (vidx);
+         }
+      }
+   }
+
+   /**
+    * Polygonizes the cells of the grid whose x indices lie within a given
+    * range. Vertices and triangles are stored locally and merged with those
+    * of the other slabs afterwards.
+    */
+   private class Slab {
+
+      int myCell0;  // first x cell index
+      int myCell1;  // last x cell index + 1
+
+      double[] myVals;
       Vector3d myMinCoord;
       Vector3d myWidths;
       int myNumVX;
       int myNumVY;
-      int myNumVZ;
-
-      GridPointData[] myData;
 
-      GridPointGenerator (Vector3d minCoord, Vector3d widths, Vector3i res) {
-         myNumVX = res.x+1;
-         myNumVY = res.y+1;
-         myNumVZ = res.z+1;
+      GridPointData[] myGdata = new GridPointData[8];
+      VertexTable myVertices = new VertexTable();
+      DynamicIntArray myTris = new DynamicIntArray();
+      Point3d myPos = new Point3d();
+      int[] myTri0 = new int[3];
+      int[] myTri1 = new int[3];
+
+      // used when merging with the previous slab
+      int[] myShared;
+      int[] myGlobalIdxs;
+      int myNumNew;
+      int myVertexOffset;
+
+      Slab (int cell0, int cell1, double[] vals,
+            Vector3d minCoord, Vector3d widths, Vector3i res) {
+         myCell0 = cell0;
+         myCell1 = cell1;
+         myVals = vals;
          myMinCoord = minCoord;
          myWidths = widths;
-         myData = new GridPointData[maxGridPoints()];
+         myNumVX = res.x+1;
+         myNumVY = res.y+1;
+         for (int l=0; l<8; l++) {
+            myGdata[l] = new GridPointData();
+         }
       }
 
-      int maxGridPoints() {
-         return myNumVX*myNumVY*myNumVZ;
-      }        
-
       int getGridPointIndex (int i, int j, int k) {
          return i + j*myNumVX + k*myNumVX*myNumVY;
       }
 
-      GridPointData getGridPointData (
-         int idx, double[] vals, int i, int j, int k) {
-
-         GridPointData data = myData[idx];
-         if (data == null) {
-            Point3d pos = new Point3d();
-            pos.x = i * myWidths.x + myMinCoord.x;
-            pos.y = j * myWidths.y + myMinCoord.y;
-            pos.z = k * myWidths.z + myMinCoord.z;
-            data = new GridPointData (pos, idx, vals[idx]);
-            myData[idx] = data;
-         }
-         return data;
+      void setGridPointData (int l, int idx, int i, int j, int k) {
+         GridPointData data = myGdata[l];
+         data.myPos.x = i * myWidths.x + myMinCoord.x;
+         data.myPos.y = j * myWidths.y + myMinCoord.y;
+         data.myPos.z = k * myWidths.z + myMinCoord.z;
+         data.myIdx = idx;
+         data.myVal = myVals[idx];
       }
 
-      boolean updateCellData (
-         GridPointData[] gdata, double[] vals, int i, int j, int k, double iso) {
+      boolean updateCellData (int i, int j, int k, double iso) {
 
+         double[] vals = myVals;
          int i0 = getGridPointIndex (i, j, k);
          int i1 = getGridPointIndex (i+1, j, k);
          int i2 = getGridPointIndex (i+1, j, k+1);
@@ -173,20 +309,130 @@ public class MarchingTetrahedra {
          if (nneg == 0 || nneg == 8) {
             return false;
          }
-         gdata[0] = getGridPointData (i0, vals, i, j, k);
-         gdata[1] = getGridPointData (i1, vals, i+1, j, k);
-         gdata[2] = getGridPointData (i2, vals, i+1, j, k+1);
-         gdata[3] = getGridPointData (i3, vals, i, j, k+1);
-         gdata[4] = getGridPointData (i4, vals, i, j+1, k);
-         gdata[5] = getGridPointData (i5, vals, i+1, j+1, k);
-         gdata[6] = getGridPointData (i6, vals, i+1, j+1, k+1);
-         gdata[7] = getGridPointData (i7, vals, i, j+1, k+1);
+         setGridPointData (0, i0, i, j, k);
+         setGridPointData (1, i1, i+1, j, k);
+         setGridPointData (2, i2, i+1, j, k+1);
+         setGridPointData (3, i3, i, j, k+1);
+         setGridPointData (4, i4, i, j+1, k);
+         setGridPointData (5, i5, i+1, j+1, k);
+         setGridPointData (6, i6, i+1, j+1, k+1);
+         setGridPointData (7, i7, i, j+1, k+1);
          return true;
       }
-   };
+
+      void addTriangle (int[] tri) {
+         myTris.add (tri[0]);
+         myTris.add (tri[1]);
+         myTris.add (tri[2]);
+      }
+
+      int numTriangles() {
+         return myTris.size()/3;
+      }
+
+      void polygonize (Vector3i res, double iso) {
+         GridPointData[] gdata = myGdata;
+         for (int i=myCell0; i<myCell1; i++) {
+            for (int j=0; j<res.y; j++) {
+               for (int k=0; k<res.z; k++) {
+                  if (updateCellData (i, j, k, iso)) {
+                     if (debug) {
+                        for (int l=0; l<gdata.length; l++) {
+                           GridPointData gd = gdata[l];
+                           System.out.println (
+                              ""+l+"  "+gd.myPos.toString("%8.3f")+
+                              " "+gd.myVal);
+                        }
+                     }
+                     polygonizeTet (this, gdata, 0, 3, 7, 6, iso);
+                     polygonizeTet (this, gdata, 0, 7, 4, 6, iso);
+                     polygonizeTet (this, gdata, 0, 4, 5, 6, iso);
+                     polygonizeTet (this, gdata, 0, 5, 1, 6, iso);
+                     polygonizeTet (this, gdata, 0, 1, 2, 6, iso);
+                     polygonizeTet (this, gdata, 0, 2, 3, 6, iso);
+                  }
+               }
+            }
+         }
+      }
+
+      /**
+       * Returns true if the vertex with the given key lies on the lower x
+       * plane of this slab, and may therefore also have been created by the
+       * previous slab.
+       */
+      boolean onLowerPlane (long key) {
+         int idx0 = VertexTable.keyIndex0 (key);
+         int idx1 = VertexTable.keyIndex1 (key);
+         return (idx1 % myNumVX == myCell0 &&
+                 (idx0 == -1 || idx0 % myNumVX == myCell0));
+      }
+
+      /**
+       * Finds the vertices of this slab which were also created by the
+       * previous slab, and counts the remaining ones.
+       */
+      void findShared (Slab prev) {
+         int nverts = myVertices.size();
+         myShared = new int[nverts];
+         myNumNew = 0;
+         for (int vidx=0; vidx<nverts; vidx++) {
+            long key = myVertices.myKeys[vidx];
+            int pidx = -1;
+            if (prev != null && onLowerPlane (key)) {
+               pidx = prev.myVertices.find (key);
+            }
+            myShared[vidx] = pidx;
+            if (pidx == -1) {
+               myNumNew++;
+            }
+         }
+      }
+
+      /**
+       * Assigns global indices to the vertices of this slab that are not
+       * shared with the previous slab, and creates the associated mesh
+       * vertices.
+       */
+      void createVertices (Vertex3d[] vtxs) {
+         int nverts = myVertices.size();
+         double[] coords = myVertices.myCoords;
+         myGlobalIdxs = new int[nverts];
+         int gidx = myVertexOffset;
+         for (int vidx=0; vidx<nverts; vidx++) {
+            if (myShared[vidx] == -1) {
+               myGlobalIdxs[vidx] = gidx;
+               vtxs[gidx++] = new Vertex3d (
+                  coords[3*vidx], coords[3*vidx+1], coords[3*vidx+2]);
+            }
+         }
+      }
+
+      /**
+       * Assigns global indices to the vertices of this slab that are shared
+       * with the previous slab.
+       */
+      void resolveShared (Slab prev) {
+         for (int vidx=0; vidx<myShared.length; vidx++) {
+            if (myShared[vidx] != -1) {
+               myGlobalIdxs[vidx] = prev.myGlobalIdxs[myShared[vidx]];
+            }
+         }
+      }
+   }
 
    boolean debug = false;
 
+   private int numSlabs (int ncells) {
+      if (!parallelExtraction || ParallelLoop.getParallelism() <= 1) {
+         return 1;
+      }
+      int nslabs = Math.min (
+         ncells/Math.max (1, parallelSlabWidth),
+         4*ParallelLoop.getParallelism());
+      return Math.max (1, nslabs);
+   }
+
    /**
     * Creates an isosurface mesh from a 3D grid of values. The grid has a
     * resolution of <code>res.x</code> X <code>res.y</code> X
@@ -211,75 +457,130 @@ public class MarchingTetrahedra {
     */
    public PolygonalMesh createMesh (
       double[] vals, Vector3d minCoord, Vector3d cellWidths,
-      Vector3i res, double iso) {
-      
-      GridPointGenerator vgen = new GridPointGenerator (minCoord, cellWidths, res);
+      final Vector3i res, final double iso) {
 
-      if (vals.length < vgen.maxGridPoints()) {
+      int maxGridPoints = (res.x+1)*(res.y+1)*(res.z+1);
+      if (vals.length < maxGridPoints) {
          throw new IllegalArgumentException (
-            "vals insufficiently long; should have length of "+
-            vgen.maxGridPoints());
-      }
-      LinkedHashMap<VertexId,Vertex3d> vertexMap =
-         new LinkedHashMap<VertexId,Vertex3d>();
-      ArrayList<int[]> triangles = new ArrayList<int[]>();
-
-      GridPointData[] gdata = new GridPointData[8];
-      int[] idxs = new int[8];
-
-      for (int i=0; i<res.x; i++) {
-         for (int j=0; j<res.y; j++) {
-            for (int k=0; k<res.z; k++) {
-               //debug = (i==1 && j==0 && k==1);
-               if (vgen.updateCellData (gdata, vals, i, j, k, iso)) {
-                  if (debug) {
-                     for (int l=0; l<gdata.length; l++) {
-                        GridPointData gd = gdata[l];
-                        System.out.println (
-                           ""+l+"  "+gd.myPos.toString("%8.3f")+" "+gd.myVal);
-                     }
-                  }
-                  polygonizeTet (triangles, gdata, 0, 3, 7, 6, iso, vertexMap);
-                  polygonizeTet (triangles, gdata, 0, 7, 4, 6, iso, vertexMap);
-                  polygonizeTet (triangles, gdata, 0, 4, 5, 6, iso, vertexMap);
-                  polygonizeTet (triangles, gdata, 0, 5, 1, 6, iso, vertexMap);
-                  polygonizeTet (triangles, gdata, 0, 1, 2, 6, iso, vertexMap);
-                  polygonizeTet (triangles, gdata, 0, 2, 3, 6, iso, vertexMap);
+            "vals insufficiently long; should have length of "+maxGridPoints);
+      }
+
+      final int nslabs = numSlabs (res.x);
+      final Slab[] slabs = new Slab[nslabs];
+      for (int s=0; s<nslabs; s++) {
+         slabs[s] = new Slab (
+            (int)((long)s*res.x/nslabs), (int)((long)(s+1)*res.x/nslabs),
+            vals, minCoord, cellWidths, res);
+      }
+      if (nslabs > 1) {
+         ParallelLoop.forRange (nslabs, 1, (s0, s1) -> {
+               for (int s=s0; s<s1; s++) {
+                  slabs[s].polygonize (res, iso);
                }
-            }
-         }
+            });
+         ParallelLoop.forRange (nslabs, 1, (s0, s1) -> {
+               for (int s=s0; s<s1; s++) {
+                  slabs[s].findShared (s > 0 ? slabs[s-1] : null);
+               }
+            });
+      }
+      else {
+         slabs[0].polygonize (res, iso);
+         slabs[0].findShared (null);
+      }
+
+      // vertices are numbered in the order in which a serial traversal of
+      // the cells would first create them
+      int nverts = 0;
+      for (int s=0; s<nslabs; s++) {
+         slabs[s].myVertexOffset = nverts;
+         nverts += slabs[s].myNumNew;
+      }
+      final Vertex3d[] vtxs = new Vertex3d[nverts];
+      if (nslabs > 1) {
+         ParallelLoop.forRange (nslabs, 1, (s0, s1) -> {
+               for (int s=s0; s<s1; s++) {
+                  slabs[s].createVertices (vtxs);
+               }
+            });
+         ParallelLoop.forRange (1, nslabs, 1, (s0, s1) -> {
+               for (int s=s0; s<s1; s++) {
+                  slabs[s].resolveShared (slabs[s-1]);
+               }
+            });
+      }
+      else {
+         slabs[0].createVertices (vtxs);
       }
 
-      // int bad = 0;
-      // for (int i=0; i<32; i++) {
-      //    if (badTris[i] > 0) {
-      //       System.out.printf (
-      //          "bad tri 0x%x %d  %d/%d\n", i/2, i%2, badTris[i], allTris[i]);
-      //       bad += badTris[i];
-      //    }
-      // }
-      // System.out.println ("bad tris=" + bad + "/" + triangles.size());
       PolygonalMesh mesh = new PolygonalMesh();
-      for (Vertex3d v : vertexMap.values()) {
-         mesh.addVertex (v);
+      for (int i=0; i<nverts; i++) {
+         mesh.addVertex (vtxs[i]);
       }
-      for (int[] tri : triangles) {
-         mesh.addFace (tri);
+      int[] tri = new int[3];
+      for (int s=0; s<nslabs; s++) {
+         int[] tris = slabs[s].myTris.getArray();
+         int[] gidxs = slabs[s].myGlobalIdxs;
+         int ntris = slabs[s].numTriangles();
+         for (int t=0; t<ntris; t++) {
+            tri[0] = gidxs[tris[3*t  ]];
+            tri[1] = gidxs[tris[3*t+1]];
+            tri[2] = gidxs[tris[3*t+2]];
+            mesh.addFace (tri);
+         }
+      }
+      if (debug) {
+         System.out.println ("closed=" + mesh.isClosed());
       }
-      System.out.println ("closed=" + mesh.isClosed());
-      return mesh;      
+      return mesh;
+   }
+
+   /**
+    * Creates an isosurface mesh from one channel of a volume image. The
+    * voxel centers are used as the grid vertices, and the mesh is transformed
+    * into world coordinates using the image's voxel transform.
+    *
+    * @param image image providing the grid values
+    * @param channel image channel to use for the values
+    * @param iso value to be used to create the isosurface
+    * @return mesh corresponding to the iso surface
+    */
+   public PolygonalMesh createMesh (
+      VolumeImage image, int channel, double iso) {
+
+      int ncols = image.getNumCols();
+      int nrows = image.getNumRows();
+      int nslices = image.getNumSlices();
+      if (ncols < 2 || nrows < 2 || nslices < 2) {
+         return new PolygonalMesh();
+      }
+      double[] vals = new double[ncols*nrows*nslices];
+      int idx = 0;
+      for (int k=0; k<nslices; k++) {
+         for (int j=0; j<nrows; j++) {
+            for (int i=0; i<ncols; i++) {
+               vals[idx++] = image.getValue (channel, i, j, k);
+            }
+         }
+      }
+      PolygonalMesh mesh = createMesh (
+         vals, Vector3d.ZERO, new Vector3d (1, 1, 1),
+         new Vector3i (ncols-1, nrows-1, nslices-1), iso);
+      mesh.transform (image.getVoxelTransform());
+      return mesh;
    }
 
    // private int[] badTris  = new int[32];      
    // private int[] allTris  = new int[32];      
 
-   void printTriangle (int[] tri) {
-      Point3d p0 = myVerts.get(tri[0]).pnt;
-      Point3d p1 = myVerts.get(tri[1]).pnt;
-      Point3d p2 = myVerts.get(tri[2]).pnt;
-      System.out.println ("  "+p0.toString("%8.3f"));
-      System.out.println ("  "+p1.toString("%8.3f"));
-      System.out.println ("  "+p2.toString("%8.3f"));
+   void printTriangle (Slab slab, int tidx) {
+      double[] coords = slab.myVertices.myCoords;
+      for (int i=0; i<3; i++) {
+         int vidx = slab.myTris.get (3*tidx+i);
+         Point3d p = new Point3d (
+            coords[3*vidx], coords[3*vidx+1], coords[3*vidx+2]);
+         System.out.println ("  "+p.toString("%8.3f"));
+      }
    }         
 
    double interpVertex (Point3d p, GridPointData[] gdata) {
@@ -380,11 +681,10 @@ public class MarchingTetrahedra {
     * k3 is hence "inside".
     */
    int polygonizeTet (
-      ArrayList<int[]> triangles, GridPointData[] gdata,
-      int k0, int k1, int k2, int k3, 
-      double iso, HashMap<VertexId,Vertex3d> vertexMap) {
+      Slab slab, GridPointData[] gdata,
+      int k0, int k1, int k2, int k3, double iso) {
 
-      int nprev = triangles.size();
+      int nprev = slab.numTriangles();
       int tricode;
 
       /*
@@ -416,154 +716,117 @@ public class MarchingTetrahedra {
             t1 = 2; t2 = 1; // flip triangle
          }
          case 0x0E: {
-            int[] tr0 = new int[3]; 
-            tr0[t0] = getOrCreateVertex(gdata,k0,k1,iso,vertexMap);
-            tr0[t1] = getOrCreateVertex(gdata,k0,k2,iso,vertexMap);
-            tr0[t2] = getOrCreateVertex(gdata,k0,k3,iso,vertexMap);
-            triangles.add (tr0);
+            int[] tr0 = slab.myTri0;
+            tr0[t0] = getOrCreateVertex(gdata,k0,k1,iso,slab);
+            tr0[t1] = getOrCreateVertex(gdata,k0,k2,iso,slab);
+            tr0[t2] = getOrCreateVertex(gdata,k0,k3,iso,slab);
+            slab.addTriangle (tr0);
             break;
          }
          case 0x02: {
             t1 = 2; t2 = 1; // flip triangle
          }
          case 0x0D: {
-            int[] tr0 = new int[3];
-            tr0[t0] = getOrCreateVertex(gdata,k1,k0,iso,vertexMap);
-            tr0[t1] = getOrCreateVertex(gdata,k1,k3,iso,vertexMap);
-            tr0[t2] = getOrCreateVertex(gdata,k1,k2,iso,vertexMap);
-            triangles.add (tr0);
+            int[] tr0 = slab.myTri0;
+            tr0[t0] = getOrCreateVertex(gdata,k1,k0,iso,slab);
+            tr0[t1] = getOrCreateVertex(gdata,k1,k3,iso,slab);
+            tr0[t2] = getOrCreateVertex(gdata,k1,k2,iso,slab);
+            slab.addTriangle (tr0);
             break;
          }
          case 0x03: {
             t1 = 2; t2 = 1; // flip triangle
          }
          case 0x0C: {
-            int[] tr0 = new int[3];
-            tr0[t0] = getOrCreateVertex(gdata,k0,k3,iso,vertexMap);
-            tr0[t1] = getOrCreateVertex(gdata,k1,k3,iso,vertexMap);
-            tr0[t2] = getOrCreateVertex(gdata,k0,k2,iso,vertexMap);
-            triangles.add (tr0);
+            int[] tr0 = slab.myTri0;
+            tr0[t0] = getOrCreateVertex(gdata,k0,k3,iso,slab);
+            tr0[t1] = getOrCreateVertex(gdata,k1,k3,iso,slab);
+            tr0[t2] = getOrCreateVertex(gdata,k0,k2,iso,slab);
+            slab.addTriangle (tr0);
 
-            int[] tr1 = new int[3];
+            int[] tr1 = slab.myTri1;
             tr1[t0] = tr0[t1];
-            tr1[t1] = getOrCreateVertex(gdata,k1,k2,iso,vertexMap);
+            tr1[t1] = getOrCreateVertex(gdata,k1,k2,iso,slab);
             tr1[t2] = tr0[t2];
-            triangles.add (tr1);
+            slab.addTriangle (tr1);
             break;
          }
          case 0x04: {
             t1 = 2; t2 = 1; // flip triangles
          }
          case 0x0B: {
-            int[] tr0 = new int[3];
-            tr0[t0] = getOrCreateVertex(gdata,k2,k0,iso,vertexMap);
-            tr0[t1] = getOrCreateVertex(gdata,k2,k1,iso,vertexMap);
-            tr0[t2] = getOrCreateVertex(gdata,k2,k3,iso,vertexMap);
-            triangles.add (tr0);
+            int[] tr0 = slab.myTri0;
+            tr0[t0] = getOrCreateVertex(gdata,k2,k0,iso,slab);
+            tr0[t1] = getOrCreateVertex(gdata,k2,k1,iso,slab);
+            tr0[t2] = getOrCreateVertex(gdata,k2,k3,iso,slab);
+            slab.addTriangle (tr0);
             break;
          }
          case 0x05: {
             t1 = 2; t2 = 1; // flip triangles
          }
          case 0x0A: {
-            int[] tr0 = new int[3];
-            tr0[t0] = getOrCreateVertex(gdata,k0,k1,iso,vertexMap);
-            tr0[t1] = getOrCreateVertex(gdata,k2,k3,iso,vertexMap);
-            tr0[t2] = getOrCreateVertex(gdata,k0,k3,iso,vertexMap);
-            triangles.add (tr0);
-            int[] tr1 = new int[3];
+            int[] tr0 = slab.myTri0;
+            tr0[t0] = getOrCreateVertex(gdata,k0,k1,iso,slab);
+            tr0[t1] = getOrCreateVertex(gdata,k2,k3,iso,slab);
+            tr0[t2] = getOrCreateVertex(gdata,k0,k3,iso,slab);
+            slab.addTriangle (tr0);
+            int[] tr1 = slab.myTri1;
             tr1[t0] = tr0[t0];
-            tr1[t1] = getOrCreateVertex(gdata,k1,k2,iso,vertexMap);
+            tr1[t1] = getOrCreateVertex(gdata,k1,k2,iso,slab);
             tr1[t2] = tr0[t1];
-            triangles.add (tr1);
+            slab.addTriangle (tr1);
             break;
          }
          case 0x06: {
             t1 = 2; t2 = 1; // flip triangles
          }
          case 0x09: {
-            int[] tr0 = new int[3];
-            tr0[t0] = getOrCreateVertex(gdata,k0,k1,iso,vertexMap);
-            tr0[t1] = getOrCreateVertex(gdata,k1,k3,iso,vertexMap);
-            tr0[t2] = getOrCreateVertex(gdata,k2,k3,iso,vertexMap);
-            triangles.add (tr0);
-            int[] tr1 = new int[3];
+            int[] tr0 = slab.myTri0;
+            tr0[t0] = getOrCreateVertex(gdata,k0,k1,iso,slab);
+            tr0[t1] = getOrCreateVertex(gdata,k1,k3,iso,slab);
+            tr0[t2] = getOrCreateVertex(gdata,k2,k3,iso,slab);
+            slab.addTriangle (tr0);
+            int[] tr1 = slab.myTri1;
             tr1[t0] = tr0[t2];
-            tr1[t1] = getOrCreateVertex(gdata,k0,k2,iso,vertexMap);
+            tr1[t1] = getOrCreateVertex(gdata,k0,k2,iso,slab);
             tr1[t2] = tr0[t0];
-            triangles.add (tr1);
+            slab.addTriangle (tr1);
             break;
          }
          case 0x08: {
             t1 = 2; t2 = 1; // flip triangles
          }
          case 0x07: {
-            int[] tr0 = new int[3];
-            tr0[t0] = getOrCreateVertex(gdata,k3,k0,iso,vertexMap);
-            tr0[t1] = getOrCreateVertex(gdata,k3,k2,iso,vertexMap);
-            tr0[t2] = getOrCreateVertex(gdata,k3,k1,iso,vertexMap);
-            triangles.add (tr0);
+            int[] tr0 = slab.myTri0;
+            tr0[t0] = getOrCreateVertex(gdata,k3,k0,iso,slab);
+            tr0[t1] = getOrCreateVertex(gdata,k3,k2,iso,slab);
+            tr0[t2] = getOrCreateVertex(gdata,k3,k1,iso,slab);
+            slab.addTriangle (tr0);
             break;
          }
       }
-      int ntri = triangles.size()-nprev;
+      int ntri = slab.numTriangles()-nprev;
       if (debug && ntri > 0) {
          System.out.printf (
             "added %d, code=%x, tet=%d %d %d %d\n",
             ntri, tricode, k0, k1, k2, k3);
-         for (int i=nprev; i<triangles.size(); i++) {
+         for (int i=nprev; i<slab.numTriangles(); i++) {
             System.out.println ("----");
-            printTriangle (triangles.get(i));
+            printTriangle (slab, i);
          }
       }
-      // for (int i=nprev; i<triangles.size(); i++) {
+      // for (int i=nprev; i<slab.numTriangles(); i++) {
       //    testVertices (triangles.get(i), gdata);
       // }
 
       
-      return(triangles.size()-nprev);
+      return ntri;
    }
 
 
-   private class VertexId {
-      
-      int myIdx0;
-      int myIdx1;
-
-      VertexId (int idx0) {
-         this (-1, idx0);
-      }
-
-      VertexId (int idx0, int idx1) {
-         if (idx0 < idx1) {
-            myIdx0 = idx0;
-            myIdx1 = idx1;
-         }
-         else {
-            myIdx0 = idx1;
-            myIdx1 = idx0;           
-         }
-      }
-
-      public boolean equals (Object obj) {
-         if (obj instanceof VertexId) {
-            VertexId vid = (VertexId)obj;
-            return (vid.myIdx0 == myIdx0 && vid.myIdx1 == myIdx1);
-         }
-         else {
-            return false;
-         }
-      }
-
-      public int hashCode() {
-         return myIdx0 + 63719*myIdx1;
-      }
-   }
-         
    double EPS = 1e-10;
 
-   ArrayList<Vertex3d> myVerts = new ArrayList<Vertex3d>();
-
    double solveLinear (
       GridPointData[] gdata, int k0, int k1, double iso) {
       
@@ -689,8 +952,7 @@ public class MarchingTetrahedra {
    }
 
    int getOrCreateVertex (
-      GridPointData[] gdata, int k0, int k1, double iso,
-      HashMap<VertexId,Vertex3d> vertexMap) {
+      GridPointData[] gdata, int k0, int k1, double iso, Slab slab) {
 
       if (k0 > k1) {
          int kt = k0; k0 = k1; k1 = kt;
@@ -720,18 +982,18 @@ public class MarchingTetrahedra {
                gdata, k0, k1, xv[0], xv[1], xv[2], xv[3], xv[4], xv[5], iso);
          }
       }
-      Point3d p = new Point3d();
-      VertexId vid;
+      Point3d p = slab.myPos;
+      long key;
       if (mu == 0) {
-         vid = new VertexId (gdata[k0].myIdx);
+         key = VertexTable.key (gdata[k0].myIdx);
          p.set (gdata[k0].myPos);
       }
       else if (mu == 1) {
-         vid = new VertexId (gdata[k1].myIdx);
+         key = VertexTable.key (gdata[k1].myIdx);
          p.set (gdata[k1].myPos);
       }
       else {
-         vid = new VertexId (gdata[k0].myIdx, gdata[k1].myIdx);
+         key = VertexTable.key (gdata[k0].myIdx, gdata[k1].myIdx);
          p.combine (1-mu, gdata[k0].myPos, mu, gdata[k1].myPos);
       }
       if (myMultilinearInterp) {
@@ -744,14 +1006,12 @@ public class MarchingTetrahedra {
          }
       }
       
-      Vertex3d vtx = vertexMap.get (vid);
-      if (vtx == null) {
-         vtx = new Vertex3d (p);
-         vtx.setIndex (vertexMap.size());
-         myVerts.add (vtx);
-         vertexMap.put (vid, vtx);
-      }
-      return vtx.getIndex();
+      VertexTable vertices = slab.myVertices;
+      int vidx = vertices.find (key);
+      if (vidx == -1) {
+         vidx = vertices.add (key, p);
+      }
+      return vidx;
    }
 
 }
@@ -0,0 +1,130 @@
+package maspack.geometry;
+
+import maspack.image.VolumeImage;
+import maspack.matrix.AffineTransform3d;
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+import maspack.matrix.Vector3i;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+public class MarchingTetrahedraTest extends UnitTest {
+
+   private double[] createSphereValues (
+      Vector3i res, Vector3d minCoord, Vector3d widths, double rad) {
+
+      double[] vals = new double[(res.x+1)*(res.y+1)*(res.z+1)];
+      int idx = 0;
+      for (int k=0; k<=res.z; k++) {
+         for (int j=0; j<=res.y; j++) {
+            for (int i=0; i<=res.x; i++) {
+               double x = minCoord.x + i*widths.x;
+               double y = minCoord.y + j*widths.y;
+               double z = minCoord.z + k*widths.z;
+               vals[idx++] = Math.sqrt (x*x + y*y + z*z) - rad;
+            }
+         }
+      }
+      return vals;
+   }
+
+   private void checkMeshesEqual (PolygonalMesh mesh, PolygonalMesh check) {
+      checkEquals ("numVertices", mesh.numVertices(), check.numVertices());
+      checkEquals ("numFaces", mesh.numFaces(), check.numFaces());
+      for (int i=0; i<mesh.numVertices(); i++) {
+         Point3d p = mesh.getVertex(i).pnt;
+         if (!p.equals (check.getVertex(i).pnt)) {
+            throw new TestException (
+               "vertex "+i+" is "+p+", expected "+check.getVertex(i).pnt);
+         }
+      }
+      for (int i=0; i<mesh.numFaces(); i++) {
+         int[] idxs = mesh.getFace(i).getVertexIndices();
+         int[] chks = check.getFace(i).getVertexIndices();
+         for (int j=0; j<3; j++) {
+            checkEquals ("face "+i+" vertex "+j, idxs[j], chks[j]);
+         }
+      }
+   }
+
+   public void testSphere (Vector3i res) {
+      double rad = 0.7;
+      Vector3d widths = new Vector3d (2.0/res.x, 2.0/res.y, 2.0/res.z);
+      Vector3d minCoord = new Vector3d (-1, -1, -1);
+      double[] vals = createSphereValues (res, minCoord, widths, rad);
+
+      boolean saveParallel = MarchingTetrahedra.parallelExtraction;
+      int saveWidth = MarchingTetrahedra.parallelSlabWidth;
+      MarchingTetrahedra marcher = new MarchingTetrahedra();
+
+      MarchingTetrahedra.parallelExtraction = false;
+      PolygonalMesh check = marcher.createMesh (vals, minCoord, widths, res, 0);
+      MarchingTetrahedra.parallelExtraction = true;
+      MarchingTetrahedra.parallelSlabWidth = 1;
+      PolygonalMesh mesh = marcher.createMesh (vals, minCoord, widths, res, 0);
+      MarchingTetrahedra.parallelExtraction = saveParallel;
+      MarchingTetrahedra.parallelSlabWidth = saveWidth;
+
+      checkMeshesEqual (mesh, check);
+      check ("mesh is closed", mesh.isClosed());
+      double maxw = Math.max (widths.x, Math.max (widths.y, widths.z));
+      for (Vertex3d vtx : mesh.getVertices()) {
+         double err = Math.abs (vtx.pnt.norm() - rad);
+         if (err > maxw) {
+            throw new TestException (
+               "vertex "+vtx.pnt+" too far from sphere surface");
+         }
+      }
+   }
+
+   public void testVolumeImage() {
+      final Vector3i res = new Vector3i (9, 12, 10);
+      final Vector3d widths = new Vector3d (0.2, 0.15, 0.2);
+      final Vector3d minCoord = new Vector3d (-0.9, -0.9, -1.0);
+      final double[] vals = createSphereValues (res, minCoord, widths, 0.6);
+      final AffineTransform3d XV = new AffineTransform3d();
+      XV.A.setDiagonal (widths);
+      XV.p.set (minCoord);
+
+      VolumeImage image = new VolumeImage() {
+            public double getValue (int channel, int col, int row, int slice) {
+               return vals[col + (res.x+1)*(row + (res.y+1)*slice)];
+            }
+            public int getNumChannels() {
+               return 1;
+            }
+            public int getNumRows() {
+               return res.y+1;
+            }
+            public int getNumCols() {
+               return res.x+1;
+            }
+            public int getNumSlices() {
+               return res.z+1;
+            }
+            public AffineTransform3d getVoxelTransform() {
+               return XV;
+            }
+         };
+      MarchingTetrahedra marcher = new MarchingTetrahedra();
+      PolygonalMesh mesh = marcher.createMesh (image, 0, 0);
+      PolygonalMesh check = marcher.createMesh (vals, minCoord, widths, res, 0);
+      checkEquals ("numVertices", mesh.numVertices(), check.numVertices());
+      checkEquals ("numFaces", mesh.numFaces(), check.numFaces());
+      for (int i=0; i<mesh.numVertices(); i++) {
+         checkEquals (
+            "vertex "+i, mesh.getVertex(i).pnt, check.getVertex(i).pnt, 1e-12);
+      }
+   }
+
+   public void test() {
+      testSphere (new Vector3i (10, 10, 10));
+      testSphere (new Vector3i (23, 17, 19));
+      testVolumeImage();
+   }
+
+   public static void main (String[] args) {
+      MarchingTetrahedraTest tester = new MarchingTetrahedraTest();
+      tester.runtest();
+   }
+}
@@ -7,11 +7,12 @@
 package maspack.geometry;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.matrix.AffineTransform3d;
 import maspack.matrix.Point3d;
 import maspack.matrix.RigidTransform3d;
-import maspack.matrix.Vector2d;
 
 /**
  * Performs basic ICP alignment of meshes
@@ -28,83 +29,298 @@ public class MeshICP {
    public static int DEFAULT_MAX_ITERS = 1000;
    public static AlignmentType DEFAULT_ALIGNMENT_TYPE = AlignmentType.RIGID_WITH_SCALING;
 
+   /**
+    * If <code>true</code>, the closest-point correspondences for each
+    * iteration are computed in parallel.
+    */
+   public static boolean parallelCorrespondences = true;
+
+   /**
+    * Minimum number of points handled by each thread when computing
+    * correspondences in parallel.
+    */
+   public static int parallelGrainSize = 1024;
+
+   /**
+    * Describes the convergence of an alignment.
+    */
+   public static class ConvergenceInfo {
+      /**
+       * Number of iterations performed.
+       */
+      public int numIterations;
+
+      /**
+       * Mean correspondence distance (over the inliers) after the final
+       * iteration.
+       */
+      public double meanError;
+
+      /**
+       * RMS correspondence distance (over the inliers) after the final
+       * iteration.
+       */
+      public double rmsError;
+
+      /**
+       * Maximum correspondence distance (over the inliers) after the final
+       * iteration.
+       */
+      public double maxError;
+
+      /**
+       * Absolute change in the mean error over the final iteration.
+       */
+      public double errorChange;
+
+      /**
+       * Number of correspondences used in the final fit.
+       */
+      public int numInliers;
+
+      /**
+       * <code>true</code> if the error change fell below the tolerance
+       * before the maximum number of iterations was reached.
+       */
+      public boolean converged;
+
+      public String toString() {
+         return ("iters=" + numIterations + " meanErr=" + meanError +
+                 " rmsErr=" + rmsError + " maxErr=" + maxError +
+                 " change=" + errorChange + " inliers=" + numInliers +
+                 " converged=" + converged);
+      }
+   }
+
+   // query objects for computing correspondences, one per thread, which
+   // are reused across iterations and alignments
+   private static ThreadLocal<BVFeatureQuery> myQueries =
+      new ThreadLocal<BVFeatureQuery>() {
+         protected BVFeatureQuery initialValue() {
+            return new BVFeatureQuery();
+         }
+      };
+
+   /**
+    * Computes the nearest point on a mesh for each of a set of points,
+    * along with the squared distance. Each thread uses its own query
+    * object.
+    */
+   private static void computeCorrespondences (
+      final Point3d[] projected, final double[] dsqr,
+      final Point3d[] pnts, final BVTree bvh) {
+
+      ParallelLoop.RangeBody body = (i0, i1) -> {
+         BVFeatureQuery query = myQueries.get();
+         for (int i=i0; i<i1; i++) {
+            query.nearestFaceToPoint (projected[i], null, bvh, pnts[i]);
+            dsqr[i] = pnts[i].distanceSquared (projected[i]);
+         }
+      };
+      if (parallelCorrespondences) {
+         ParallelLoop.forRange (pnts.length, parallelGrainSize, body);
+      }
+      else {
+         body.apply (0, pnts.length);
+      }
+   }
+
+   /**
+    * Returns the largest squared distance to be treated as an inlier
+    * when <code>numInliers</code> correspondences are kept. The distances
+    * are copied into <code>work</code>, which is reordered.
+    */
+   private static double trimThreshold (
+      double[] dsqr, int numInliers, double[] work) {
+      System.arraycopy (dsqr, 0, work, 0, dsqr.length);
+      return select (work, dsqr.length, numInliers-1);
+   }
+
+   /**
+    * Partially reorders the first <code>n</code> values of an array so that
+    * the value at index <code>k</code> is the one that would be there if the
+    * values were sorted, and returns that value. Uses quickselect, which has
+    * an expected cost of O(n).
+    */
+   static double select (double[] vals, int n, int k) {
+      int lo = 0;
+      int hi = n-1;
+      while (lo < hi) {
+         // median of three pivot
+         double a = vals[lo];
+         double b = vals[(lo+hi) >>> 1];
+         double c = vals[hi];
+         double pivot =
+            (a < b ? (b < c ? b : (a < c ? c : a)) :
+                     (a < c ? a : (b < c ? c : b)));
+         int i = lo;
+         int j = hi;
+         while (i <= j) {
+            while (vals[i] < pivot) {
+               i++;
+            }
+            while (vals[j] > pivot) {
+               j--;
+            }
+            if (i <= j) {
+               double tmp = vals[i];
+               vals[i] = vals[j];
+               vals[j] = tmp;
+               i++;
+               j--;
+            }
+         }
+         // values in [lo,j] are <= pivot, and those in [i,hi] are >= pivot
+         if (k <= j) {
+            hi = j;
+         }
+         else if (k >= i) {
+            lo = i;
+         }
+         else {
+            return vals[k];
+         }
+      }
+      return vals[k];
+   }
+
    public static AffineTransform3d align(PolygonalMesh mesh1,
       PolygonalMesh mesh2, AlignmentType alignType, double eps, int maxIters, ArrayList<Point3d> out) {
+      return align (
+         mesh1, mesh2, alignType, eps, maxIters, /*trimFraction=*/1.0,
+         out, null);
+   }
 
+   /**
+    * Aligns <code>mesh2</code> to <code>mesh1</code>, returning the
+    * transform that maps <code>mesh2</code> onto <code>mesh1</code>.
+    * Optionally, the correspondences can be trimmed at each iteration so
+    * that only the fraction <code>trimFraction</code> with the smallest
+    * distances is used to fit the incremental transform (as in the
+    * "trimmed ICP" method of Chetverikov et al.). This makes the alignment
+    * robust to outliers and partial overlaps. A value of 1 uses all
+    * correspondences, which gives the same result as the standard method.
+    *
+    * @param mesh1 mesh whose vertices are aligned
+    * @param mesh2 target mesh
+    * @param alignType type of transform to fit
+    * @param eps convergence tolerance on the change in mean error
+    * @param maxIters maximum number of iterations
+    * @param trimFraction fraction of correspondences to use, in the
+    * range (0, 1]
+    * @param out if non-<code>null</code>, returns the nearest point on
+    * <code>mesh2</code> for each vertex of <code>mesh1</code>
+    * @param info if non-<code>null</code>, returns convergence information
+    * @return transform from <code>mesh2</code> to <code>mesh1</code>
+    */
+   public static AffineTransform3d align(PolygonalMesh mesh1,
+      PolygonalMesh mesh2, AlignmentType alignType, double eps, int maxIters,
+      double trimFraction, ArrayList<Point3d> out, ConvergenceInfo info) {
+
+      if (trimFraction <= 0 || trimFraction > 1) {
+         throw new IllegalArgumentException (
+            "trimFraction must be in the range (0, 1]");
+      }
       // align mesh1 to mesh2, then return inverse transform
-      //OBBTree obbt = mesh2.getObbtree(); // for projecting points onto mesh1
-      //TriangleIntersector ti = new TriangleIntersector(); // stores information in nearest face
-                                          // algorithm
-      Vector2d coords = new Vector2d(); // barycentric coordinates of closest
-                                        // point
+      // (mesh2's bounding volume hierarchy is built here, since it cannot
+      // be built safely from multiple threads)
+      BVTree bvh = mesh2.getBVTree();
 
       double err = Double.POSITIVE_INFINITY; // mean distance error
       double prevErr = Double.POSITIVE_INFINITY; // previous mean error
+      double errSqr = 0; // sum of squared distances
+      double errMax = 0; // maximum distance
       int iters = 0; // number of iterations
 
       // get points
-      ArrayList<Point3d> pnts = new ArrayList<Point3d>();
-      ArrayList<Point3d> projected = new ArrayList<Point3d>();
-      
+      int npnts = mesh1.numVertices();
+      Point3d[] pnts = new Point3d[npnts];
+      Point3d[] projected = new Point3d[npnts];
+      double[] dsqr = new double[npnts];
+      for (int i = 0; i < npnts; i++) {
+         pnts[i] = new Point3d(mesh1.getVertex(i).getWorldPoint());
+         projected[i] = new Point3d();
+      }
+      int numInliers = Math.max (1, (int)Math.ceil (trimFraction*npnts));
+      ArrayList<Point3d> fitPnts = new ArrayList<Point3d>(numInliers);
+      ArrayList<Point3d> fitProjected = new ArrayList<Point3d>(numInliers);
+      double[] work = (numInliers < npnts ? new double[npnts] : null);
       
       AffineTransform3d transInc = new AffineTransform3d(); // incremental transformation
       AffineTransform3d transOut = new AffineTransform3d(); // total transform
 
-      // clear point sets
-      pnts.clear();
-      
-      for (Vertex3d v : mesh1.getVertices()) {
-         pnts.add(new Point3d(v.getWorldPoint()));
-      }
-
       do {
-         projected.clear();
-         for (int i = 0; i < pnts.size(); i++) {
-            Point3d p = pnts.get(i);
-            Point3d q = new Point3d();
-            
-            BVFeatureQuery.getNearestFaceToPoint (q, coords, mesh2, p);
-            projected.add(q); // q is the closest point on mesh2 to p
-            
+         computeCorrespondences (projected, dsqr, pnts, bvh);
+
+         // collect the correspondences used for fitting
+         fitPnts.clear();
+         fitProjected.clear();
+         if (numInliers < npnts) {
+            double maxDsqr = trimThreshold (dsqr, numInliers, work);
+            for (int i = 0; i < npnts && fitPnts.size() < numInliers; i++) {
+               if (dsqr[i] <= maxDsqr) {
+                  fitPnts.add(pnts[i]);
+                  fitProjected.add(projected[i]);
+               }
+            }
+         }
+         else {
+            fitPnts.addAll(Arrays.asList(pnts));
+            fitProjected.addAll(Arrays.asList(projected));
          }
          
          switch(alignType) {
             case AFFINE:
-               transInc.fit(projected, pnts); // affine
+               transInc.fit(fitProjected, fitPnts); // affine
                break;
             case ORTHOGONAL:
-               transInc.fitOrthogonal(projected, pnts); // allow orthogonal scaling
+               transInc.fitOrthogonal(fitProjected, fitPnts); // allow orthogonal scaling
                break;
             case RIGID:
-               transInc.fitRigid(projected, pnts, false); // rigid no scaling
+               transInc.fitRigid(fitProjected, fitPnts, false); // rigid no scaling
                break;
             case RIGID_WITH_SCALING:
-               transInc.fitRigid(projected, pnts, true); // rigid with scaling
+               transInc.fitRigid(fitProjected, fitPnts, true); // rigid with scaling
                break;
          }
          
          transOut.mul(transInc, transOut);   // concatenate transforms through pre-multiplication
 
-         // compute error
+         // compute error, over the points used for fitting
+         for (int i = 0; i < npnts; i++) {
+            pnts[i].transform(transInc);
+         }
          prevErr = err;
          err = 0;
-         for (int i = 0; i < pnts.size(); i++) {
-            pnts.get(i).transform(transInc);
-            err += pnts.get(i).distance(projected.get(i));
+         errSqr = 0;
+         errMax = 0;
+         for (int i = 0; i < fitPnts.size(); i++) {
+            double d = fitPnts.get(i).distance(fitProjected.get(i));
+            err += d;
+            errSqr += d*d;
+            errMax = Math.max (errMax, d);
          }
-         err = err / pnts.size(); // mean error
+         err = err / fitPnts.size(); // mean error
          iters++;
 
          // stop when we mean error has converged or maxIters is reached.
       } while ( Math.abs(err-prevErr) > eps && iters < maxIters);
 
+      if (info != null) {
+         info.numIterations = iters;
+         info.meanError = err;
+         info.rmsError = Math.sqrt (errSqr/fitPnts.size());
+         info.maxError = errMax;
+         info.errorChange = Math.abs(err-prevErr);
+         info.numInliers = fitPnts.size();
+         info.converged = (info.errorChange <= eps);
+      }
+
       // copy projected points to out (so in same reference coordinate as mesh2)
       if (out != null) {
          out.clear();
-         for (int i = 0; i < projected.size(); i++) {
-            Point3d p = projected.get(i);
-//            p.transform(transOut);
-            out.add(p);
+         for (int i = 0; i < npnts; i++) {
+            out.add(projected[i]);
          }
       }
       
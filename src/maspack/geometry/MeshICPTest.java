@@ -0,0 +1,151 @@
+package maspack.geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import maspack.geometry.MeshICP.AlignmentType;
+import maspack.geometry.MeshICP.ConvergenceInfo;
+import maspack.matrix.AffineTransform3d;
+import maspack.matrix.Point3d;
+import maspack.matrix.RigidTransform3d;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+public class MeshICPTest extends UnitTest {
+
+   private PolygonalMesh createEllipsoid() {
+      PolygonalMesh mesh = MeshFactory.createIcosahedralSphere (1.0, 3);
+      AffineTransform3d X = new AffineTransform3d();
+      X.A.setDiagonal (1.5, 1.0, 0.6);
+      mesh.transform (X);
+      return mesh;
+   }
+
+   private void checkTransformsEqual (
+      String msg, AffineTransform3d X, AffineTransform3d check, double tol) {
+      if (!X.epsilonEquals (check, tol)) {
+         throw new TestException (
+            msg + ": transform is\n" + X.toString ("%12.8f") +
+            "\nexpected\n" + check.toString ("%12.8f"));
+      }
+   }
+
+   public void testParallel() {
+      PolygonalMesh mesh2 = createEllipsoid();
+      PolygonalMesh mesh1 = createEllipsoid();
+      mesh1.transform (new RigidTransform3d (0.1, -0.05, 0.08, 0.1, 0.05, 0));
+
+      boolean saveParallel = MeshICP.parallelCorrespondences;
+      int saveGrain = MeshICP.parallelGrainSize;
+      MeshICP.parallelCorrespondences = false;
+      ArrayList<Point3d> checkOut = new ArrayList<Point3d>();
+      AffineTransform3d check = MeshICP.align (
+         mesh1, mesh2, AlignmentType.RIGID, 1e-12, 50, checkOut);
+      MeshICP.parallelCorrespondences = true;
+      MeshICP.parallelGrainSize = 16;
+      ArrayList<Point3d> out = new ArrayList<Point3d>();
+      AffineTransform3d X = MeshICP.align (
+         mesh1, mesh2, AlignmentType.RIGID, 1e-12, 50, out);
+      MeshICP.parallelCorrespondences = saveParallel;
+      MeshICP.parallelGrainSize = saveGrain;
+
+      checkTransformsEqual ("parallel alignment", X, check, 0);
+      checkEquals ("number of output points", out.size(), checkOut.size());
+      for (int i=0; i<out.size(); i++) {
+         checkEquals ("output point "+i, out.get(i), checkOut.get(i), 0);
+      }
+   }
+
+   public void testAlignment() {
+      PolygonalMesh mesh2 = createEllipsoid();
+      PolygonalMesh mesh1 = createEllipsoid();
+      RigidTransform3d T = new RigidTransform3d (0.1, -0.05, 0.08, 0.1, 0.05, 0);
+      mesh1.transform (T);
+
+      ConvergenceInfo info = new ConvergenceInfo();
+      AffineTransform3d X = MeshICP.align (
+         mesh1, mesh2, AlignmentType.RIGID, 1e-8, 500, 1.0, null, info);
+      checkTransformsEqual ("rigid alignment", X, new AffineTransform3d (T), 1e-4);
+      check ("alignment converged", info.converged);
+      checkEquals ("number of inliers", info.numInliers, mesh1.numVertices());
+      check ("mean error small", info.meanError < 1e-4);
+      check ("rms error >= mean error", info.rmsError >= info.meanError);
+      check ("max error >= rms error", info.maxError >= info.rmsError);
+   }
+
+   public void testTrimmed() {
+      PolygonalMesh mesh2 = createEllipsoid();
+      PolygonalMesh mesh1 = createEllipsoid();
+      RigidTransform3d T = new RigidTransform3d (0.1, -0.05, 0.08, 0.1, 0.05, 0);
+      mesh1.transform (T);
+      // move 5% of the vertices of mesh1 well away from the surface
+      int nv = mesh1.numVertices();
+      for (int i=0; i<nv; i+=20) {
+         Point3d pnt = mesh1.getVertex(i).pnt;
+         pnt.scale (1.0 + RandomGenerator.nextDouble (0.5, 1.0));
+      }
+      mesh1.notifyVertexPositionsModified();
+
+      AffineTransform3d XT = new AffineTransform3d (T);
+      AffineTransform3d X = MeshICP.align (
+         mesh1, mesh2, AlignmentType.RIGID, 1e-12, 200, 1.0, null, null);
+      AffineTransform3d Xtrim = MeshICP.align (
+         mesh1, mesh2, AlignmentType.RIGID, 1e-12, 200, 0.9, null, null);
+
+      AffineTransform3d err = new AffineTransform3d();
+      err.mulInverseRight (X, XT);
+      AffineTransform3d errTrim = new AffineTransform3d();
+      errTrim.mulInverseRight (Xtrim, XT);
+      err.A.m00 -= 1; err.A.m11 -= 1; err.A.m22 -= 1;
+      errTrim.A.m00 -= 1; errTrim.A.m11 -= 1; errTrim.A.m22 -= 1;
+      double e = err.A.frobeniusNorm() + err.p.norm();
+      double etrim = errTrim.A.frobeniusNorm() + errTrim.p.norm();
+      check ("trimmed alignment error " + etrim + " not less than " + e,
+             etrim < e);
+      check ("trimmed alignment inaccurate: " + etrim, etrim < 1e-3);
+   }
+
+   /**
+    * Checks the selection used to find the trimming threshold against a
+    * full sort, including arrays with many repeated values.
+    */
+   public void testSelect() {
+      for (int trial=0; trial<200; trial++) {
+         int n = RandomGenerator.nextInt (1, 100);
+         int nvals = (trial%2 == 0 ? n : 4);
+         double[] vals = new double[n];
+         for (int i=0; i<n; i++) {
+            vals[i] = RandomGenerator.nextInt (0, nvals);
+         }
+         double[] sorted = Arrays.copyOf (vals, n);
+         Arrays.sort (sorted);
+         int k = RandomGenerator.nextInt (0, n-1);
+         double[] work = Arrays.copyOf (vals, n);
+         double val = MeshICP.select (work, n, k);
+         if (val != sorted[k]) {
+            throw new TestException (
+               "select returned "+val+" for k="+k+", expected "+sorted[k]);
+         }
+         for (int i=0; i<n; i++) {
+            if ((i < k && work[i] > val) || (i > k && work[i] < val)) {
+               throw new TestException (
+                  "select did not partition values about k="+k);
+            }
+         }
+      }
+   }
+
+   public void test() {
+      RandomGenerator.setSeed (0x1234);
+      testParallel();
+      testAlignment();
+      testTrimmed();
+      testSelect();
+   }
+
+   public static void main (String[] args) {
+      MeshICPTest tester = new MeshICPTest();
+      tester.runtest();
+   }
+}
@@ -0,0 +1,857 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.util.Arrays;
+
+import maspack.matrix.Point3d;
+
+/**
+ * Unbounded uniform grid that maps cubic cells to the elements they
+ * contain, intended as a low-overhead replacement for object-keyed spatial
+ * hash tables.
+ *
+ * <p>Elements are identified by non-negative integer ids, and may occupy
+ * any number of cells. Cells are located using an open-addressing hash
+ * table keyed on the cell's integer coordinates packed into a single
+ * {@code long}. The membership of elements in cells is stored in primitive
+ * arrays, as per-cell lists of entries kept in insertion order. After a
+ * bulk {@link #build}, or a call to {@link #compact}, the entries of each
+ * cell are stored contiguously, as in a compressed row layout.
+ *
+ * <p>Elements may be added, removed and moved incrementally. Queries
+ * report elements through an {@link ElementVisitor} callback or into a
+ * caller-supplied buffer, and do not allocate memory. Each element is
+ * reported at most once per query. Queries may be called concurrently,
+ * provided that no updates are made at the same time.
+ *
+ * <p>Cell coordinates are limited to the range [-2^20, 2^20-1] along each
+ * axis. Points outside this range, and cell coordinates passed to methods
+ * such as {@link #addCells} and {@link #findInCells}, are clamped to it, so
+ * that distant cells are merged with the boundary cells rather than
+ * aliased onto unrelated ones.
+ */
+public class SpatialHashGrid {
+
+   /**
+    * Callback used to report the elements found by a query.
+    */
+   public interface ElementVisitor {
+      /**
+       * Called for each element found by a query.
+       *
+       * @param elem id of the element
+       */
+      void visit (int elem);
+   }
+
+   private static final long EMPTY = Long.MIN_VALUE;
+   private static final int COORD_BITS = 21;
+   private static final long COORD_MASK = (1L << COORD_BITS)-1;
+   private static final int MAX_COORD = (1 << (COORD_BITS-1))-1;
+   private static final int MIN_COORD = -(1 << (COORD_BITS-1));
+
+   private double myCellSize;
+   private double myInvCellSize;
+   private double myOx, myOy, myOz;  // grid origin
+
+   // open-addressing table from packed cell coordinates to cell ids
+   private long[] myKeys;
+   private int[] mySlotCells;
+   private int myMask;
+
+   // cells
+   private int myNumCells;
+   private long[] myCellKeys;
+   private int[] myCellHead;
+   private int[] myCellTail;
+   private int myNumNonEmptyCells;
+
+   // entries, each describing the membership of one element in one cell
+   private int myNumEntries;    // high water mark
+   private int myNumFreeEntries;
+   private int myFreeEntry = -1;
+   private int[] myEntryElem;
+   private int[] myEntryCell;
+   private int[] myEntryNext;   // next entry in the same cell
+   private int[] myEntryPrev;   // previous entry in the same cell
+   private int[] myEntryElemNext; // next entry of the same element
+
+   // elements
+   private int[] myElemFirst = new int[0]; // first entry, or -1 if absent
+   private int[] myElemBox = new int[0];   // cell range, if added as a box
+   private boolean[] myElemHasBox = new boolean[0];
+   private int myNumElems;
+
+   /**
+    * Creates a grid with a specified cell size, and with its origin
+    * at (0, 0, 0).
+    *
+    * @param cellSize width of each cell
+    */
+   public SpatialHashGrid (double cellSize) {
+      this (cellSize, 0, 0, 0);
+   }
+
+   /**
+    * Creates a grid with a specified cell size and origin. The cell with
+    * coordinates (i, j, k) contains the points whose x coordinates lie
+    * within [ox+i*cellSize, ox+(i+1)*cellSize), and similarly for y and z.
+    *
+    * @param cellSize width of each cell
+    * @param ox x coordinate of the origin
+    * @param oy y coordinate of the origin
+    * @param oz z coordinate of the origin
+    */
+   public SpatialHashGrid (double cellSize, double ox, double oy, double oz) {
+      if (!(cellSize > 0)) {
+         throw new IllegalArgumentException (
+            "cellSize is "+cellSize+"; must be positive");
+      }
+      myCellSize = cellSize;
+      myInvCellSize = 1/cellSize;
+      myOx = ox;
+      myOy = oy;
+      myOz = oz;
+      allocateTable (16);
+      myCellKeys = new long[16];
+      myCellHead = new int[16];
+      myCellTail = new int[16];
+      allocateEntries (16);
+   }
+
+   /**
+    * Returns the width of the cells in this grid.
+    *
+    * @return cell width
+    */
+   public double getCellSize() {
+      return myCellSize;
+   }
+
+   /**
+    * Returns the number of elements in this grid.
+    *
+    * @return number of elements
+    */
+   public int numElements() {
+      return myNumElems;
+   }
+
+   /**
+    * Returns the number of cells that currently contain elements.
+    *
+    * @return number of non-empty cells
+    */
+   public int numNonEmptyCells() {
+      return myNumNonEmptyCells;
+   }
+
+   /**
+    * Removes all elements from this grid.
+    */
+   public void clear() {
+      Arrays.fill (myKeys, EMPTY);
+      myNumCells = 0;
+      myNumNonEmptyCells = 0;
+      myNumEntries = 0;
+      myNumFreeEntries = 0;
+      myFreeEntry = -1;
+      Arrays.fill (myElemFirst, -1);
+      Arrays.fill (myElemHasBox, false);
+      myNumElems = 0;
+   }
+
+   // cell coordinates and keys
+
+   private static int clampCoord (double v) {
+      if (v >= MAX_COORD) {
+         return MAX_COORD;
+      }
+      else if (v <= MIN_COORD) {
+         return MIN_COORD;
+      }
+      else {
+         return (int)Math.floor (v);
+      }
+   }
+
+   /**
+    * Clamps a cell coordinate to the range supported by this grid.
+    *
+    * @param c cell coordinate
+    * @return clamped coordinate
+    */
+   public static int clampCell (long c) {
+      if (c > MAX_COORD) {
+         return MAX_COORD;
+      }
+      else if (c < MIN_COORD) {
+         return MIN_COORD;
+      }
+      else {
+         return (int)c;
+      }
+   }
+
+   /**
+    * Returns the x coordinate of the cell containing a given x value.
+    *
+    * @param x x value
+    * @return cell x coordinate
+    */
+   public int cellX (double x) {
+      return clampCoord ((x-myOx)*myInvCellSize);
+   }
+
+   /**
+    * Returns the y coordinate of the cell containing a given y value.
+    *
+    * @param y y value
+    * @return cell y coordinate
+    */
+   public int cellY (double y) {
+      return clampCoord ((y-myOy)*myInvCellSize);
+   }
+
+   /**
+    * Returns the z coordinate of the cell containing a given z value.
+    *
+    * @param z z value
+    * @return cell z coordinate
+    */
+   public int cellZ (double z) {
+      return clampCoord ((z-myOz)*myInvCellSize);
+   }
+
+   private static long packKey (int i, int j, int k) {
+      return (((i & COORD_MASK) << (2*COORD_BITS)) |
+              ((j & COORD_MASK) << COORD_BITS) |
+              (k & COORD_MASK));
+   }
+
+   private static int unpackCoord (long key, int shift) {
+      // sign-extend the coordinate from COORD_BITS bits
+      return (int)((key << (64-COORD_BITS-shift)) >> (64-COORD_BITS));
+   }
+
+   private static int hash (long key) {
+      key ^= (key >>> 33);
+      key *= 0xff51afd7ed558ccdL;
+      key ^= (key >>> 33);
+      key *= 0xc4ceb9fe1a85ec53L;
+      key ^= (key >>> 33);
+      return (int)key;
+   }
+
+   // hash table
+
+   private void allocateTable (int cap) {
+      myKeys = new long[cap];
+      Arrays.fill (myKeys, EMPTY);
+      mySlotCells = new int[cap];
+      myMask = cap-1;
+   }
+
+   /**
+    * Returns the id of the cell with a given key, or -1 if there is
+    * no such cell.
+    */
+   private int findCell (long key) {
+      int slot = hash (key) & myMask;
+      while (true) {
+         long k = myKeys[slot];
+         if (k == key) {
+            return mySlotCells[slot];
+         }
+         else if (k == EMPTY) {
+            return -1;
+         }
+         slot = (slot+1) & myMask;
+      }
+   }
+
+   private void insertKey (long key, int cell) {
+      int slot = hash (key) & myMask;
+      while (myKeys[slot] != EMPTY) {
+         slot = (slot+1) & myMask;
+      }
+      myKeys[slot] = key;
+      mySlotCells[slot] = cell;
+   }
+
+   /**
+    * Returns the id of the cell with a given key, creating it if necessary.
+    */
+   private int getOrCreateCell (long key) {
+      int cell = findCell (key);
+      if (cell != -1) {
+         return cell;
+      }
+      if (2*(myNumCells+1) > myKeys.length) {
+         // purge empty cells first, and grow the table if that is not
+         // sufficient
+         rehash ();
+      }
+      if (myNumCells == myCellKeys.length) {
+         int cap = 2*myCellKeys.length;
+         myCellKeys = Arrays.copyOf (myCellKeys, cap);
+         myCellHead = Arrays.copyOf (myCellHead, cap);
+         myCellTail = Arrays.copyOf (myCellTail, cap);
+      }
+      cell = myNumCells++;
+      myCellKeys[cell] = key;
+      myCellHead[cell] = -1;
+      myCellTail[cell] = -1;
+      insertKey (key, cell);
+      return cell;
+   }
+
+   /**
+    * Rebuilds the hash table, discarding cells that have become empty
+    * and renumbering the remaining ones.
+    */
+   private void rehash () {
+      int cap = myKeys.length;
+      while (4*(myNumNonEmptyCells+1) > cap) {
+         cap *= 2;
+      }
+      allocateTable (cap);
+      int ncells = 0;
+      for (int c=0; c<myNumCells; c++) {
+         int head = myCellHead[c];
+         if (head != -1) {
+            myCellKeys[ncells] = myCellKeys[c];
+            myCellHead[ncells] = head;
+            myCellTail[ncells] = myCellTail[c];
+            for (int e=head; e!=-1; e=myEntryNext[e]) {
+               myEntryCell[e] = ncells;
+            }
+            insertKey (myCellKeys[ncells], ncells);
+            ncells++;
+         }
+      }
+      myNumCells = ncells;
+   }
+
+   // entries
+
+   private void allocateEntries (int cap) {
+      myEntryElem = new int[cap];
+      myEntryCell = new int[cap];
+      myEntryNext = new int[cap];
+      myEntryPrev = new int[cap];
+      myEntryElemNext = new int[cap];
+   }
+
+   private int newEntry () {
+      if (myFreeEntry != -1) {
+         int e = myFreeEntry;
+         myFreeEntry = myEntryNext[e];
+         myNumFreeEntries--;
+         return e;
+      }
+      if (myNumEntries == myEntryElem.length) {
+         int cap = 2*myNumEntries;
+         myEntryElem = Arrays.copyOf (myEntryElem, cap);
+         myEntryCell = Arrays.copyOf (myEntryCell, cap);
+         myEntryNext = Arrays.copyOf (myEntryNext, cap);
+         myEntryPrev = Arrays.copyOf (myEntryPrev, cap);
+         myEntryElemNext = Arrays.copyOf (myEntryElemNext, cap);
+      }
+      return myNumEntries++;
+   }
+
+   private void ensureElemCapacity (int elem) {
+      if (elem < 0) {
+         throw new IllegalArgumentException (
+            "element id "+elem+" is negative");
+      }
+      if (elem >= myElemFirst.length) {
+         int cap = Math.max (elem+1, 2*myElemFirst.length);
+         int oldCap = myElemFirst.length;
+         myElemFirst = Arrays.copyOf (myElemFirst, cap);
+         Arrays.fill (myElemFirst, oldCap, cap, -1);
+         myElemBox = Arrays.copyOf (myElemBox, 6*cap);
+         myElemHasBox = Arrays.copyOf (myElemHasBox, cap);
+      }
+   }
+
+   /**
+    * Adds an element to a cell. If {@code checkPresent} is true, nothing is
+    * done if the element already occupies the cell.
+    */
+   private void addToCell (
+      int elem, int i, int j, int k, boolean checkPresent) {
+      int cell = getOrCreateCell (packKey (i, j, k));
+      int first = myElemFirst[elem];
+      if (checkPresent) {
+         for (int e=first; e!=-1; e=myEntryElemNext[e]) {
+            if (myEntryCell[e] == cell) {
+               return;
+            }
+         }
+      }
+      int e = newEntry();
+      myEntryElem[e] = elem;
+      myEntryCell[e] = cell;
+      // append to the cell's list so that cells preserve insertion order
+      int tail = myCellTail[cell];
+      myEntryPrev[e] = tail;
+      myEntryNext[e] = -1;
+      if (tail == -1) {
+         myCellHead[cell] = e;
+         myNumNonEmptyCells++;
+      }
+      else {
+         myEntryNext[tail] = e;
+      }
+      myCellTail[cell] = e;
+      // prepend to the element's list
+      myEntryElemNext[e] = first;
+      myElemFirst[elem] = e;
+      if (first == -1) {
+         myNumElems++;
+      }
+   }
+
+   // adding, removing and updating elements
+
+   /**
+    * Adds an element to all the cells within a range of cell coordinates.
+    * If the element is already present, it is added to any of these cells
+    * that it does not already occupy.
+    *
+    * @param elem element id (must be non-negative)
+    * @param i0 minimum cell x coordinate
+    * @param j0 minimum cell y coordinate
+    * @param k0 minimum cell z coordinate
+    * @param i1 maximum cell x coordinate
+    * @param j1 maximum cell y coordinate
+    * @param k1 maximum cell z coordinate
+    */
+   public void addCells (
+      int elem, int i0, int j0, int k0, int i1, int j1, int k1) {
+      i0 = clampCell (i0); j0 = clampCell (j0); k0 = clampCell (k0);
+      i1 = clampCell (i1); j1 = clampCell (j1); k1 = clampCell (k1);
+      ensureElemCapacity (elem);
+      boolean wasPresent = (myElemFirst[elem] != -1);
+      for (int i=i0; i<=i1; i++) {
+         for (int j=j0; j<=j1; j++) {
+            for (int k=k0; k<=k1; k++) {
+               addToCell (elem, i, j, k, wasPresent);
+            }
+         }
+      }
+      if (!wasPresent) {
+         int[] box = myElemBox;
+         box[6*elem  ] = i0; box[6*elem+1] = j0; box[6*elem+2] = k0;
+         box[6*elem+3] = i1; box[6*elem+4] = j1; box[6*elem+5] = k1;
+         myElemHasBox[elem] = true;
+      }
+      else {
+         myElemHasBox[elem] = false;
+      }
+   }
+
+   /**
+    * Adds an element to the cell containing a point. If the element is
+    * already present, it also remains in the cells it already occupies.
+    *
+    * @param elem element id (must be non-negative)
+    * @param x x coordinate of the point
+    * @param y y coordinate of the point
+    * @param z z coordinate of the point
+    */
+   public void add (int elem, double x, double y, double z) {
+      int i = cellX (x);
+      int j = cellY (y);
+      int k = cellZ (z);
+      addCells (elem, i, j, k, i, j, k);
+   }
+
+   /**
+    * Adds an element to all the cells overlapping an axis-aligned box. If
+    * the element is already present, it also remains in the cells it
+    * already occupies.
+    *
+    * @param elem element id (must be non-negative)
+    * @param min minimum corner of the box
+    * @param max maximum corner of the box
+    */
+   public void add (int elem, Point3d min, Point3d max) {
+      addCells (
+         elem, cellX (min.x), cellY (min.y), cellZ (min.z),
+         cellX (max.x), cellY (max.y), cellZ (max.z));
+   }
+
+   /**
+    * Removes an element from all the cells it occupies.
+    *
+    * @param elem element id
+    * @return {@code true} if the element was present
+    */
+   public boolean remove (int elem) {
+      if (elem < 0 || elem >= myElemFirst.length || myElemFirst[elem] == -1) {
+         return false;
+      }
+      int e = myElemFirst[elem];
+      while (e != -1) {
+         int next = myEntryElemNext[e];
+         int cell = myEntryCell[e];
+         int prev = myEntryPrev[e];
+         int cnext = myEntryNext[e];
+         if (prev == -1) {
+            myCellHead[cell] = cnext;
+         }
+         else {
+            myEntryNext[prev] = cnext;
+         }
+         if (cnext == -1) {
+            myCellTail[cell] = prev;
+         }
+         else {
+            myEntryPrev[cnext] = prev;
+         }
+         if (myCellHead[cell] == -1) {
+            myNumNonEmptyCells--;
+         }
+         myEntryNext[e] = myFreeEntry;
+         myFreeEntry = e;
+         myNumFreeEntries++;
+         e = next;
+      }
+      myElemFirst[elem] = -1;
+      myElemHasBox[elem] = false;
+      myNumElems--;
+      return true;
+   }
+
+   /**
+    * Moves an element so that it occupies exactly the cells within a range
+    * of cell coordinates. If the element was previously added or updated
+    * with the same range, nothing is changed, which makes this method cheap
+    * for elements that move by small amounts relative to the cell size.
+    *
+    * @param elem element id (must be non-negative)
+    * @param i0 minimum cell x coordinate
+    * @param j0 minimum cell y coordinate
+    * @param k0 minimum cell z coordinate
+    * @param i1 maximum cell x coordinate
+    * @param j1 maximum cell y coordinate
+    * @param k1 maximum cell z coordinate
+    * @return {@code true} if the cells occupied by the element changed
+    */
+   public boolean updateCells (
+      int elem, int i0, int j0, int k0, int i1, int j1, int k1) {
+      i0 = clampCell (i0); j0 = clampCell (j0); k0 = clampCell (k0);
+      i1 = clampCell (i1); j1 = clampCell (j1); k1 = clampCell (k1);
+      ensureElemCapacity (elem);
+      if (myElemHasBox[elem]) {
+         int[] box = myElemBox;
+         int b = 6*elem;
+         if (box[b] == i0 && box[b+1] == j0 && box[b+2] == k0 &&
+             box[b+3] == i1 && box[b+4] == j1 && box[b+5] == k1) {
+            return false;
+         }
+      }
+      remove (elem);
+      addCells (elem, i0, j0, k0, i1, j1, k1);
+      return true;
+   }
+
+   /**
+    * Moves an element so that it occupies only the cell containing a point.
+    * See {@link #updateCells}.
+    *
+    * @param elem element id (must be non-negative)
+    * @param x x coordinate of the point
+    * @param y y coordinate of the point
+    * @param z z coordinate of the point
+    * @return {@code true} if the cells occupied by the element changed
+    */
+   public boolean update (int elem, double x, double y, double z) {
+      int i = cellX (x);
+      int j = cellY (y);
+      int k = cellZ (z);
+      return updateCells (elem, i, j, k, i, j, k);
+   }
+
+   /**
+    * Moves an element so that it occupies exactly the cells overlapping an
+    * axis-aligned box. See {@link #updateCells}.
+    *
+    * @param elem element id (must be non-negative)
+    * @param min minimum corner of the box
+    * @param max maximum corner of the box
+    * @return {@code true} if the cells occupied by the element changed
+    */
+   public boolean update (int elem, Point3d min, Point3d max) {
+      return updateCells (
+         elem, cellX (min.x), cellY (min.y), cellZ (min.z),
+         cellX (max.x), cellY (max.y), cellZ (max.z));
+   }
+
+   /**
+    * Queries whether an element is present in this grid.
+    *
+    * @param elem element id
+    * @return {@code true} if the element is present
+    */
+   public boolean contains (int elem) {
+      return (elem >= 0 && elem < myElemFirst.length &&
+              myElemFirst[elem] != -1);
+   }
+
+   /**
+    * Clears this grid and adds a set of points, with point {@code i}
+    * given element id {@code i}. The entries are then compacted so that
+    * the contents of each cell are contiguous.
+    *
+    * @param coords point coordinates, as consecutive x, y, z values
+    * @param npnts number of points
+    */
+   public void build (double[] coords, int npnts) {
+      clear();
+      if (npnts > 0) {
+         ensureElemCapacity (npnts-1);
+      }
+      for (int i=0; i<npnts; i++) {
+         add (i, coords[3*i], coords[3*i+1], coords[3*i+2]);
+      }
+      compact();
+   }
+
+   /**
+    * Rearranges the internal storage so that the entries of each cell are
+    * contiguous and in cell order, and discards empty cells and freed
+    * entries. This improves the memory locality of queries after many
+    * incremental updates, and does not change the contents of the grid.
+    */
+   public void compact() {
+      rehash();
+      int nentries = myNumEntries-myNumFreeEntries;
+      int[] elems = new int[Math.max (nentries, 16)];
+      int[] cells = new int[elems.length];
+      int[] next = new int[elems.length];
+      int[] prev = new int[elems.length];
+      int[] elemNext = new int[elems.length];
+      int[] newIdx = new int[myNumEntries];
+      int n = 0;
+      for (int c=0; c<myNumCells; c++) {
+         int e = myCellHead[c];
+         myCellHead[c] = (e == -1 ? -1 : n);
+         while (e != -1) {
+            newIdx[e] = n;
+            elems[n] = myEntryElem[e];
+            cells[n] = c;
+            prev[n] = n-1;
+            e = myEntryNext[e];
+            next[n] = (e == -1 ? -1 : n+1);
+            n++;
+         }
+         if (myCellHead[c] != -1) {
+            prev[myCellHead[c]] = -1;
+            myCellTail[c] = n-1;
+         }
+      }
+      for (int elem=0; elem<myElemFirst.length; elem++) {
+         int e = myElemFirst[elem];
+         if (e != -1) {
+            myElemFirst[elem] = newIdx[e];
+            while (e != -1) {
+               int enext = myEntryElemNext[e];
+               elemNext[newIdx[e]] = (enext == -1 ? -1 : newIdx[enext]);
+               e = enext;
+            }
+         }
+      }
+      myEntryElem = elems;
+      myEntryCell = cells;
+      myEntryNext = next;
+      myEntryPrev = prev;
+      myEntryElemNext = elemNext;
+      myNumEntries = n;
+      myNumFreeEntries = 0;
+      myFreeEntry = -1;
+   }
+
+   // queries
+
+   /**
+    * Returns {@code true} if entry {@code e} is the first entry of its
+    * element that is encountered when visiting the cells of the range
+    * [i0,i1]x[j0,j1]x[k0,k1] in the order used by {@link #forEachInCells},
+    * with {@code key} being the key of the cell of {@code e}.
+    */
+   private boolean isFirstVisit (
+      int e, long key, int i0, int j0, int k0, int i1, int j1, int k1) {
+      int ci = unpackCoord (key, 2*COORD_BITS);
+      int cj = unpackCoord (key, COORD_BITS);
+      int ck = unpackCoord (key, 0);
+      int elem = myEntryElem[e];
+      if (myElemHasBox[elem]) {
+         // element occupies a box of cells; the first visited cell is the
+         // minimum corner of its intersection with the range
+         int b = 6*elem;
+         return (ci == Math.max (myElemBox[b  ], i0) &&
+                 cj == Math.max (myElemBox[b+1], j0) &&
+                 ck == Math.max (myElemBox[b+2], k0));
+      }
+      for (int f=myElemFirst[elem]; f!=-1; f=myEntryElemNext[f]) {
+         if (f != e) {
+            long fkey = myCellKeys[myEntryCell[f]];
+            int fi = unpackCoord (fkey, 2*COORD_BITS);
+            int fj = unpackCoord (fkey, COORD_BITS);
+            int fk = unpackCoord (fkey, 0);
+            if (fi >= i0 && fi <= i1 && fj >= j0 && fj <= j1 &&
+                fk >= k0 && fk <= k1) {
+               // f is inside the range; check if it is visited earlier
+               if (fi < ci ||
+                   (fi == ci && (fj < cj || (fj == cj && fk < ck)))) {
+                  return false;
+               }
+            }
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Visits each element that occupies at least one cell within a range of
+    * cell coordinates. Cells are visited in order of increasing x, y and
+    * then z coordinates (with z varying fastest), and the elements of each
+    * cell in the order they were added. Elements occupying several of the
+    * cells are visited only once, at the first such cell.
+    *
+    * @param i0 minimum cell x coordinate
+    * @param j0 minimum cell y coordinate
+    * @param k0 minimum cell z coordinate
+    * @param i1 maximum cell x coordinate
+    * @param j1 maximum cell y coordinate
+    * @param k1 maximum cell z coordinate
+    * @param visitor called for each element
+    */
+   public void forEachInCells (
+      int i0, int j0, int k0, int i1, int j1, int k1,
+      ElementVisitor visitor) {
+      i0 = clampCell (i0); j0 = clampCell (j0); k0 = clampCell (k0);
+      i1 = clampCell (i1); j1 = clampCell (j1); k1 = clampCell (k1);
+      boolean single = (i0 == i1 && j0 == j1 && k0 == k1);
+      for (int i=i0; i<=i1; i++) {
+         for (int j=j0; j<=j1; j++) {
+            for (int k=k0; k<=k1; k++) {
+               long key = packKey (i, j, k);
+               int cell = findCell (key);
+               if (cell == -1) {
+                  continue;
+               }
+               for (int e=myCellHead[cell]; e!=-1; e=myEntryNext[e]) {
+                  int elem = myEntryElem[e];
+                  if (single ||
+                      (myElemFirst[elem] == e && myEntryElemNext[e] == -1) ||
+                      isFirstVisit (e, key, i0, j0, k0, i1, j1, k1)) {
+                     visitor.visit (elem);
+                  }
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Visits each element that occupies a cell overlapping an axis-aligned
+    * box. See {@link #forEachInCells}.
+    *
+    * @param min minimum corner of the box
+    * @param max maximum corner of the box
+    * @param visitor called for each element
+    */
+   public void forEachInBox (
+      Point3d min, Point3d max, ElementVisitor visitor) {
+      forEachInCells (
+         cellX (min.x), cellY (min.y), cellZ (min.z),
+         cellX (max.x), cellY (max.y), cellZ (max.z), visitor);
+   }
+
+   /**
+    * Visits each element that occupies a cell overlapping the bounding box
+    * of a sphere. This yields candidates for elements near a point; callers
+    * should check actual distances themselves.
+    *
+    * @param pnt center of the sphere
+    * @param r radius of the sphere
+    * @param visitor called for each element
+    */
+   public void forEachNear (Point3d pnt, double r, ElementVisitor visitor) {
+      forEachInCells (
+         cellX (pnt.x-r), cellY (pnt.y-r), cellZ (pnt.z-r),
+         cellX (pnt.x+r), cellY (pnt.y+r), cellZ (pnt.z+r), visitor);
+   }
+
+   /**
+    * Finds the elements that occupy at least one cell within a range of
+    * cell coordinates, and stores their ids in a buffer, in the order
+    * described for {@link #forEachInCells}. If there are more elements
+    * than will fit in the buffer, only the first ones are stored, but the
+    * total number is still returned.
+    *
+    * @param i0 minimum cell x coordinate
+    * @param j0 minimum cell y coordinate
+    * @param k0 minimum cell z coordinate
+    * @param i1 maximum cell x coordinate
+    * @param j1 maximum cell y coordinate
+    * @param k1 maximum cell z coordinate
+    * @param elems returns the element ids
+    * @return total number of elements found
+    */
+   public int findInCells (
+      int i0, int j0, int k0, int i1, int j1, int k1, int[] elems) {
+      i0 = clampCell (i0); j0 = clampCell (j0); k0 = clampCell (k0);
+      i1 = clampCell (i1); j1 = clampCell (j1); k1 = clampCell (k1);
+      boolean single = (i0 == i1 && j0 == j1 && k0 == k1);
+      int num = 0;
+      for (int i=i0; i<=i1; i++) {
+         for (int j=j0; j<=j1; j++) {
+            for (int k=k0; k<=k1; k++) {
+               long key = packKey (i, j, k);
+               int cell = findCell (key);
+               if (cell == -1) {
+                  continue;
+               }
+               for (int e=myCellHead[cell]; e!=-1; e=myEntryNext[e]) {
+                  int elem = myEntryElem[e];
+                  if (single ||
+                      (myElemFirst[elem] == e && myEntryElemNext[e] == -1) ||
+                      isFirstVisit (e, key, i0, j0, k0, i1, j1, k1)) {
+                     if (num < elems.length) {
+                        elems[num] = elem;
+                     }
+                     num++;
+                  }
+               }
+            }
+         }
+      }
+      return num;
+   }
+
+   /**
+    * Finds the elements that occupy a cell overlapping an axis-aligned box.
+    * See {@link #findInCells}.
+    *
+    * @param min minimum corner of the box
+    * @param max maximum corner of the box
+    * @param elems returns the element ids
+    * @return total number of elements found
+    */
+   public int findInBox (Point3d min, Point3d max, int[] elems) {
+      return findInCells (
+         cellX (min.x), cellY (min.y), cellZ (min.z),
+         cellX (max.x), cellY (max.y), cellZ (max.z), elems);
+   }
+}
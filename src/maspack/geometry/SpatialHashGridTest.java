@@ -0,0 +1,261 @@
+package maspack.geometry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import maspack.matrix.Point3d;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+public class SpatialHashGridTest extends UnitTest {
+
+   /**
+    * Reference implementation, storing cell contents in hash sets.
+    */
+   private static class ReferenceGrid {
+      HashMap<String,LinkedHashSet<Integer>> cells = new HashMap<>();
+      HashMap<Integer,ArrayList<String>> elemCells = new HashMap<>();
+
+      String key (int i, int j, int k) {
+         return i+","+j+","+k;
+      }
+
+      void add (int elem, int i0, int j0, int k0, int i1, int j1, int k1) {
+         ArrayList<String> keys = elemCells.get (elem);
+         if (keys == null) {
+            keys = new ArrayList<>();
+            elemCells.put (elem, keys);
+         }
+         for (int i=i0; i<=i1; i++) {
+            for (int j=j0; j<=j1; j++) {
+               for (int k=k0; k<=k1; k++) {
+                  String key = key (i, j, k);
+                  LinkedHashSet<Integer> cell = cells.get (key);
+                  if (cell == null) {
+                     cell = new LinkedHashSet<>();
+                     cells.put (key, cell);
+                  }
+                  if (cell.add (elem)) {
+                     keys.add (key);
+                  }
+               }
+            }
+         }
+      }
+
+      void remove (int elem) {
+         ArrayList<String> keys = elemCells.remove (elem);
+         if (keys != null) {
+            for (String key : keys) {
+               cells.get(key).remove (elem);
+            }
+         }
+      }
+
+      ArrayList<Integer> find (int i0, int j0, int k0, int i1, int j1, int k1) {
+         LinkedHashSet<Integer> found = new LinkedHashSet<>();
+         for (int i=i0; i<=i1; i++) {
+            for (int j=j0; j<=j1; j++) {
+               for (int k=k0; k<=k1; k++) {
+                  LinkedHashSet<Integer> cell = cells.get (key (i, j, k));
+                  if (cell != null) {
+                     found.addAll (cell);
+                  }
+               }
+            }
+         }
+         return new ArrayList<>(found);
+      }
+   }
+
+   private int[] randomBox (int range, int maxWidth) {
+      int[] box = new int[6];
+      for (int d=0; d<3; d++) {
+         box[d] = RandomGenerator.nextInt (-range, range);
+         box[d+3] = box[d] + RandomGenerator.nextInt (0, maxWidth);
+      }
+      return box;
+   }
+
+   private void checkQueries (SpatialHashGrid grid, ReferenceGrid ref) {
+      int[] buf = new int[1000];
+      for (int q=0; q<50; q++) {
+         int[] b = randomBox (8, 5);
+         ArrayList<Integer> check =
+            ref.find (b[0], b[1], b[2], b[3], b[4], b[5]);
+         final ArrayList<Integer> result = new ArrayList<>();
+         grid.forEachInCells (
+            b[0], b[1], b[2], b[3], b[4], b[5], (e) -> result.add (e));
+         if (!result.equals (check)) {
+            throw new TestException (
+               "forEachInCells returned "+result+", expected "+check);
+         }
+         int num = grid.findInCells (b[0], b[1], b[2], b[3], b[4], b[5], buf);
+         checkEquals ("findInCells count", num, check.size());
+         for (int i=0; i<num; i++) {
+            checkEquals ("findInCells element", buf[i], (int)check.get(i));
+         }
+      }
+      checkEquals ("numElements", grid.numElements(), ref.elemCells.size());
+      for (int e=0; e<200; e++) {
+         checkEquals (
+            "contains "+e, grid.contains(e), ref.elemCells.containsKey(e));
+      }
+   }
+
+   public void testIncremental() {
+      SpatialHashGrid grid = new SpatialHashGrid (0.5);
+      ReferenceGrid ref = new ReferenceGrid();
+      HashSet<Integer> present = new HashSet<>();
+
+      for (int iter=0; iter<2000; iter++) {
+         int elem = RandomGenerator.nextInt (0, 199);
+         int op = RandomGenerator.nextInt (0, 3);
+         int[] b = randomBox (8, 2);
+         switch (op) {
+            case 0: {
+               grid.addCells (elem, b[0], b[1], b[2], b[3], b[4], b[5]);
+               ref.add (elem, b[0], b[1], b[2], b[3], b[4], b[5]);
+               present.add (elem);
+               break;
+            }
+            case 1: {
+               checkEquals (
+                  "remove", grid.remove (elem), present.contains (elem));
+               ref.remove (elem);
+               present.remove (elem);
+               break;
+            }
+            case 2: {
+               grid.updateCells (elem, b[0], b[1], b[2], b[3], b[4], b[5]);
+               ref.remove (elem);
+               ref.add (elem, b[0], b[1], b[2], b[3], b[4], b[5]);
+               present.add (elem);
+               break;
+            }
+            case 3: {
+               // update to the same cells should not change anything
+               if (present.contains (elem)) {
+                  grid.remove (elem);
+                  ref.remove (elem);
+               }
+               grid.addCells (elem, b[0], b[1], b[2], b[3], b[4], b[5]);
+               ref.add (elem, b[0], b[1], b[2], b[3], b[4], b[5]);
+               present.add (elem);
+               check ("update with same cells", !grid.updateCells (
+                  elem, b[0], b[1], b[2], b[3], b[4], b[5]));
+               break;
+            }
+         }
+         if (iter%200 == 0) {
+            checkQueries (grid, ref);
+            grid.compact();
+            checkQueries (grid, ref);
+         }
+      }
+      checkQueries (grid, ref);
+   }
+
+   public void testBuild() {
+      int npnts = 500;
+      double[] coords = new double[3*npnts];
+      for (int i=0; i<3*npnts; i++) {
+         coords[i] = RandomGenerator.nextDouble (-2, 2);
+      }
+      SpatialHashGrid grid = new SpatialHashGrid (0.3);
+      grid.build (coords, npnts);
+      ReferenceGrid ref = new ReferenceGrid();
+      for (int i=0; i<npnts; i++) {
+         int ci = grid.cellX (coords[3*i]);
+         int cj = grid.cellY (coords[3*i+1]);
+         int ck = grid.cellZ (coords[3*i+2]);
+         checkEquals (
+            "cellX", ci, (int)Math.floor (coords[3*i]/0.3));
+         ref.add (i, ci, cj, ck, ci, cj, ck);
+      }
+      checkQueries (grid, ref);
+      checkEquals (
+         "numNonEmptyCells", grid.numNonEmptyCells(), ref.cells.size());
+   }
+
+   private void checkFound (
+      String msg, int[] elems, int num, int... check) {
+      checkEquals (msg+", number found", num, check.length);
+      for (int i=0; i<num; i++) {
+         checkEquals (msg+", element "+i, elems[i], check[i]);
+      }
+   }
+
+   /**
+    * Checks that cell coordinates beyond +/- 2^20 are clamped, rather than
+    * wrapping onto cells at the other end of the range.
+    */
+   public void testClamping() {
+      int lim = 1 << 20;
+      SpatialHashGrid grid = new SpatialHashGrid (1.0);
+      int[] elems = new int[4];
+      int num;
+
+      // lim+5 would wrap onto -lim+5 if packed without clamping
+      grid.addCells (0, lim+5, 0, 0, lim+5, 0, 0);
+      grid.addCells (1, -lim+5, 0, 0, -lim+5, 0, 0);
+      grid.addCells (2, 0, -lim-3, 0, 0, -lim-3, 0);
+      grid.addCells (3, 0, lim-3, 0, 0, lim-3, 0);
+      num = grid.findInCells (-lim+5, 0, 0, -lim+5, 0, 0, elems);
+      checkFound ("cell -2^20+5", elems, num, 1);
+      num = grid.findInCells (0, lim-3, 0, 0, lim-3, 0, elems);
+      checkFound ("cell 2^20-3", elems, num, 3);
+      num = grid.findInCells (lim-1, 0, 0, lim-1, 0, 0, elems);
+      checkFound ("clamped cell 2^20-1", elems, num, 0);
+      num = grid.findInCells (0, -lim, 0, 0, -lim, 0, elems);
+      checkFound ("clamped cell -2^20", elems, num, 2);
+      // queries beyond the range are clamped in the same way
+      num = grid.findInCells (
+         Integer.MAX_VALUE, 0, 0, Integer.MAX_VALUE, 0, 0, elems);
+      checkFound ("query beyond 2^20", elems, num, 0);
+      checkEquals ("numNonEmptyCells", grid.numNonEmptyCells(), 4);
+
+      // points far beyond the range
+      grid.clear();
+      grid.add (0, 1e30, 0, 0);
+      grid.add (1, -1e30, 0, 0);
+      num = grid.findInCells (lim-1, 0, 0, lim-1, 0, 0, elems);
+      checkFound ("point at 1e30", elems, num, 0);
+      num = grid.findInCells (-lim, 0, 0, -lim, 0, 0, elems);
+      checkFound ("point at -1e30", elems, num, 1);
+
+      // SpatialHashTable rounds positions to cells before clamping
+      SpatialHashTable<Integer> table = new SpatialHashTable<Integer> (0.5);
+      ArrayList<Point3d> pnts = new ArrayList<Point3d>();
+      ArrayList<Integer> ids = new ArrayList<Integer>();
+      pnts.add (new Point3d ((lim+5)*0.5, 0, 0));
+      pnts.add (new Point3d ((-lim+5)*0.5, 0, 0));
+      pnts.add (new Point3d (0, 1e30, 0));
+      for (int i=0; i<pnts.size(); i++) {
+         ids.add (i);
+      }
+      table.setup (pnts, ids);
+      List<Integer> near = table.getElsNear (new Point3d ((-lim+5)*0.5, 0, 0));
+      checkEquals ("table near -2^20+5", near.toString(), "[1]");
+      near = table.getElsNear (new Point3d ((lim+5)*0.5, 0, 0));
+      checkEquals ("table near 2^20+5", near.toString(), "[0]");
+      near = table.getElsNear (new Point3d (0, 1e30, 0));
+      checkEquals ("table near 1e30", near.toString(), "[2]");
+   }
+
+   public void test() {
+      RandomGenerator.setSeed (0x1234);
+      testIncremental();
+      testBuild();
+      testClamping();
+   }
+
+   public static void main (String[] args) {
+      SpatialHashGridTest tester = new SpatialHashGridTest();
+      tester.runtest();
+   }
+}
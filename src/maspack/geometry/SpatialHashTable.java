@@ -54,11 +54,12 @@ import maspack.matrix.Point3d;
  */
 public class SpatialHashTable<T> {
    private final double myGridSpacing;
-   private HashMap<Index, List<T>> myGrid = new HashMap<>();
-   private HashMap<Index, List<T>> myIndexList = new HashMap<>();
+   private SpatialHashGrid myGrid;
+   private ArrayList<T> myElements = new ArrayList<>();
 
    public SpatialHashTable (double gridSpacing) {
       myGridSpacing = gridSpacing;
+      myGrid = new SpatialHashGrid (gridSpacing);
    }
 
    /** 
@@ -72,47 +73,24 @@ public class SpatialHashTable<T> {
     */
    public synchronized void setup (List<? extends Point3d> positions, List<? extends T> elements) {
       myGrid.clear();
-      myIndexList.clear ();
+      myElements.clear ();
 
       if (positions.size() != elements.size()) {
          throw new IllegalArgumentException ("Non-matching position and element sizes!");
       }
 
+      // each element is stored once, in the cell whose centre is nearest
+      // to its position, and is identified within the grid by its index
+      myElements.addAll (elements);
       for (int cnt=0; cnt<elements.size (); cnt++) {
-         T p = elements.get(cnt);
-         
          // This is ok since negative indices are allowed now
          Point3d pos = positions.get(cnt);
-         int ix = (int) Math.round((pos.x)/myGridSpacing);
-         int iy = (int) Math.round((pos.y)/myGridSpacing);
-         int iz = (int) Math.round((pos.z)/myGridSpacing);
-         Index idx = new Index(ix,iy,iz);
-
-         List<T> parList = myGrid.get(idx);
-
-         if (parList == null) {
-            parList = new ArrayList<T>();
-            myGrid.put(idx, parList);
-         }
-         
-         parList.add(p);
-
-         // Put into indexlist
-         for (int i=-1; i<=1; i++) {
-            for (int j=-1; j<=1; j++) {
-               for (int k=-1; k<=1; k++) {
-                  idx = new Index(ix+i,iy+j,iz+k);
-
-                  parList = myIndexList.get(idx);
-                  if (parList == null) {
-                     parList = new ArrayList<T>();
-                     myIndexList.put(idx, parList);
-                  }
-                  parList.add (p);
-               }
-            }
-         }
+         int ix = SpatialHashGrid.clampCell (Math.round (pos.x/myGridSpacing));
+         int iy = SpatialHashGrid.clampCell (Math.round (pos.y/myGridSpacing));
+         int iz = SpatialHashGrid.clampCell (Math.round (pos.z/myGridSpacing));
+         myGrid.addCells (cnt, ix, iy, iz, ix, iy, iz);
       }
+      myGrid.compact();
    }
    
    /**
@@ -158,57 +136,26 @@ public class SpatialHashTable<T> {
     * @return Iterator for 27 bins.
     */
    public List<T> getElsNear (Point3d pos) {
-      int xIdx = (int) Math.round (pos.x/myGridSpacing);
-      int yIdx = (int) Math.round (pos.y/myGridSpacing);
-      int zIdx = (int) Math.round (pos.z/myGridSpacing);
-      //int[] idx = new int[]{xIdx, yIdx, zIdx};
-      Index idx = new Index(xIdx,yIdx,zIdx);
-      return myIndexList.get(idx);
-   }
-
-   /**
-    * Immutable inner key class for hash function
-    * @author andrew
-    *
-    */
-   private static class Index {
-      // give direct access to values for convenience 
-      public final int x,y,z;
-      private Index(int x, int y, int z) {
-         this.x = x;
-         this.y = y;
-         this.z = z;
+      int xIdx = SpatialHashGrid.clampCell (Math.round (pos.x/myGridSpacing));
+      int yIdx = SpatialHashGrid.clampCell (Math.round (pos.y/myGridSpacing));
+      int zIdx = SpatialHashGrid.clampCell (Math.round (pos.z/myGridSpacing));
+      int[] idxs = new int[32];
+      int num;
+      while ((num = myGrid.findInCells (
+                 xIdx-1, yIdx-1, zIdx-1, xIdx+1, yIdx+1, zIdx+1, idxs))
+             > idxs.length) {
+         idxs = new int[num];
       }
-      
-      @Override
-      public int hashCode () {
-         final int p1 = 73856093;
-         final int p2 = 19349663;
-         final int p3 = 83492791;
-         
-         //int M = SpatialHashTable.this.myGrid.size();
-         //M = M==0?1:M;
-       
-         return (x*p1 ^ y*p2 ^ z*p3);//% M;
+      if (num == 0) {
+         return null;
       }
-      @Override
-      public boolean equals (Object obj) {
-         if (this == obj)
-            return true;
-         if (obj == null)
-            return false;
-         if (getClass () != obj.getClass ())
-            return false;
-         Index other = (Index)obj;
-         if (x != other.x)
-            return false;
-         if (y != other.y)
-            return false;
-         if (z != other.z)
-            return false;
-         return true;
+      // return elements in the order they were supplied to setup()
+      Arrays.sort (idxs, 0, num);
+      ArrayList<T> els = new ArrayList<T>(num);
+      for (int i=0; i<num; i++) {
+         els.add (myElements.get (idxs[i]));
       }
-      
+      return els;
    }
-   
+
 }
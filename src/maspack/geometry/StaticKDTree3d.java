@@ -0,0 +1,579 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.util.List;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.matrix.Point3d;
+
+/**
+ * Static KD-tree for a fixed set of 3D points, intended for fast nearest
+ * neighbour and radius queries.
+ *
+ * <p>Unlike {@link KDTree3d}, the tree does not allocate node objects.
+ * Point coordinates are copied into a flat array and reordered so that
+ * each subtree occupies a contiguous range, with the splitting point of
+ * a range stored at its middle index. Ranges with at most {@link
+ * #LEAF_SIZE} points are searched linearly. Queries return the indices of
+ * points within the original point set, and write their results into
+ * buffers supplied by the caller, so that they do not allocate memory and
+ * may be called concurrently from multiple threads.
+ */
+public class StaticKDTree3d {
+
+   /**
+    * Maximum number of points in a leaf range.
+    */
+   public static final int LEAF_SIZE = 8;
+
+   /**
+    * Whether batch queries are evaluated in parallel.
+    */
+   public static boolean parallelQueries = true;
+
+   /**
+    * Minimum number of queries per chunk when evaluating batch
+    * queries in parallel.
+    */
+   public static int parallelGrainSize = 256;
+
+   int myNumPnts;
+   double[] myCoords;  // point coordinates, in tree order
+   int[] myIndices;    // original index of each point, in tree order
+   byte[] myAxes;      // split axis for each range, at the range's middle
+   int[] myTreeIndices; // tree order location of each original point
+
+   /**
+    * Creates a tree for a set of points.
+    *
+    * @param pnts points to be stored in the tree
+    */
+   public StaticKDTree3d (Point3d[] pnts) {
+      double[] coords = new double[3*pnts.length];
+      for (int i=0; i<pnts.length; i++) {
+         coords[3*i  ] = pnts[i].x;
+         coords[3*i+1] = pnts[i].y;
+         coords[3*i+2] = pnts[i].z;
+      }
+      build (coords, pnts.length);
+   }
+
+   /**
+    * Creates a tree for a list of points.
+    *
+    * @param pnts points to be stored in the tree
+    */
+   public StaticKDTree3d (List<? extends Point3d> pnts) {
+      double[] coords = new double[3*pnts.size()];
+      int i = 0;
+      for (Point3d p : pnts) {
+         coords[3*i  ] = p.x;
+         coords[3*i+1] = p.y;
+         coords[3*i+2] = p.z;
+         i++;
+      }
+      build (coords, pnts.size());
+   }
+
+   /**
+    * Creates a tree for a set of points whose coordinates are stored as
+    * consecutive x, y, z values in a flat array. The array is not
+    * modified.
+    *
+    * @param coords point coordinates
+    * @param npnts number of points
+    */
+   public StaticKDTree3d (double[] coords, int npnts) {
+      if (coords.length < 3*npnts) {
+         throw new IllegalArgumentException (
+            "coords has length "+coords.length+"; expecting at least "+
+            3*npnts);
+      }
+      double[] copy = new double[3*npnts];
+      System.arraycopy (coords, 0, copy, 0, 3*npnts);
+      build (copy, npnts);
+   }
+
+   /**
+    * Returns the number of points in this tree.
+    *
+    * @return number of points
+    */
+   public int numPoints() {
+      return myNumPnts;
+   }
+
+   /**
+    * Returns the coordinates of a point in this tree.
+    *
+    * @param pnt returns the point coordinates
+    * @param idx index of the point within the original point set
+    */
+   public void getPoint (Point3d pnt, int idx) {
+      if (idx < 0 || idx >= myNumPnts) {
+         throw new IndexOutOfBoundsException (
+            "index "+idx+" out of range [0,"+myNumPnts+")");
+      }
+      int k = myTreeIndices[idx];
+      pnt.set (myCoords[3*k], myCoords[3*k+1], myCoords[3*k+2]);
+   }
+
+   private void build (double[] coords, int npnts) {
+      myNumPnts = npnts;
+      myCoords = coords;
+      myIndices = new int[npnts];
+      for (int i=0; i<npnts; i++) {
+         myIndices[i] = i;
+      }
+      myAxes = new byte[npnts];
+      buildRange (0, npnts);
+      myTreeIndices = new int[npnts];
+      for (int k=0; k<npnts; k++) {
+         myTreeIndices[myIndices[k]] = k;
+      }
+   }
+
+   private void buildRange (int lo, int hi) {
+      if (hi-lo <= LEAF_SIZE) {
+         return;
+      }
+      // split along the axis of greatest extent
+      double[] c = myCoords;
+      double minx = c[3*lo], maxx = minx;
+      double miny = c[3*lo+1], maxy = miny;
+      double minz = c[3*lo+2], maxz = minz;
+      for (int i=lo+1; i<hi; i++) {
+         double x = c[3*i], y = c[3*i+1], z = c[3*i+2];
+         if (x < minx) minx = x; else if (x > maxx) maxx = x;
+         if (y < miny) miny = y; else if (y > maxy) maxy = y;
+         if (z < minz) minz = z; else if (z > maxz) maxz = z;
+      }
+      double ex = maxx-minx;
+      double ey = maxy-miny;
+      double ez = maxz-minz;
+      int axis = (ex >= ey ? (ex >= ez ? 0 : 2) : (ey >= ez ? 1 : 2));
+
+      int mid = (lo+hi) >>> 1;
+      select (lo, hi-1, mid, axis);
+      myAxes[mid] = (byte)axis;
+      buildRange (lo, mid);
+      buildRange (mid+1, hi);
+   }
+
+   private void swap (int i, int j) {
+      double[] c = myCoords;
+      double t;
+      t = c[3*i  ]; c[3*i  ] = c[3*j  ]; c[3*j  ] = t;
+      t = c[3*i+1]; c[3*i+1] = c[3*j+1]; c[3*j+1] = t;
+      t = c[3*i+2]; c[3*i+2] = c[3*j+2]; c[3*j+2] = t;
+      int k = myIndices[i]; myIndices[i] = myIndices[j]; myIndices[j] = k;
+   }
+
+   /**
+    * Partially sorts the points in [left,right] along an axis so that the
+    * point at index k is in its sorted position, with no larger values
+    * before it and no smaller values after it.
+    */
+   private void select (int left, int right, int k, int axis) {
+      double[] c = myCoords;
+      while (right > left) {
+         // median of three pivot
+         int mid = (left+right) >>> 1;
+         if (c[3*mid+axis] < c[3*left+axis]) swap (mid, left);
+         if (c[3*right+axis] < c[3*left+axis]) swap (right, left);
+         if (c[3*right+axis] < c[3*mid+axis]) swap (right, mid);
+         double pivot = c[3*mid+axis];
+         int i = left;
+         int j = right;
+         while (i <= j) {
+            while (c[3*i+axis] < pivot) i++;
+            while (c[3*j+axis] > pivot) j--;
+            if (i <= j) {
+               swap (i, j);
+               i++;
+               j--;
+            }
+         }
+         if (k <= j) {
+            right = j;
+         }
+         else if (k >= i) {
+            left = i;
+         }
+         else {
+            return;
+         }
+      }
+   }
+
+   /**
+    * Finds the point nearest to a query point.
+    *
+    * @param px x coordinate of the query point
+    * @param py y coordinate of the query point
+    * @param pz z coordinate of the query point
+    * @return index of the nearest point, or -1 if the tree is empty
+    */
+   public int nearest (double px, double py, double pz) {
+      if (myNumPnts == 0) {
+         return -1;
+      }
+      int best = searchNearest (0, myNumPnts, px, py, pz, -1);
+      return myIndices[best];
+   }
+
+   /**
+    * Returns the squared distance between tree point {@code l} and a
+    * query point, or infinity if {@code l} is -1.
+    */
+   private double distanceSquared (int l, double px, double py, double pz) {
+      if (l == -1) {
+         return Double.POSITIVE_INFINITY;
+      }
+      double dx = myCoords[3*l]-px;
+      double dy = myCoords[3*l+1]-py;
+      double dz = myCoords[3*l+2]-pz;
+      return dx*dx+dy*dy+dz*dz;
+   }
+
+   /**
+    * Single nearest point search. Returns the tree index of the nearest
+    * point found so far, given the previous best.
+    */
+   private int searchNearest (
+      int lo, int hi, double px, double py, double pz, int best) {
+
+      double bestd2 = distanceSquared (best, px, py, pz);
+      if (hi-lo <= LEAF_SIZE) {
+         for (int l=lo; l<hi; l++) {
+            double d2 = distanceSquared (l, px, py, pz);
+            if (d2 < bestd2) {
+               bestd2 = d2;
+               best = l;
+            }
+         }
+         return best;
+      }
+      int mid = (lo+hi) >>> 1;
+      int axis = myAxes[mid];
+      double delta = myCoords[3*mid+axis]-(axis==0 ? px : (axis==1 ? py : pz));
+      if (delta > 0) {
+         best = searchNearest (lo, mid, px, py, pz, best);
+      }
+      else {
+         best = searchNearest (mid+1, hi, px, py, pz, best);
+      }
+      bestd2 = distanceSquared (best, px, py, pz);
+      double d2 = distanceSquared (mid, px, py, pz);
+      if (d2 < bestd2) {
+         bestd2 = d2;
+         best = mid;
+      }
+      if (delta*delta < bestd2) {
+         if (delta > 0) {
+            best = searchNearest (mid+1, hi, px, py, pz, best);
+         }
+         else {
+            best = searchNearest (lo, mid, px, py, pz, best);
+         }
+      }
+      return best;
+   }
+
+   /**
+    * Finds the point nearest to a query point.
+    *
+    * @param pnt query point
+    * @return index of the nearest point, or -1 if the tree is empty
+    */
+   public int nearest (Point3d pnt) {
+      return nearest (pnt.x, pnt.y, pnt.z);
+   }
+
+   /**
+    * Finds the {@code k} points nearest to a query point. The indices of the
+    * points, and their squared distances to the query point, are returned
+    * in order of increasing distance.
+    *
+    * @param px x coordinate of the query point
+    * @param py y coordinate of the query point
+    * @param pz z coordinate of the query point
+    * @param k number of points to find
+    * @param idxs returns the point indices. Must have length {@code >= k}.
+    * @param dist2 returns the squared distances. Must have length {@code >=
+    * k}.
+    * @return number of points found, which is less than {@code k} only if
+    * the tree contains fewer than {@code k} points
+    */
+   public int nearest (
+      double px, double py, double pz, int k, int[] idxs, double[] dist2) {
+      return nearest (px, py, pz, k, idxs, 0, dist2, 0);
+   }
+
+   /**
+    * Finds the {@code k} points nearest to a query point, writing the
+    * results into the supplied buffers starting at a given offset.
+    *
+    * @param px x coordinate of the query point
+    * @param py y coordinate of the query point
+    * @param pz z coordinate of the query point
+    * @param k number of points to find
+    * @param idxs returns the point indices
+    * @param ioff offset into {@code idxs}
+    * @param dist2 returns the squared distances
+    * @param doff offset into {@code dist2}
+    * @return number of points found
+    */
+   public int nearest (
+      double px, double py, double pz, int k,
+      int[] idxs, int ioff, double[] dist2, int doff) {
+      if (k <= 0 || myNumPnts == 0) {
+         return 0;
+      }
+      for (int i=0; i<k; i++) {
+         dist2[doff+i] = Double.POSITIVE_INFINITY;
+      }
+      int nfound = searchNearest (
+         0, myNumPnts, px, py, pz, k, idxs, ioff, dist2, doff, 0);
+      return nfound;
+   }
+
+   /**
+    * Inserts tree point {@code l} into the sorted result buffers if it is
+    * closer than the current kth point, and returns the updated count.
+    */
+   private int insert (
+      int l, double d2, int k, int[] idxs, int ioff,
+      double[] dist2, int doff, int nfound) {
+      if (nfound == k && d2 >= dist2[doff+k-1]) {
+         return nfound;
+      }
+      int j = (nfound < k ? nfound : k-1);
+      while (j > 0 && dist2[doff+j-1] > d2) {
+         dist2[doff+j] = dist2[doff+j-1];
+         idxs[ioff+j] = idxs[ioff+j-1];
+         j--;
+      }
+      dist2[doff+j] = d2;
+      idxs[ioff+j] = myIndices[l];
+      return (nfound < k ? nfound+1 : k);
+   }
+
+   private int searchNearest (
+      int lo, int hi, double px, double py, double pz, int k,
+      int[] idxs, int ioff, double[] dist2, int doff, int nfound) {
+
+      double[] c = myCoords;
+      if (hi-lo <= LEAF_SIZE) {
+         for (int l=lo; l<hi; l++) {
+            double dx = c[3*l]-px;
+            double dy = c[3*l+1]-py;
+            double dz = c[3*l+2]-pz;
+            nfound = insert (
+               l, dx*dx+dy*dy+dz*dz, k, idxs, ioff, dist2, doff, nfound);
+         }
+         return nfound;
+      }
+      int mid = (lo+hi) >>> 1;
+      int axis = myAxes[mid];
+      double dx = c[3*mid]-px;
+      double dy = c[3*mid+1]-py;
+      double dz = c[3*mid+2]-pz;
+      double delta = (axis == 0 ? dx : (axis == 1 ? dy : dz));
+
+      // search the side containing the query first
+      if (delta > 0) {
+         nfound = searchNearest (
+            lo, mid, px, py, pz, k, idxs, ioff, dist2, doff, nfound);
+      }
+      else {
+         nfound = searchNearest (
+            mid+1, hi, px, py, pz, k, idxs, ioff, dist2, doff, nfound);
+      }
+      nfound = insert (
+         mid, dx*dx+dy*dy+dz*dz, k, idxs, ioff, dist2, doff, nfound);
+      if (nfound < k || delta*delta < dist2[doff+k-1]) {
+         if (delta > 0) {
+            nfound = searchNearest (
+               mid+1, hi, px, py, pz, k, idxs, ioff, dist2, doff, nfound);
+         }
+         else {
+            nfound = searchNearest (
+               lo, mid, px, py, pz, k, idxs, ioff, dist2, doff, nfound);
+         }
+      }
+      return nfound;
+   }
+
+   /**
+    * Finds all points whose distance to a query point is less than or equal
+    * to a given radius. The results are not sorted. If there are more
+    * points than will fit into the result buffers, only the first points
+    * found are stored, but the total number is still returned, so that the
+    * caller can enlarge the buffers and repeat the query.
+    *
+    * @param px x coordinate of the query point
+    * @param py y coordinate of the query point
+    * @param pz z coordinate of the query point
+    * @param r query radius
+    * @param idxs returns the point indices
+    * @param dist2 if non-null, returns the squared distances
+    * @return total number of points within the radius
+    */
+   public int withinRadius (
+      double px, double py, double pz, double r, int[] idxs, double[] dist2) {
+      if (myNumPnts == 0 || r < 0) {
+         return 0;
+      }
+      return searchRadius (0, myNumPnts, px, py, pz, r*r, idxs, dist2, 0);
+   }
+
+   /**
+    * Finds all points whose distance to a query point is less than or equal
+    * to a given radius. See {@link
+    * #withinRadius(double,double,double,double,int[],double[])}.
+    *
+    * @param pnt query point
+    * @param r query radius
+    * @param idxs returns the point indices
+    * @param dist2 if non-null, returns the squared distances
+    * @return total number of points within the radius
+    */
+   public int withinRadius (
+      Point3d pnt, double r, int[] idxs, double[] dist2) {
+      return withinRadius (pnt.x, pnt.y, pnt.z, r, idxs, dist2);
+   }
+
+   private int addFound (
+      int l, double d2, int[] idxs, double[] dist2, int nfound) {
+      if (nfound < idxs.length) {
+         idxs[nfound] = myIndices[l];
+         if (dist2 != null && nfound < dist2.length) {
+            dist2[nfound] = d2;
+         }
+      }
+      return nfound+1;
+   }
+
+   private int searchRadius (
+      int lo, int hi, double px, double py, double pz, double r2,
+      int[] idxs, double[] dist2, int nfound) {
+
+      double[] c = myCoords;
+      if (hi-lo <= LEAF_SIZE) {
+         for (int l=lo; l<hi; l++) {
+            double dx = c[3*l]-px;
+            double dy = c[3*l+1]-py;
+            double dz = c[3*l+2]-pz;
+            double d2 = dx*dx+dy*dy+dz*dz;
+            if (d2 <= r2) {
+               nfound = addFound (l, d2, idxs, dist2, nfound);
+            }
+         }
+         return nfound;
+      }
+      int mid = (lo+hi) >>> 1;
+      int axis = myAxes[mid];
+      double dx = c[3*mid]-px;
+      double dy = c[3*mid+1]-py;
+      double dz = c[3*mid+2]-pz;
+      double delta = (axis == 0 ? dx : (axis == 1 ? dy : dz));
+      double d2 = dx*dx+dy*dy+dz*dz;
+      if (d2 <= r2) {
+         nfound = addFound (mid, d2, idxs, dist2, nfound);
+      }
+      // points in [lo,mid) have coordinates <= the split value, and
+      // points in (mid,hi) have coordinates >= it
+      if (delta >= 0 || delta*delta <= r2) {
+         nfound = searchRadius (lo, mid, px, py, pz, r2, idxs, dist2, nfound);
+      }
+      if (delta <= 0 || delta*delta <= r2) {
+         nfound = searchRadius (mid+1, hi, px, py, pz, r2, idxs, dist2, nfound);
+      }
+      return nfound;
+   }
+
+   /**
+    * Finds the {@code k} nearest points for each of a set of query points,
+    * in parallel if {@link #parallelQueries} is {@code true}. The results
+    * for query {@code q} are stored, in order of increasing distance, in
+    * {@code idxs} and {@code dist2} starting at {@code q*k}. If the tree
+    * contains fewer than {@code k} points, the unused entries are set to -1
+    * and infinity.
+    *
+    * @param qcoords query point coordinates, as consecutive x, y, z values
+    * @param nq number of query points
+    * @param k number of points to find for each query
+    * @param idxs returns the point indices. Must have length {@code >=
+    * nq*k}.
+    * @param dist2 returns the squared distances. Must have length {@code >=
+    * nq*k}.
+    */
+   public void nearest (
+      final double[] qcoords, int nq, final int k,
+      final int[] idxs, final double[] dist2) {
+      if (k <= 0) {
+         return;
+      }
+      ParallelLoop.RangeBody body = (q0, q1) -> {
+         for (int q=q0; q<q1; q++) {
+            int nfound = nearest (
+               qcoords[3*q], qcoords[3*q+1], qcoords[3*q+2], k,
+               idxs, q*k, dist2, q*k);
+            for (int j=nfound; j<k; j++) {
+               idxs[q*k+j] = -1;
+               dist2[q*k+j] = Double.POSITIVE_INFINITY;
+            }
+         }
+      };
+      if (parallelQueries) {
+         ParallelLoop.forRange (nq, parallelGrainSize, body);
+      }
+      else {
+         body.apply (0, nq);
+      }
+   }
+
+   /**
+    * Finds the nearest point for each of a set of query points, in
+    * parallel if {@link #parallelQueries} is {@code true}.
+    *
+    * @param qpnts query points
+    * @param idxs returns the index of the nearest point for each query, or
+    * -1 if the tree is empty. Must have length {@code >= qpnts.length}.
+    * @param dist2 if non-null, returns the squared distance to the nearest
+    * point for each query
+    */
+   public void nearest (
+      final Point3d[] qpnts, final int[] idxs, final double[] dist2) {
+      ParallelLoop.RangeBody body = (q0, q1) -> {
+         for (int q=q0; q<q1; q++) {
+            Point3d p = qpnts[q];
+            if (myNumPnts == 0) {
+               idxs[q] = -1;
+               if (dist2 != null) {
+                  dist2[q] = Double.POSITIVE_INFINITY;
+               }
+            }
+            else {
+               int l = searchNearest (0, myNumPnts, p.x, p.y, p.z, -1);
+               idxs[q] = myIndices[l];
+               if (dist2 != null) {
+                  dist2[q] = distanceSquared (l, p.x, p.y, p.z);
+               }
+            }
+         }
+      };
+      if (parallelQueries) {
+         ParallelLoop.forRange (qpnts.length, parallelGrainSize, body);
+      }
+      else {
+         body.apply (0, qpnts.length);
+      }
+   }
+}
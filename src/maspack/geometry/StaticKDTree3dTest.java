@@ -0,0 +1,139 @@
+package maspack.geometry;
+
+import java.util.Arrays;
+
+import maspack.matrix.Point3d;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+public class StaticKDTree3dTest extends UnitTest {
+
+   private Point3d[] createPoints (int npnts) {
+      Point3d[] pnts = new Point3d[npnts];
+      for (int i=0; i<npnts; i++) {
+         pnts[i] = new Point3d();
+         pnts[i].setRandom();
+         if (i%5 == 0) {
+            // points on a plane, to produce repeated split values
+            pnts[i].z = 0;
+         }
+         if (i%7 == 0 && i > 0) {
+            // duplicate points
+            pnts[i].set (pnts[i-1]);
+         }
+      }
+      return pnts;
+   }
+
+   private double[] sortedDistances (Point3d[] pnts, Point3d q) {
+      double[] d2 = new double[pnts.length];
+      for (int i=0; i<pnts.length; i++) {
+         d2[i] = pnts[i].distanceSquared (q);
+      }
+      Arrays.sort (d2);
+      return d2;
+   }
+
+   private void testPoints (int npnts) {
+      Point3d[] pnts = createPoints (npnts);
+      StaticKDTree3d tree = new StaticKDTree3d (pnts);
+      checkEquals ("numPoints", tree.numPoints(), npnts);
+
+      Point3d p = new Point3d();
+      for (int i=0; i<npnts; i++) {
+         tree.getPoint (p, i);
+         if (!p.equals (pnts[i])) {
+            throw new TestException (
+               "getPoint("+i+") returned "+p+", expected "+pnts[i]);
+         }
+      }
+
+      int k = 5;
+      int[] idxs = new int[Math.max (npnts, k)];
+      double[] dist2 = new double[Math.max (npnts, k)];
+      for (int t=0; t<100; t++) {
+         Point3d q = new Point3d();
+         q.setRandom();
+         q.scale (1.2);
+         double[] check = sortedDistances (pnts, q);
+
+         int nearest = tree.nearest (q);
+         if (npnts == 0) {
+            checkEquals ("nearest with no points", nearest, -1);
+         }
+         else {
+            checkEquals (
+               "nearest distance", pnts[nearest].distanceSquared(q),
+               check[0], 0);
+         }
+
+         int nfound = tree.nearest (q.x, q.y, q.z, k, idxs, dist2);
+         checkEquals ("number of neighbours", nfound, Math.min (k, npnts));
+         for (int j=0; j<nfound; j++) {
+            checkEquals ("k nearest distance", dist2[j], check[j], 0);
+            checkEquals (
+               "k nearest index", pnts[idxs[j]].distanceSquared(q), dist2[j], 0);
+         }
+
+         double r = 0.3;
+         int nr = tree.withinRadius (q, r, idxs, dist2);
+         int ncheck = 0;
+         while (ncheck < npnts && check[ncheck] <= r*r) {
+            ncheck++;
+         }
+         checkEquals ("number within radius", nr, ncheck);
+         for (int j=0; j<nr; j++) {
+            checkEquals (
+               "radius distance", pnts[idxs[j]].distanceSquared(q), dist2[j], 0);
+         }
+      }
+   }
+
+   private void testBatch (int npnts, int nq) {
+      Point3d[] pnts = createPoints (npnts);
+      StaticKDTree3d tree = new StaticKDTree3d (pnts);
+
+      Point3d[] qpnts = new Point3d[nq];
+      double[] qcoords = new double[3*nq];
+      for (int q=0; q<nq; q++) {
+         qpnts[q] = new Point3d();
+         qpnts[q].setRandom();
+         qcoords[3*q  ] = qpnts[q].x;
+         qcoords[3*q+1] = qpnts[q].y;
+         qcoords[3*q+2] = qpnts[q].z;
+      }
+      int k = 3;
+      int[] idxs = new int[nq*k];
+      double[] dist2 = new double[nq*k];
+      tree.nearest (qcoords, nq, k, idxs, dist2);
+      int[] nidxs = new int[nq];
+      double[] nd2 = new double[nq];
+      tree.nearest (qpnts, nidxs, nd2);
+      for (int q=0; q<nq; q++) {
+         double[] check = sortedDistances (pnts, qpnts[q]);
+         for (int j=0; j<k; j++) {
+            checkEquals ("batch k nearest distance", dist2[q*k+j], check[j], 0);
+         }
+         checkEquals ("batch nearest distance", nd2[q], check[0], 0);
+         checkEquals (
+            "batch nearest index", pnts[nidxs[q]].distanceSquared(qpnts[q]),
+            check[0], 0);
+      }
+   }
+
+   public void test() {
+      RandomGenerator.setSeed (0x1234);
+      testPoints (0);
+      testPoints (1);
+      testPoints (7);
+      testPoints (100);
+      testPoints (2000);
+      testBatch (3000, 2000);
+   }
+
+   public static void main (String[] args) {
+      StaticKDTree3dTest tester = new StaticKDTree3dTest();
+      tester.runtest();
+   }
+}
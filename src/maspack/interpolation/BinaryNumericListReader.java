@@ -0,0 +1,390 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.interpolation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import maspack.interpolation.BinaryNumericListWriter.BlockInfo;
+
+/**
+ * Reads files produced by {@link BinaryNumericListWriter}. The file is
+ * memory mapped when possible, and an index of its blocks is built when it is
+ * opened, so that the samples within a particular time range can be loaded
+ * into a {@link NumericList} without reading the rest of the file. A
+ * trailing block that is incomplete, such as one that was being written
+ * when the file was opened, is ignored.
+ */
+public class BinaryNumericListReader implements Closeable {
+
+   private File myFile;
+   private RandomAccessFile myRaf;
+   private FileChannel myChannel;
+   private ByteBuffer myMap; // null if the file is too large to map
+   private int myVsize;
+   private boolean myCompressed;
+   private int myBlockSize;
+   private LinkedHashMap<String,String> myMetadata;
+   private ArrayList<BlockInfo> myIndex = new ArrayList<BlockInfo>();
+   private int myNumSamples;
+
+   private double[] myTimes;
+   private double[] myValues;
+   private Inflater myInflater;
+
+   /**
+    * Opens a file for reading.
+    *
+    * @param file file to read
+    * @throws IOException if the file cannot be read or has an invalid format
+    */
+   public BinaryNumericListReader (File file) throws IOException {
+      myFile = file;
+      myRaf = new RandomAccessFile (file, "r");
+      myChannel = myRaf.getChannel();
+      try {
+         long size = myChannel.size();
+         if (size <= Integer.MAX_VALUE) {
+            myMap = myChannel.map (FileChannel.MapMode.READ_ONLY, 0, size);
+         }
+         long pos = readHeader();
+         buildIndex (pos, size);
+      }
+      catch (IOException e) {
+         close();
+         throw e;
+      }
+      myTimes = new double[myBlockSize];
+      myValues = new double[myBlockSize*myVsize];
+   }
+
+   private ByteBuffer read (long pos, int size) throws IOException {
+      if (myMap != null) {
+         if (pos + size > myMap.limit()) {
+            throw new IOException ("unexpected end of file " + myFile);
+         }
+         ByteBuffer buf = myMap.duplicate();
+         buf.position ((int)pos);
+         buf.limit ((int)pos+size);
+         return buf.slice();
+      }
+      else {
+         ByteBuffer buf = ByteBuffer.allocate (size);
+         while (buf.hasRemaining()) {
+            int n = myChannel.read (buf, pos);
+            if (n < 0) {
+               throw new IOException ("unexpected end of file " + myFile);
+            }
+            pos += n;
+         }
+         buf.flip();
+         return buf;
+      }
+   }
+
+   private String getString (long pos, int len) throws IOException {
+      ByteBuffer buf = read (pos, len);
+      byte[] bytes = new byte[len];
+      buf.get (bytes);
+      return new String (bytes, StandardCharsets.UTF_8);
+   }
+
+   private long readHeader() throws IOException {
+      ByteBuffer buf = read (0, 24);
+      if (buf.getInt() != BinaryNumericListWriter.MAGIC) {
+         throw new IOException (
+            "file " + myFile + " is not a binary numeric list file");
+      }
+      int version = buf.getInt();
+      if (version > BinaryNumericListWriter.VERSION) {
+         throw new IOException (
+            "file " + myFile + " has unsupported version " + version);
+      }
+      myVsize = buf.getInt();
+      myCompressed = (buf.getInt() & BinaryNumericListWriter.COMPRESSED) != 0;
+      myBlockSize = buf.getInt();
+      int numEntries = buf.getInt();
+      if (myVsize < 0 || myBlockSize < 1 || numEntries < 0) {
+         throw new IOException ("file " + myFile + " has a corrupt header");
+      }
+      long pos = 24;
+      myMetadata = new LinkedHashMap<String,String>();
+      for (int i=0; i<numEntries; i++) {
+         int len = read (pos, 4).getInt();
+         String key = getString (pos+4, len);
+         pos += 4 + len;
+         len = read (pos, 4).getInt();
+         String value = getString (pos+4, len);
+         pos += 4 + len;
+         myMetadata.put (key, value);
+      }
+      return pos;
+   }
+
+   private void buildIndex (long pos, long size) throws IOException {
+      int hsize = BinaryNumericListWriter.BLOCK_HEADER_SIZE;
+      myNumSamples = 0;
+      while (pos + hsize <= size) {
+         ByteBuffer buf = read (pos, hsize);
+         int num = buf.getInt();
+         int payloadSize = buf.getInt();
+         double t0 = buf.getDouble();
+         double t1 = buf.getDouble();
+         if (num < 1 || num > myBlockSize || payloadSize < 0 ||
+             pos + hsize + payloadSize > size) {
+            // incomplete or corrupt block; ignore the rest of the file
+            break;
+         }
+         myIndex.add (new BlockInfo (pos, num, payloadSize, t0, t1));
+         myNumSamples += num;
+         pos += hsize + payloadSize;
+      }
+   }
+
+   /**
+    * Decodes a block payload into time and value arrays, with the values
+    * stored in column major order with a column stride of {@code cap}.
+    */
+   static void decodePayload (
+      ByteBuffer payload, boolean compressed, int num, int vsize,
+      double[] times, double[] values, int cap) throws IOException {
+      Inflater inflater = (compressed ? new Inflater() : null);
+      try {
+         decodePayload (payload, inflater, num, vsize, times, values, cap);
+      }
+      finally {
+         if (inflater != null) {
+            inflater.end();
+         }
+      }
+   }
+
+   private static void decodePayload (
+      ByteBuffer payload, Inflater inflater, int num, int vsize,
+      double[] times, double[] values, int cap) throws IOException {
+      if (inflater != null) {
+         byte[] zbytes = new byte[payload.remaining()];
+         payload.get (zbytes);
+         byte[] bytes = new byte[8*num*(vsize+1)];
+         inflater.reset();
+         inflater.setInput (zbytes);
+         try {
+            int n = 0;
+            while (n < bytes.length && !inflater.finished()) {
+               int k = inflater.inflate (bytes, n, bytes.length-n);
+               if (k == 0 && (inflater.needsInput() ||
+                              inflater.needsDictionary())) {
+                  break;
+               }
+               n += k;
+            }
+            if (n != bytes.length) {
+               throw new IOException ("compressed block has wrong size");
+            }
+         }
+         catch (DataFormatException e) {
+            throw new IOException ("corrupt compressed block: " + e);
+         }
+         payload = ByteBuffer.wrap (bytes);
+      }
+      if (payload.remaining() != 8*num*(vsize+1)) {
+         throw new IOException ("block has wrong size");
+      }
+      DoubleBuffer dbuf = payload.asDoubleBuffer();
+      dbuf.get (times, 0, num);
+      for (int j=0; j<vsize; j++) {
+         dbuf.get (values, j*cap, num);
+      }
+   }
+
+   private void loadBlock (BlockInfo info) throws IOException {
+      ByteBuffer payload = read (
+         info.myOffset+BinaryNumericListWriter.BLOCK_HEADER_SIZE,
+         info.myPayloadSize);
+      if (myCompressed && myInflater == null) {
+         myInflater = new Inflater();
+      }
+      decodePayload (
+         payload, myCompressed ? myInflater : null, info.myNum, myVsize,
+         myTimes, myValues, myBlockSize);
+   }
+
+   /**
+    * Returns the file being read.
+    */
+   public File getFile() {
+      return myFile;
+   }
+
+   /**
+    * Returns the size of the vector associated with each sample.
+    */
+   public int getVectorSize() {
+      return myVsize;
+   }
+
+   /**
+    * Returns true if the blocks in the file are compressed.
+    */
+   public boolean isCompressed() {
+      return myCompressed;
+   }
+
+   /**
+    * Returns the metadata stored in the file header.
+    */
+   public Map<String,String> getMetadata() {
+      return Collections.unmodifiableMap (myMetadata);
+   }
+
+   /**
+    * Returns the value of a metadata entry, or {@code null} if there is no
+    * such entry.
+    */
+   public String getMetadata (String key) {
+      return myMetadata.get (key);
+   }
+
+   /**
+    * Returns the number of samples in the file.
+    */
+   public int getNumSamples() {
+      return myNumSamples;
+   }
+
+   /**
+    * Returns the number of blocks in the file.
+    */
+   public int getNumBlocks() {
+      return myIndex.size();
+   }
+
+   /**
+    * Returns the time of the first sample, or positive infinity if the file
+    * has no samples.
+    */
+   public double getFirstTime() {
+      if (myIndex.size() == 0) {
+         return Double.POSITIVE_INFINITY;
+      }
+      return myIndex.get(0).myFirstTime;
+   }
+
+   /**
+    * Returns the time of the last sample, or negative infinity if the file
+    * has no samples.
+    */
+   public double getLastTime() {
+      if (myIndex.size() == 0) {
+         return Double.NEGATIVE_INFINITY;
+      }
+      return myIndex.get(myIndex.size()-1).myLastTime;
+   }
+
+   /**
+    * Appends the samples of block {@code blk} whose times lie within
+    * {@code [t0, t1]} to a numeric list.
+    */
+   private void addBlockToList (
+      NumericList list, int blk, double t0, double t1) throws IOException {
+      BlockInfo info = myIndex.get (blk);
+      loadBlock (info);
+      NumericListKnot last = list.getLast();
+      for (int i=0; i<info.myNum; i++) {
+         double t = myTimes[i];
+         if (t >= t0 && t <= t1) {
+            NumericListKnot knot = new NumericListKnot (myVsize);
+            double[] buf = knot.v.getBuffer();
+            for (int j=0; j<myVsize; j++) {
+               buf[j] = myValues[j*myBlockSize+i];
+            }
+            knot.t = t;
+            list.add (knot, last);
+            last = knot;
+         }
+      }
+   }
+
+   /**
+    * Loads the samples of a single block into a new numeric list. This
+    * allows a file to be processed one block at a time.
+    *
+    * @param blk index of the block
+    * @return list containing the block's samples
+    */
+   public NumericList getBlockList (int blk) throws IOException {
+      NumericList list = new NumericList (myVsize);
+      addBlockToList (
+         list, blk, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+      return list;
+   }
+
+   /**
+    * Loads all the samples in the file into a new numeric list.
+    *
+    * @return list containing all the samples
+    */
+   public NumericList getList() throws IOException {
+      return getList (Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+   }
+
+   /**
+    * Loads the samples whose times lie within a specified range into a new
+    * numeric list. Only the blocks overlapping the range are read.
+    *
+    * @param t0 minimum sample time
+    * @param t1 maximum sample time
+    * @return list containing the samples within the range
+    */
+   public NumericList getList (double t0, double t1) throws IOException {
+      NumericList list = new NumericList (myVsize);
+      // binary search for the first block that may contain t0
+      int lo = 0;
+      int hi = myIndex.size();
+      while (lo < hi) {
+         int mid = (lo+hi)/2;
+         if (myIndex.get(mid).myLastTime < t0) {
+            lo = mid+1;
+         }
+         else {
+            hi = mid;
+         }
+      }
+      for (int blk=lo; blk<myIndex.size(); blk++) {
+         if (myIndex.get(blk).myFirstTime > t1) {
+            break;
+         }
+         addBlockToList (list, blk, t0, t1);
+      }
+      return list;
+   }
+
+   /**
+    * Closes the file. The reader should not be used afterwards.
+    */
+   public void close() throws IOException {
+      myMap = null;
+      if (myInflater != null) {
+         myInflater.end();
+         myInflater = null;
+      }
+      myChannel.close();
+      myRaf.close();
+   }
+}
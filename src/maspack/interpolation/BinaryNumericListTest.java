@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.interpolation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+
+import maspack.util.TestException;
+
+/**
+ * Tests BinaryNumericListWriter and BinaryNumericListReader.
+ */
+class BinaryNumericListTest {
+
+   void addSamples (
+      BinaryNumericListWriter writer, NumericList check,
+      double t0, double dt, int num) throws IOException {
+      int vsize = writer.getVectorSize();
+      double[] vals = new double[vsize];
+      for (int k=0; k<num; k++) {
+         double t = t0 + k*dt;
+         for (int j=0; j<vsize; j++) {
+            vals[j] = Math.sin (t*(j+1)) + j;
+         }
+         writer.add (t, vals);
+         NumericListKnot knot = new NumericListKnot (vsize);
+         knot.v.set (vals);
+         knot.t = t;
+         check.add (knot);
+         check.clearAfter (knot);
+      }
+   }
+
+   void checkLists (NumericList list, NumericList check, String msg) {
+      if (!list.equals (check)) {
+         System.out.println ("list:\n" + list.toString ("%g"));
+         System.out.println ("expected:\n" + check.toString ("%g"));
+         throw new TestException (msg + ": lists differ");
+      }
+   }
+
+   NumericList subList (NumericList list, double t0, double t1) {
+      NumericList sub = new NumericList (list.getVectorSize());
+      for (NumericListKnot knot : list) {
+         if (knot.t >= t0 && knot.t <= t1) {
+            sub.add (new NumericListKnot (knot));
+         }
+      }
+      return sub;
+   }
+
+   void test (boolean compress) throws IOException {
+      File file = File.createTempFile ("numericList", ".bin");
+      file.deleteOnExit();
+      int vsize = 3;
+      LinkedHashMap<String,String> metadata =
+         new LinkedHashMap<String,String>();
+      metadata.put ("name", "test");
+      metadata.put ("interval", "0.01");
+      BinaryNumericListWriter writer = new BinaryNumericListWriter (
+         file, vsize, metadata, compress, /*blockSize=*/16, /*queueCap=*/2);
+      NumericList check = new NumericList (vsize);
+
+      addSamples (writer, check, 0, 0.01, 100);
+      // rewind to the middle of a block that has already been written
+      addSamples (writer, check, 0.375, 0.01, 50);
+      // rewind within the block currently being collected
+      addSamples (writer, check, 0.835, 0.01, 3);
+      addSamples (writer, check, 0.85, 0.01, 37);
+      writer.flush();
+      if (writer.getNumSamples() != check.getNumKnots()) {
+         throw new TestException (
+            "writer has "+writer.getNumSamples()+" samples, expected "+
+            check.getNumKnots());
+      }
+      // read while the writer is still open
+      BinaryNumericListReader reader = new BinaryNumericListReader (file);
+      checkLists (reader.getList(), check, "before close");
+      reader.close();
+
+      addSamples (writer, check, 1.5, 0.001, 500);
+      writer.close();
+
+      reader = new BinaryNumericListReader (file);
+      if (reader.getVectorSize() != vsize) {
+         throw new TestException (
+            "vector size is "+reader.getVectorSize()+", expected "+vsize);
+      }
+      if (reader.isCompressed() != compress) {
+         throw new TestException ("compression flag not preserved");
+      }
+      if (!"test".equals (reader.getMetadata ("name")) ||
+          !"0.01".equals (reader.getMetadata ("interval"))) {
+         throw new TestException ("metadata not preserved");
+      }
+      if (reader.getNumSamples() != check.getNumKnots()) {
+         throw new TestException (
+            "reader has "+reader.getNumSamples()+" samples, expected "+
+            check.getNumKnots());
+      }
+      checkLists (reader.getList(), check, "full list");
+      checkLists (
+         reader.getList (0.2, 0.61), subList (check, 0.2, 0.61), "range");
+      checkLists (
+         reader.getList (1.7, 10), subList (check, 1.7, 10), "end range");
+      NumericList blocks = new NumericList (vsize);
+      for (int blk=0; blk<reader.getNumBlocks(); blk++) {
+         for (NumericListKnot knot : reader.getBlockList (blk)) {
+            blocks.add (new NumericListKnot (knot));
+         }
+      }
+      checkLists (blocks, check, "block lists");
+      reader.close();
+      file.delete();
+   }
+
+   public static void main (String[] args) {
+      BinaryNumericListTest tester = new BinaryNumericListTest();
+      try {
+         tester.test (/*compress=*/false);
+         tester.test (/*compress=*/true);
+      }
+      catch (Exception e) {
+         e.printStackTrace();
+         System.exit (1);
+      }
+      System.out.println ("\nPassed\n");
+   }
+}
@@ -0,0 +1,559 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.interpolation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Streams time-stamped vector samples to a binary file, using a background
+ * thread to do the encoding and I/O. This allows long, high-rate output
+ * sequences to be recorded without keeping them in memory, and without the
+ * cost of formatting them as text.
+ *
+ * <p>Samples are collected into blocks, each of which is stored in columnar
+ * form: the sample times first, followed by the values for each vector
+ * component in turn. Blocks may optionally be compressed. Full blocks are
+ * passed to the writer thread through a bounded queue, so that if the writer
+ * falls behind, {@link #add add()} will block rather than consume unbounded
+ * memory. The file can be read back using {@link BinaryNumericListReader}.
+ *
+ * <p>The file format (all values big-endian) consists of a header:
+ * <pre>
+ *   int    magic number (0x414e4c42)
+ *   int    format version
+ *   int    vector size
+ *   int    flags (bit 0 set if blocks are compressed)
+ *   int    maximum number of samples per block
+ *   int    number of metadata entries, followed by key/value strings,
+ *          each stored as an int byte count and UTF-8 bytes
+ * </pre>
+ * followed by a sequence of blocks, each consisting of:
+ * <pre>
+ *   int    number of samples n
+ *   int    number of payload bytes
+ *   double first sample time
+ *   double last sample time
+ *   byte[] payload: n times, followed by n values for each vector
+ *          component, possibly compressed using deflate
+ * </pre>
+ *
+ * <p>Methods of this class should be called from a single thread.
+ */
+public class BinaryNumericListWriter implements Closeable {
+
+   public static final int MAGIC = 0x414e4c42;
+   public static final int VERSION = 1;
+   public static final int COMPRESSED = 0x1;
+
+   public static final int DEFAULT_BLOCK_SIZE = 1024;
+   public static final int DEFAULT_QUEUE_CAPACITY = 8;
+
+   // size of the header at the start of each block
+   static final int BLOCK_HEADER_SIZE = 24;
+
+   private File myFile;
+   private RandomAccessFile myRaf;
+   private FileChannel myChannel;
+   private int myVsize;
+   private boolean myCompressed;
+   private int myBlockSize;
+
+   private Block myCurrent;
+   private ArrayBlockingQueue<Block> myQueue;
+   private ArrayBlockingQueue<Block> myFreeBlocks;
+   private Thread myThread;
+   private volatile IOException myError;
+   private boolean myClosed = false;
+
+   // counts of blocks submitted to and written by the writer thread
+   private long myNumSubmitted = 0;
+   private long myNumWritten = 0;
+
+   // information about the blocks written to the file. Modified by the writer
+   // thread, and by the calling thread when the writer thread is idle.
+   private ArrayList<BlockInfo> myIndex = new ArrayList<BlockInfo>();
+   private long myFileEnd;
+   private double myLastTime = Double.NEGATIVE_INFINITY;
+   private long myNumSamples = 0;
+
+   // compression buffer used by the writer thread
+   private byte[] myZbuf;
+
+   /**
+    * Holds the samples for one block.
+    */
+   static class Block {
+      int myNum;
+      double[] myTimes;
+      double[] myValues; // column major: value j of sample i is at j*cap+i
+
+      Block (int cap, int vsize) {
+         myTimes = new double[cap];
+         myValues = new double[cap*vsize];
+      }
+   }
+
+   /**
+    * Location and time span of a block within the file.
+    */
+   static class BlockInfo {
+      long myOffset;
+      int myNum;
+      int myPayloadSize;
+      double myFirstTime;
+      double myLastTime;
+
+      BlockInfo (
+         long offset, int num, int payloadSize, double t0, double t1) {
+         myOffset = offset;
+         myNum = num;
+         myPayloadSize = payloadSize;
+         myFirstTime = t0;
+         myLastTime = t1;
+      }
+   }
+
+   private static final Block END = new Block (0, 0);
+
+   /**
+    * Creates a writer for an uncompressed file with default block size and
+    * queue capacity. Any existing file is overwritten.
+    *
+    * @param file file to write to
+    * @param vsize size of the vector associated with each sample
+    */
+   public BinaryNumericListWriter (File file, int vsize) throws IOException {
+      this (file, vsize, null, false,
+            DEFAULT_BLOCK_SIZE, DEFAULT_QUEUE_CAPACITY);
+   }
+
+   /**
+    * Creates a writer for a file. Any existing file is overwritten.
+    *
+    * @param file file to write to
+    * @param vsize size of the vector associated with each sample
+    * @param metadata optional key/value pairs to be stored in the file
+    * header. May be {@code null}.
+    * @param compress if {@code true}, blocks are compressed
+    * @param blockSize maximum number of samples per block
+    * @param queueCapacity maximum number of full blocks that can be waiting
+    * for the writer thread
+    */
+   public BinaryNumericListWriter (
+      File file, int vsize, Map<String,String> metadata, boolean compress,
+      int blockSize, int queueCapacity) throws IOException {
+      if (vsize < 0) {
+         throw new IllegalArgumentException ("negative vector size");
+      }
+      if (blockSize < 1 || queueCapacity < 1) {
+         throw new IllegalArgumentException (
+            "block size and queue capacity must be positive");
+      }
+      myFile = file;
+      myVsize = vsize;
+      myCompressed = compress;
+      myBlockSize = blockSize;
+      myRaf = new RandomAccessFile (file, "rw");
+      myRaf.setLength (0);
+      myChannel = myRaf.getChannel();
+      writeHeader (metadata);
+
+      myQueue = new ArrayBlockingQueue<Block> (queueCapacity+1);
+      // enough blocks for a full queue, the block being written, and the
+      // block being filled
+      myFreeBlocks = new ArrayBlockingQueue<Block> (queueCapacity+2);
+      for (int i=0; i<queueCapacity+1; i++) {
+         myFreeBlocks.add (new Block (blockSize, vsize));
+      }
+      myCurrent = new Block (blockSize, vsize);
+      myThread = new Thread (new Runnable() {
+            public void run() {
+               writeBlocks();
+            }
+         }, "BinaryNumericListWriter");
+      myThread.setDaemon (true);
+      myThread.start();
+   }
+
+   private static void putString (ByteBuffer buf, String str) {
+      byte[] bytes = str.getBytes (StandardCharsets.UTF_8);
+      buf.putInt (bytes.length);
+      buf.put (bytes);
+   }
+
+   private void writeHeader (Map<String,String> metadata) throws IOException {
+      if (metadata == null) {
+         metadata = new LinkedHashMap<String,String>();
+      }
+      int size = 24;
+      for (Map.Entry<String,String> entry : metadata.entrySet()) {
+         size += 8;
+         size += entry.getKey().getBytes (StandardCharsets.UTF_8).length;
+         size += entry.getValue().getBytes (StandardCharsets.UTF_8).length;
+      }
+      ByteBuffer buf = ByteBuffer.allocate (size);
+      buf.putInt (MAGIC);
+      buf.putInt (VERSION);
+      buf.putInt (myVsize);
+      buf.putInt (myCompressed ? COMPRESSED : 0);
+      buf.putInt (myBlockSize);
+      buf.putInt (metadata.size());
+      for (Map.Entry<String,String> entry : metadata.entrySet()) {
+         putString (buf, entry.getKey());
+         putString (buf, entry.getValue());
+      }
+      buf.flip();
+      writeFully (buf, 0);
+      myFileEnd = size;
+   }
+
+   private void writeFully (ByteBuffer buf, long pos) throws IOException {
+      while (buf.hasRemaining()) {
+         pos += myChannel.write (buf, pos);
+      }
+   }
+
+   /**
+    * Returns the file being written.
+    */
+   public File getFile() {
+      return myFile;
+   }
+
+   /**
+    * Returns the size of the vector associated with each sample.
+    */
+   public int getVectorSize() {
+      return myVsize;
+   }
+
+   /**
+    * Returns the number of samples currently in the stream.
+    */
+   public long getNumSamples() {
+      return myNumSamples;
+   }
+
+   /**
+    * Returns the time of the last sample in the stream, or negative infinity
+    * if the stream is empty.
+    */
+   public double getLastTime() {
+      return myLastTime;
+   }
+
+   private void checkState() throws IOException {
+      if (myClosed) {
+         throw new IOException ("writer has been closed");
+      }
+      if (myError != null) {
+         throw myError;
+      }
+   }
+
+   /**
+    * Adds a sample to the stream. If {@code t} is not greater than the time
+    * of the last sample, all samples with times {@code >= t} are first
+    * removed, so that sample times are always increasing.
+    *
+    * @param t sample time
+    * @param vals sample values. Must have a length {@code >=} the
+    * vector size.
+    */
+   public void add (double t, double[] vals) throws IOException {
+      checkState();
+      if (vals.length < myVsize) {
+         throw new IllegalArgumentException (
+            "values have length "+vals.length+", expecting "+myVsize);
+      }
+      if (t <= myLastTime) {
+         clearFrom (t);
+      }
+      Block blk = myCurrent;
+      int i = blk.myNum;
+      blk.myTimes[i] = t;
+      for (int j=0; j<myVsize; j++) {
+         blk.myValues[j*myBlockSize+i] = vals[j];
+      }
+      blk.myNum++;
+      myLastTime = t;
+      myNumSamples++;
+      if (blk.myNum == myBlockSize) {
+         submitCurrentBlock();
+      }
+   }
+
+   /**
+    * Adds a knot to the stream.
+    *
+    * @see #add(double,double[])
+    */
+   public void add (NumericListKnot knot) throws IOException {
+      if (knot.v.size() != myVsize) {
+         throw new IllegalArgumentException (
+            "Knot vector has size "+knot.v.size() + ", expecting " + myVsize);
+      }
+      add (knot.t, knot.v.getBuffer());
+   }
+
+   private void submitCurrentBlock() throws IOException {
+      try {
+         synchronized (this) {
+            myNumSubmitted++;
+         }
+         myQueue.put (myCurrent);
+         myCurrent = myFreeBlocks.take();
+         myCurrent.myNum = 0;
+      }
+      catch (InterruptedException e) {
+         throw new IOException ("interrupted while writing " + myFile);
+      }
+   }
+
+   /**
+    * Waits until all submitted blocks have been written.
+    */
+   private synchronized void waitForWriter() throws IOException {
+      try {
+         while (myNumWritten < myNumSubmitted) {
+            wait();
+         }
+      }
+      catch (InterruptedException e) {
+         throw new IOException ("interrupted while writing " + myFile);
+      }
+      if (myError != null) {
+         throw myError;
+      }
+   }
+
+   /**
+    * Writes any samples collected so far to the file, and waits until
+    * they have been written.
+    */
+   public void flush() throws IOException {
+      checkState();
+      if (myCurrent.myNum > 0) {
+         submitCurrentBlock();
+      }
+      waitForWriter();
+   }
+
+   /**
+    * Removes all samples whose time is {@code >= t}.
+    *
+    * @param t time at which to start removing samples
+    */
+   public void clearFrom (double t) throws IOException {
+      checkState();
+      Block blk = myCurrent;
+      int num = blk.myNum;
+      while (num > 0 && blk.myTimes[num-1] >= t) {
+         num--;
+      }
+      myNumSamples -= (blk.myNum-num);
+      blk.myNum = num;
+      if (num == 0) {
+         // samples may also need to be removed from the file
+         waitForWriter();
+         int k = myIndex.size();
+         while (k > 0 && myIndex.get(k-1).myLastTime >= t) {
+            k--;
+         }
+         if (k < myIndex.size()) {
+            BlockInfo info = myIndex.get(k);
+            Block partial = null;
+            if (info.myFirstTime < t) {
+               // read back the part of the block that should be kept
+               partial = new Block (myBlockSize, myVsize);
+               readBlock (info, partial);
+            }
+            for (int i=k; i<myIndex.size(); i++) {
+               myNumSamples -= myIndex.get(i).myNum;
+            }
+            myFileEnd = info.myOffset;
+            myChannel.truncate (myFileEnd);
+            while (myIndex.size() > k) {
+               myIndex.remove (myIndex.size()-1);
+            }
+            if (partial != null) {
+               num = 0;
+               while (num < partial.myNum && partial.myTimes[num] < t) {
+                  num++;
+               }
+               copySamples (blk, partial, num);
+               myNumSamples += num;
+            }
+         }
+      }
+      if (blk.myNum > 0) {
+         myLastTime = blk.myTimes[blk.myNum-1];
+      }
+      else if (myIndex.size() > 0) {
+         myLastTime = myIndex.get(myIndex.size()-1).myLastTime;
+      }
+      else {
+         myLastTime = Double.NEGATIVE_INFINITY;
+      }
+   }
+
+   private void copySamples (Block dst, Block src, int num) {
+      System.arraycopy (src.myTimes, 0, dst.myTimes, 0, num);
+      for (int j=0; j<myVsize; j++) {
+         System.arraycopy (
+            src.myValues, j*myBlockSize, dst.myValues, j*myBlockSize, num);
+      }
+      dst.myNum = num;
+   }
+
+   private void readBlock (BlockInfo info, Block blk) throws IOException {
+      ByteBuffer buf = ByteBuffer.allocate (info.myPayloadSize);
+      long pos = info.myOffset + BLOCK_HEADER_SIZE;
+      while (buf.hasRemaining()) {
+         int n = myChannel.read (buf, pos);
+         if (n < 0) {
+            throw new IOException ("unexpected end of file " + myFile);
+         }
+         pos += n;
+      }
+      buf.flip();
+      BinaryNumericListReader.decodePayload (
+         buf, myCompressed, info.myNum, myVsize,
+         blk.myTimes, blk.myValues, myBlockSize);
+      blk.myNum = info.myNum;
+   }
+
+   /**
+    * Flushes any remaining samples, stops the writer thread, and closes the
+    * file.
+    */
+   public void close() throws IOException {
+      if (myClosed) {
+         return;
+      }
+      IOException error = null;
+      try {
+         flush();
+      }
+      catch (IOException e) {
+         error = e;
+      }
+      myClosed = true;
+      try {
+         myQueue.put (END);
+         myThread.join();
+      }
+      catch (InterruptedException e) {
+         // just close the file
+      }
+      myChannel.close();
+      myRaf.close();
+      if (error != null) {
+         throw error;
+      }
+   }
+
+   // ---- methods used by the writer thread ----
+
+   private void writeBlocks() {
+      ByteBuffer buf = ByteBuffer.allocate (
+         BLOCK_HEADER_SIZE + 8*myBlockSize*(myVsize+1));
+      Deflater deflater = (myCompressed ? new Deflater() : null);
+      if (myCompressed) {
+         myZbuf = new byte[buf.capacity()+1024];
+      }
+      while (true) {
+         Block blk;
+         try {
+            blk = myQueue.take();
+         }
+         catch (InterruptedException e) {
+            continue;
+         }
+         if (blk == END) {
+            break;
+         }
+         if (myError == null) {
+            try {
+               writeBlock (blk, buf, deflater);
+            }
+            catch (IOException e) {
+               myError = e;
+            }
+         }
+         myFreeBlocks.add (blk);
+         synchronized (this) {
+            myNumWritten++;
+            notifyAll();
+         }
+      }
+      if (deflater != null) {
+         deflater.end();
+      }
+   }
+
+   private void writeBlock (Block blk, ByteBuffer buf, Deflater deflater)
+      throws IOException {
+
+      int num = blk.myNum;
+      buf.clear();
+      buf.position (BLOCK_HEADER_SIZE);
+      for (int i=0; i<num; i++) {
+         buf.putDouble (blk.myTimes[i]);
+      }
+      for (int j=0; j<myVsize; j++) {
+         int off = j*myBlockSize;
+         for (int i=0; i<num; i++) {
+            buf.putDouble (blk.myValues[off+i]);
+         }
+      }
+      int payloadSize = buf.position()-BLOCK_HEADER_SIZE;
+      ByteBuffer out = buf;
+      if (deflater != null) {
+         deflater.reset();
+         deflater.setInput (buf.array(), BLOCK_HEADER_SIZE, payloadSize);
+         deflater.finish();
+         int zsize = BLOCK_HEADER_SIZE;
+         while (!deflater.finished()) {
+            if (zsize == myZbuf.length) {
+               byte[] newbuf = new byte[2*myZbuf.length];
+               System.arraycopy (myZbuf, 0, newbuf, 0, zsize);
+               myZbuf = newbuf;
+            }
+            zsize += deflater.deflate (myZbuf, zsize, myZbuf.length-zsize);
+         }
+         out = ByteBuffer.wrap (myZbuf, 0, zsize);
+         out.position (zsize);
+         payloadSize = zsize-BLOCK_HEADER_SIZE;
+      }
+      double t0 = blk.myTimes[0];
+      double t1 = blk.myTimes[num-1];
+      int end = out.position();
+      out.position (0);
+      out.putInt (num);
+      out.putInt (payloadSize);
+      out.putDouble (t0);
+      out.putDouble (t1);
+      out.position (0);
+      out.limit (end);
+      long offset = myFileEnd;
+      writeFully (out, offset);
+      myIndex.add (new BlockInfo (offset, num, payloadSize, t0, t1));
+      myFileEnd = offset + end;
+   }
+}
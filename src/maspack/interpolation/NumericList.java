@@ -1125,8 +1125,9 @@ public class NumericList
             while (rtok.nextToken() != ']') {
                NumericListKnot knot = new NumericListKnot (myVsize);
                knot.t = rtok.scanNumber();
-               for (int i=0; i<myVsize; i++) {
-                  knot.v.set (i, rtok.scanNumber());
+               if (rtok.scanNumbers (knot.v.getBuffer(), myVsize) != myVsize) {
+                  throw new IOException (
+                     "expected "+myVsize+" knot values, got "+rtok);
                }
                add (knot);
             }
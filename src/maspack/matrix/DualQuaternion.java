@@ -36,6 +36,9 @@ public class DualQuaternion {
    Vector3d dtmp = new Vector3d();
    Vector3d rtmp = new Vector3d();
    double[] tmp = new double[8];
+   // allocated on demand by dualQuaternionIterativeBlending
+   private DualQuaternion bTmp;
+   private DualQuaternion bqTmp;
 
    /**
     * Constructs the identity Dual Quaternion
@@ -1055,8 +1058,10 @@ public class DualQuaternion {
       dualQuaternionLinearBlending(w, q, numq); // initial state
 
       // iterative
-      DualQuaternion bTmp = new DualQuaternion();
-      DualQuaternion bqTmp = new DualQuaternion();
+      if (bTmp == null) {
+         bTmp = new DualQuaternion();
+         bqTmp = new DualQuaternion();
+      }
 
       
       int nSteps = 0;
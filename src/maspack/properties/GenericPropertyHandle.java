@@ -40,7 +40,7 @@ public class GenericPropertyHandle implements Property {
 
    public Object get() {
       try {
-         return myGetMethod.invoke (myHost);
+         return myDesc.invokeGetMethod (myHost);
       }
       catch (RuntimeException e) {
          System.out.println ("exception invoking getMethod for " + getName());
@@ -65,7 +65,7 @@ public class GenericPropertyHandle implements Property {
          return;
       }
       try {
-         mySetMethod.invoke (myHost, obj);
+         myDesc.invokeSetMethod (myHost, obj);
       }
       catch (RuntimeException e) {
          throw e;
@@ -78,6 +78,29 @@ public class GenericPropertyHandle implements Property {
       }
    }
 
+   /**
+    * Returns the value of this property as a double, without boxing if
+    * possible. The property must be scalar numeric.
+    *
+    * @return property value
+    * @see PropertyDesc#getDouble
+    */
+   public double getDouble() {
+      return myDesc.getDouble (myHost);
+   }
+
+   /**
+    * Stores the value of this property in a double array, without
+    * intermediate allocation if possible. The property must be numeric.
+    *
+    * @param vals array in which to store the values
+    * @return number of values stored
+    * @see PropertyDesc#getVector
+    */
+   public int getVector (double[] vals) {
+      return myDesc.getVector (myHost, vals);
+   }
+
    public Range getRange () {
       if (myGetRangeMethod != null) {
          try {
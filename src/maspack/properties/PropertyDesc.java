@@ -10,7 +10,16 @@ import java.awt.Color;
 import java.awt.Font;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 
 import maspack.matrix.AxisAngle;
 import maspack.matrix.DenseMatrix;
@@ -57,6 +66,22 @@ public class PropertyDesc implements PropertyInfo {
    protected Method myCreateMethod;
    // protected Field myModeObjectField;
 
+   /**
+    * Enables get and set methods to be invoked through accessors compiled
+    * using {@link LambdaMetafactory}, instead of through reflection.
+    */
+   public static boolean useCompiledAccessors = true;
+
+   // compiled accessors, created on first use. Any of these may be null if
+   // compilation was not possible, in which case reflection is used instead.
+   private Function<Object,Object> myGetter;
+   private BiConsumer<Object,Object> mySetter;
+   private ToDoubleFunction<Object> myDoubleGetter;
+   // boxed argument type of the set method, used to check that a value can
+   // be passed to the compiled setter without conversion
+   private Class<?> mySetterArgType;
+   private boolean myAccessorsCompiled = false;
+
    boolean myDefaultIsAuto = false;
    Object myDefaultValue;
    PropertyMode myDefaultMode = PropertyMode.Explicit;
@@ -704,6 +729,7 @@ public class PropertyDesc implements PropertyInfo {
          setPropertyType (myGetMethod.getReturnType());
       }
       checkReturnType (myGetMethod, myValueClass);
+      myAccessorsCompiled = false;
    }
 
    private void initSetMethod (String methodName) {
@@ -712,8 +738,179 @@ public class PropertyDesc implements PropertyInfo {
             "attempt to set set method with value class unknown");
       }
       mySetMethod = locateMethod (methodName, myValueClass);
+      myAccessorsCompiled = false;
+   }
+
+   /**
+    * Returns true if a class can be referenced by code generated on behalf
+    * of this class; i.e., if it is public and visible to our class loader.
+    */
+   private static boolean isLinkable (Class<?> cls) {
+      while (cls.isArray()) {
+         cls = cls.getComponentType();
+      }
+      if (cls.isPrimitive()) {
+         return true;
+      }
+      if (!Modifier.isPublic (cls.getModifiers())) {
+         return false;
+      }
+      try {
+         return Class.forName (
+            cls.getName(), false, PropertyDesc.class.getClassLoader()) == cls;
+      }
+      catch (ClassNotFoundException e) {
+         return false;
+      }
+   }
+
+   private static boolean isLinkable (Method method) {
+      if (Modifier.isStatic (method.getModifiers()) ||
+          !isLinkable (method.getDeclaringClass()) ||
+          !isLinkable (method.getReturnType())) {
+         return false;
+      }
+      for (Class<?> cls : method.getParameterTypes()) {
+         if (!isLinkable (cls)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static Class<?> boxedType (Class<?> cls) {
+      return MethodType.methodType (cls).wrap().returnType();
+   }
+
+   private static boolean isNumericPrimitive (Class<?> cls) {
+      return (cls == Double.TYPE || cls == Float.TYPE || cls == Long.TYPE ||
+              cls == Integer.TYPE || cls == Short.TYPE || cls == Byte.TYPE);
+   }
+
+   /**
+    * Creates compiled accessors for the get and set methods. These are
+    * created lazily, since many properties are never accessed through their
+    * descriptors and creating the accessors is not free.
+    */
+   @SuppressWarnings("unchecked")
+   private synchronized void compileAccessors() {
+      if (myAccessorsCompiled) {
+         return;
+      }
+      myGetter = null;
+      mySetter = null;
+      myDoubleGetter = null;
+      if (useCompiledAccessors) {
+         MethodHandles.Lookup lookup = MethodHandles.lookup();
+         if (myGetMethod != null && isLinkable (myGetMethod)) {
+            Class<?> hostType = myGetMethod.getDeclaringClass();
+            Class<?> retType = myGetMethod.getReturnType();
+            try {
+               MethodHandle mh = lookup.unreflect (myGetMethod);
+               myGetter = (Function<Object,Object>)LambdaMetafactory.metafactory (
+                  lookup, "apply",
+                  MethodType.methodType (Function.class),
+                  MethodType.methodType (Object.class, Object.class), mh,
+                  MethodType.methodType (boxedType(retType), hostType))
+                  .getTarget().invoke();
+               if (isNumericPrimitive (retType)) {
+                  myDoubleGetter =
+                     (ToDoubleFunction<Object>)LambdaMetafactory.metafactory (
+                        lookup, "applyAsDouble",
+                        MethodType.methodType (ToDoubleFunction.class),
+                        MethodType.methodType (Double.TYPE, Object.class), mh,
+                        MethodType.methodType (Double.TYPE, hostType))
+                        .getTarget().invoke();
+               }
+            }
+            catch (Throwable e) {
+               // fall back on reflection
+               myGetter = null;
+               myDoubleGetter = null;
+            }
+         }
+         if (mySetMethod != null && isLinkable (mySetMethod)) {
+            Class<?> hostType = mySetMethod.getDeclaringClass();
+            Class<?> argType = mySetMethod.getParameterTypes()[0];
+            try {
+               MethodHandle mh = lookup.unreflect (mySetMethod);
+               mySetter = (BiConsumer<Object,Object>)LambdaMetafactory.metafactory (
+                  lookup, "accept",
+                  MethodType.methodType (BiConsumer.class),
+                  MethodType.methodType (Void.TYPE, Object.class, Object.class),
+                  mh,
+                  MethodType.methodType (Void.TYPE, hostType, boxedType(argType)))
+                  .getTarget().invoke();
+               mySetterArgType = boxedType (argType);
+            }
+            catch (Throwable e) {
+               // fall back on reflection
+               mySetter = null;
+            }
+         }
+      }
+      myAccessorsCompiled = true;
+   }
+
+   /**
+    * Invokes the get method for this property on a specific host, using a
+    * compiled accessor if possible. As with reflective invocation, exceptions
+    * thrown by the get method itself are wrapped in an {@link
+    * InvocationTargetException}.
+    */
+   Object invokeGetMethod (Object host) throws Exception {
+      if (!myAccessorsCompiled) {
+         compileAccessors();
+      }
+      Function<Object,Object> getter = myGetter;
+      if (getter != null) {
+         try {
+            return getter.apply (host);
+         }
+         catch (Throwable e) {
+            throw new InvocationTargetException (e);
+         }
+      }
+      else {
+         return myGetMethod.invoke (host);
+      }
+   }
+
+   /**
+    * Invokes the set method for this property on a specific host, using a
+    * compiled accessor if possible. As with reflective invocation, exceptions
+    * thrown by the set method itself are wrapped in an {@link
+    * InvocationTargetException}. Values that require a conversion, such as
+    * widening or unboxing a {@code null}, are passed using reflection so
+    * that they are accepted or rejected in the same way.
+    */
+   void invokeSetMethod (Object host, Object value) throws Exception {
+      if (!myAccessorsCompiled) {
+         compileAccessors();
+      }
+      BiConsumer<Object,Object> setter = mySetter;
+      if (setter != null && setterAccepts (value)) {
+         try {
+            setter.accept (host, value);
+         }
+         catch (Throwable e) {
+            throw new InvocationTargetException (e);
+         }
+      }
+      else {
+         mySetMethod.invoke (host, value);
+      }
    }
    
+   private boolean setterAccepts (Object value) {
+      if (value == null) {
+         return !mySetMethod.getParameterTypes()[0].isPrimitive();
+      }
+      else {
+         return mySetterArgType.isInstance (value);
+      }
+   }
+
    private void initGetRangeMethod (String methodName) {
       if (myValueClass == null) {
          throw new IllegalStateException (
@@ -1111,7 +1308,7 @@ public class PropertyDesc implements PropertyInfo {
       else {
          checkHostClass (host);
          try {
-            return myGetMethod.invoke (host);
+            return invokeGetMethod (host);
          }
          catch (Exception e) {
             methodInvocationError (e, host, myGetMethod);
@@ -1120,6 +1317,145 @@ public class PropertyDesc implements PropertyInfo {
       }
    }
 
+   /**
+    * Returns true if the value of this property is a single number, so that
+    * it can be obtained using {@link #getDouble}.
+    */
+   public boolean isScalarNumeric() {
+      switch (myValueType) {
+         case BYTE:
+         case SHORT:
+         case INT:
+         case LONG:
+         case FLOAT:
+         case DOUBLE:
+         case BOOLEAN: {
+            return true;
+         }
+         default: {
+            return false;
+         }
+      }
+   }
+
+   /**
+    * Returns the value of a scalar numeric property as a double. For
+    * properties whose get method returns a primitive number, this is done
+    * without boxing. Boolean values are returned as 1 or 0.
+    *
+    * @param host host object containing the property
+    * @return property value
+    * @throws IllegalStateException if the property is not scalar numeric
+    */
+   public double getDouble (HasProperties host) {
+      if (!isScalarNumeric()) {
+         throw new IllegalStateException (
+            "property '" + myName + "' is not scalar numeric");
+      }
+      if (myGetMethod != null) {
+         if (!myAccessorsCompiled) {
+            compileAccessors();
+         }
+         ToDoubleFunction<Object> getter = myDoubleGetter;
+         if (getter != null) {
+            checkHostClass (host);
+            try {
+               return getter.applyAsDouble (host);
+            }
+            catch (Throwable e) {
+               // wrap as for reflective invocation
+               methodInvocationError (
+                  new InvocationTargetException (e), host, myGetMethod);
+            }
+         }
+      }
+      Object value = getValue (host);
+      if (value instanceof Boolean) {
+         return ((Boolean)value) ? 1.0 : 0.0;
+      }
+      else {
+         return ((Number)value).doubleValue();
+      }
+   }
+
+   /**
+    * Stores the value of a numeric property into a double array, using the
+    * same layout as {@link NumericConverter}. Scalar values are obtained
+    * using {@link #getDouble}, and vector, matrix and array values are copied
+    * without intermediate allocation.
+    *
+    * @param host host object containing the property
+    * @param vals array in which to store the values
+    * @return number of values stored
+    * @throws IllegalStateException if the property is not numeric
+    */
+   public int getVector (HasProperties host, double[] vals) {
+      if (isScalarNumeric()) {
+         if (vals.length < 1) {
+            throw new IllegalArgumentException (
+               "array not large enough for property value");
+         }
+         vals[0] = getDouble (host);
+         return 1;
+      }
+      if (!typeIsNumeric()) {
+         throw new IllegalStateException (
+            "property '" + myName + "' is not numeric");
+      }
+      Object value = getValue (host);
+      int size;
+      switch (myValueType) {
+         case VECTOR: {
+            Vector vec = (Vector)value;
+            size = checkVectorSize (vec.size(), vals);
+            for (int i=0; i<size; i++) {
+               vals[i] = vec.get(i);
+            }
+            break;
+         }
+         case VECTORI: {
+            Vectori vec = (Vectori)value;
+            size = checkVectorSize (vec.size(), vals);
+            for (int i=0; i<size; i++) {
+               vals[i] = vec.get(i);
+            }
+            break;
+         }
+         case MATRIX: {
+            DenseMatrix mat = (DenseMatrix)value;
+            size = checkVectorSize (mat.rowSize()*mat.colSize(), vals);
+            int k = 0;
+            for (int i=0; i<mat.rowSize(); i++) {
+               for (int j=0; j<mat.colSize(); j++) {
+                  vals[k++] = mat.get (i, j);
+               }
+            }
+            break;
+         }
+         case DOUBLE_ARRAY: {
+            double[] array = (double[])value;
+            size = checkVectorSize (array.length, vals);
+            System.arraycopy (array, 0, vals, 0, size);
+            break;
+         }
+         default: {
+            NumericConverter conv = new NumericConverter (value);
+            size = checkVectorSize (conv.getDimension(), vals);
+            conv.objectToArray (vals, value);
+            break;
+         }
+      }
+      return size;
+   }
+
+   private int checkVectorSize (int size, double[] vals) {
+      if (vals.length < size) {
+         throw new IllegalArgumentException (
+            "array not large enough for property value");
+      }
+      return size;
+   }
+
    public Range getRange (HasProperties host) {
       if (myGetRangeMethod != null) {
          checkHostClass (host);
@@ -1146,7 +1482,7 @@ public class PropertyDesc implements PropertyInfo {
       else {
          checkHostClass (host);
          try {
-            mySetMethod.invoke (host, value);
+            invokeSetMethod (host, value);
          }
          catch (Exception e) {
             methodInvocationError (e, host, mySetMethod);
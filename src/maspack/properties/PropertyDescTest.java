@@ -8,6 +8,7 @@ package maspack.properties;
 
 import java.awt.Color;
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
 import java.util.*;
 import maspack.matrix.*;
 import maspack.util.*;
@@ -324,6 +325,144 @@ public class PropertyDescTest implements HasProperties {
       }
    }
 
+   void testNumericAccess() {
+      double[] vals = new double[16];
+      double[] chk = new double[16];
+      for (int k=0; k<props.size(); k++) {
+         PropertyDesc desc = props.get (k);
+         if (!desc.typeIsNumeric()) {
+            continue;
+         }
+         Object value = desc.getValue (this);
+         NumericConverter conv = new NumericConverter (value);
+         conv.objectToArray (chk, value);
+         int size = desc.getVector (this, vals);
+         if (size != conv.getDimension()) {
+            throw new TestException (
+               "property '" + desc.getName() + "': getVector size is " +
+               size + ", expected " + conv.getDimension());
+         }
+         for (int i=0; i<size; i++) {
+            if (vals[i] != chk[i]) {
+               throw new TestException (
+                  "property '" + desc.getName() + "': getVector value " + i +
+                  " is " + vals[i] + ", expected " + chk[i]);
+            }
+         }
+         if (desc.isScalarNumeric() && desc.getDouble (this) != chk[0]) {
+            throw new TestException (
+               "property '" + desc.getName() + "': getDouble is " +
+               desc.getDouble (this) + ", expected " + chk[0]);
+         }
+         // setting the value back should leave it unchanged
+         desc.setValue (this, value);
+         if (desc.getVector (this, vals) != size || vals[0] != chk[0]) {
+            throw new TestException (
+               "property '" + desc.getName() + "': value changed by set");
+         }
+      }
+      setInt (42);
+      GenericPropertyHandle handle =
+         new GenericPropertyHandle (this, props.get ("int"));
+      if (handle.getDouble() != 42) {
+         throw new TestException ("getDouble failed after setInt");
+      }
+      handle = new GenericPropertyHandle (this, props.get ("double"));
+      handle.set (2.5);
+      if (getDouble() != 2.5) {
+         throw new TestException ("property set failed for 'double'");
+      }
+   }
+
+   /**
+    * Host whose get and set methods throw exceptions, used to check that
+    * compiled and reflective accessors report them in the same way.
+    */
+   public static class FailingHost implements HasProperties {
+
+      public double getFailing() {
+         throw new IllegalStateException ("get failed");
+      }
+
+      public void setFailing (double val) {
+         throw new IllegalStateException ("set failed");
+      }
+
+      public Property getProperty (String name) {
+         return null;
+      }
+
+      public PropertyList getAllPropertyInfo() {
+         return null;
+      }
+   }
+
+   private void checkInvocationException (String msg, Exception e) {
+      if (!(e instanceof InvocationTargetException) ||
+          !(e.getCause() instanceof IllegalStateException)) {
+         throw new TestException (
+            msg + ": expected InvocationTargetException wrapping " +
+            "IllegalStateException, got " + e);
+      }
+   }
+
+   void testAccessorExceptions (boolean compiled) {
+      boolean saveCompiled = PropertyDesc.useCompiledAccessors;
+      PropertyDesc.useCompiledAccessors = compiled;
+      try {
+         String mode = compiled ? "compiled" : "reflective";
+         // use a new list each time, since accessors are cached by the desc
+         PropertyList list = new PropertyList (FailingHost.class);
+         list.add ("failing", "failing property", 0.0);
+         PropertyDesc desc = list.get ("failing");
+         FailingHost host = new FailingHost();
+         try {
+            desc.invokeGetMethod (host);
+            throw new TestException (mode + " get did not fail");
+         }
+         catch (Exception e) {
+            checkInvocationException (mode + " get", e);
+         }
+         try {
+            desc.invokeSetMethod (host, 1.0);
+            throw new TestException (mode + " set did not fail");
+         }
+         catch (Exception e) {
+            checkInvocationException (mode + " set", e);
+         }
+         try {
+            // requires widening, which reflection performs
+            desc.invokeSetMethod (host, 1);
+            throw new TestException (mode + " widened set did not fail");
+         }
+         catch (Exception e) {
+            checkInvocationException (mode + " widened set", e);
+         }
+         try {
+            desc.invokeSetMethod (host, null);
+            throw new TestException (mode + " null set did not fail");
+         }
+         catch (Exception e) {
+            if (!(e instanceof IllegalArgumentException)) {
+               throw new TestException (
+                  mode + " null set: expected IllegalArgumentException, got " +
+                  e);
+            }
+         }
+         GenericPropertyHandle handle = new GenericPropertyHandle (host, desc);
+         try {
+            handle.set (1.0);
+            throw new TestException (mode + " handle set did not fail");
+         }
+         catch (IllegalStateException e) {
+            // expected: cause of the InvocationTargetException
+         }
+      }
+      finally {
+         PropertyDesc.useCompiledAccessors = saveCompiled;
+      }
+   }
+
    public static void main (String[] args) {
       PropertyDescTest tester = new PropertyDescTest();
       IndentingPrintWriter pw;
@@ -350,6 +489,9 @@ public class PropertyDescTest implements HasProperties {
             System.out.println (str1);
             throw new TestException ("contents changed by rescaning output");
          }
+         tester.testNumericAccess();
+         tester.testAccessorExceptions (/*compiled=*/true);
+         tester.testAccessorExceptions (/*compiled=*/false);
       }
       catch (Exception e) {
          e.printStackTrace();
@@ -63,6 +63,7 @@ import maspack.render.RenderList;
 import maspack.render.RenderListener;
 import maspack.render.RenderObject;
 import maspack.render.RenderProps;
+import maspack.render.RenderSnapshot;
 import maspack.render.RendererEvent;
 import maspack.render.SortedRenderableList;
 import maspack.render.VertexIndexArray;
@@ -448,6 +449,7 @@ public abstract class GLViewer implements GLEventListener, GLRenderer,
    protected boolean myInternalRenderListValid = false;
    protected RenderList myInternalRenderList = new RenderList();
    protected RenderList myExternalRenderList = null;
+   protected volatile RenderSnapshot myRenderSnapshot = null;
 
    // Renderable Objects and Tools
    protected LinkedList<Dragger3d> myDraggers;
@@ -863,6 +865,24 @@ public abstract class GLViewer implements GLEventListener, GLRenderer,
       return myExternalRenderList;
    }
 
+   /**
+    * Sets the snapshot from which the external render list was obtained, or
+    * {@code null} if the list was not obtained from a snapshot. Used when
+    * the model is prerendered on a different thread. While a snapshot is
+    * set, the viewer holds its draw lock whenever it draws or otherwise
+    * accesses the renderables of the external list, so that they are never
+    * prerendered at the same time.
+    *
+    * @param snap render snapshot, or {@code null}
+    */
+   public void setRenderSnapshot (RenderSnapshot snap) {
+      myRenderSnapshot = snap;
+   }
+
+   public RenderSnapshot getRenderSnapshot() {
+      return myRenderSnapshot;
+   }
+
    /**
     * Request a render with special flags that will be used
     * only for the duration of that render.
@@ -1073,7 +1093,18 @@ public abstract class GLViewer implements GLEventListener, GLRenderer,
       }
       RenderList elist = myExternalRenderList;
       if (elist != null) {
-         elist.updateBounds (pmin, pmax);
+         RenderSnapshot snap = myRenderSnapshot;
+         if (snap != null) {
+            snap.beginDraw();
+         }
+         try {
+            elist.updateBounds (pmin, pmax);
+         }
+         finally {
+            if (snap != null) {
+               snap.endDraw();
+            }
+         }
          boundsSet = true;
       }
       if (!boundsSet) {
@@ -2116,7 +2147,18 @@ public abstract class GLViewer implements GLEventListener, GLRenderer,
          myFrustum.depthBits = depthBits;
          computeProjectionMatrix ();
       }
-      display(drawable, flags);
+      RenderSnapshot snap = myRenderSnapshot;
+      if (snap != null) {
+         snap.beginDraw();
+      }
+      try {
+         display(drawable, flags);
+      }
+      finally {
+         if (snap != null) {
+            snap.endDraw();
+         }
+      }
       
       // clear current drawable
       this.drawable = null;
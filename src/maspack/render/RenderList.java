@@ -8,7 +8,9 @@ package maspack.render;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.matrix.Vector3d;
 
 //import maspack.render.GL.*;
@@ -172,6 +174,61 @@ public class RenderList {
       }
    }
    
+   /**
+    * Parallel version of {@link #addIfVisibleAll}. Each renderable in the
+    * list, along with any renderables added by its {@link
+    * IsRenderable#prerender} method, is collected in a separate render list,
+    * with the prerender methods being called concurrently by a thread pool.
+    * The separate lists are then merged into this list in the order of the
+    * original renderables, so that the resulting sublists are exactly the
+    * same as those which would be produced by {@link #addIfVisibleAll}.
+    *
+    * <p>The renderables must not share state that is modified by their
+    * {@code prerender} methods.
+    * 
+    * @param renderables list of renderables to maybe add to this list.
+    */
+   public void addIfVisibleAllParallel (
+      List<? extends IsRenderable> renderables) {
+
+      int num = renderables.size();
+      if (num < 2 || ParallelLoop.getParallelism() <= 1) {
+         addIfVisibleAll (renderables);
+         return;
+      }
+      RenderList[] lists = new RenderList[num];
+      ParallelLoop.forRange (num, 1, (i0, i1) -> {
+         for (int i=i0; i<i1; i++) {
+            RenderList list = new RenderList();
+            list.addIfVisible (renderables.get(i));
+            lists[i] = list;
+         }
+      });
+      for (RenderList list : lists) {
+         merge (list);
+      }
+   }
+
+   private void merge (SortedRenderableList src, SortedRenderableList dst) {
+      for (int i=0; i<src.size(); i++) {
+         insertRenderable (src.get(i), dst);
+      }
+   }
+
+   /**
+    * Appends the contents of another render list to this list, as though
+    * they had been added here directly at the current level.
+    */
+   private void merge (RenderList list) {
+      merge (list.myOpaque, myOpaque);
+      merge (list.myTransparent, myTransparent);
+      merge (list.myOpaque2d, myOpaque2d);
+      merge (list.myTransparent2d, myTransparent2d);
+      if (myLevel == 0) {
+         myUnexpanded.addAll (list.myUnexpanded);
+      }
+   }
+   
 //   public void addIfVisibleAll (
 //      Collection<? extends IsRenderable> renderables, int prerenderFlags) {
 //      for (IsRenderable r : renderables) {
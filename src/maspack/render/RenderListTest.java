@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.render;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import maspack.matrix.Vector3d;
+import maspack.util.*;
+
+/**
+ * Checks that parallel construction of a RenderList gives the same result as
+ * serial construction.
+ */
+public class RenderListTest extends UnitTest {
+
+   private Random myRand = new Random (0x1234);
+
+   private static class TestRenderable implements IsRenderable, HasRenderProps {
+
+      RenderProps myProps;
+      int myHints;
+      ArrayList<TestRenderable> myChildren = new ArrayList<TestRenderable>();
+
+      public void prerender (RenderList list) {
+         for (TestRenderable child : myChildren) {
+            list.addIfVisible (child);
+         }
+      }
+
+      public void render (Renderer renderer, int flags) {
+      }
+
+      public void updateBounds (Vector3d pmin, Vector3d pmax) {
+      }
+
+      public int getRenderHints() {
+         return myHints;
+      }
+
+      public RenderProps getRenderProps() {
+         return myProps;
+      }
+
+      public void setRenderProps (RenderProps props) {
+         myProps = props;
+      }
+
+      public RenderProps createRenderProps() {
+         return new RenderProps();
+      }
+   }
+
+   private TestRenderable createRenderable (int depth) {
+      TestRenderable r = new TestRenderable();
+      if (myRand.nextInt (8) != 0) {
+         r.myProps = new RenderProps();
+         r.myProps.setZOrder (myRand.nextInt(3)-1);
+         r.myProps.setVisible (myRand.nextInt (6) != 0);
+      }
+      if (myRand.nextBoolean()) {
+         r.myHints |= IsRenderable.TRANSPARENT;
+      }
+      if (myRand.nextInt (4) == 0) {
+         r.myHints |= IsRenderable.TWO_DIMENSIONAL;
+      }
+      if (depth > 0) {
+         int numc = myRand.nextInt (6);
+         for (int i=0; i<numc; i++) {
+            r.myChildren.add (createRenderable (depth-1));
+         }
+      }
+      return r;
+   }
+
+   private void checkSublists (
+      String name, SortedRenderableList list, SortedRenderableList check) {
+      if (list.size() != check.size()) {
+         throw new TestException (
+            name + " list has size " + list.size() +
+            ", expected " + check.size());
+      }
+      for (int i=0; i<check.size(); i++) {
+         if (list.get(i) != check.get(i)) {
+            throw new TestException (
+               name + " list differs from serial result at index " + i);
+         }
+      }
+   }
+
+   public void testParallelAdd (int numTop, int depth) {
+      ArrayList<TestRenderable> top = new ArrayList<TestRenderable>();
+      for (int i=0; i<numTop; i++) {
+         top.add (createRenderable (depth));
+      }
+      RenderList check = new RenderList();
+      check.addIfVisibleAll (top);
+      RenderList list = new RenderList();
+      list.addIfVisibleAllParallel (top);
+
+      checkSublists ("opaque", list.getOpaque(), check.getOpaque());
+      checkSublists (
+         "transparent", list.getTransparent(), check.getTransparent());
+      checkSublists ("opaque2d", list.getOpaque2d(), check.getOpaque2d());
+      checkSublists (
+         "transparent2d", list.getTransparent2d(), check.getTransparent2d());
+
+      // nested use from within a prerender method
+      TestRenderable serialRoot = new TestRenderable();
+      serialRoot.myChildren.addAll (top);
+      TestRenderable parallelRoot = new TestRenderable() {
+            public void prerender (RenderList list) {
+               list.addIfVisibleAllParallel (myChildren);
+            }
+         };
+      parallelRoot.myChildren.addAll (top);
+      check = new RenderList();
+      check.addIfVisible (serialRoot);
+      list = new RenderList();
+      list.addIfVisible (parallelRoot);
+      checkSublists ("nested opaque", list.getOpaque(), check.getOpaque());
+      checkSublists (
+         "nested transparent", list.getTransparent(), check.getTransparent());
+   }
+
+   public void test() {
+      testParallelAdd (0, 2);
+      testParallelAdd (1, 3);
+      for (int i=0; i<20; i++) {
+         testParallelAdd (2+myRand.nextInt(10), 4);
+      }
+   }
+
+   public static void main (String[] args) {
+      RenderListTest tester = new RenderListTest();
+      tester.runtest();
+   }
+}
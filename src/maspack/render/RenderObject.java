@@ -413,16 +413,22 @@ public class RenderObject implements Versioned, DisposeObservable, Disposable {
    }
    
    /**
-    * Acquires the write lock
-    */
-   protected void writeLock() {
+    * Acquires the write lock. Code that modifies the contents of position,
+    * normal, color or texture coordinate arrays in place, using the arrays
+    * returned by methods such as {@link #getPosition}, should hold this lock
+    * while doing so, since renderers read these arrays while holding the read
+    * lock. The lock is reentrant, and other threads may write into the arrays
+    * on behalf of the thread holding it, provided that they have finished
+    * before it is released.
+    */
+   public void writeLock() {
       lock.writeLock().lock();
    }
    
    /**
     * Releases the write lock
     */
-   protected void writeUnlock() {
+   public void writeUnlock() {
       lock.writeLock().unlock();
    }
    
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.render;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Snapshot of a {@link RenderList}, for use when the viewers draw on a
+ * different thread from the one that prerenders and advances the model.
+ *
+ * <p>The {@code render} methods of renderables draw the state that was
+ * cached by their {@code prerender} methods, such as render coordinates and
+ * {@link RenderObject}s. A renderable must therefore not be drawn while it
+ * is being prerendered. Snapshots ensure this using a draw lock, shared by
+ * all the snapshots used with the same viewers, which renderers hold while
+ * drawing a snapshot (see {@link #beginDraw} and {@link #endDraw}). A
+ * snapshot is only captured if the lock can be acquired without waiting, so
+ * that the thread advancing the model never waits for the viewers: if they
+ * are busy, the capture is skipped, and the viewers continue to draw the
+ * previous snapshot. A renderer, in turn, waits at most for the duration of
+ * one prerender.
+ *
+ * <p>Snapshots are intended to be used as the buffers of a {@link
+ * maspack.concurrency.TripleBuffer}, so that the viewers always draw the
+ * latest complete snapshot.
+ */
+public class RenderSnapshot {
+
+   private ReentrantLock myDrawLock;
+   private RenderList myList;
+
+   /**
+    * Creates an empty snapshot.
+    *
+    * @param drawLock lock held while this snapshot, or any other snapshot
+    * used with the same viewers, is being drawn or captured
+    */
+   public RenderSnapshot (ReentrantLock drawLock) {
+      myDrawLock = drawLock;
+   }
+
+   /**
+    * Captures a new render list for this snapshot, provided that no snapshot
+    * sharing the same draw lock is currently being drawn. The list is
+    * created by {@code builder}, which should prerender the model, while
+    * the draw lock is held. Otherwise, if the lock is held by another
+    * thread, this method returns {@code false} immediately without calling
+    * {@code builder}, and the snapshot is left unchanged. Should not be
+    * called while the snapshot is being drawn.
+    *
+    * @param builder creates the render list, prerendering its renderables
+    * @return {@code true} if the snapshot was captured
+    */
+   public boolean capture (Supplier<RenderList> builder) {
+      if (!myDrawLock.tryLock()) {
+         return false;
+      }
+      try {
+         myList = builder.get();
+      }
+      finally {
+         myDrawLock.unlock();
+      }
+      return true;
+   }
+
+   /**
+    * Returns the render list for this snapshot.
+    *
+    * @return snapshot render list, or {@code null} if nothing has been
+    * captured
+    */
+   public RenderList getRenderList() {
+      return myList;
+   }
+
+   /**
+    * Should be called by a renderer before it starts drawing the renderables
+    * of this snapshot, or otherwise accessing their state, for example to
+    * update bounds. Waits until any capture in progress has finished, and
+    * prevents further captures until {@link #endDraw} is called.
+    */
+   public void beginDraw() {
+      myDrawLock.lock();
+   }
+
+   /**
+    * Should be called by a renderer when it has finished drawing the
+    * renderables of this snapshot.
+    */
+   public void endDraw() {
+      myDrawLock.unlock();
+   }
+
+   /**
+    * Clears the render list of this snapshot.
+    */
+   public void clear() {
+      myList = null;
+   }
+}
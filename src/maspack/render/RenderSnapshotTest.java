@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.render;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import maspack.concurrency.TripleBuffer;
+import maspack.matrix.Vector3d;
+import maspack.util.*;
+
+/**
+ * Checks that renderables published in a RenderSnapshot are never
+ * prerendered while they are being drawn, and that captures made while the
+ * snapshots are being drawn are skipped rather than waiting.
+ */
+public class RenderSnapshotTest extends UnitTest {
+
+   private static final int NUM_COORDS = 256;
+
+   /**
+    * Renderable whose prerender method copies the model state into render
+    * coordinates, as point and mesh components do.
+    */
+   private static class TestRenderable implements IsRenderable {
+
+      int myState;
+      float[] myRenderCoords = new float[NUM_COORDS];
+
+      void advance() {
+         myState++;
+      }
+
+      public void prerender (RenderList list) {
+         for (int i=0; i<myRenderCoords.length; i++) {
+            myRenderCoords[i] = myState;
+         }
+      }
+
+      public void render (Renderer renderer, int flags) {
+      }
+
+      // returns the value of all render coordinates, or NaN if they are not
+      // all equal
+      float drawnValue() {
+         float value = myRenderCoords[0];
+         for (int i=0; i<myRenderCoords.length; i++) {
+            if (myRenderCoords[i] != value) {
+               return Float.NaN;
+            }
+         }
+         return value;
+      }
+
+      public void updateBounds (Vector3d pmin, Vector3d pmax) {
+      }
+
+      public int getRenderHints() {
+         return 0;
+      }
+   }
+
+   private RenderList buildList (TestRenderable r) {
+      RenderList list = new RenderList();
+      list.addIfVisible (r);
+      return list;
+   }
+
+   private TripleBuffer<RenderSnapshot> createBuffer (ReentrantLock lock) {
+      return new TripleBuffer<RenderSnapshot>(
+         new RenderSnapshot(lock),
+         new RenderSnapshot(lock),
+         new RenderSnapshot(lock));
+   }
+
+   public void testSkippedCapture() {
+      final ReentrantLock lock = new ReentrantLock();
+      final TripleBuffer<RenderSnapshot> buffer = createBuffer (lock);
+      final TestRenderable r = new TestRenderable();
+      final boolean[] built = new boolean[1];
+
+      r.advance();
+      check ("capture failed",
+             buffer.getBack().capture (() -> buildList (r)));
+      buffer.publish();
+      check ("no frame published", buffer.update());
+      RenderSnapshot front = buffer.getFront();
+      checkEquals ("drawn value", r.drawnValue(), 1f);
+
+      // while the front snapshot is being drawn, captures are skipped
+      // without prerendering
+      front.beginDraw();
+      Thread producer = new Thread() {
+         public void run() {
+            r.advance();
+            buffer.getBack().capture (() -> {
+                  built[0] = true;
+                  return buildList (r);
+               });
+         }
+      };
+      producer.start();
+      try {
+         producer.join (10000);
+      }
+      catch (InterruptedException e) {
+         throw new TestException ("interrupted");
+      }
+      check ("capture waited for the viewer", !producer.isAlive());
+      check ("model prerendered while drawn", !built[0]);
+      checkEquals ("drawn value", r.drawnValue(), 1f);
+      check ("skipped capture has a list",
+             buffer.getBack().getRenderList() == null);
+      front.endDraw();
+
+      // once drawing has finished, the next capture succeeds
+      check ("capture failed",
+             buffer.getBack().capture (() -> buildList (r)));
+      checkEquals ("drawn value", r.drawnValue(), 2f);
+   }
+
+   /**
+    * Steps the model in one thread while another thread draws the published
+    * frames, checking that the drawn state is consistent and remains
+    * unchanged while it is being drawn.
+    */
+   public void testConcurrentSteps() {
+      final ReentrantLock lock = new ReentrantLock();
+      final TripleBuffer<RenderSnapshot> buffer = createBuffer (lock);
+      final TestRenderable r = new TestRenderable();
+      final int numSteps = 20000;
+      final String[] error = new String[1];
+      final int[] numCaptured = new int[1];
+
+      Thread producer = new Thread() {
+         public void run() {
+            for (int k=1; k<=numSteps; k++) {
+               r.advance();
+               if (buffer.getBack().capture (() -> buildList (r))) {
+                  buffer.publish();
+                  numCaptured[0]++;
+               }
+            }
+            // make sure the final state is published
+            while (!buffer.getBack().capture (() -> buildList (r))) {
+               Thread.yield();
+            }
+            buffer.publish();
+         }
+      };
+      Thread consumer = new Thread() {
+         public void run() {
+            float last = 0;
+            while (last < numSteps && error[0] == null) {
+               if (!buffer.update()) {
+                  Thread.yield();
+                  continue;
+               }
+               RenderSnapshot front = buffer.getFront();
+               front.beginDraw();
+               try {
+                  SortedRenderableList opaque =
+                     front.getRenderList().getOpaque();
+                  TestRenderable drawn = (TestRenderable)opaque.get(0);
+                  float value = drawn.drawnValue();
+                  if (Float.isNaN (value)) {
+                     error[0] = "torn frame";
+                  }
+                  else if (value < last) {
+                     error[0] = "frame "+value+" older than "+last;
+                  }
+                  // "draw" the frame for a while and check it stays the same
+                  for (int i=0; i<10 && error[0]==null; i++) {
+                     Thread.yield();
+                     if (drawn.drawnValue() != value) {
+                        error[0] = "frame "+value+" changed while drawn";
+                     }
+                  }
+                  last = value;
+               }
+               finally {
+                  front.endDraw();
+               }
+            }
+         }
+      };
+      consumer.start();
+      producer.start();
+      try {
+         producer.join();
+         consumer.join (10000);
+      }
+      catch (InterruptedException e) {
+         throw new TestException ("interrupted");
+      }
+      if (consumer.isAlive()) {
+         error[0] = "last frame never received";
+         consumer.interrupt();
+      }
+      if (error[0] != null) {
+         throw new TestException (error[0]);
+      }
+      check ("no frames captured", numCaptured[0] > 0);
+   }
+
+   public void test() {
+      testSkippedCapture();
+      testConcurrentSteps();
+   }
+
+   public static void main (String[] args) {
+      RenderSnapshotTest tester = new RenderSnapshotTest();
+      tester.runtest();
+   }
+}
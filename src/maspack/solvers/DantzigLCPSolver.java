@@ -82,6 +82,8 @@ public class DantzigLCPSolver {
    protected double myTol;
    protected int myIterationLimit = 10;
    protected int myIterationCnt;
+   protected boolean myWarmStartEnabled = false;
+   protected int myWarmStartBasisSize;
    protected boolean myComputeResidual = false;
    protected double myResidual = 0;
 
@@ -223,6 +225,48 @@ public class DantzigLCPSolver {
       return myIterationCnt;
    }
 
+   /**
+    * Returns true if warm starting is enabled for this solver.
+    *
+    * @return true if warm starting is enabled
+    * @see #setWarmStartEnabled
+    */
+   public boolean getWarmStartEnabled() {
+      return myWarmStartEnabled;
+   }
+
+   /**
+    * Enables or disables warm starting for this solver. When enabled, the
+    * input values of the <code>zBasic</code> argument to {@link
+    * #solve(VectorNd,MatrixNd,VectorNd,boolean[])}, or the
+    * <code>state</code> argument to {@link
+    * #solve(VectorNd,VectorNd,MatrixNd,VectorNd,VectorNd,VectorNd,int,int[])},
+    * are used as an initial guess of the basis. Guessed basic variables
+    * whose values would be infeasible are removed from the basis before
+    * pivoting begins, so that a poor guess only costs the time needed to
+    * set up the initial basis. Warm starting is most effective when a
+    * sequence of closely related problems is being solved, such as contact
+    * problems arising from successive time steps.
+    *
+    * @param enable if true, enables warm starting
+    */
+   public void setWarmStartEnabled (boolean enable) {
+      myWarmStartEnabled = enable;
+   }
+
+   /**
+    * Returns the number of variables that were made basic by the warm start
+    * in the most recent solution operation, not counting unbounded variables
+    * in a BLCP. Since each of these would otherwise have required at least
+    * one pivot to enter the basis, this gives an estimate of the number of
+    * pivots saved by warm starting.
+    *
+    * @return number of variables made basic by the last warm start
+    */
+   public int getWarmStartBasisSize() {
+      return myWarmStartBasisSize;
+   }
+
    /**
     * Returns the current pivoted value of q in an array of doubles. Subclasses
     * can override this method if they have a particularly efficient way of
@@ -377,9 +421,9 @@ public class DantzigLCPSolver {
     * system vector
     * @param zBasic
     * On output, identifies which z variables are basic in the solution. On
-    * input, identifies z variables which have been made basic as part of
-    * solving a mixed LCP. If the LCP is not mixed, then all entries in this
-    * array should be set to false.
+    * input, if warm starting is enabled (see {@link #setWarmStartEnabled}),
+    * identifies z variables which should be initially made basic if
+    * possible. Otherwise, the input value is ignored.
     * @return Status of the solution.
     */
    public Status solve (VectorNd z, MatrixNd M, VectorNd q, boolean[] zBasic) {
@@ -416,7 +460,11 @@ public class DantzigLCPSolver {
          myPivotedToInitialIdxs[i] = i;
       }
       myNumZBasic = 0;
-      Status status = dosolve (size);
+      myWarmStartBasisSize = 0;
+      if (myWarmStartEnabled && zBasic != null) {
+         myWarmStartBasisSize = warmStartBasis (size, zBasic);
+      }
+      Status status = dosolve (size, myWarmStartBasisSize > 0);
       // z.set (myZBuf);
       if (zBasic != null) {
          for (int i = 0; i < size; i++) {
@@ -521,12 +569,22 @@ public class DantzigLCPSolver {
          throw new IllegalArgumentException (
             "z and q do not have the same sizes");
       }
+      int[] guess = null;
       if (state != null) {
          if (state.length < size) {
             throw new IllegalArgumentException (
                "state array insufficiently large");
          }
          myState = state;
+         if (myWarmStartEnabled) {
+            if (myLocalStateBuf.length < size) {
+               myLocalStateBuf = new int[size];
+            }
+            guess = myLocalStateBuf;
+            for (int i = 0; i < size; i++) {
+               guess[i] = state[i];
+            }
+         }
       }
       else {
          if (myLocalStateBuf.length < mySize) {
@@ -550,7 +608,8 @@ public class DantzigLCPSolver {
          myPivotedToInitialIdxs[i] = i;
       }
       myNumZBasic = 0;
-      Status status = dosolveBLCP (size, nub);
+      myWarmStartBasisSize = 0;
+      Status status = dosolveBLCP (size, nub, guess);
       return status;
    }
 
@@ -611,7 +670,84 @@ public class DantzigLCPSolver {
       return s;
    }
 
+   /**
+    * Sets up an initial basis for the LCP from a guess provided by
+    * <code>zBasic</code>. Each guessed variable is added to the basis,
+    * provided that this keeps the basis matrix positive definite. Variables
+    * whose resulting z values are negative are then removed, until the
+    * remaining basic z values are all feasible. The z and w values are then
+    * initialized to be consistent with the resulting basis.
+    *
+    * @param n size of the LCP
+    * @param zBasic guess as to which z variables are basic
+    * @return number of variables in the resulting basis
+    */
+   protected int warmStartBasis (int n, boolean[] zBasic) {
+      double[] Mbuf = myM.getBuffer();
+      double[] qbuf = myQ.getBuffer();
+      double[] xbuf = myX.getBuffer();
+      int mw = myM.getBufferWidth();
+
+      myTol = myDefaultTol;
+      for (int i = 0; i < n; i++) {
+         if (zBasic[i] && updateZBasis (i)) {
+            myState[i] = Z_VAR;
+         }
+      }
+      boolean feasible = false;
+      while (myNumZBasic > 0 && !feasible) {
+         for (int ip = 0; ip < myNumZBasic; ip++) {
+            xbuf[ip] = -qbuf[myPivotedToInitialIdxs[ip]];
+         }
+         myCholesky.solve (myX, myX);
+         feasible = true;
+         for (int ip = 0; ip < myNumZBasic; ip++) {
+            int i = myPivotedToInitialIdxs[ip];
+            myZBuf[i] = xbuf[ip];
+            if (xbuf[ip] < -myTol) {
+               feasible = false;
+            }
+         }
+         if (!feasible) {
+            // remove infeasible variables from the basis. Need to iterate
+            // on i since updateZBasis() reorders the pivoted indices.
+            for (int i = 0; i < n; i++) {
+               if (myState[i] == Z_VAR && myZBuf[i] < -myTol) {
+                  updateZBasis (i);
+                  myState[i] = W_VAR_LOWER;
+               }
+            }
+         }
+      }
+      for (int i = 0; i < n; i++) {
+         if (myState[i] == Z_VAR) {
+            myZBuf[i] = Math.max (myZBuf[i], 0);
+         }
+         else {
+            myZBuf[i] = 0;
+         }
+      }
+      for (int i = 0; i < n; i++) {
+         if (myState[i] == Z_VAR) {
+            myWBuf[i] = 0;
+         }
+         else {
+            double sum = qbuf[i];
+            for (int ip = 0; ip < myNumZBasic; ip++) {
+               int j = myPivotedToInitialIdxs[ip];
+               sum += Mbuf[i * mw + j] * myZBuf[j];
+            }
+            myWBuf[i] = sum;
+         }
+      }
+      return myNumZBasic;
+   }
+
    protected Status dosolve (int n) {
+      return dosolve (n, /*warmStarted=*/false);
+   }
+
+   protected Status dosolve (int n, boolean warmStarted) {
       int maxIterations = myIterationLimit * n;
       myIterationCnt = 0;
 
@@ -628,8 +764,10 @@ public class DantzigLCPSolver {
       double[] qbuf = myQ.getBuffer();
       for (int i = 0; i < n; i++) {
          myPivotOK[i] = true;
-         myWBuf[i] = qbuf[i];
-         myZBuf[i] = 0;
+         if (!warmStarted) {
+            myWBuf[i] = qbuf[i];
+            myZBuf[i] = 0;
+         }
       }
       while (myIterationCnt < maxIterations) {
          int r = -1;
@@ -847,7 +985,111 @@ public class DantzigLCPSolver {
       }
    }
 
+   /**
+    * Sets up an initial basis for the BLCP from a guess provided by
+    * <code>guess</code>, assuming that the unbounded variables have already
+    * been made basic. Non-basic variables are placed at the bound indicated
+    * by the guess, or at whichever bound is finite. Guessed basic variables
+    * are added to the basis, and those whose resulting z values lie outside
+    * their bounds are moved back to the violated bound, until all basic z
+    * values are feasible. The w values are then initialized to be
+    * consistent with the resulting basis.
+    *
+    * @param nub number of unbounded variables
+    * @param guess guess as to the state of each variable
+    * @return number of bounded variables in the resulting basis
+    */
+   protected int warmStartBLCPBasis (int nub, int[] guess) {
+      double[] Mbuf = myM.getBuffer();
+      double[] qbuf = myQ.getBuffer();
+      double[] xbuf = myX.getBuffer();
+      int mw = myM.getBufferWidth();
+
+      myTol = myDefaultTol;
+      for (int j = nub; j < mySize; j++) {
+         if (guess[j] == Z_VAR && updateZBasis (j)) {
+            myState[j] = Z_VAR;
+         }
+         else if ((guess[j] == W_VAR_UPPER &&
+                   myHi[j] != Double.POSITIVE_INFINITY) ||
+                  myLo[j] == Double.NEGATIVE_INFINITY) {
+            myState[j] = W_VAR_UPPER;
+            myZBuf[j] = myHi[j];
+         }
+         else {
+            myState[j] = W_VAR_LOWER;
+            myZBuf[j] = myLo[j];
+         }
+      }
+      boolean feasible = false;
+      while (myNumZBasic > 0 && !feasible) {
+         for (int ip = 0; ip < myNumZBasic; ip++) {
+            int i = myPivotedToInitialIdxs[ip];
+            double sum = qbuf[i];
+            for (int j = 0; j < mySize; j++) {
+               if (myState[j] != Z_VAR) {
+                  sum += Mbuf[i * mw + j] * myZBuf[j];
+               }
+            }
+            xbuf[ip] = -sum;
+         }
+         myCholesky.solve (myX, myX);
+         feasible = true;
+         for (int ip = 0; ip < myNumZBasic; ip++) {
+            int i = myPivotedToInitialIdxs[ip];
+            myZBuf[i] = xbuf[ip];
+            if (i >= nub &&
+                (xbuf[ip] < myLo[i]-myTol || xbuf[ip] > myHi[i]+myTol)) {
+               feasible = false;
+            }
+         }
+         if (!feasible) {
+            // move infeasible variables to their bounds. Need to iterate on
+            // j since updateZBasis() reorders the pivoted indices.
+            for (int j = nub; j < mySize; j++) {
+               if (myState[j] == Z_VAR) {
+                  if (myZBuf[j] < myLo[j]-myTol) {
+                     updateZBasis (j);
+                     myState[j] = W_VAR_LOWER;
+                     myZBuf[j] = myLo[j];
+                  }
+                  else if (myZBuf[j] > myHi[j]+myTol) {
+                     updateZBasis (j);
+                     myState[j] = W_VAR_UPPER;
+                     myZBuf[j] = myHi[j];
+                  }
+               }
+            }
+         }
+      }
+      for (int j = nub; j < mySize; j++) {
+         if (myState[j] == Z_VAR) {
+            myZBuf[j] = Math.min (Math.max (myZBuf[j], myLo[j]), myHi[j]);
+         }
+      }
+      for (int i = 0; i < mySize; i++) {
+         if (myState[i] == Z_VAR) {
+            myWBuf[i] = 0;
+         }
+         else {
+            double sum = qbuf[i];
+            for (int j = 0; j < mySize; j++) {
+               double z = myZBuf[j];
+               if (z != 0) {
+                  sum += Mbuf[i * mw + j] * z;
+               }
+            }
+            myWBuf[i] = sum;
+         }
+      }
+      return myNumZBasic - nub;
+   }
+
    protected Status dosolveBLCP (int n, int nub) {
+      return dosolveBLCP (n, nub, null);
+   }
+
+   protected Status dosolveBLCP (int n, int nub, int[] guess) {
       int maxIterations = myIterationLimit * n;
       myIterationCnt = 0;
 
@@ -901,33 +1143,38 @@ public class DantzigLCPSolver {
             myZBuf[j] = myLo[j];
          }
       }
-      if (nub > 0) {
-         myX.setSize (nub);
-         for (int i = 0; i < nub; i++) {
-            xbuf[i] = qbuf[i];
-         }
-         for (int j = nub; j < mySize; j++) {
-            double z = myZBuf[j];
-            if (z != 0) {
-               for (int i = 0; i < nub; i++) {
-                  xbuf[i] += Mbuf[i * mw + j] * z;
+      if (guess != null) {
+         myWarmStartBasisSize = warmStartBLCPBasis (nub, guess);
+      }
+      else {
+         if (nub > 0) {
+            myX.setSize (nub);
+            for (int i = 0; i < nub; i++) {
+               xbuf[i] = qbuf[i];
+            }
+            for (int j = nub; j < mySize; j++) {
+               double z = myZBuf[j];
+               if (z != 0) {
+                  for (int i = 0; i < nub; i++) {
+                     xbuf[i] += Mbuf[i * mw + j] * z;
+                  }
                }
             }
+            myX.negate();
+            myCholesky.solve (myX, myX);
+            for (int i = 0; i < nub; i++) {
+               myZBuf[i] = xbuf[i];
+            }
          }
-         myX.negate();
-         myCholesky.solve (myX, myX);
-         for (int i = 0; i < nub; i++) {
-            myZBuf[i] = xbuf[i];
+         for (int i = nub; i < mySize; i++) {
+            myWBuf[i] = qbuf[i];
          }
-      }
-      for (int i = nub; i < mySize; i++) {
-         myWBuf[i] = qbuf[i];
-      }
-      for (int j = 0; j < mySize; j++) {
-         double z = myZBuf[j];
-         if (z != 0) {
-            for (int i = nub; i < mySize; i++) {
-               myWBuf[i] += Mbuf[i * mw + j] * z;
+         for (int j = 0; j < mySize; j++) {
+            double z = myZBuf[j];
+            if (z != 0) {
+               for (int i = nub; i < mySize; i++) {
+                  myWBuf[i] += Mbuf[i * mw + j] * z;
+               }
             }
          }
       }
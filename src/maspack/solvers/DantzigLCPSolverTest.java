@@ -37,8 +37,14 @@ public class DantzigLCPSolverTest {
    public void testSolver (
       VectorNd z, VectorNd w, MatrixNd M, VectorNd q, VectorNd lo, VectorNd hi,
       int nub, int size, DantzigLCPSolver.Status expectedStatus) {
+      testSolver (z, w, M, q, lo, hi, nub, new int[size], expectedStatus);
+   }
+
+   public void testSolver (
+      VectorNd z, VectorNd w, MatrixNd M, VectorNd q, VectorNd lo, VectorNd hi,
+      int nub, int[] state, DantzigLCPSolver.Status expectedStatus) {
       DantzigLCPSolver.Status status;
-      int[] state = new int[size];
+      int size = state.length;
 
       if (z == null) {
          z = new VectorNd (size);
@@ -171,8 +177,14 @@ public class DantzigLCPSolverTest {
 
    public void testSolver (
       MatrixNd M, VectorNd q, int size, DantzigLCPSolver.Status expectedStatus) {
+      testSolver (M, q, new boolean[size], expectedStatus);
+   }
+
+   public void testSolver (
+      MatrixNd M, VectorNd q, boolean[] zBasic,
+      DantzigLCPSolver.Status expectedStatus) {
       DantzigLCPSolver.Status status;
-      boolean[] zBasic = new boolean[size];
+      int size = zBasic.length;
       VectorNd z = new VectorNd (size);
 
       timer.restart();
@@ -970,6 +982,90 @@ public class DantzigLCPSolverTest {
       }
    }
 
+   /**
+    * Tests warm starting by solving a sequence of slightly perturbed
+    * problems, using the basis from each solution as the initial guess for
+    * the next. Also checks that warm starting reduces the pivot count.
+    */
+   public void testWarmStart() {
+      int size = 50;
+      int numSteps = 20;
+
+      MatrixNd M = new MatrixNd (size, size);
+      VectorNd q = new VectorNd (size);
+      VectorNd x = new VectorNd (size);
+      VectorNd dq = new VectorNd (size);
+      boolean[] zBasic = new boolean[size];
+
+      M.setRandom();
+      x.setRandom();
+      q.mul (M, x);
+      M.mulTransposeRight (M, M);
+
+      int coldPivots = 0;
+      int warmPivots = 0;
+      int savedPivots = 0;
+      for (int k = 0; k < numSteps; k++) {
+         dq.setRandom (-0.01, 0.01);
+         q.add (dq);
+         mySolver.setWarmStartEnabled (false);
+         testSolver (M, q, new boolean[size], DantzigLCPSolver.Status.SOLVED);
+         coldPivots += mySolver.getIterationCount();
+         mySolver.setWarmStartEnabled (true);
+         testSolver (M, q, zBasic, DantzigLCPSolver.Status.SOLVED);
+         warmPivots += mySolver.getIterationCount();
+         savedPivots += mySolver.getWarmStartBasisSize();
+      }
+      if (warmPivots >= coldPivots) {
+         throw new TestException (
+            "warm start used "+warmPivots+" pivots vs. "+coldPivots+" cold");
+      }
+      if (savedPivots == 0) {
+         throw new TestException ("warm start basis was always empty");
+      }
+      // an arbitrary guess should still lead to a valid solution
+      for (int k = 0; k < numSteps; k++) {
+         for (int i = 0; i < size; i++) {
+            zBasic[i] = myRandom.nextBoolean();
+         }
+         testSolver (M, q, zBasic, DantzigLCPSolver.Status.SOLVED);
+      }
+
+      M.setSize (15, 15);
+      q.setSize (15);
+      dq.setSize (15);
+      VectorNd lo =
+         new VectorNd (new double[] { -inf, -inf, -inf, 0, 0, 0, 0, -inf, -inf,
+                                     -inf, -inf, -2, -2, -2, -2 });
+      VectorNd hi =
+         new VectorNd (new double[] { inf, inf, inf, inf, inf, inf, inf, 0, 0,
+                                     0, 0, 2, 2, 2, 2 });
+      int[] state = new int[15];
+      int[] randomState = new int[15];
+      int[] stateVals = new int[] {
+         DantzigLCPSolver.Z_VAR, DantzigLCPSolver.W_VAR_LOWER,
+         DantzigLCPSolver.W_VAR_UPPER };
+      for (int i = 0; i < 100; i++) {
+         createTestCase (M, q, lo, hi, 3, 7, 15);
+         mySolver.setWarmStartEnabled (false);
+         testSolver (null, null, M, q, lo, hi, 3, state,
+                     DantzigLCPSolver.Status.SOLVED);
+         mySolver.setWarmStartEnabled (true);
+         for (int k = 0; k < 5; k++) {
+            dq.setRandom (-0.001, 0.001);
+            q.add (dq);
+            testSolver (null, null, M, q, lo, hi, 3, state,
+                        DantzigLCPSolver.Status.SOLVED);
+         }
+         for (int j = 0; j < 15; j++) {
+            randomState[j] = stateVals[myRandom.nextInt(3)];
+         }
+         testSolver (null, null, M, q, lo, hi, 3, randomState,
+                     DantzigLCPSolver.Status.SOLVED);
+      }
+      mySolver.setWarmStartEnabled (false);
+   }
+
    public void execute() {
       testSpecial (Mvals0, qvals0);
       testSpecial (Mvals1, qvals1, loVals1, hiVals1, 0);
@@ -1054,6 +1150,7 @@ public class DantzigLCPSolverTest {
       for (double ang = 0; ang < Math.toRadians (45); ang += Math.toRadians (5)) {
          testMultiPointContact (ang, 0.3);
       }
+      testWarmStart();
 
       // System.out.println ("average time, matrix size of 50: " +
       // timer.result(2*numRandomTests) +
@@ -66,10 +66,73 @@ public class KKTSolver {
    VectorNd myHi = new VectorNd();
    VectorNd myW = new VectorNd();
 
+   // warm starting and statistics for LCP solves
+   boolean myWarmStartLCP = false;
+   int myLCPSolveCnt = 0;
+   long myLCPPivotCnt = 0;
+   long myLCPPivotsSaved = 0;
+
    private enum State {
       NULL, ANALYZED, FACTORED
    };
 
+   /**
+    * Describes the method used to solve the LCP arising from unilateral and
+    * friction constraints. In all methods, normal impulses are bounded below
+    * by 0. The pivoting method bounds each friction direction by its own
+    * +/- limit, giving a box (polyhedral) approximation of the friction
+    * cone. The iterative methods instead project the two tangent directions
+    * of each contact, given by a block column of size 2 in the friction
+    * matrix, onto the disk whose radius is their friction limit, which is
+    * the friction cone at the normal impulse from which the limit was
+    * computed. Other friction directions are bounded by their +/- limit as
+    * for the pivoting method.
+    */
+   public enum LCPSolveMethod {
+      /**
+       * Dantzig's pivoting method, applied to the assembled LCP matrix. This
+       * gives an exact solution, but the cost of assembling and pivoting
+       * grows super-linearly with the number of constraints.
+       */
+      DANTZIG,
+
+      /**
+       * Projected Gauss-Seidel, applied to the assembled LCP matrix. Avoids
+       * pivoting, but still requires the matrix to be assembled.
+       */
+      PGS,
+
+      /**
+       * Accelerated projected gradient descent. Does not assemble the LCP
+       * matrix, and instead computes products with it using the KKT
+       * factorization, so that the per-solve cost is bounded by the
+       * iteration limit.
+       */
+      APGD
+   };
+
+   // iterative LCP solve settings and results
+   LCPSolveMethod myLCPSolveMethod = LCPSolveMethod.DANTZIG;
+   int myLCPIterationLimit = 100;
+   double myLCPTolerance = 1e-6;
+   int myLastLCPIterationCnt = 0;
+   double myLastLCPResidual = 0;
+   VectorNd myRn = null;
+   VectorNd myLcpMx = new VectorNd();
+   VectorNd myLcpMy = new VectorNd();
+   VectorNd myLcpXn = new VectorNd();
+   VectorNd myLcpXd = new VectorNd();
+   // workspace for APGD, reused between solves
+   VectorNd myApgdZprev = new VectorNd();
+   VectorNd myApgdY = new VectorNd();
+   VectorNd myApgdGy = new VectorNd();
+   VectorNd myApgdZnew = new VectorNd();
+   // for each friction direction, 2 if it begins a tangent pair (a block
+   // column of size 2 in DT), 0 if it ends one, and 1 otherwise
+   int[] myFrictionPairs = new int[0];
+   VectorNd myApgdGz = new VectorNd();
+   VectorNd myApgdZbest = new VectorNd();
+
    private State myState = State.NULL;
 
    /**
@@ -466,7 +529,12 @@ public class KKTSolver {
             warnAboutUnsymmetricUnilateralSolves();
          }
          if (myTimeSolves) timerStart();
-         buildLCP (NT, Rn);
+         if (myLCPSolveMethod == LCPSolveMethod.APGD) {
+            setupMatrixFreeLCP (NT, Rn, null);
+         }
+         else {
+            buildLCP (NT, Rn);
+         }
          if (myTimeSolves) {
             timerStop ("buildLCP m=" + NT.colSize() + ":");
          }
@@ -492,7 +560,12 @@ public class KKTSolver {
          if ((myTypeM & Matrix.SYMMETRIC) == 0) {
             warnAboutUnsymmetricUnilateralSolves();
          }
-         buildLCP (NT, Rn, DT);
+         if (myLCPSolveMethod == LCPSolveMethod.APGD) {
+            setupMatrixFreeLCP (NT, Rn, DT);
+         }
+         else {
+            buildLCP (NT, Rn, DT);
+         }
       }
       myState = State.FACTORED;
       long t1 = System.nanoTime();
@@ -527,7 +600,12 @@ public class KKTSolver {
          if ((myTypeM & Matrix.SYMMETRIC) == 0) {
             warnAboutUnsymmetricUnilateralSolves();
          }
-         buildLCP (NT, Rn);
+         if (myLCPSolveMethod == LCPSolveMethod.APGD) {
+            setupMatrixFreeLCP (NT, Rn, null);
+         }
+         else {
+            buildLCP (NT, Rn);
+         }
       }
       myState = State.FACTORED;
    }
@@ -803,6 +881,178 @@ public class KKTSolver {
       return status;
    }
 
+   /**
+    * Returns the method used to solve the LCP arising from unilateral and
+    * friction constraints.
+    *
+    * @return LCP solve method
+    * @see #setLCPSolveMethod
+    */
+   public LCPSolveMethod getLCPSolveMethod() {
+      return myLCPSolveMethod;
+   }
+
+   /**
+    * Sets the method used to solve the LCP arising from unilateral and
+    * friction constraints. The default is {@link LCPSolveMethod#DANTZIG},
+    * which gives exact solutions. The iterative methods {@link
+    * LCPSolveMethod#PGS} and {@link LCPSolveMethod#APGD} trade accuracy for
+    * a bounded cost per solve, as controlled by {@link
+    * #setLCPIterationLimit} and {@link #setLCPTolerance}, and are intended
+    * for problems with very large numbers of contacts. Unlike the pivoting
+    * method, which uses box bounds on each friction direction, they project
+    * the tangent pair of each contact onto its friction cone, as described
+    * for {@link LCPSolveMethod}. Changes take effect at the next call to
+    * <code>factor()</code>.
+    *
+    * @param method LCP solve method
+    */
+   public void setLCPSolveMethod (LCPSolveMethod method) {
+      myLCPSolveMethod = method;
+   }
+
+   /**
+    * Returns the maximum number of iterations used by the iterative LCP
+    * solve methods.
+    *
+    * @return iteration limit for iterative LCP solves
+    * @see #setLCPIterationLimit
+    */
+   public int getLCPIterationLimit() {
+      return myLCPIterationLimit;
+   }
+
+   /**
+    * Sets the maximum number of iterations used by the iterative LCP solve
+    * methods. If this limit is reached before the tolerance specified by
+    * {@link #setLCPTolerance} is met, the best solution found so far is
+    * used.
+    *
+    * @param max iteration limit for iterative LCP solves
+    */
+   public void setLCPIterationLimit (int max) {
+      myLCPIterationLimit = Math.max (max, 1);
+   }
+
+   /**
+    * Returns the convergence tolerance used by the iterative LCP solve
+    * methods.
+    *
+    * @return convergence tolerance for iterative LCP solves
+    * @see #setLCPTolerance
+    */
+   public double getLCPTolerance() {
+      return myLCPTolerance;
+   }
+
+   /**
+    * Sets the convergence tolerance used by the iterative LCP solve
+    * methods. Iterations stop when the complementarity residual, relative to
+    * the infinity norm of the LCP's q vector, falls below this value.
+    *
+    * @param tol convergence tolerance for iterative LCP solves
+    */
+   public void setLCPTolerance (double tol) {
+      myLCPTolerance = Math.max (tol, 0);
+   }
+
+   /**
+    * Returns the number of iterations used by the most recent iterative LCP
+    * solve.
+    *
+    * @return iterations used by the last iterative LCP solve
+    */
+   public int getLastLCPIterationCount() {
+      return myLastLCPIterationCnt;
+   }
+
+   /**
+    * Returns the relative complementarity residual obtained by the most
+    * recent iterative LCP solve.
+    *
+    * @return residual of the last iterative LCP solve
+    */
+   public double getLastLCPResidual() {
+      return myLastLCPResidual;
+   }
+
+   /**
+    * Returns true if warm starting is enabled for the LCP solves used to
+    * handle unilateral and friction constraints.
+    *
+    * @return true if LCP warm starting is enabled
+    * @see #setWarmStartLCP
+    */
+   public boolean getWarmStartLCP() {
+      return myWarmStartLCP;
+   }
+
+   /**
+    * Enables or disables warm starting for the LCP solves used to handle
+    * unilateral and friction constraints. When enabled, the input values of
+    * the unilateral impulses <code>the</code> (and friction impulses
+    * <code>phi</code>, if present) passed to the <code>solve</code> methods
+    * are used to guess the initial LCP basis: constraints with positive
+    * impulses are assumed to be active. A typical source of these values is
+    * the impulses computed for the same constraints in the previous time
+    * step. Poor guesses do not affect the solution, but may increase the
+    * solve time slightly.
+    *
+    * @param enable if true, enables LCP warm starting
+    */
+   public void setWarmStartLCP (boolean enable) {
+      myWarmStartLCP = enable;
+   }
+
+   /**
+    * Returns the number of LCP solves performed since the last call
+    * to {@link #clearLCPStatistics}.
+    *
+    * @return number of LCP solves
+    */
+   public int getLCPSolveCount() {
+      return myLCPSolveCnt;
+   }
+
+   /**
+    * Returns the total number of pivots used by the LCP solves performed
+    * since the last call to {@link #clearLCPStatistics}.
+    *
+    * @return total number of LCP pivots
+    */
+   public long getLCPPivotCount() {
+      return myLCPPivotCnt;
+   }
+
+   /**
+    * Returns an estimate of the total number of pivots saved by warm
+    * starting the LCP solves performed since the last call to {@link
+    * #clearLCPStatistics}. This is the number of variables that were made
+    * basic by warm starting.
+    *
+    * @return estimated number of LCP pivots saved
+    */
+   public long getLCPPivotsSaved() {
+      return myLCPPivotsSaved;
+   }
+
+   /**
+    * Clears the LCP solve statistics.
+    */
+   public void clearLCPStatistics() {
+      myLCPSolveCnt = 0;
+      myLCPPivotCnt = 0;
+      myLCPPivotsSaved = 0;
+   }
+
+   private void updateLCPStatistics() {
+      myLCPSolveCnt++;
+      myLCPPivotCnt += myDantzig.getIterationCount();
+      if (myWarmStartLCP) {
+         myLCPPivotsSaved += myDantzig.getWarmStartBasisSize();
+      }
+   }
+
    public boolean[] getZBasic() {
       return Arrays.copyOf (myZBasic, myNumN);
    }
@@ -832,19 +1082,40 @@ public class KKTSolver {
       for (int i = 0; i < myNumN; i++) {
          qbuf[i] -= bn.get(i);
       }
-      // don't currently need this:
+      // initial basis guess, used only if warm starting is enabled
       for (int i = 0; i < myQ.size(); i++) {
-         myZBasic[i] = false;
+         myZBasic[i] = (myWarmStartLCP && the.get(i) > 0);
       }
       // System.out.println ("LCP M=[\n" + myLcpM + "]");
       // System.out.println ("Q=" + myQ);
 
-      myDantzig.setComputeResidual (true);
-      if (myTimeSolves) timerStart();
-      DantzigLCPSolver.Status status =
-         myDantzig.solve (myZ, myLcpM, myQ, myZBasic);
-      if (myTimeSolves) timerStop("solveLCP:");
-      myDantzig.setComputeResidual (false);
+      DantzigLCPSolver.Status status;
+      if (myLCPSolveMethod != LCPSolveMethod.DANTZIG) {
+         myLo.setSize (myNumN);
+         myHi.setSize (myNumN);
+         for (int i = 0; i < myNumN; i++) {
+            myLo.set (i, 0);
+            myHi.set (i, Double.POSITIVE_INFINITY);
+            myZ.set (i, myWarmStartLCP ? Math.max (the.get(i), 0) : 0);
+         }
+         if (myTimeSolves) timerStart();
+         status = solveLCPIteratively();
+         if (myTimeSolves) timerStop("solveLCP:");
+         for (int i = 0; i < myNumN; i++) {
+            myZBasic[i] = (myZ.get(i) > 0);
+         }
+      }
+      else {
+         myDantzig.setComputeResidual (true);
+         myDantzig.setWarmStartEnabled (myWarmStartLCP);
+         if (myTimeSolves) timerStart();
+         status = myDantzig.solve (myZ, myLcpM, myQ, myZBasic);
+         if (myTimeSolves) timerStop("solveLCP:");
+         updateLCPStatistics();
+      }
+      if (myLCPSolveMethod == LCPSolveMethod.DANTZIG) {
+         myDantzig.setComputeResidual (false);
+      }
       // System.out.println ("status=" + status + " res=" + myDantzig.getResidual());
       // System.out.println ("M=\n" + myLcpM);
       // System.out.println ("q=\n" + myQ);
@@ -929,8 +1200,59 @@ public class KKTSolver {
          myHi.set (myNumN+i, +fmax);
       }
 
-      DantzigLCPSolver.Status status =
-         myDantzig.solve (myZ, myW, myLcpM, myQ, myLo, myHi, 0, myZState);
+      if (myWarmStartLCP) {
+         // initial state guess: normal constraints with positive impulses
+         // are active, and friction constraints are active unless their
+         // impulses lie on the friction limits
+         for (int i = 0; i < myNumN; i++) {
+            myZState[i] = (the.get(i) > 0 ?
+               DantzigLCPSolver.Z_VAR : DantzigLCPSolver.W_VAR_LOWER);
+         }
+         for (int i = 0; i < myNumD; i++) {
+            double p = phi.get(i);
+            double fmax = flim.get(i);
+            if (p >= fmax) {
+               myZState[myNumN+i] = DantzigLCPSolver.W_VAR_UPPER;
+            }
+            else if (p <= -fmax) {
+               myZState[myNumN+i] = DantzigLCPSolver.W_VAR_LOWER;
+            }
+            else {
+               myZState[myNumN+i] = DantzigLCPSolver.Z_VAR;
+            }
+         }
+      }
+      DantzigLCPSolver.Status status;
+      if (myLCPSolveMethod != LCPSolveMethod.DANTZIG) {
+         updateFrictionPairs();
+         for (int i = 0; i < myNumN; i++) {
+            myZ.set (i, myWarmStartLCP ? Math.max (the.get(i), 0) : 0);
+         }
+         for (int i = 0; i < myNumD; i++) {
+            double p = (myWarmStartLCP ? phi.get(i) : 0);
+            double fmax = flim.get(i);
+            myZ.set (myNumN+i, Math.max (-fmax, Math.min (p, fmax)));
+         }
+         status = solveLCPIteratively();
+         for (int i = 0; i < myNumN+myNumD; i++) {
+            double z = myZ.get(i);
+            if (z <= myLo.get(i)) {
+               myZState[i] = DantzigLCPSolver.W_VAR_LOWER;
+            }
+            else if (z >= myHi.get(i)) {
+               myZState[i] = DantzigLCPSolver.W_VAR_UPPER;
+            }
+            else {
+               myZState[i] = DantzigLCPSolver.Z_VAR;
+            }
+         }
+      }
+      else {
+         myDantzig.setWarmStartEnabled (myWarmStartLCP);
+         status =
+            myDantzig.solve (myZ, myW, myLcpM, myQ, myLo, myHi, 0, myZState);
+         updateLCPStatistics();
+      }
       if (status != DantzigLCPSolver.Status.SOLVED) {
          switch (status) {
             case NO_SOLUTION: {
@@ -984,6 +1306,361 @@ public class KKTSolver {
       return Status.SOLVED;
    }
 
+   /**
+    * Prepares for a matrix-free solution of the LCP, in which products with
+    * the LCP matrix are formed using the KKT factorization instead of
+    * assembling the matrix.
+    */
+   private void setupMatrixFreeLCP (
+      SparseBlockMatrix NT, VectorNd Rn, SparseBlockMatrix DT) {
+
+      int Nsize = NT.colSize();
+      int Dsize = (DT != null ? DT.colSize() : 0);
+      int n = Nsize + Dsize;
+      if (myZBasic.length < n) {
+         myZBasic = new boolean[n];
+      }
+      if (myZState.length < n) {
+         myZState = new int[n];
+      }
+      myQ.setSize (n);
+      myZ.setSize (n);
+      myW.setSize (n);
+      myHi.setSize (n);
+      myLo.setSize (n);
+      if (Rn != null) {
+         if (myRn == null) {
+            myRn = new VectorNd();
+         }
+         myRn.set (Rn);
+      }
+      else {
+         myRn = null;
+      }
+      myNumN = Nsize;
+      myNT = NT;
+      myNumD = Dsize;
+      myDT = DT;
+   }
+
+   /**
+    * Computes the product y = A x, where A is the LCP matrix. If the matrix
+    * has been assembled, it is used directly. Otherwise, the product is
+    * formed using the KKT factorization.
+    */
+   private void mulLCPMatrix (VectorNd y, VectorNd x) {
+      if (myLCPSolveMethod != LCPSolveMethod.APGD) {
+         y.mul (myLcpM, x);
+         return;
+      }
+      myLcpXn.setSize (myNumN);
+      myLcpXd.setSize (myNumD);
+      x.getSubVector (0, myLcpXn);
+      myNT.mul (myLcpMx, myLcpXn, mySizeM, myNumN);
+      if (myNumD > 0) {
+         x.getSubVector (myNumN, myLcpXd);
+         myDT.mulAdd (myLcpMx, myLcpXd, mySizeM, myNumD);
+      }
+      // reset size of myLcpMx because the mul methods set it to mySizeM
+      myLcpMx.setSize (mySizeM+myNumG);
+      double[] mxbuf = myLcpMx.getBuffer();
+      for (int i = mySizeM; i < mySizeM + myNumG; i++) {
+         mxbuf[i] = 0;
+      }
+      solveMG (myLcpMy, myLcpMx);
+      myNT.mulTranspose (myLcpXn, myLcpMy, myNumN, mySizeM);
+      y.setSubVector (0, myLcpXn);
+      if (myNumD > 0) {
+         myDT.mulTranspose (myLcpXd, myLcpMy, myNumD, mySizeM);
+         y.setSubVector (myNumN, myLcpXd);
+      }
+      if (myRn != null) {
+         double[] xbuf = x.getBuffer();
+         double[] ybuf = y.getBuffer();
+         for (int i = 0; i < myNumN; i++) {
+            ybuf[i] += myRn.get(i)*xbuf[i];
+         }
+      }
+   }
+
+   /**
+    * Finds the tangent pairs among the friction directions, using the block
+    * column structure of myDT, and records them in myFrictionPairs.
+    */
+   private void updateFrictionPairs() {
+      if (myFrictionPairs.length < myNumD) {
+         myFrictionPairs = new int[myNumD];
+      }
+      if (myNumD == 0) {
+         return;
+      }
+      for (int bj = 0; bj < myDT.numBlockCols(); bj++) {
+         int off = myDT.getBlockColOffset (bj);
+         int size = myDT.getBlockColSize (bj);
+         if (size == 2) {
+            myFrictionPairs[off] = 2;
+            myFrictionPairs[off+1] = 0;
+         }
+         else {
+            for (int k = 0; k < size; k++) {
+               myFrictionPairs[off+k] = 1;
+            }
+         }
+      }
+   }
+
+   /**
+    * Returns true if variable i of the LCP begins a tangent pair.
+    */
+   private boolean isFrictionPair (int i) {
+      return i >= myNumN && myFrictionPairs[i-myNumN] == 2;
+   }
+
+   /**
+    * Projects the pair (z[i], z[i+1]) onto the disk of radius r.
+    */
+   private static void projectOntoDisk (double[] z, int i, double r) {
+      double norm = Math.hypot (z[i], z[i+1]);
+      if (norm > r) {
+         double s = (norm > 0 ? r/norm : 0);
+         z[i] *= s;
+         z[i+1] *= s;
+      }
+   }
+
+   /**
+    * Projects z onto the feasible set given by myLo and myHi. Tangent pairs
+    * are projected onto the disk whose radius is the upper bound of their
+    * first direction.
+    */
+   private void projectLCPVector (double[] z, int n) {
+      double[] lo = myLo.getBuffer();
+      double[] hi = myHi.getBuffer();
+      for (int i = 0; i < n; i++) {
+         if (isFrictionPair (i)) {
+            projectOntoDisk (z, i, hi[i]);
+            i++;
+         }
+         else if (z[i] < lo[i]) {
+            z[i] = lo[i];
+         }
+         else if (z[i] > hi[i]) {
+            z[i] = hi[i];
+         }
+      }
+   }
+
+   /**
+    * Computes the infinity norm of the natural residual z - P(z - w), where
+    * w = A z + q and P is the projection onto the feasible set.
+    */
+   private double lcpResidual (double[] z, double[] w, int n) {
+      double[] lo = myLo.getBuffer();
+      double[] hi = myHi.getBuffer();
+      double res = 0;
+      for (int i = 0; i < n; i++) {
+         if (isFrictionPair (i)) {
+            double p0 = z[i] - w[i];
+            double p1 = z[i+1] - w[i+1];
+            double norm = Math.hypot (p0, p1);
+            if (norm > hi[i]) {
+               double s = (norm > 0 ? hi[i]/norm : 0);
+               p0 *= s;
+               p1 *= s;
+            }
+            res = Math.max (res, Math.abs (z[i] - p0));
+            res = Math.max (res, Math.abs (z[i+1] - p1));
+            i++;
+            continue;
+         }
+         double pi = z[i] - w[i];
+         if (pi < lo[i]) {
+            pi = lo[i];
+         }
+         else if (pi > hi[i]) {
+            pi = hi[i];
+         }
+         res = Math.max (res, Math.abs (z[i] - pi));
+      }
+      return res;
+   }
+
+   /**
+    * Solves the LCP defined by A, myQ, myLo and myHi iteratively, using
+    * either projected Gauss-Seidel or accelerated projected gradient
+    * descent. On input, myZ contains the starting point, which must lie
+    * within the bounds; on output it contains the solution.
+    */
+   private DantzigLCPSolver.Status solveLCPIteratively() {
+      int n = myNumN + myNumD;
+      double[] z = myZ.getBuffer();
+      double[] q = myQ.getBuffer();
+      double qnorm = Math.max (myQ.infinityNorm(), 1e-100);
+      double tol = myLCPTolerance*qnorm;
+
+      myLastLCPIterationCnt = 0;
+      myLastLCPResidual = 0;
+      if (myLCPSolveMethod == LCPSolveMethod.PGS) {
+         double[] M = myLcpM.getBuffer();
+         int mw = myLcpM.getBufferWidth();
+         double[] lo = myLo.getBuffer();
+         double[] hi = myHi.getBuffer();
+         double res = 0;
+         for (int k = 0; k < myLCPIterationLimit; k++) {
+            res = 0;
+            for (int i = 0; i < n; i++) {
+               if (isFrictionPair (i)) {
+                  // update the pair together using a common step size, so
+                  // that it can be projected onto its friction disk
+                  double mmax = Math.max (M[i*mw+i], M[(i+1)*mw+i+1]);
+                  if (mmax > 0) {
+                     double wi = q[i];
+                     double wj = q[i+1];
+                     for (int j = 0; j < n; j++) {
+                        wi += M[i*mw+j]*z[j];
+                        wj += M[(i+1)*mw+j]*z[j];
+                     }
+                     double zi = z[i];
+                     double zj = z[i+1];
+                     z[i] -= wi/mmax;
+                     z[i+1] -= wj/mmax;
+                     projectOntoDisk (z, i, hi[i]);
+                     res = Math.max (res, Math.abs(z[i]-zi)*mmax);
+                     res = Math.max (res, Math.abs(z[i+1]-zj)*mmax);
+                  }
+                  i++;
+                  continue;
+               }
+               double mii = M[i*mw+i];
+               if (mii <= 0) {
+                  continue;
+               }
+               double wi = q[i];
+               for (int j = 0; j < n; j++) {
+                  wi += M[i*mw+j]*z[j];
+               }
+               double zi = z[i] - wi/mii;
+               if (zi < lo[i]) {
+                  zi = lo[i];
+               }
+               else if (zi > hi[i]) {
+                  zi = hi[i];
+               }
+               res = Math.max (res, Math.abs(zi-z[i])*mii);
+               z[i] = zi;
+            }
+            myLastLCPIterationCnt++;
+            if (res <= tol) {
+               break;
+            }
+         }
+         myLastLCPResidual = res/qnorm;
+      }
+      else {
+         // accelerated projected gradient descent (APGD), after Mazhar et
+         // al., "Using Nesterov's method to accelerate multibody dynamics
+         // with friction and contact", ACM TOG, 2015. Uses Nesterov momentum
+         // with adaptive restart and a backtracking step size.
+         VectorNd zprev = myApgdZprev;
+         VectorNd y = myApgdY;
+         VectorNd gy = myApgdGy;
+         VectorNd znew = myApgdZnew;
+         VectorNd gz = myApgdGz;
+         VectorNd zbest = myApgdZbest;
+         zprev.setSize (n);
+         y.setSize (n);
+         gy.setSize (n);
+         znew.setSize (n);
+         gz.setSize (n);
+         zbest.setSize (n);
+         double[] yb = y.getBuffer();
+         double[] gyb = gy.getBuffer();
+         double[] znb = znew.getBuffer();
+         double[] gzb = gz.getBuffer();
+
+         projectLCPVector (z, n);
+         zprev.set (myZ);
+         y.set (myZ);
+
+         // estimate the Lipschitz constant from A times a vector of ones,
+         // using znew to store the ones
+         for (int i = 0; i < n; i++) {
+            znb[i] = 1;
+         }
+         mulLCPMatrix (gz, znew);
+         double L = Math.max (gz.norm()/Math.sqrt(n), 1e-100);
+         double theta = 1;
+         double resBest = Double.POSITIVE_INFINITY;
+
+         mulLCPMatrix (gy, y);
+         double fy = 0.5*gy.dot(y) + myQ.dot(y);
+         gy.add (myQ);
+         for (int k = 0; k < myLCPIterationLimit; k++) {
+            double fz;
+            while (true) {
+               for (int i = 0; i < n; i++) {
+                  znb[i] = yb[i] - gyb[i]/L;
+               }
+               projectLCPVector (znb, n);
+               mulLCPMatrix (gz, znew);
+               fz = 0.5*gz.dot(znew) + myQ.dot(znew);
+               double bound = fy;
+               for (int i = 0; i < n; i++) {
+                  double d = znb[i] - yb[i];
+                  bound += gyb[i]*d + 0.5*L*d*d;
+               }
+               if (fz <= bound + 1e-12*Math.abs(bound) || L > 1e100) {
+                  break;
+               }
+               L *= 2;
+            }
+            gz.add (myQ);
+            myLastLCPIterationCnt++;
+            if (Double.isNaN (fz)) {
+               return DantzigLCPSolver.Status.NUMERIC_ERROR;
+            }
+            double res = lcpResidual (znb, gzb, n);
+            if (res < resBest) {
+               resBest = res;
+               zbest.set (znew);
+            }
+            if (res <= tol) {
+               break;
+            }
+            double thetaNew =
+               0.5*(-theta*theta + theta*Math.sqrt(theta*theta+4));
+            double beta = theta*(1-theta)/(theta*theta+thetaNew);
+            // restart momentum if the objective gradient opposes the step
+            double gdot = 0;
+            for (int i = 0; i < n; i++) {
+               gdot += gzb[i]*(znb[i]-z[i]);
+            }
+            zprev.set (myZ);
+            myZ.set (znew);
+            if (gdot > 0) {
+               y.set (znew);
+               theta = 1;
+               gy.set (gz);
+               fy = fz;
+            }
+            else {
+               double[] zpb = zprev.getBuffer();
+               for (int i = 0; i < n; i++) {
+                  yb[i] = znb[i] + beta*(znb[i]-zpb[i]);
+               }
+               theta = thetaNew;
+               mulLCPMatrix (gy, y);
+               fy = 0.5*gy.dot(y) + myQ.dot(y);
+               gy.add (myQ);
+            }
+            L *= 0.9;
+         }
+         myZ.set (zbest);
+         myLastLCPResidual = resBest/qnorm;
+      }
+      return DantzigLCPSolver.Status.SOLVED;
+   }
+
    private void buildLCP (SparseBlockMatrix NT, VectorNd Rn) {
       int n = NT.colSize();
       myLcpM.setSize (n, n);
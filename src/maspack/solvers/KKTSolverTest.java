@@ -107,6 +107,174 @@ public class KKTSolverTest {
          M, 6, GT, NT, Rg, Rn, bm, bg, bn, vel, lam, the, Matrix.SYMMETRIC);
       solveAndCheck (
          M, 6, GT, NT, Rg, Rn, bm, bg, bn, vel, lam, the, Matrix.INDEFINITE);
+
+      testIterativeLCP (M, 6, GT, NT, Rg, Rn, null, bm, bg, bn, null, null);
+
+      // add two independent friction directions, with box bounds
+      int numD = 2;
+      SparseBlockMatrix DT = new SparseBlockMatrix();
+      for (int j=0; j<numD; j++) {
+         MatrixNdBlock DTblk = new MatrixNdBlock (6, 1);
+         DTblk.setRandom();
+         DT.addBlock (0, j, DTblk);
+      }
+      VectorNd bd = new VectorNd (numD);
+      VectorNd flim = new VectorNd (numD);
+      bd.setRandom();
+      flim.setRandom();
+      flim.absolute();
+      flim.scale (0.1);
+      testIterativeLCP (M, 6, GT, NT, Rg, Rn, DT, bm, bg, bn, bd, flim);
+
+      // add a tangent pair, bounded by a friction cone
+      MatrixNdBlock DTblk = new MatrixNdBlock (6, 2);
+      DTblk.setRandom();
+      DT = new SparseBlockMatrix();
+      DT.addBlock (0, 0, DTblk);
+      bd.scale (10);
+      flim.set (1, flim.get(0));
+      testIterativeConeLCP (M, 6, GT, NT, Rg, Rn, DT, bm, bg, bn, bd, flim);
+   }
+
+   /**
+    * Checks that the iterative LCP methods agree when the friction matrix
+    * contains a tangent pair, and that the pair's impulse lies within its
+    * friction cone.
+    */
+   private void testIterativeConeLCP (
+      SparseBlockMatrix M, int sizeM, SparseBlockMatrix GT,
+      SparseBlockMatrix NT, VectorNd Rg, VectorNd Rn, SparseBlockMatrix DT,
+      VectorNd bm, VectorNd bg, VectorNd bn, VectorNd bd, VectorNd flim) {
+
+      int numG = GT.colSize();
+      int numN = NT.colSize();
+      VectorNd[] phis = new VectorNd[2];
+      VectorNd[] thes = new VectorNd[2];
+      KKTSolver.LCPSolveMethod[] methods = new KKTSolver.LCPSolveMethod[] {
+         KKTSolver.LCPSolveMethod.PGS, KKTSolver.LCPSolveMethod.APGD };
+      for (int k=0; k<methods.length; k++) {
+         VectorNd vel = new VectorNd (sizeM);
+         VectorNd lam = new VectorNd (numG);
+         thes[k] = new VectorNd (numN);
+         phis[k] = new VectorNd (2);
+
+         KKTSolver solver = new KKTSolver();
+         solver.setLCPSolveMethod (methods[k]);
+         solver.setLCPIterationLimit (100000);
+         solver.setLCPTolerance (1e-12);
+         Status status = solveLCP (
+            solver, M, sizeM, GT, NT, Rg, Rn, DT,
+            vel, lam, thes[k], phis[k], bm, bg, bn, bd, flim);
+         if (status != Status.SOLVED) {
+            throw new TestException (
+               methods[k] + ": could not solve system, status " + status);
+         }
+         double fmax = flim.get(0);
+         if (phis[k].norm() > fmax*(1+1e-8)) {
+            throw new TestException (
+               methods[k] + ": friction " + phis[k].norm() +
+               " outside friction cone with radius " + fmax);
+         }
+      }
+      double tol = 1e-6*Math.max (1, thes[0].infinityNorm());
+      if (!thes[1].epsilonEquals (thes[0], tol)) {
+         throw new TestException (
+            "cone: APGD the=" + thes[1].toString ("%12.8f") +
+            ", PGS the=" + thes[0].toString ("%12.8f"));
+      }
+      tol = 1e-6*Math.max (1, phis[0].infinityNorm());
+      if (!phis[1].epsilonEquals (phis[0], tol)) {
+         throw new TestException (
+            "cone: APGD phi=" + phis[1].toString ("%12.8f") +
+            ", PGS phi=" + phis[0].toString ("%12.8f"));
+      }
+   }
+
+   /**
+    * Checks that the iterative LCP methods give the same results as
+    * Dantzig's method when run to a tight tolerance. If DT is non-null,
+    * friction directions are included, with box bounds given by flim. DT
+    * should not contain tangent pairs (block columns of size 2), since the
+    * iterative methods bound these by a friction cone.
+    */
+   private void testIterativeLCP (
+      SparseBlockMatrix M, int sizeM, SparseBlockMatrix GT,
+      SparseBlockMatrix NT, VectorNd Rg, VectorNd Rn, SparseBlockMatrix DT,
+      VectorNd bm, VectorNd bg, VectorNd bn, VectorNd bd, VectorNd flim) {
+
+      int numG = GT.colSize();
+      int numN = NT.colSize();
+      int numD = (DT != null ? DT.colSize() : 0);
+      VectorNd velChk = new VectorNd (sizeM);
+      VectorNd lamChk = new VectorNd (numG);
+      VectorNd theChk = new VectorNd (numN);
+      VectorNd phiChk = (DT != null ? new VectorNd (numD) : null);
+
+      KKTSolver solver = new KKTSolver();
+      solveLCP (solver, M, sizeM, GT, NT, Rg, Rn, DT,
+                velChk, lamChk, theChk, phiChk, bm, bg, bn, bd, flim);
+
+      for (KKTSolver.LCPSolveMethod method :
+              new KKTSolver.LCPSolveMethod[] {
+                 KKTSolver.LCPSolveMethod.PGS,
+                 KKTSolver.LCPSolveMethod.APGD }) {
+         VectorNd vel = new VectorNd (sizeM);
+         VectorNd lam = new VectorNd (numG);
+         VectorNd the = new VectorNd (numN);
+         VectorNd phi = (DT != null ? new VectorNd (numD) : null);
+
+         solver = new KKTSolver();
+         solver.setLCPSolveMethod (method);
+         solver.setLCPIterationLimit (10000);
+         solver.setLCPTolerance (1e-12);
+         // solve twice, to check that reused workspace gives the same result
+         for (int k=0; k<2; k++) {
+            Status status = solveLCP (
+               solver, M, sizeM, GT, NT, Rg, Rn, DT,
+               vel, lam, the, phi, bm, bg, bn, bd, flim);
+            if (status != Status.SOLVED) {
+               throw new TestException (
+                  method + ": could not solve system, status " + status);
+            }
+            double tol = 1e-8*Math.max (1, theChk.infinityNorm());
+            if (!the.epsilonEquals (theChk, tol)) {
+               throw new TestException (
+                  method + ": the=" + the.toString ("%12.8f") +
+                  ", expected\n   " + theChk.toString ("%12.8f"));
+            }
+            if (phi != null) {
+               tol = 1e-8*Math.max (1, phiChk.infinityNorm());
+               if (!phi.epsilonEquals (phiChk, tol)) {
+                  throw new TestException (
+                     method + ": phi=" + phi.toString ("%12.8f") +
+                     ", expected\n   " + phiChk.toString ("%12.8f"));
+               }
+            }
+            tol = 1e-8*Math.max (1, velChk.infinityNorm());
+            if (!vel.epsilonEquals (velChk, tol)) {
+               throw new TestException (
+                  method + ": vel=" + vel.toString ("%12.8f") +
+                  ", expected\n   " + velChk.toString ("%12.8f"));
+            }
+         }
+      }
+   }
+
+   private Status solveLCP (
+      KKTSolver solver, SparseBlockMatrix M, int sizeM, SparseBlockMatrix GT,
+      SparseBlockMatrix NT, VectorNd Rg, VectorNd Rn, SparseBlockMatrix DT,
+      VectorNd vel, VectorNd lam, VectorNd the, VectorNd phi,
+      VectorNd bm, VectorNd bg, VectorNd bn, VectorNd bd, VectorNd flim) {
+
+      solver.analyze (M, sizeM, GT, Rg, Matrix.SYMMETRIC);
+      if (DT != null) {
+         solver.factor (M, sizeM, GT, Rg, NT, Rn, DT);
+         return solver.solve (vel, lam, the, phi, bm, bg, bn, bd, flim);
+      }
+      else {
+         solver.factor (M, sizeM, GT, Rg, NT, Rn);
+         return solver.solve (vel, lam, the, bm, bg, bn);
+      }
    }
 
    private void solveAndCheck (
@@ -575,7 +743,7 @@ public class KKTSolverTest {
       KKTSolverTest tester = new KKTSolverTest();
       PardisoSolver.printThreadInfo = false;
       try {
-         //tester.test();
+         tester.test();
          //tester.testFromFile ("blockCollide3.txt");
          tester.testFromFile ("MLCPtest.txt");
       }
@@ -129,6 +129,22 @@ public class DataBuffer {
       dbuf[dsize++] = d;
    }
    
+   /**
+    * Adds <code>num</code> doubles from an array to the double buffer,
+    * increasing its size.
+    *
+    * @param vals array containing the doubles to add
+    * @param off location of the first double within <code>vals</code>
+    * @param num number of doubles to add
+    */
+   public void dput (double[] vals, int off, int num) {
+      if (dsize+num > dbuf.length) {
+         dEnsureCapacity (dsize+num);
+      }
+      System.arraycopy (vals, off, dbuf, dsize, num);
+      dsize += num;
+   }
+
    /**
     * Overwrites a value in the double buffer at a specified location
     * <code>i</code>. If the location is outside the range <code>0</code> to
@@ -178,6 +194,24 @@ public class DataBuffer {
       return dbuf[doff++];
    }
    
+   /**
+    * Copies <code>num</code> doubles, starting at the current double buffer
+    * offset, into an array, and increases the offset. If this would cause
+    * the offset to exceed <code>dsize()</code>, an exception is thrown.
+    *
+    * @param vals array into which the doubles are copied
+    * @param off location within <code>vals</code> of the first double
+    * @param num number of doubles to copy
+    */
+   public void dget (double[] vals, int off, int num) {
+      if (doff+num > dsize) {
+         throw new ArrayIndexOutOfBoundsException (
+            "index=" + (doff+num-1) + ", size=" + dsize);
+      }
+      System.arraycopy (dbuf, doff, vals, off, num);
+      doff += num;
+   }
+   
    /**
     * Returns the double value at the current double buffer offset, but does
     * <i>not</i> increase the offset.  If the current offset is equal to
@@ -0,0 +1,240 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.util;
+
+import java.math.BigInteger;
+
+/**
+ * Converts decimal numbers to the nearest double precision value, without
+ * creating intermediate strings. A number is described by a decimal
+ * significand <code>w</code> of at most 19 digits and a power of ten
+ * exponent <code>q</code>, so that its value is <code>w * 10^q</code>.
+ *
+ * <p>The conversion first tries Clinger's fast path, which is exact when
+ * <code>w</code> and <code>10^|q|</code> are both exactly representable as
+ * doubles, and then the Eisel-Lemire algorithm, which uses a table of
+ * 128-bit approximations of powers of five. Both give correctly rounded
+ * results. The rare cases that neither can handle, such as subnormal
+ * results or exponents outside the table, are reported to the caller, which
+ * should then fall back to {@link Double#parseDouble}.
+ */
+public class FastDoubleParser {
+
+   private static final int MIN_EXP10 = -342;
+   private static final int MAX_EXP10 = 308;
+
+   private static final double[] myExactPowers = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+      1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+   // high and low 64-bit words of the normalized 128-bit approximations of
+   // 5^q, for MIN_EXP10 <= q <= MAX_EXP10. Negative powers are rounded up,
+   // and positive powers are truncated.
+   private static final long[] myPow5Hi = new long[MAX_EXP10-MIN_EXP10+1];
+   private static final long[] myPow5Lo = new long[MAX_EXP10-MIN_EXP10+1];
+
+   static {
+      BigInteger mask64 = BigInteger.ONE.shiftLeft(64).subtract (BigInteger.ONE);
+      BigInteger two127 = BigInteger.ONE.shiftLeft (127);
+      BigInteger two128 = BigInteger.ONE.shiftLeft (128);
+      BigInteger five = BigInteger.valueOf (5);
+      for (int q=MIN_EXP10; q<=MAX_EXP10; q++) {
+         BigInteger c;
+         if (q < 0) {
+            BigInteger pow5 = five.pow (-q);
+            int z = pow5.bitLength();
+            int b = (q >= -27 ? z + 127 : 2*z + 128);
+            c = BigInteger.ONE.shiftLeft(b).divide(pow5).add (BigInteger.ONE);
+            if (c.compareTo (two128) >= 0) {
+               c = c.shiftRight (c.bitLength()-128);
+            }
+         }
+         else {
+            c = five.pow (q);
+            if (c.compareTo (two127) < 0) {
+               c = c.shiftLeft (128-c.bitLength());
+            }
+            else if (c.compareTo (two128) >= 0) {
+               c = c.shiftRight (c.bitLength()-128);
+            }
+         }
+         myPow5Hi[q-MIN_EXP10] = c.shiftRight(64).longValue();
+         myPow5Lo[q-MIN_EXP10] = c.and(mask64).longValue();
+      }
+   }
+
+   /**
+    * Returns the high 64 bits of the unsigned 128-bit product of two
+    * unsigned 64-bit values.
+    */
+   private static long multiplyHighUnsigned (long x, long y) {
+      long x0 = x & 0xFFFFFFFFL;
+      long x1 = x >>> 32;
+      long y0 = y & 0xFFFFFFFFL;
+      long y1 = y >>> 32;
+      long p00 = x0*y0;
+      long p01 = x0*y1;
+      long p10 = x1*y0;
+      long p11 = x1*y1;
+      long mid = (p00 >>> 32) + (p01 & 0xFFFFFFFFL) + (p10 & 0xFFFFFFFFL);
+      return p11 + (p01 >>> 32) + (p10 >>> 32) + (mid >>> 32);
+   }
+
+   /**
+    * Computes the double nearest to <code>w * 10^q</code>, where
+    * <code>w</code> is interpreted as an unsigned 64 bit integer holding the
+    * exact decimal significand (at most 19 digits).
+    *
+    * @param w decimal significand, unsigned
+    * @param q power of ten exponent
+    * @param negative if <code>true</code>, the result is negated
+    * @return nearest double, or <code>NaN</code> if the value cannot be
+    * computed here and the caller should fall back to {@link
+    * Double#parseDouble}
+    */
+   public static double toDouble (long w, int q, boolean negative) {
+      double value;
+      if (w == 0) {
+         value = 0;
+      }
+      else if (w > 0 && w <= (1L << 53) && q >= -22 && q <= 22) {
+         // Clinger's fast path: w and 10^|q| are exact, so a single
+         // correctly rounded operation gives the correct result
+         if (q < 0) {
+            value = w / myExactPowers[-q];
+         }
+         else {
+            value = w * myExactPowers[q];
+         }
+      }
+      else {
+         value = eiselLemire (w, q);
+      }
+      return negative ? -value : value;
+   }
+
+   private static double eiselLemire (long w, int q) {
+      if (q < MIN_EXP10 || q > MAX_EXP10) {
+         return Double.NaN;
+      }
+      int lz = Long.numberOfLeadingZeros (w);
+      w <<= lz;
+      int idx = q - MIN_EXP10;
+
+      // compute the product of w and the power of five, using the low word
+      // of the power only when the high product may be inexact in the bits
+      // that matter for rounding
+      long hi = multiplyHighUnsigned (w, myPow5Hi[idx]);
+      long lo = w*myPow5Hi[idx];
+      if ((hi & 0x1FF) == 0x1FF) {
+         long hi2 = multiplyHighUnsigned (w, myPow5Lo[idx]);
+         lo += hi2;
+         if (Long.compareUnsigned (hi2, lo) > 0) {
+            hi++;
+         }
+      }
+      int upperbit = (int)(hi >>> 63);
+      long mantissa = hi >>> (upperbit + 9);
+      int power2 = (((152170 + 65536)*q) >> 16) + 63 + upperbit - lz + 1023;
+      if (power2 <= 0) {
+         // subnormal
+         return Double.NaN;
+      }
+      // round to even if the value lies exactly between two doubles, which
+      // can happen only for a small range of exponents
+      if (Long.compareUnsigned (lo, 1) <= 0 && q >= -4 && q <= 23 &&
+          (mantissa & 3) == 1 && (mantissa << (upperbit + 9)) == hi) {
+         mantissa &= ~1L;
+      }
+      mantissa += (mantissa & 1);
+      mantissa >>>= 1;
+      if (mantissa >= (2L << 52)) {
+         mantissa = (1L << 52);
+         power2++;
+      }
+      mantissa &= ~(1L << 52);
+      if (power2 >= 0x7FF) {
+         // infinite
+         return Double.NaN;
+      }
+      return Double.longBitsToDouble (((long)power2 << 52) | mantissa);
+   }
+
+   /**
+    * Parses a decimal floating point number from a character buffer. The
+    * number may have a sign, a decimal point and an exponent. Numbers which
+    * cannot be converted directly, including special values such as
+    * <code>Infinity</code>, are passed to {@link Double#parseDouble}.
+    *
+    * @param buf buffer containing the characters
+    * @param off offset of the first character
+    * @param len number of characters
+    * @return parsed value
+    * @throws NumberFormatException if the characters do not describe
+    * a number
+    */
+   public static double parseDouble (char[] buf, int off, int len) {
+      int end = off + len;
+      int i = off;
+      boolean negative = false;
+      if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+         negative = (buf[i] == '-');
+         i++;
+      }
+      long w = 0;
+      int numDigits = 0;
+      int sigDigits = 0;
+      int fracDigits = 0;
+      while (i < end && buf[i] >= '0' && buf[i] <= '9') {
+         int d = buf[i++] - '0';
+         if (w != 0 || d != 0) {
+            sigDigits++;
+         }
+         w = 10*w + d;
+         numDigits++;
+      }
+      if (i < end && buf[i] == '.') {
+         i++;
+         while (i < end && buf[i] >= '0' && buf[i] <= '9') {
+            int d = buf[i++] - '0';
+            if (w != 0 || d != 0) {
+               sigDigits++;
+            }
+            w = 10*w + d;
+            numDigits++;
+            fracDigits++;
+         }
+      }
+      int exp = 0;
+      boolean valid = (numDigits > 0);
+      if (valid && i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+         i++;
+         boolean negexp = false;
+         if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+            negexp = (buf[i] == '-');
+            i++;
+         }
+         valid = (i < end);
+         while (i < end && buf[i] >= '0' && buf[i] <= '9') {
+            if (exp < 100000) {
+               exp = 10*exp + (buf[i] - '0');
+            }
+            i++;
+         }
+         if (negexp) {
+            exp = -exp;
+         }
+      }
+      if (valid && i == end && sigDigits <= 19) {
+         double value = toDouble (w, exp - fracDigits, negative);
+         if (value == value) { // not NaN
+            return value;
+         }
+      }
+      return Double.parseDouble (new String (buf, off, len));
+   }
+}
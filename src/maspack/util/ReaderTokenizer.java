@@ -1630,6 +1630,7 @@ public class ReaderTokenizer {
          long l = 0;
          int leadDigitCnt = 0;
          int fracDigitCnt = 0;
+         int sigDigitCnt = 0; // significant digits, excluding leading zeros
          boolean dotseen = false;
 
          clearCharacterStorage();
@@ -1664,6 +1665,9 @@ public class ReaderTokenizer {
             leadDigitCnt = 1;
          }
          while (c >= '0' && c <= '9') {
+            if (l != 0 || c != '0') {
+               sigDigitCnt++;
+            }
             l = l * 10 + (c - '0');
             c = storeCharacterAndGetc (c);
             leadDigitCnt++;
@@ -1673,6 +1677,9 @@ public class ReaderTokenizer {
             c = storeCharacterAndGetc (c);
          }
          while (c >= '0' && c <= '9') {
+            if (l != 0 || c != '0') {
+               sigDigitCnt++;
+            }
             l = l * 10 + (c - '0');
             c = storeCharacterAndGetc (c);
             fracDigitCnt++;
@@ -1705,7 +1712,9 @@ public class ReaderTokenizer {
                if (c >= '0' && c <= '9') {
                   hasExponent = true;
                   while (c >= '0' && c <= '9') {
-                     exp = exp * 10 + c - '0';
+                     if (exp < 100000) { // avoid overflow
+                        exp = exp * 10 + c - '0';
+                     }
                      c = storeCharacterAndGetc (c);
                   }
                }
@@ -1737,9 +1746,17 @@ public class ReaderTokenizer {
                }
                return true;
             }
-            nval = Double.parseDouble (getStoredCharacters());
-            if (negate) {
-               nval = -nval;
+            nval = Double.NaN;
+            if (sigDigitCnt <= 19) {
+               // significand is exact in l (as an unsigned value), so
+               // convert directly without creating a string
+               nval = FastDoubleParser.toDouble (l, totalExp, negate);
+            }
+            if (nval != nval) { // NaN: fall back to the library parser
+               nval = Double.parseDouble (getStoredCharacters());
+               if (negate) {
+                  nval = -nval;
+               }
             }
             if (myNumNumericExtensions > 0) {
                parseNumericExtension();
@@ -2270,10 +2287,32 @@ public class ReaderTokenizer {
     * @return number of numeric tokens actually read
     */
    public int scanNumbers (double[] vals, int max) throws IOException {
-      for (int i = 0; i < max; i++) {
-         nextToken();
-         if (ttype == TT_NUMBER) {
-            vals[i] = nval;
+      return scanNumbers (vals, 0, max);
+   }
+
+   /**
+    * Reads a series of numeric tokens into an array, starting at a
+    * specified offset. Reading halts when either a non-numeric token is
+    * encountered, or <code>max</code> numbers have been read. Note that this
+    * token will also be numeric if the input contains more than <i>max</i>
+    * consecutive numeric tokens.
+    *
+    * <p>This method is optimized for reading long runs of numbers, such as
+    * those found in mesh and data files.
+    * 
+    * @param vals
+    * used to return numeric values
+    * @param off
+    * offset within <code>vals</code> at which to store the first value
+    * @param max
+    * maximum number of numeric tokens to read
+    * @return number of numeric tokens actually read
+    */
+   public int scanNumbers (double[] vals, int off, int max) 
+      throws IOException {
+      for (int i = scanBulk (vals, null, off, max); i < max; i++) {
+         if (nextNumericToken() == TT_NUMBER) {
+            vals[off+i] = nval;
          }
          else {
             return i;
@@ -2281,6 +2320,240 @@ public class ReaderTokenizer {
       }
       return max;
    }
+
+   // maximum number of characters examined in each chunk by scanBulk()
+   private static final int BULK_CHUNK_SIZE = 4096;
+   private char[] myBulkBuf;
+
+   /**
+    * Returns <code>true</code> if a character is skipped as whitespace by
+    * {@link #nextToken}.
+    */
+   private boolean isPlainWhitespace (int c) {
+      if (c >= ctype.length ||
+          (ctype[c] & (C_WHITESPACE|C_COMMENT)) != C_WHITESPACE) {
+         return false;
+      }
+      return !((c == '\n' && myEolIsSignificantP) ||
+               (c == '/' && (mySlashSlashCommentsP || mySlashStarCommentsP)));
+   }
+
+   /**
+    * Fast path for {@link #scanNumbers(double[],int,int)} and {@link
+    * #scanIntegers(int[],int,int)}. If the reader supports marking, reads
+    * chunks of characters into a buffer and parses runs of plain decimal
+    * numbers separated by whitespace directly from the buffer. Afterwards,
+    * the reader is reset and advanced to just after the last number that
+    * was read, so that it is in the same state as if the numbers had been
+    * read by {@link #nextToken}. Parsing stops at anything else, such as
+    * comments, hex or infinite values, or, when reading integers, a
+    * non-integer number. The caller then continues with regular token
+    * reading.
+    *
+    * @return number of values read
+    */
+   private int scanBulk (double[] dvals, int[] ivals, int off, int max)
+      throws IOException {
+
+      if (myTokenPushedBack || ungetIdx > 0 || !myParseNumbersP ||
+          myNumNumericExtensions > 0 || myReader == null || 
+          !myReader.markSupported() || max < 8) {
+         return 0;
+      }
+      if (myBulkBuf == null) {
+         myBulkBuf = new char[BULK_CHUNK_SIZE];
+      }
+      char[] buf = myBulkBuf;
+      int n = 0;
+      boolean done = false;
+      while (n < max && !done) {
+         myReader.mark (BULK_CHUNK_SIZE);
+         int len = myReader.read (buf, 0, BULK_CHUNK_SIZE);
+         if (len <= 0) {
+            myReader.reset();
+            break;
+         }
+         int consumed = 0; // characters consumed within the chunk
+         int lines = 0;    // newlines consumed within the chunk
+         int p = 0;
+         while (n < max) {
+            // skip whitespace
+            int nl = 0;
+            while (p < len && isPlainWhitespace (buf[p])) {
+               if (buf[p++] == '\n') {
+                  nl++;
+               }
+            }
+            consumed = p;
+            lines += nl;
+            if (p == len) {
+               break; // continue with the next chunk
+            }
+            // parse a number starting at p
+            int i = p;
+            boolean negate = false;
+            if (buf[i] == '-' || buf[i] == '+') {
+               if ((ctype[buf[i]] & C_NUMBER_START) == 0) {
+                  done = true;
+                  break;
+               }
+               negate = (buf[i++] == '-');
+            }
+            long l = 0;
+            int digitCnt = 0;
+            int sigDigitCnt = 0;
+            int fracDigitCnt = 0;
+            boolean dotseen = false;
+            int c = (i < len ? buf[i] : -1);
+            if (c == '0' && i+1 < len && (buf[i+1] == 'x' || buf[i+1] == 'X')) {
+               done = true; // leave hex numbers for nextToken()
+               break;
+            }
+            while (c >= '0' && c <= '9') {
+               if (l != 0 || c != '0') {
+                  sigDigitCnt++;
+               }
+               l = l * 10 + (c - '0');
+               digitCnt++;
+               c = (++i < len ? buf[i] : -1);
+            }
+            if (c == '.' && (ctype['.'] & C_NUMBER_START) != 0) {
+               dotseen = true;
+               c = (++i < len ? buf[i] : -1);
+               while (c >= '0' && c <= '9') {
+                  if (l != 0 || c != '0') {
+                     sigDigitCnt++;
+                  }
+                  l = l * 10 + (c - '0');
+                  digitCnt++;
+                  fracDigitCnt++;
+                  c = (++i < len ? buf[i] : -1);
+               }
+            }
+            int exp = 0;
+            boolean hasExponent = false;
+            if (digitCnt > 0 && (c == 'e' || c == 'E')) {
+               int j = i+1;
+               boolean negexp = false;
+               if (j < len && (buf[j] == '-' || buf[j] == '+')) {
+                  negexp = (buf[j++] == '-');
+               }
+               if (j < len && buf[j] >= '0' && buf[j] <= '9') {
+                  hasExponent = true;
+                  while (j < len && buf[j] >= '0' && buf[j] <= '9') {
+                     if (exp < 100000) { // avoid overflow
+                        exp = exp * 10 + buf[j] - '0';
+                     }
+                     j++;
+                  }
+                  if (negexp) {
+                     exp = -exp;
+                  }
+                  i = j;
+               }
+               else if (j == len) {
+                  i = len; // exponent may continue in the next chunk
+               }
+            }
+            if (i >= len) {
+               break; // number may continue in the next chunk
+            }
+            if (digitCnt == 0) {
+               done = true; // not a plain number
+               break;
+            }
+            boolean isInteger = (!dotseen && !hasExponent);
+            if (ivals != null && !isInteger) {
+               done = true;
+               break;
+            }
+            // number is accepted
+            myTokenIsInteger = isInteger;
+            myTokenIsHex = false;
+            if (isInteger) {
+               lval = negate ? -l : l;
+               nval = (double)lval;
+            }
+            else {
+               nval = Double.NaN;
+               if (sigDigitCnt <= 19) {
+                  nval = FastDoubleParser.toDouble (
+                     l, exp-fracDigitCnt, negate);
+               }
+               if (nval != nval) { // NaN: fall back to the library parser
+                  int start = (buf[p] == '-' || buf[p] == '+') ? p+1 : p;
+                  nval = Double.parseDouble (new String (buf, start, i-start));
+                  if (negate) {
+                     nval = -nval;
+                  }
+               }
+            }
+            if (ivals != null) {
+               ivals[off+n] = (int)nval;
+            }
+            else {
+               dvals[off+n] = nval;
+            }
+            n++;
+            p = i;
+            consumed = p;
+         }
+         myReader.reset();
+         long remaining = consumed;
+         while (remaining > 0) {
+            long skipped = myReader.skip (remaining);
+            if (skipped <= 0) {
+               throw new IOException ("unable to skip characters in reader");
+            }
+            remaining -= skipped;
+         }
+         myLineNum += lines;
+         if (consumed == 0) {
+            // unable to make progress within a full chunk
+            break;
+         }
+      }
+      if (n > 0) {
+         ttype = TT_NUMBER;
+         sval = null;
+      }
+      return n;
+   }
+
+   /**
+    * Reads the next token. This gives the same result as {@link #nextToken},
+    * but is faster when the token is a number preceded only by whitespace,
+    * as is the case for long runs of numbers.
+    */
+   private int nextNumericToken() throws IOException {
+      if (myTokenPushedBack || !myParseNumbersP) {
+         return nextToken();
+      }
+      myTokenIsInteger = false;
+      myTokenIsHex = false;
+      int c = getc();
+      int type = 0;
+      while (c >= 0 && c < ctype.length) {
+         type = ctype[c];
+         if ((type & (C_WHITESPACE|C_COMMENT)) != C_WHITESPACE ||
+             (c == '\n' && myEolIsSignificantP) ||
+             (c == '/' && (mySlashSlashCommentsP || mySlashStarCommentsP))) {
+            break;
+         }
+         c = getc();
+      }
+      if (c >= 0 && c < ctype.length &&
+          (type & (C_NUMBER_START|C_COMMENT|C_WHITESPACE)) == C_NUMBER_START &&
+          !(c == '/' && (mySlashSlashCommentsP || mySlashStarCommentsP))) {
+         if (parseNumber (c)) {
+            return ttype = TT_NUMBER;
+         }
+         // parseNumber() has pushed back all characters except the first
+      }
+      // let nextToken() handle everything else
+      ungetc (c);
+      return nextToken();
+   }
    
    /**
     * Reads a series of numeric tokens and returns their values. Reading halts
@@ -2295,10 +2568,32 @@ public class ReaderTokenizer {
     * @return number of integer tokens actually read
     */
    public int scanIntegers (int[] vals, int max) throws IOException {
-      for (int i = 0; i < max; i++) {
-         nextToken();
+      return scanIntegers (vals, 0, max);
+   }
+
+   /**
+    * Reads a series of integer tokens into an array, starting at a
+    * specified offset. Reading halts when either a non-integer token is
+    * encountered, or <code>max</code> numbers have been read. Note that this
+    * token will also be numeric if the input contains more than <i>max</i>
+    * consecutive integer tokens.
+    *
+    * <p>This method is optimized for reading long runs of integers, such as
+    * those found in mesh and data files.
+    * 
+    * @param vals
+    * used to return integer values
+    * @param off
+    * offset within <code>vals</code> at which to store the first value
+    * @param max
+    * maximum number of integer tokens to read
+    * @return number of integer tokens actually read
+    */
+   public int scanIntegers (int[] vals, int off, int max) throws IOException {
+      for (int i = scanBulk (null, vals, off, max); i < max; i++) {
+         nextNumericToken();
          if (myTokenIsInteger) {
-            vals[i] = (int)nval;
+            vals[off+i] = (int)nval;
          } else {
             return i;
          }
@@ -7,6 +7,7 @@
 package maspack.util;
 
 import java.io.*;
+import java.util.Random;
 
 public class ReaderTokenizerTest {
    private static final int WORD = StreamTokenizer.TT_WORD;
@@ -242,6 +243,151 @@ public class ReaderTokenizerTest {
 
    }
 
+   /**
+    * Checks that numbers read by the tokenizer are identical to those
+    * produced by Double.parseDouble().
+    */
+   public void testNumberParsing() throws IOException {
+      Random rand = new Random (0x1234);
+      int cnt = 20000;
+      String[] strs = new String[6*cnt];
+      int k = 0;
+      for (int i = 0; i < cnt; i++) {
+         double x;
+         do {
+            x = Double.longBitsToDouble (rand.nextLong());
+         }
+         while (Double.isNaN (x) || Double.isInfinite (x));
+         strs[k++] = Double.toString (x);
+         strs[k++] = String.format ("%.17e", x);
+         strs[k++] = String.format ("%.6f", 1000*rand.nextGaussian());
+         strs[k++] = String.format ("%.9g", rand.nextDouble()).trim();
+         strs[k++] = ""+(rand.nextLong() >>> rand.nextInt (64))+"e"+
+            (rand.nextInt (660)-330);
+         strs[k++] = "-0."+Long.toString (rand.nextLong() & Long.MAX_VALUE)+
+            Long.toString (rand.nextLong() & Long.MAX_VALUE);
+      }
+      String[] special = new String[] {
+         "0.0", "-0.0", "1e-400", "1e400", "4.9e-324",
+         "2.2250738585072011E-308", "1.7976931348623157e308",
+         "1.7976931348623158e308", "9007199254740993.0", "1e23", "8.41e21",
+         "18446744073709551615.0", "18446744073709551616.0", "1.5e99999999999",
+      };
+      StringBuilder sbuf = new StringBuilder();
+      for (String str : strs) {
+         sbuf.append (str);
+         sbuf.append (' ');
+      }
+      for (String str : special) {
+         sbuf.append (str);
+         sbuf.append ('\n');
+      }
+      ReaderTokenizer rtok =
+         new ReaderTokenizer (new StringReader (sbuf.toString()));
+      for (int i = 0; i < strs.length+special.length; i++) {
+         String str = (i < strs.length ? strs[i] : special[i-strs.length]);
+         double check = Double.parseDouble (str);
+         double x = rtok.scanNumber();
+         if (Double.doubleToLongBits (x) != Double.doubleToLongBits (check)) {
+            throw new TestException (
+               "number "+str+" parsed as "+x+", expected "+check);
+         }
+      }
+   }
+
+   /**
+    * Checks that bulk number reads give the same results as reading tokens
+    * one at a time, including the terminating token.
+    */
+   private void checkBulkScanning (
+      String str, boolean integers, boolean eolIsSignificant)
+      throws IOException {
+
+      int[] maxes = new int[] { 3, 5, 100, 2, 4, 1, 3, 1000 };
+      ReaderTokenizer rtok0 = new ReaderTokenizer (new StringReader (str));
+      ReaderTokenizer rtok1 = new ReaderTokenizer (new StringReader (str));
+      for (ReaderTokenizer rtok : new ReaderTokenizer[] { rtok0, rtok1 }) {
+         rtok.slashSlashComments (true);
+         rtok.slashStarComments (true);
+         rtok.eolIsSignificant (eolIsSignificant);
+      }
+      double[] vals0 = new double[1010];
+      double[] vals1 = new double[1010];
+      int[] ivals = new int[1010];
+      int k = 0;
+      do {
+         int max = maxes[k++%maxes.length];
+         // read the tokens one at a time
+         int n0 = 0;
+         while (n0 < max) {
+            rtok0.nextToken();
+            if (integers ?
+                !rtok0.tokenIsInteger() : !rtok0.tokenIsNumber()) {
+               break;
+            }
+            vals0[3+n0++] = rtok0.nval;
+         }
+         int n1;
+         if (integers) {
+            n1 = rtok1.scanIntegers (ivals, 3, max);
+            for (int i=0; i<n1; i++) {
+               vals1[3+i] = ivals[3+i];
+            }
+         }
+         else {
+            n1 = rtok1.scanNumbers (vals1, 3, max);
+         }
+         if (n0 != n1) {
+            throw new TestException (
+               "bulk scan read "+n1+" numbers, expected "+n0);
+         }
+         for (int i=0; i<n0; i++) {
+            if (vals0[3+i] != vals1[3+i]) {
+               throw new TestException (
+                  "bulk scan read "+vals1[3+i]+", expected "+vals0[3+i]);
+            }
+         }
+         if (!rtok0.toString().equals (rtok1.toString())) {
+            throw new TestException (
+               "bulk scan ended with "+rtok1+", expected "+rtok0);
+         }
+      }
+      while (rtok0.ttype != ReaderTokenizer.TT_EOF);
+   }
+
+   public void testBulkScanning() throws IOException {
+      String str =
+         "1 2 3.5 -4e2 // comment\n 5 /* c */ 6 .7 0x10 # more\n" +
+         "8 9 10 foo 11 12 13 14 15 16\n\n" +
+         "17 18 -.5 19 - 20 21 inf 22 1e 23 [ 24 25\n26 27 +28 -29";
+      for (int pass=0; pass<4; pass++) {
+         checkBulkScanning (str, /*integers=*/pass%2 == 1, pass/2 == 1);
+      }
+      // longer input, so that numbers and other tokens fall across the
+      // boundaries of the chunks read by the fast path
+      Random randGen = new Random (0x1234);
+      String[] others = new String[] {
+         "// comment\n", "/* c */", "foo", "0x1f", "-", "inf", "1e", "," };
+      StringBuilder sbuf = new StringBuilder();
+      for (int i=0; i<20000; i++) {
+         int r = randGen.nextInt (1000);
+         if (r < 2) {
+            sbuf.append (others[randGen.nextInt (others.length)]);
+         }
+         else if (r < 500) {
+            sbuf.append (randGen.nextInt (2000000) - 1000000);
+         }
+         else {
+            sbuf.append (randGen.nextGaussian()*Math.pow (10, r%20-10));
+         }
+         sbuf.append (randGen.nextInt (10) == 0 ? "\n" : " ");
+      }
+      for (int pass=0; pass<4; pass++) {
+         checkBulkScanning (
+            sbuf.toString(), /*integers=*/pass%2 == 1, pass/2 == 1);
+      }
+   }
+
    public void timing() {
       int cnt = 100000;
       StringBuffer sbuf = new StringBuffer (cnt * 80);
@@ -307,6 +453,8 @@ public class ReaderTokenizerTest {
             tester.timing();
          }
          else {
+            tester.testNumberParsing();
+            tester.testBulkScanning();
             tester.test();
          }
       }